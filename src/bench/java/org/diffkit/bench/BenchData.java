@@ -0,0 +1,162 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.diffkit.diff.diffor.DKEqualsDiffor;
+import org.diffkit.diff.engine.DKColumnComparison;
+import org.diffkit.diff.engine.DKColumnModel;
+import org.diffkit.diff.engine.DKDiff;
+import org.diffkit.diff.engine.DKStandardTableComparison;
+import org.diffkit.diff.engine.DKTableModel;
+
+/**
+ * Builds the tables the benchmarks diff. Rows are generated from a fixed seed,
+ * so every run of a benchmark, at a given set of params, sees the same data.
+ * Keys are even numbers; the rhs rows that are not in the lhs take the odd
+ * numbers in between, so both sides stay sorted.
+ * 
+ * @author jpanico
+ */
+public class BenchData {
+   public static final long SEED = 17;
+
+   private static final DKColumnModel.Type[] KEY_TYPES = {
+      DKColumnModel.Type.INTEGER, DKColumnModel.Type.STRING };
+   private static final DKColumnModel.Type[] VALUE_TYPES = {
+      DKColumnModel.Type.STRING, DKColumnModel.Type.INTEGER, DKColumnModel.Type.REAL };
+
+   private BenchData() {
+   }
+
+   /**
+    * the first keyLength_ columns are the key, alternating INTEGER and STRING;
+    * the rest cycle through STRING, INTEGER and REAL
+    */
+   public static DKTableModel createModel(int columnCount_, int keyLength_) {
+      DKColumnModel[] columns = new DKColumnModel[columnCount_];
+      int[] key = new int[keyLength_];
+      for (int i = 0; i < columnCount_; i++) {
+         DKColumnModel.Type type = (i < keyLength_) ? KEY_TYPES[i % KEY_TYPES.length]
+            : VALUE_TYPES[(i - keyLength_) % VALUE_TYPES.length];
+         columns[i] = new DKColumnModel(i, "column" + i, type);
+      }
+      for (int i = 0; i < keyLength_; i++)
+         key[i] = i;
+      return new DKTableModel("bench_table", columns, key);
+   }
+
+   /**
+    * rows sorted by their key; composite keys repeat their leading parts, so
+    * that comparisons have to look past the first part
+    */
+   public static List<Object[]> createRows(DKTableModel model_, int rowCount_) {
+      Random random = new Random(SEED);
+      List<Object[]> rows = new ArrayList<Object[]>(rowCount_);
+      for (int i = 0; i < rowCount_; i++)
+         rows.add(createRow(model_, 2L * i, random));
+      return rows;
+   }
+
+   /**
+    * copies lhsRows_, and then, in diffDensity_ of the rows, either drops the
+    * row, adds a row after it, or changes one of its value columns, in equal
+    * proportions
+    */
+   public static List<Object[]> createRhsRows(DKTableModel model_,
+                                              List<Object[]> lhsRows_,
+                                              double diffDensity_) {
+      Random random = new Random(SEED + 1);
+      int keyLength = model_.getKey().length;
+      int columnCount = model_.getColumns().length;
+      List<Object[]> rows = new ArrayList<Object[]>(lhsRows_.size());
+      for (int i = 0; i < lhsRows_.size(); i++) {
+         Object[] row = lhsRows_.get(i);
+         if (random.nextDouble() >= diffDensity_) {
+            rows.add(row);
+            continue;
+         }
+         switch (random.nextInt(3)) {
+         case 0:
+            break;
+         case 1:
+            rows.add(row);
+            rows.add(createRow(model_, (2L * i) + 1, random));
+            break;
+         default:
+            if (columnCount == keyLength) {
+               rows.add(row);
+               break;
+            }
+            Object[] changed = Arrays.copyOf(row, row.length);
+            int column = keyLength + random.nextInt(columnCount - keyLength);
+            changed[column] = createValue(model_.getColumns()[column]._type, random);
+            rows.add(changed);
+         }
+      }
+      return rows;
+   }
+
+   /**
+    * every column compared with DKEqualsDiffor; the key columns are displayed
+    */
+   public static DKStandardTableComparison createComparison(DKTableModel model_) {
+      DKColumnModel[] columns = model_.getColumns();
+      DKColumnComparison[] map = new DKColumnComparison[columns.length];
+      for (int i = 0; i < columns.length; i++)
+         map[i] = new DKColumnComparison(columns[i], columns[i],
+            DKEqualsDiffor.getInstance());
+      int[] key = model_.getKey();
+      int[] diffIndexes = new int[columns.length - key.length];
+      for (int i = 0; i < diffIndexes.length; i++)
+         diffIndexes[i] = key.length + i;
+      return new DKStandardTableComparison(model_, model_, DKDiff.Kind.BOTH, map,
+         diffIndexes, new int[][] { key, key }, Long.MAX_VALUE);
+   }
+
+   private static Object[] createRow(DKTableModel model_, long keyValue_,
+                                     Random random_) {
+      DKColumnModel[] columns = model_.getColumns();
+      int keyLength = model_.getKey().length;
+      Object[] row = new Object[columns.length];
+      for (int i = 0; i < columns.length; i++) {
+         if (i >= keyLength)
+            row[i] = createValue(columns[i]._type, random_);
+         else {
+            // each further key part varies 4 times faster than the one before
+            long part = keyValue_ >> (2 * (keyLength - 1 - i));
+            row[i] = (columns[i]._type == DKColumnModel.Type.INTEGER) ? (Object) part
+               : String.format("key%012d", part);
+         }
+      }
+      return row;
+   }
+
+   private static Object createValue(DKColumnModel.Type type_, Random random_) {
+      switch (type_) {
+      case INTEGER:
+         return Long.valueOf(random_.nextInt(1000000));
+      case REAL:
+         return Double.valueOf(random_.nextInt(1000000) / 100d);
+      default:
+         return "value" + random_.nextInt(1000000);
+      }
+   }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.diffkit.common.DKCountingBag;
+
+/**
+ * DKCountingBag.totalCount(), which the engine polls, through the sink
+ * diffCount, once per row; its cost should not grow with uniqueCount, the
+ * number of entries in the bag.
+ * 
+ * @author jpanico
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CountingBagBenchmark {
+
+   @Param({ "5", "500" })
+   public int uniqueCount;
+
+   private DKCountingBag _bag;
+
+   @Setup
+   public void setUp() {
+      _bag = new DKCountingBag();
+      for (int i = 0; i < uniqueCount; i++)
+         _bag.add("column" + i, (i % 7) + 1);
+   }
+
+   @Benchmark
+   public int totalCount() {
+      return _bag.totalCount();
+   }
+}
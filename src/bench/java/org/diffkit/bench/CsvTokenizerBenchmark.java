@@ -0,0 +1,99 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.bench;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.diffkit.util.DKCsvTokenizer;
+
+/**
+ * Splits lineCount comma delimited lines of 30 fields, every 7th of them
+ * quoted, with DKCsvTokenizer, or with the lookahead regex split it replaced.
+ * 
+ * @author jpanico
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CsvTokenizerBenchmark {
+   private static final int FIELD_COUNT = 30;
+   private static final Pattern REGEX = Pattern
+      .compile(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)");
+
+   @Param({ "20000" })
+   public int lineCount;
+   @Param({ "tokenizer", "regex" })
+   public String splitter;
+
+   private String[] _lines;
+   private String _text;
+
+   @Setup
+   public void setUp() {
+      _lines = new String[lineCount];
+      StringBuilder text = new StringBuilder();
+      for (int i = 0; i < lineCount; i++) {
+         StringBuilder line = new StringBuilder();
+         for (int j = 0; j < FIELD_COUNT; j++) {
+            if (j > 0)
+               line.append(',');
+            if ((j % 7) == 0)
+               line.append("\"field ").append(i).append(',').append(j).append('"');
+            else
+               line.append("field").append(i).append('.').append(j);
+         }
+         _lines[i] = line.toString();
+         text.append(line).append('\n');
+      }
+      _text = text.toString();
+      if (!(splitter.equals("tokenizer") || splitter.equals("regex")))
+         throw new IllegalArgumentException(String.format("unrecognized splitter->%s",
+            splitter));
+   }
+
+   @Benchmark
+   public long split() throws IOException {
+      long fieldCount = 0;
+      if (splitter.equals("regex")) {
+         for (String line : _lines)
+            fieldCount += REGEX.split(line, -1).length;
+         return fieldCount;
+      }
+      DKCsvTokenizer tokenizer = new DKCsvTokenizer(new StringReader(_text), ',');
+      for (String[] record = tokenizer.nextRecord(); record != null; record = tokenizer
+         .nextRecord())
+         fieldCount += record.length;
+      return fieldCount;
+   }
+}
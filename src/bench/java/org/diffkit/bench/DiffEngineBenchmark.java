@@ -0,0 +1,83 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.bench;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.diffkit.diff.engine.DKDiffEngine;
+import org.diffkit.diff.engine.DKStandardTableComparison;
+import org.diffkit.diff.engine.DKTableModel;
+import org.diffkit.diff.sns.DKListSource;
+
+/**
+ * DKDiffEngine end to end: two DKListSources into a NullSink.
+ * 
+ * @author jpanico
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DiffEngineBenchmark {
+
+   @Param({ "10000", "100000" })
+   public int rowCount;
+   @Param({ "5", "20" })
+   public int columnCount;
+   @Param({ "0.0", "0.01", "0.1" })
+   public double diffDensity;
+   @Param({ "false", "true" })
+   public boolean normalizedKeys;
+
+   private DKTableModel _model;
+   private DKStandardTableComparison _comparison;
+   private List<Object[]> _lhsRows;
+   private List<Object[]> _rhsRows;
+   private DKDiffEngine _engine;
+
+   @Setup
+   public void setUp() {
+      _model = BenchData.createModel(columnCount, 1);
+      _comparison = BenchData.createComparison(_model);
+      _lhsRows = BenchData.createRows(_model, rowCount);
+      _rhsRows = BenchData.createRhsRows(_model, _lhsRows, diffDensity);
+      _engine = new DKDiffEngine(normalizedKeys);
+   }
+
+   @Benchmark
+   public long diff() throws IOException {
+      NullSink sink = new NullSink();
+      _engine.diff(new DKListSource(_model, _lhsRows), new DKListSource(_model, _rhsRows),
+         sink, _comparison, null);
+      return sink.getDiffCount();
+   }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.bench;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.diffkit.common.DKCalendarSpan;
+import org.diffkit.diff.diffor.DKChainDiffor;
+import org.diffkit.diff.diffor.DKConvertingDiffor;
+import org.diffkit.diff.diffor.DKDateDiffor;
+import org.diffkit.diff.diffor.DKEqualsDiffor;
+import org.diffkit.diff.diffor.DKIdentityDiffor;
+import org.diffkit.diff.diffor.DKNumberDiffor;
+import org.diffkit.diff.diffor.DKTextDiffor;
+import org.diffkit.diff.engine.DKDiffor;
+
+/**
+ * Each DKDiffor implementation over PAIR_COUNT value pairs, diffDensity of
+ * which are diffs. The pairs that are not diffs are, where the diffor allows
+ * it, unequal but within its tolerance, so that the diffor does its full work.
+ * 
+ * @author jpanico
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DifforBenchmark {
+   private static final int PAIR_COUNT = 1024;
+
+   @Param({ "equals", "identity", "number", "date", "text", "converting", "chain" })
+   public String diffor;
+   @Param({ "0.0", "0.1", "0.5" })
+   public double diffDensity;
+
+   private DKDiffor _diffor;
+   private final Object[] _lhs = new Object[PAIR_COUNT];
+   private final Object[] _rhs = new Object[PAIR_COUNT];
+
+   @Setup
+   public void setUp() {
+      Random random = new Random(BenchData.SEED);
+      for (int i = 0; i < PAIR_COUNT; i++)
+         this.createPair(i, random.nextDouble() < diffDensity, random);
+   }
+
+   /**
+    * reports time per pair
+    */
+   @Benchmark
+   @OperationsPerInvocation(PAIR_COUNT)
+   public int isDiff() {
+      int count = 0;
+      for (int i = 0; i < PAIR_COUNT; i++) {
+         if (_diffor.isDiff(_lhs[i], _rhs[i], null))
+            count++;
+      }
+      return count;
+   }
+
+   private void createPair(int index_, boolean isDiff_, Random random_) {
+      String value = "value " + random_.nextInt(1000000) + " of row " + index_;
+      long number = random_.nextInt(1000000);
+      if (diffor.equals("equals")) {
+         _diffor = DKEqualsDiffor.getInstance();
+         _lhs[index_] = value;
+         _rhs[index_] = isDiff_ ? value + "x" : new String(value);
+      }
+      else if (diffor.equals("identity")) {
+         _diffor = DKIdentityDiffor.getInstance();
+         _lhs[index_] = value;
+         _rhs[index_] = isDiff_ ? new String(value) : value;
+      }
+      else if (diffor.equals("number")) {
+         _diffor = new DKNumberDiffor(0.01, true);
+         _lhs[index_] = Double.valueOf(number);
+         _rhs[index_] = Double.valueOf(number + (isDiff_ ? 1 : 0.001));
+      }
+      else if (diffor.equals("date")) {
+         _diffor = new DKDateDiffor(new DKCalendarSpan(1, DKCalendarSpan.Unit.SECOND));
+         _lhs[index_] = new Date(number * 1000);
+         _rhs[index_] = new Date((number * 1000) + (isDiff_ ? 5000 : 500));
+      }
+      else if (diffor.equals("text") || diffor.equals("chain")) {
+         DKDiffor textDiffor = new DKTextDiffor(" \t");
+         _diffor = diffor.equals("text") ? textDiffor : new DKChainDiffor(
+            DKEqualsDiffor.getInstance(), textDiffor);
+         _lhs[index_] = value;
+         _rhs[index_] = isDiff_ ? value + "x" : value.replace(" ", "\t ");
+      }
+      else if (diffor.equals("converting")) {
+         _diffor = new DKConvertingDiffor(Long.class, null, DKEqualsDiffor.getInstance());
+         _lhs[index_] = String.valueOf(number);
+         _rhs[index_] = Long.valueOf(number + (isDiff_ ? 1 : 0));
+      }
+      else
+         throw new IllegalArgumentException(String.format("unrecognized diffor->%s",
+            diffor));
+   }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.diffkit.diff.engine.DKColumnModel;
+import org.diffkit.diff.engine.DKTableModel;
+import org.diffkit.diff.sns.DKFileSource;
+
+/**
+ * DKFileSource parsing a sorted, comma delimited, file into typed rows;
+ * parseThreads greater than 1 selects the memory mapped parser.
+ * 
+ * @author jpanico
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FileSourceBenchmark {
+
+   @Param({ "10000", "100000" })
+   public int rowCount;
+   @Param({ "5", "20" })
+   public int columnCount;
+   @Param({ "1", "4" })
+   public int parseThreads;
+
+   private DKTableModel _model;
+   private File _file;
+
+   @Setup
+   public void setUp() throws IOException {
+      _model = BenchData.createModel(columnCount, 1);
+      _file = File.createTempFile("FileSourceBenchmark", ".csv");
+      writeFile(_file, _model, BenchData.createRows(_model, rowCount));
+   }
+
+   @TearDown
+   public void tearDown() {
+      _file.delete();
+   }
+
+   @Benchmark
+   public long parse() throws IOException {
+      DKFileSource source = new DKFileSource(_file.getAbsolutePath(), _model, null, null,
+         ",", true, true, parseThreads);
+      source.open(null);
+      try {
+         long count = 0;
+         while (source.getNextRow() != null)
+            count++;
+         return count;
+      }
+      finally {
+         source.close(null);
+      }
+   }
+
+   private static void writeFile(File file_, DKTableModel model_, List<Object[]> rows_)
+      throws IOException {
+      BufferedWriter writer = new BufferedWriter(new FileWriter(file_));
+      try {
+         DKColumnModel[] columns = model_.getColumns();
+         for (int i = 0; i < columns.length; i++)
+            writer.write(((i == 0) ? "" : ",") + columns[i].getName());
+         writer.newLine();
+         for (Object[] row : rows_) {
+            for (int i = 0; i < row.length; i++)
+               writer.write(((i == 0) ? "" : ",") + row[i]);
+            writer.newLine();
+         }
+      }
+      finally {
+         writer.close();
+      }
+   }
+}
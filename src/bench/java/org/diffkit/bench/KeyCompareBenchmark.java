@@ -0,0 +1,116 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.bench;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.diffkit.common.DKComparableComparator;
+import org.diffkit.common.DKComparatorChain;
+import org.diffkit.common.DKElementComparator;
+import org.diffkit.diff.engine.DKKeyEncoder;
+import org.diffkit.diff.engine.DKRowComparator;
+import org.diffkit.diff.engine.DKSide;
+import org.diffkit.diff.engine.DKTableModel;
+
+/**
+ * Sorts shuffled rows by their 1, 2 or 4 part key, comparing with:
+ * DKRowComparator; the DKComparatorChain of DKElementComparators it replaced;
+ * or the byte[] keys of DKKeyEncoder, including the encoding of each row.
+ * 
+ * @author jpanico
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class KeyCompareBenchmark {
+   private static final Comparator<byte[]> ENCODED_KEY_COMPARATOR =
+      new Comparator<byte[]>() {
+         public int compare(byte[] lhs_, byte[] rhs_) {
+            return DKKeyEncoder.compare(lhs_, rhs_);
+         }
+      };
+
+   @Param({ "100000" })
+   public int rowCount;
+   @Param({ "1", "2", "4" })
+   public int keyLength;
+   @Param({ "rowComparator", "chain", "keyEncoder" })
+   public String comparator;
+
+   private Object[][] _rows;
+   private Comparator<Object[]> _comparator;
+   private DKKeyEncoder _keyEncoder;
+
+   @Setup
+   public void setUp() {
+      DKTableModel model = BenchData.createModel(keyLength + 1, keyLength);
+      List<Object[]> rows = BenchData.createRows(model, rowCount);
+      Collections.shuffle(rows, new Random(BenchData.SEED));
+      _rows = rows.toArray(new Object[rows.size()][]);
+      if (comparator.equals("rowComparator"))
+         _comparator = DKRowComparator.createComparator(model, model);
+      else if (comparator.equals("chain"))
+         _comparator = createChain(keyLength);
+      else if (comparator.equals("keyEncoder"))
+         _keyEncoder = DKKeyEncoder.create(model, model);
+      else
+         throw new IllegalArgumentException(String.format("unrecognized comparator->%s",
+            comparator));
+   }
+
+   @Benchmark
+   public Object sort() {
+      if (_keyEncoder == null) {
+         Object[][] rows = _rows.clone();
+         Arrays.sort(rows, _comparator);
+         return rows;
+      }
+      byte[][] keys = new byte[_rows.length][];
+      for (int i = 0; i < _rows.length; i++)
+         keys[i] = _keyEncoder.encode(_rows[i], DKSide.LEFT_INDEX);
+      Arrays.sort(keys, ENCODED_KEY_COMPARATOR);
+      return keys;
+   }
+
+   @SuppressWarnings({ "unchecked", "rawtypes" })
+   private static Comparator<Object[]> createChain(int keyLength_) {
+      DKComparatorChain chain = new DKComparatorChain();
+      for (int i = 0; i < keyLength_; i++)
+         chain.addComparator(new DKElementComparator<Comparable>(i, i,
+            DKComparableComparator.getInstance()));
+      return chain;
+   }
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.bench;
+
+import org.diffkit.diff.sns.DKAbstractSink;
+
+/**
+ * Keeps just the counts that DKAbstractSink keeps for every sink, so that a
+ * benchmark measures the engine and not the writing of its diffs.
+ * 
+ * @author jpanico
+ */
+public class NullSink extends DKAbstractSink {
+
+   public NullSink() {
+      super(null);
+   }
+
+   public Kind getKind() {
+      return Kind.MEMORY;
+   }
+}
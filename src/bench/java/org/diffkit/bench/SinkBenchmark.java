@@ -0,0 +1,103 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.bench;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.diffkit.diff.engine.DKContext;
+import org.diffkit.diff.engine.DKDiff;
+import org.diffkit.diff.engine.DKDiffEngine;
+import org.diffkit.diff.engine.DKStandardTableComparison;
+import org.diffkit.diff.engine.DKTableModel;
+import org.diffkit.diff.sns.DKDefaultFormatter;
+import org.diffkit.diff.sns.DKListSink;
+import org.diffkit.diff.sns.DKListSource;
+
+/**
+ * The per diff work of the sinks: DKAbstractSink.record(), which every sink
+ * calls to keep its counts, and DKDefaultFormatter.format(), which the file
+ * and stream sinks call to write each diff. The diffs are those the engine
+ * finds between two generated tables.
+ * 
+ * @author jpanico
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SinkBenchmark {
+
+   @Param({ "100000" })
+   public int rowCount;
+   @Param({ "5", "20" })
+   public int columnCount;
+   @Param({ "0.01", "0.1" })
+   public double diffDensity;
+
+   private DKTableModel _model;
+   private DKStandardTableComparison _comparison;
+   private DKContext _context;
+   private List<DKDiff> _diffs;
+
+   @Setup
+   public void setUp() throws IOException {
+      _model = BenchData.createModel(columnCount, 1);
+      _comparison = BenchData.createComparison(_model);
+      List<Object[]> lhsRows = BenchData.createRows(_model, rowCount);
+      List<Object[]> rhsRows = BenchData.createRhsRows(_model, lhsRows, diffDensity);
+      DKListSink sink = new DKListSink();
+      _context = new DKDiffEngine().diff(new DKListSource(_model, lhsRows),
+         new DKListSource(_model, rhsRows), sink, _comparison, null);
+      _diffs = sink.getDiffs();
+   }
+
+   @Benchmark
+   public long record() throws IOException {
+      NullSink sink = new NullSink();
+      DKContext context = new DKContext(new DKListSource(_model, null), new DKListSource(
+         _model, null), sink, _comparison, null);
+      context.open();
+      for (DKDiff diff : _diffs)
+         sink.record(diff, context);
+      context.close();
+      return sink.getDiffCount();
+   }
+
+   @Benchmark
+   public long format() {
+      DKDefaultFormatter formatter = DKDefaultFormatter.getInstance();
+      long length = 0;
+      for (DKDiff diff : _diffs)
+         length += formatter.format(diff, _context).length();
+      return length;
+   }
+}
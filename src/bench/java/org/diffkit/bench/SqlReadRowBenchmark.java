@@ -0,0 +1,192 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.bench;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.diffkit.diff.engine.DKColumnModel;
+import org.diffkit.diff.engine.DKTableModel;
+import org.diffkit.util.DKSqlUtil;
+import org.diffkit.util.DKSqlUtil.ReadType;
+
+/**
+ * Reads every row of an embedded, in memory, H2 table: through
+ * DKSqlUtil.readRow(), which looks up each column by name, either with
+ * ReadType.OBJECT for every column, as DKDBSource used to, or with the typed
+ * ReadTypes; and through DKSqlUtil.RowReader, which DKDBSource uses now.
+ * 
+ * @author jpanico
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SqlReadRowBenchmark {
+   private static final String TABLE_NAME = "BENCH_TABLE";
+
+   @Param({ "10000", "100000" })
+   public int rowCount;
+   @Param({ "5", "20" })
+   public int columnCount;
+
+   private Connection _connection;
+   private String[] _columnNames;
+   private ReadType[] _readTypes;
+   private ReadType[] _objectReadTypes;
+   private String _selectSql;
+
+   @Setup
+   public void setUp() throws Exception {
+      Class.forName("org.h2.Driver");
+      _connection = DriverManager.getConnection("jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1",
+         "sa", "");
+      DKTableModel model = BenchData.createModel(columnCount, 1);
+      DKColumnModel[] columns = model.getColumns();
+      _columnNames = new String[columns.length];
+      _readTypes = new ReadType[columns.length];
+      _objectReadTypes = new ReadType[columns.length];
+      StringBuilder create = new StringBuilder("CREATE TABLE " + TABLE_NAME + " (");
+      StringBuilder insert = new StringBuilder("INSERT INTO " + TABLE_NAME + " VALUES (");
+      for (int i = 0; i < columns.length; i++) {
+         _columnNames[i] = columns[i].getName().toUpperCase();
+         String separator = (i == 0) ? "" : ", ";
+         create.append(separator + _columnNames[i] + " " + getSqlType(columns[i]));
+         insert.append(separator + "?");
+         _readTypes[i] = getReadType(columns[i]);
+         _objectReadTypes[i] = ReadType.OBJECT;
+      }
+      DKSqlUtil.executeUpdate("DROP TABLE IF EXISTS " + TABLE_NAME, _connection);
+      DKSqlUtil.executeUpdate(create.append(", PRIMARY KEY (" + _columnNames[0] + "))")
+         .toString(), _connection);
+      this.insertRows(insert.append(")").toString(),
+         BenchData.createRows(model, rowCount));
+      _selectSql = "SELECT * FROM " + TABLE_NAME + " ORDER BY " + _columnNames[0];
+   }
+
+   @TearDown
+   public void tearDown() {
+      DKSqlUtil.executeUpdate("DROP TABLE " + TABLE_NAME, _connection);
+      DKSqlUtil.close(_connection);
+   }
+
+   @Benchmark
+   public long readRowAsObjects() throws SQLException {
+      return this.readRows(_objectReadTypes);
+   }
+
+   @Benchmark
+   public long readRow() throws SQLException {
+      return this.readRows(_readTypes);
+   }
+
+   @Benchmark
+   public long rowReader() throws SQLException {
+      ResultSet resultSet = DKSqlUtil.executeQuery(_selectSql, _connection);
+      try {
+         DKSqlUtil.RowReader reader = new DKSqlUtil.RowReader(resultSet, _columnNames,
+            _readTypes, null, _columnNames.length);
+         long count = 0;
+         while (resultSet.next()) {
+            if (reader.readRow() != null)
+               count++;
+         }
+         return count;
+      }
+      finally {
+         close(resultSet);
+      }
+   }
+
+   private long readRows(ReadType[] readTypes_) throws SQLException {
+      ResultSet resultSet = DKSqlUtil.executeQuery(_selectSql, _connection);
+      try {
+         long count = 0;
+         while (resultSet.next()) {
+            if (DKSqlUtil.readRow(resultSet, _columnNames, readTypes_) != null)
+               count++;
+         }
+         return count;
+      }
+      finally {
+         close(resultSet);
+      }
+   }
+
+   private void insertRows(String insertSql_, List<Object[]> rows_) throws SQLException {
+      PreparedStatement statement = _connection.prepareStatement(insertSql_);
+      try {
+         for (Object[] row : rows_) {
+            for (int i = 0; i < row.length; i++)
+               statement.setObject(i + 1, row[i]);
+            statement.addBatch();
+         }
+         statement.executeBatch();
+      }
+      finally {
+         DKSqlUtil.close(statement);
+      }
+   }
+
+   private static String getSqlType(DKColumnModel column_) {
+      switch (column_.getType()) {
+      case INTEGER:
+         return "BIGINT";
+      case REAL:
+         return "DOUBLE";
+      default:
+         return "VARCHAR(64)";
+      }
+   }
+
+   private static ReadType getReadType(DKColumnModel column_) {
+      switch (column_.getType()) {
+      case INTEGER:
+         return ReadType.LONG;
+      case REAL:
+         return ReadType.DOUBLE;
+      default:
+         return ReadType.STRING;
+      }
+   }
+
+   private static void close(ResultSet resultSet_) throws SQLException {
+      Statement statement = resultSet_.getStatement();
+      DKSqlUtil.close(resultSet_);
+      DKSqlUtil.close(statement);
+   }
+}
@@ -15,6 +15,7 @@
  */
 package org.diffkit.common;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -30,16 +31,20 @@ import org.apache.commons.collections.comparators.ComparatorChain;
 import org.apache.commons.lang.mutable.MutableInt;
 
 /**
- * permits null entries
+ * permits null entries. The sum across all entries is maintained as a running
+ * total, so totalCount() is O(1); ordering by count is only computed when
+ * iterator() is called. Serializable, so that counts can be checkpointed.
  * 
  * @author jpanico
  */
-public class DKCountingBag {
+public class DKCountingBag implements Serializable {
+   private static final long serialVersionUID = 1L;
    @SuppressWarnings({ "unchecked", "rawtypes" })
    private static final Comparator STORAGE_ENTRY_COMPARATOR = new ComparatorChain(
       Arrays.asList(Collections.reverseOrder(new MapEntryValueComparator()),
          new MapEntryKeyComparator()));
    private final Map<Object, MutableInt> _storage = new HashMap<Object, MutableInt>();
+   private int _totalCount;
 
    public DKCountingBag() {
    }
@@ -57,6 +62,7 @@ public class DKCountingBag {
          _storage.put(object_, value);
       }
       value.add(copies_);
+      _totalCount += copies_;
       return isNew;
    }
 
@@ -71,15 +77,7 @@ public class DKCountingBag {
     * @return sum across the entries
     */
    public int totalCount() {
-      Iterator<Object> iterator = this.iterator();
-      if (iterator == null)
-         return 0;
-      int size = 0;
-      while (iterator.hasNext()) {
-         Object entry = iterator.next();
-         size += this.getCount(entry);
-      }
-      return size;
+      return _totalCount;
    }
 
    /**
@@ -0,0 +1,549 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.commons.lang.ClassUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.diffkit.common.DKValidate;
+import org.diffkit.common.annot.ThreadSafe;
+import org.diffkit.util.DKSqlUtil;
+
+/**
+ * A bounded pool of physical Connections to one database. getConnection()
+ * hands out a proxy; closing the proxy returns the physical Connection to the
+ * pool, after closing any Statements created through it, rolling back any
+ * uncommitted work, and restoring autoCommit. So callers use pooled
+ * Connections exactly as they used unpooled ones.
+ * <p>
+ * Housekeeping is done lazily, whenever a Connection is borrowed or returned:
+ * idle Connections older than idleTimeout are closed, and Connections that
+ * have been borrowed for longer than leakThreshold are reported once, along
+ * with the stack that borrowed them; except those borrowed with
+ * getLongLivedConnection(), which sources and sinks hold for the whole of a
+ * diff. A Connection that has sat idle is validated before it is handed out
+ * again.
+ * <p>
+ * maxSize, leakThreshold and borrowTimeout can be changed after the pool is
+ * created, e.g. through the DKDatabase properties of the same names.
+ * <p>
+ * DKDatabases share one pool per distinct url/username/password, see
+ * getInstance().
+ *
+ * @author jpanico
+ */
+@ThreadSafe
+public class DKConnectionPool {
+
+   public static final int DEFAULT_MAX_SIZE = 16;
+   public static final long DEFAULT_IDLE_TIMEOUT = 5 * 60 * 1000;
+   public static final long DEFAULT_LEAK_THRESHOLD = 10 * 60 * 1000;
+   public static final long DEFAULT_BORROW_TIMEOUT = 30 * 1000;
+   private static final String USERNAME_KEY = "user";
+   private static final String PASSWORD_KEY = "password";
+   /**
+    * Connections returned more recently than this are not validated again
+    */
+   private static final long VALIDATION_INTERVAL = 1000;
+   private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+   /**
+    * a lease prunes its closed Statements each time it tracks this many more
+    */
+   private static final int STATEMENT_PRUNE_INTERVAL = 64;
+   private static final Map<String, DKConnectionPool> INSTANCES =
+      new HashMap<String, DKConnectionPool>();
+
+   private final DKDBConnectionInfo _connectionInfo;
+   private final long _idleTimeout;
+   // guarded by this
+   private int _maxSize;
+   private long _leakThreshold;
+   private long _borrowTimeout;
+   /**
+    * most recently returned first
+    */
+   private final LinkedList<PooledConnection> _idle = new LinkedList<PooledConnection>();
+   private final Set<PooledConnection> _borrowed = new HashSet<PooledConnection>();
+   /**
+    * physical Connections, plus slots reserved for ones being opened
+    */
+   private int _size;
+   private long _openCount;
+   private long _leakCount;
+   private boolean _driverLoaded;
+   private boolean _isClosed;
+   private final Logger _log = LoggerFactory.getLogger(this.getClass());
+
+   /**
+    * @return the shared pool for connectionInfo_'s url, username and
+    *         password, creating it with the default settings if need be
+    */
+   public static DKConnectionPool getInstance(DKDBConnectionInfo connectionInfo_) {
+      DKValidate.notNull(connectionInfo_);
+      String key = getKey(connectionInfo_);
+      synchronized (INSTANCES) {
+         DKConnectionPool instance = INSTANCES.get(key);
+         if (instance == null) {
+            instance = new DKConnectionPool(connectionInfo_);
+            INSTANCES.put(key, instance);
+         }
+         return instance;
+      }
+   }
+
+   private static String getKey(DKDBConnectionInfo connectionInfo_) {
+      return String.format("%s|%s|%s", connectionInfo_.getJDBCUrl(),
+         connectionInfo_.getUsername(), connectionInfo_.getPassword());
+   }
+
+   public DKConnectionPool(DKDBConnectionInfo connectionInfo_) {
+      this(connectionInfo_, DEFAULT_MAX_SIZE, DEFAULT_IDLE_TIMEOUT,
+         DEFAULT_LEAK_THRESHOLD, DEFAULT_BORROW_TIMEOUT);
+   }
+
+   /**
+    * @param idleTimeout_
+    *           millis a Connection may sit idle before it is closed
+    * @param leakThreshold_
+    *           millis a Connection may be borrowed before it is reported as
+    *           a possible leak
+    * @param borrowTimeout_
+    *           millis getConnection() waits for a Connection when all
+    *           maxSize_ are borrowed
+    */
+   public DKConnectionPool(DKDBConnectionInfo connectionInfo_, int maxSize_,
+                           long idleTimeout_, long leakThreshold_, long borrowTimeout_) {
+      _connectionInfo = connectionInfo_;
+      _maxSize = maxSize_;
+      _idleTimeout = idleTimeout_;
+      _leakThreshold = leakThreshold_;
+      _borrowTimeout = borrowTimeout_;
+      DKValidate.notNull(_connectionInfo);
+      if (_maxSize < 1)
+         throw new IllegalArgumentException(String.format("maxSize_->%s", maxSize_));
+   }
+
+   /**
+    * the caller must close() the returned Connection, which returns it to the
+    * pool
+    *
+    * @throws SQLException
+    *            if no Connection is available within borrowTimeout, or the
+    *            driver cannot open one
+    */
+   public Connection getConnection() throws SQLException {
+      return this.getConnection(false);
+   }
+
+   /**
+    * like getConnection(), for a Connection that is meant to stay borrowed
+    * for as long as it takes, such as the one a source reads a whole diff
+    * through; so it is never reported as a possible leak
+    */
+   public Connection getLongLivedConnection() throws SQLException {
+      return this.getConnection(true);
+   }
+
+   private Connection getConnection(boolean isLongLived_) throws SQLException {
+      while (true) {
+         PooledConnection pooled = this.reserve();
+         if (pooled == null)
+            return this.lend(this.open(), isLongLived_);
+         if (this.isValid(pooled))
+            return this.lend(pooled, isLongLived_);
+         _log.info("discarding invalid connection->{}", pooled);
+         this.discard(pooled);
+      }
+   }
+
+   /**
+    * closes every idle Connection; borrowed Connections are closed as they are
+    * returned, and no more are handed out. If this is a shared instance, the
+    * next getInstance() creates a fresh pool.
+    */
+   public void close() {
+      synchronized (INSTANCES) {
+         String key = getKey(_connectionInfo);
+         if (INSTANCES.get(key) == this)
+            INSTANCES.remove(key);
+      }
+      List<PooledConnection> idle = null;
+      synchronized (this) {
+         _isClosed = true;
+         idle = new ArrayList<PooledConnection>(_idle);
+         _idle.clear();
+         _size -= idle.size();
+         this.notifyAll();
+      }
+      for (PooledConnection pooled : idle)
+         DKSqlUtil.close(pooled._connection);
+   }
+
+   public synchronized int getMaxSize() {
+      return _maxSize;
+   }
+
+   public synchronized void setMaxSize(int maxSize_) {
+      if (maxSize_ < 1)
+         throw new IllegalArgumentException(String.format("maxSize_->%s", maxSize_));
+      _maxSize = maxSize_;
+      // waiting borrowers may now have room
+      this.notifyAll();
+   }
+
+   public synchronized long getLeakThreshold() {
+      return _leakThreshold;
+   }
+
+   /**
+    * @param leakThreshold_
+    *           millis a Connection may be borrowed before it is reported as
+    *           a possible leak
+    */
+   public synchronized void setLeakThreshold(long leakThreshold_) {
+      _leakThreshold = leakThreshold_;
+   }
+
+   public synchronized long getBorrowTimeout() {
+      return _borrowTimeout;
+   }
+
+   /**
+    * @param borrowTimeout_
+    *           millis getConnection() waits for a Connection when all maxSize
+    *           are borrowed
+    */
+   public synchronized void setBorrowTimeout(long borrowTimeout_) {
+      _borrowTimeout = borrowTimeout_;
+   }
+
+   public synchronized int getIdleCount() {
+      return _idle.size();
+   }
+
+   public synchronized int getBorrowedCount() {
+      return _borrowed.size();
+   }
+
+   /**
+    * @return how many physical Connections have been opened over the life of
+    *         the pool
+    */
+   public synchronized long getOpenCount() {
+      return _openCount;
+   }
+
+   /**
+    * @return how many borrowed Connections have been reported as possible
+    *         leaks over the life of the pool
+    */
+   public synchronized long getLeakCount() {
+      return _leakCount;
+   }
+
+   public String toString() {
+      return String.format("%s[%s]", ClassUtils.getShortClassName(this.getClass()),
+         _connectionInfo.getJDBCUrl());
+   }
+
+   /**
+    * @return an idle Connection, or null if a slot was reserved for the caller
+    *         to open a new one
+    */
+   private synchronized PooledConnection reserve() throws SQLException {
+      long deadline = System.currentTimeMillis() + _borrowTimeout;
+      while (true) {
+         if (_isClosed)
+            throw new SQLException(String.format("%s is closed", this));
+         this.housekeep();
+         if (!_idle.isEmpty())
+            return _idle.removeFirst();
+         if (_size < _maxSize) {
+            _size++;
+            return null;
+         }
+         long remaining = deadline - System.currentTimeMillis();
+         if (remaining <= 0)
+            throw new SQLException(String.format(
+               "no connection available from %s within %s ms; all %s are borrowed", this,
+               _borrowTimeout, _maxSize));
+         try {
+            this.wait(remaining);
+         }
+         catch (InterruptedException e_) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted waiting for connection");
+         }
+      }
+   }
+
+   /**
+    * opens a physical Connection into the slot reserved by reserve()
+    */
+   private PooledConnection open() throws SQLException {
+      try {
+         this.loadDriver();
+         String jdbcUrl = _connectionInfo.getJDBCUrl();
+         _log.debug("jdbcUrl->{}", jdbcUrl);
+         Properties properties = new Properties();
+         properties.put(USERNAME_KEY, _connectionInfo.getUsername());
+         properties.put(PASSWORD_KEY, _connectionInfo.getPassword());
+         Connection connection = DriverManager.getConnection(jdbcUrl, properties);
+         synchronized (this) {
+            _openCount++;
+         }
+         return new PooledConnection(connection);
+      }
+      catch (SQLException e_) {
+         this.releaseSlot();
+         throw e_;
+      }
+      catch (RuntimeException e_) {
+         this.releaseSlot();
+         throw e_;
+      }
+   }
+
+   private void loadDriver() {
+      synchronized (this) {
+         if (_driverLoaded)
+            return;
+      }
+      try {
+         Class.forName(_connectionInfo.getDriverName());
+      }
+      catch (ClassNotFoundException e_) {
+         throw new RuntimeException(e_);
+      }
+      synchronized (this) {
+         _driverLoaded = true;
+      }
+   }
+
+   private Connection lend(PooledConnection pooled_, boolean isLongLived_) {
+      Lease lease = new Lease(pooled_);
+      synchronized (this) {
+         pooled_._borrowTime = System.currentTimeMillis();
+         pooled_._isLongLived = isLongLived_;
+         pooled_._borrowStack = isLongLived_ ? null : new Throwable("borrowed here");
+         pooled_._leakReported = false;
+         _borrowed.add(pooled_);
+      }
+      return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+         new Class<?>[] { Connection.class }, lease);
+   }
+
+   private boolean isValid(PooledConnection pooled_) {
+      if ((System.currentTimeMillis() - pooled_._returnTime) < VALIDATION_INTERVAL)
+         return true;
+      try {
+         return pooled_._connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+      }
+      catch (AbstractMethodError e_) {
+         // pre JDBC 4 driver
+         try {
+            return !pooled_._connection.isClosed();
+         }
+         catch (SQLException f_) {
+            return false;
+         }
+      }
+      catch (SQLException e_) {
+         _log.debug(null, e_);
+         return false;
+      }
+   }
+
+   /**
+    * called when a Lease is closed
+    */
+   private void giveBack(PooledConnection pooled_, boolean isReusable_) {
+      synchronized (this) {
+         _borrowed.remove(pooled_);
+         pooled_._borrowStack = null;
+         if (isReusable_ && !_isClosed) {
+            pooled_._returnTime = System.currentTimeMillis();
+            _idle.addFirst(pooled_);
+            this.housekeep();
+            this.notifyAll();
+            return;
+         }
+      }
+      this.discard(pooled_);
+   }
+
+   private void discard(PooledConnection pooled_) {
+      DKSqlUtil.close(pooled_._connection);
+      this.releaseSlot();
+   }
+
+   private synchronized void releaseSlot() {
+      _size--;
+      this.notifyAll();
+   }
+
+   /**
+    * must hold the monitor
+    */
+   private void housekeep() {
+      long now = System.currentTimeMillis();
+      // _idle is ordered most recently returned first, so the stale ones are
+      // at the end
+      while (!_idle.isEmpty() && ((now - _idle.getLast()._returnTime) > _idleTimeout)) {
+         PooledConnection stale = _idle.removeLast();
+         _log.debug("evicting idle connection->{}", stale);
+         DKSqlUtil.close(stale._connection);
+         _size--;
+      }
+      for (Iterator<PooledConnection> it = _borrowed.iterator(); it.hasNext();) {
+         PooledConnection borrowed = it.next();
+         if (borrowed._isLongLived || borrowed._leakReported
+            || ((now - borrowed._borrowTime) <= _leakThreshold))
+            continue;
+         borrowed._leakReported = true;
+         _leakCount++;
+         _log.warn(String.format("connection->%s borrowed from %s %s ms ago has not "
+            + "been returned; possible leak", borrowed, this, now - borrowed._borrowTime),
+            borrowed._borrowStack);
+      }
+   }
+
+   private static class PooledConnection {
+      private final Connection _connection;
+      private final boolean _autoCommit;
+      private long _borrowTime;
+      private boolean _isLongLived;
+      private long _returnTime;
+      private Throwable _borrowStack;
+      private boolean _leakReported;
+
+      private PooledConnection(Connection connection_) throws SQLException {
+         _connection = connection_;
+         _autoCommit = connection_.getAutoCommit();
+      }
+
+      public String toString() {
+         return _connection.toString();
+      }
+   }
+
+   /**
+    * one borrowing of a PooledConnection; backs the proxy handed to the caller
+    */
+   private class Lease implements InvocationHandler {
+      private final PooledConnection _pooled;
+      private final List<Statement> _statements = new ArrayList<Statement>();
+      private int _pruneSize = STATEMENT_PRUNE_INTERVAL;
+      private volatile boolean _isClosed;
+
+      private Lease(PooledConnection pooled_) {
+         _pooled = pooled_;
+      }
+
+      public Object invoke(Object proxy_, Method method_, Object[] args_)
+         throws Throwable {
+         String methodName = method_.getName();
+         if (methodName.equals("close")) {
+            this.close();
+            return null;
+         }
+         if (methodName.equals("isClosed") && _isClosed)
+            return Boolean.TRUE;
+         if (methodName.equals("equals"))
+            return Boolean.valueOf(proxy_ == args_[0]);
+         if (methodName.equals("hashCode"))
+            return Integer.valueOf(System.identityHashCode(proxy_));
+         if (methodName.equals("toString"))
+            return String.format("pooled[%s]", _pooled);
+         if (_isClosed)
+            throw new SQLException("connection has been returned to the pool");
+         try {
+            Object result = method_.invoke(_pooled._connection, args_);
+            if (result instanceof Statement)
+               this.track((Statement) result);
+            return result;
+         }
+         catch (InvocationTargetException e_) {
+            throw e_.getCause();
+         }
+      }
+
+      private synchronized void track(Statement statement_) {
+         _statements.add(statement_);
+         if (_statements.size() < _pruneSize)
+            return;
+         for (Iterator<Statement> it = _statements.iterator(); it.hasNext();) {
+            if (isClosed(it.next()))
+               it.remove();
+         }
+         _pruneSize = _statements.size() + STATEMENT_PRUNE_INTERVAL;
+      }
+
+      private synchronized void close() {
+         if (_isClosed)
+            return;
+         _isClosed = true;
+         for (Statement statement : _statements)
+            DKSqlUtil.close(statement);
+         _statements.clear();
+         boolean isReusable = true;
+         try {
+            Connection connection = _pooled._connection;
+            if (!connection.getAutoCommit())
+               connection.rollback();
+            if (connection.getAutoCommit() != _pooled._autoCommit)
+               connection.setAutoCommit(_pooled._autoCommit);
+         }
+         catch (SQLException e_) {
+            _log.warn(null, e_);
+            isReusable = false;
+         }
+         giveBack(_pooled, isReusable);
+      }
+   }
+
+   private static boolean isClosed(Statement statement_) {
+      try {
+         return statement_.isClosed();
+      }
+      catch (AbstractMethodError e_) {
+         // pre JDBC 4 driver; keep tracking it
+         return false;
+      }
+      catch (SQLException e_) {
+         return true;
+      }
+   }
+}
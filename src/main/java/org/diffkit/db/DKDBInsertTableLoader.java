@@ -15,26 +15,22 @@
  */
 package org.diffkit.db;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.LineNumberReader;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
-import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.diffkit.common.DKValidate;
 import org.diffkit.util.DKArrayUtil;
+import org.diffkit.util.DKCsvTokenizer;
 import org.diffkit.util.DKSqlUtil;
-import org.diffkit.util.DKStringUtil;
-import org.diffkit.util.DKStringUtil.Quote;
 
 /**
  * @author jpanico
@@ -71,32 +67,26 @@ public class DKDBInsertTableLoader implements DKDBTableLoader {
 
       connection.setAutoCommit(true);
       this.setDateFormat(connection);
-      LineNumberReader reader = new LineNumberReader(new BufferedReader(new FileReader(
-         csvFile_)));
+      DKCsvTokenizer tokenizer = new DKCsvTokenizer(new FileReader(csvFile_), ',');
       String[] tableColumnNames = table_.getColumnNames();
       DKDBTypeInfo[] typeInfos = _database.getColumnConcreteTypeInfos(table_);
       if (_debugEnabled) {
          _log.debug("tableColumnNames->{}", Arrays.toString(tableColumnNames));
          _log.debug("typeInfos->{}", Arrays.toString(typeInfos));
       }
-      String line = null;
       List<String> updateStatements = new ArrayList<String>(LOAD_BATCH_SIZE);
       // assume first line is header, use column names to drive the line parse
-      line = StringUtils.trimToNull(reader.readLine());
-      String[] headerColumnNames = line.split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)");
+      String[] headerColumnNames = tokenizer.nextRecord();
       int[] loadIndices = DKArrayUtil.getIndicesOfIntersection(headerColumnNames,
          tableColumnNames);
       if (_debugEnabled) {
          _log.debug("headerColumnNames->{}", Arrays.toString(headerColumnNames));
          _log.debug("loadIndices->{}", Arrays.toString(loadIndices));
       }
-      for (long i = 1; (line = StringUtils.trimToNull(reader.readLine())) != null; i++) {
-         String[] values = line.split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)");
-         if (_debugEnabled) {
-            _log.debug("line: " + line);
-            _log.debug("values: " + Arrays.toString(values));
-         }
-         DKStringUtil.unquote(values, Quote.DOUBLE);
+      String[] values = null;
+      for (long i = 1; (values = tokenizer.nextRecord()) != null; i++) {
+         if (_debugEnabled)
+            _log.debug("line: " + tokenizer.getLineNumber());
          values = DKArrayUtil.retainElementsAtIndices(values, loadIndices);
          if (_debugEnabled) {
             _log.debug("values: " + Arrays.toString(values));
@@ -118,7 +108,7 @@ public class DKDBInsertTableLoader implements DKDBTableLoader {
       long updates = DKSqlUtil.executeBatchUpdate(updateStatements, connection);
       DKSqlUtil.close(connection);
       _log.debug("updates: " + updates);
-      reader.close();
+      tokenizer.close();
       return true;
    }
 
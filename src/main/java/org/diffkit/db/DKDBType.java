@@ -246,6 +246,19 @@ public enum DKDBType {
          return ReadType.STRING;
       case TIMESTAMP:
          return ReadType.TIMESTAMP;
+      case BIGINT:
+         return ReadType.LONG;
+      case INTEGER:
+         return ReadType.INTEGER;
+      case DOUBLE:
+         return ReadType.DOUBLE;
+      // FLOAT is REAL, read as Float, on some flavors; getObject keeps that
+      case DECIMAL:
+         return ReadType.DECIMAL;
+      case NUMERIC:
+         return ReadType.DECIMAL;
+      case _ORACLE_NUMBER:
+         return ReadType.DECIMAL;
       default:
          return ReadType.OBJECT;
       }
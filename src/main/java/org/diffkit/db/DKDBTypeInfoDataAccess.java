@@ -139,8 +139,13 @@ public class DKDBTypeInfoDataAccess {
 
    private void ensureMaps() throws SQLException {
       Connection connection = this.getConnection();
-      DatabaseMetaData dbMeta = connection.getMetaData();
-      List<Map<String, ?>> entryMaps = this.getTypeInfoMaps(dbMeta);
+      List<Map<String, ?>> entryMaps = null;
+      try {
+         entryMaps = this.getTypeInfoMaps(connection.getMetaData());
+      }
+      finally {
+         this.returnConnection(connection);
+      }
       _typeToTypeInfoMap = new HashMap<DKDBType, DKDBTypeInfo>();
       _nameToTypeInfoMap = new HashMap<String, DKDBTypeInfo>();
       _javaSqlTypeToTypeInfoMap = new HashMap<Integer, DKDBTypeInfo>();
@@ -154,7 +159,6 @@ public class DKDBTypeInfoDataAccess {
          _nameToTypeInfoMap.put(typeInfo.getName(), typeInfo);
          _javaSqlTypeToTypeInfoMap.put(new Integer(typeInfo.getJavaSqlType()), typeInfo);
       }
-      this.returnConnection(connection);
    }
 
    private DKDBTypeInfo constructTypeInfo(Map<String, ?> typeInfoMap_) {
@@ -179,6 +183,7 @@ public class DKDBTypeInfoDataAccess {
          throw new RuntimeException(
             String.format("No typeInfo from dbMeta_->%s", dbMeta_));
       List<Map<String, ?>> typeInfoMaps = DKSqlUtil.readRows(typeInfoRS);
+      DKSqlUtil.close(typeInfoRS);
       _log.debug("typeInfoMaps->{}", typeInfoMaps);
       return typeInfoMaps;
    }
@@ -16,13 +16,11 @@
 package org.diffkit.db;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections.MapUtils;
@@ -38,9 +36,8 @@ import org.diffkit.util.DKSqlUtil;
  */
 public class DKDatabase {
 
-   private static final String USERNAME_KEY = "user";
-   private static final String PASSWORD_KEY = "password";
    private final DKDBConnectionInfo _connectionInfo;
+   private final DKConnectionPool _connectionPool;
    private final boolean _caseSensitive;
    private final DKDBTypeInfoDataAccess _typeInfoDataAccess;
    private final DKSqlGenerator _sqlGenerator;
@@ -50,6 +47,7 @@ public class DKDatabase {
 
    public DKDatabase(DKDBConnectionInfo connectionInfo_) {
       _connectionInfo = connectionInfo_;
+      _connectionPool = DKConnectionPool.getInstance(connectionInfo_);
       _typeInfoDataAccess = new DKDBTypeInfoDataAccess(this);
       _sqlGenerator = new DKSqlGenerator(this);
       _tableDataAccess = new DKDBTableDataAccess(this);
@@ -62,19 +60,64 @@ public class DKDatabase {
       return _typeInfoDataAccess;
    }
 
+   /**
+    * borrows a Connection from the ConnectionPool; the caller must close() it,
+    * which returns it to the pool
+    */
    public Connection getConnection() throws SQLException {
-      try {
-         Class.forName(_connectionInfo.getDriverName());
-      }
-      catch (ClassNotFoundException e_) {
-         throw new RuntimeException(e_);
-      }
-      String jdbcUrl = _connectionInfo.getJDBCUrl();
-      _log.debug("jdbcUrl->{}", jdbcUrl);
-      Properties properties = new Properties();
-      properties.put(USERNAME_KEY, _connectionInfo.getUsername());
-      properties.put(PASSWORD_KEY, _connectionInfo.getPassword());
-      return DriverManager.getConnection(jdbcUrl, properties);
+      return _connectionPool.getConnection();
+   }
+
+   /**
+    * like getConnection(), for a Connection held for the whole of a diff,
+    * which the ConnectionPool must not report as a possible leak
+    */
+   public Connection getLongLivedConnection() throws SQLException {
+      return _connectionPool.getLongLivedConnection();
+   }
+
+   /**
+    * shared by every DKDatabase with the same url, username and password
+    */
+   public DKConnectionPool getConnectionPool() {
+      return _connectionPool;
+   }
+
+   /**
+    * most Connections the ConnectionPool opens at once; set on the shared
+    * pool, so it applies to every DKDatabase with the same url, username and
+    * password
+    */
+   public int getMaxConnections() {
+      return _connectionPool.getMaxSize();
+   }
+
+   public void setMaxConnections(int maxConnections_) {
+      _connectionPool.setMaxSize(maxConnections_);
+   }
+
+   /**
+    * millis a Connection may be borrowed before the shared ConnectionPool
+    * reports it as a possible leak
+    */
+   public long getConnectionLeakThreshold() {
+      return _connectionPool.getLeakThreshold();
+   }
+
+   public void setConnectionLeakThreshold(long connectionLeakThreshold_) {
+      _connectionPool.setLeakThreshold(connectionLeakThreshold_);
+   }
+
+   /**
+    * millis getConnection() waits when all of the shared ConnectionPool's
+    * Connections are borrowed, before it fails
+    */
+   public long getConnectionBorrowTimeout() {
+      return _connectionPool.getBorrowTimeout();
+   }
+
+   public void setConnectionBorrowTimeout(long connectionBorrowTimeout_) {
+      _connectionPool.setBorrowTimeout(connectionBorrowTimeout_);
    }
 
    public DKDBConnectionInfo getConnectionInfo() {
@@ -165,8 +208,9 @@ public class DKDatabase {
    }
 
    public boolean canConnect() {
+      Connection connection = null;
       try {
-         Connection connection = this.getConnection();
+         connection = this.getConnection();
          if (connection == null)
             return false;
          Map<String, ?> dbInfo = DKSqlUtil.getDatabaseInfo(connection);
@@ -180,6 +224,9 @@ public class DKDatabase {
          _log.debug(null, e_);
          return false;
       }
+      finally {
+         DKSqlUtil.close(connection);
+      }
    }
 
    public DKSqlGenerator getSqlGenerator() {
@@ -205,7 +252,7 @@ public class DKDatabase {
          return null;
       String createSql = _sqlGenerator.generateCreateDDL(table_);
       _log.debug("createSql->{}", createSql);
-      if (!DKSqlUtil.executeUpdate(createSql, this.getConnection()))
+      if (!this.executeUpdate(createSql))
          throw new SQLException("execute was not successful");
       return this.getTable(table_.getCatalog(), table_.getSchema(), table_.getTableName());
    }
@@ -240,7 +287,7 @@ public class DKDatabase {
          return false;
       String dropSql = _sqlGenerator.generateDropDDL(table_);
       _log.debug("dropSql->{}", dropSql);
-      return DKSqlUtil.executeUpdate(dropSql, this.getConnection());
+      return this.executeUpdate(dropSql);
    }
 
    public boolean tableExists(DKDBTable table_) throws SQLException {
@@ -358,10 +405,7 @@ public class DKDatabase {
          return false;
       String insertSql = _sqlGenerator.generateInsertDML(row_, table_);
       _log.debug("insertSql->{}", insertSql);
-      Connection connection = this.getConnection();
-      boolean insert = DKSqlUtil.executeUpdate(insertSql, connection);
-      // DKSqlUtil.close(connection);
-      return insert;
+      return this.executeUpdate(insertSql);
    }
 
    public List<Map<String, ?>> readAllRows(DKDBTable table_) throws SQLException {
@@ -370,16 +414,22 @@ public class DKDatabase {
       String selectSql = _sqlGenerator.generateSelectDML(table_);
       _log.debug("selectSql->{}", selectSql);
       Connection connection = this.getConnection();
-      List<Map<String, ?>> rows = DKSqlUtil.readRows(selectSql, connection);
-      // DKSqlUtil.close(connection);
-      return rows;
+      try {
+         return DKSqlUtil.readRows(selectSql, connection);
+      }
+      finally {
+         DKSqlUtil.close(connection);
+      }
    }
 
    public boolean executeUpdate(String sql_) throws SQLException {
       Connection connection = this.getConnection();
-      boolean update = DKSqlUtil.executeUpdate(sql_, connection);
-      DKSqlUtil.close(connection);
-      return update;
+      try {
+         return DKSqlUtil.executeUpdate(sql_, connection);
+      }
+      finally {
+         DKSqlUtil.close(connection);
+      }
    }
 
    public String toString() {
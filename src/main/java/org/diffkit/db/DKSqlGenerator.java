@@ -35,6 +35,10 @@ import org.diffkit.util.DKStringUtil;
  * @author jpanico
  */
 public class DKSqlGenerator {
+   /**
+    * longer text columns are left out of row hashes
+    */
+   public static final int MAX_HASHABLE_TEXT_SIZE = 4000;
 
    private final DKDatabase _database;
    private final Logger _log = LoggerFactory.getLogger(this.getClass());
@@ -297,12 +301,324 @@ public class DKSqlGenerator {
       return insertDML;
    }
 
+   /**
+    * @return INSERT of every column of table_, with a ? parameter for each
+    *         value, for use in a PreparedStatement
+    */
+   public String generatePreparedInsertDML(DKDBTable table_) {
+      DKValidate.notNull(table_);
+      String[] columnNames = table_.getColumnNames();
+      String[] parameters = new String[columnNames.length];
+      for (int i = 0; i < columnNames.length; i++) {
+         columnNames[i] = this.generateIdentifierString(columnNames[i]);
+         parameters[i] = "?";
+      }
+      String insertDML = String.format("INSERT INTO %s %s\nVALUES %s",
+         this.generateQualifiedTableIdentifierString(table_),
+         DKStringUtil.toSetString(columnNames), DKStringUtil.toSetString(parameters));
+      _log.debug("insertDML->{}", insertDML);
+      return insertDML;
+   }
+
    public String generateSelectDML(DKDBTable table_) {
       return String.format(
          "SELECT * FROM %s",
          this.generateIdentifierString(this.generateQualifiedTableIdentifierString(table_)));
    }
 
+   /**
+    * @return a BIGINT valued SQL expression hashing the values of columns_ in
+    *         a row to 64 bits. Each value is rendered losslessly, marked as
+    *         null or length prefixed, so that different rows render to
+    *         different text. Only comparable between tables of the same
+    *         flavor. null if the flavor has no suitable hash function (e.g.
+    *         HyperSQL), or if any of columns_ is not isHashable(). Needs DB2
+    *         11.1 (HASH8), Oracle 12c (STANDARD_HASH), SQL Server 2016
+    *         (HASHBYTES over 8000 bytes)
+    */
+   public String generateRowHashExpression(DKDBColumn[] columns_) {
+      if (ArrayUtils.isEmpty(columns_) || !this.supportsRowHash())
+         return null;
+      String[] values = new String[columns_.length];
+      for (int i = 0; i < columns_.length; i++) {
+         values[i] = this.generateValueTextExpression(columns_[i]);
+         if (values[i] == null) {
+            _log.debug("not hashable column->{}", columns_[i]);
+            return null;
+         }
+      }
+      DKDBFlavor flavor = _database.getFlavor();
+      if (flavor == DKDBFlavor.ORACLE)
+         return String.format(
+            "(TO_NUMBER(SUBSTR(%s, 1, 16), 'XXXXXXXXXXXXXXXX') - 9223372036854775808)",
+            this.generateOracleRowDigest(columns_, values));
+      String text = this.generateRowTextExpression(columns_, values);
+      switch (flavor) {
+      case H2:
+         // first 8 bytes of the SHA256, via its hex String form
+         return String.format("CAST(CAST(SUBSTRING(CAST(HASH('SHA256', "
+            + "STRINGTOUTF8(%s), 1) AS VARCHAR), 1, 16) AS BINARY) AS BIGINT)", text);
+      case MYSQL:
+         // wraps the unsigned 64 bits around into a signed BIGINT
+         return String.format("CAST(CAST(CONV(SUBSTRING(MD5(%s), 1, 16), 16, 10) "
+            + "AS UNSIGNED) AS SIGNED)", text);
+      case POSTGRES:
+         return String.format("('x' || SUBSTR(MD5(%s), 1, 16))::BIT(64)::BIGINT", text);
+      case SQLSERVER:
+         return String.format(
+            "CAST(SUBSTRING(HASHBYTES('SHA2_256', %s), 1, 8) AS BIGINT)", text);
+      case DB2:
+         return String.format("HASH8(%s)", text);
+      default:
+         return null;
+      }
+   }
+
+   /**
+    * @return true if generateRowHashExpression() is supported for this flavor
+    */
+   public boolean supportsRowHash() {
+      switch (_database.getFlavor()) {
+      case H2:
+      case MYSQL:
+      case POSTGRES:
+      case ORACLE:
+      case SQLSERVER:
+      case DB2:
+         return true;
+      default:
+         return false;
+      }
+   }
+
+   /**
+    * @return true if column_ can be part of generateRowHashExpression(); LOBs,
+    *         long and binary columns, and types that have no lossless text
+    *         rendering, can't
+    */
+   public boolean isHashable(DKDBColumn column_) {
+      return this.supportsRowHash() && (this.generateValueTextExpression(column_) != null);
+   }
+
+   /**
+    * each value becomes 'N' if null, else 'V' followed by its length, ':', and
+    * its text; so no two rows render the same, whatever characters the values
+    * hold
+    */
+   private String generateRowTextExpression(DKDBColumn[] columns_, String[] values_) {
+      DKDBFlavor flavor = _database.getFlavor();
+      String[] markedValues = new String[columns_.length];
+      for (int i = 0; i < columns_.length; i++) {
+         String identifier = this.generateIdentifierString(columns_[i].getName());
+         if (flavor == DKDBFlavor.MYSQL)
+            markedValues[i] = String.format(
+               "IF(%s IS NULL, 'N', CONCAT('V', CHAR_LENGTH(%s), ':', %s))", identifier,
+               values_[i], values_[i]);
+         else if (flavor == DKDBFlavor.SQLSERVER)
+            markedValues[i] = String.format(
+               "CASE WHEN %s IS NULL THEN N'N' ELSE CONCAT(N'V', DATALENGTH(%s), N':', %s) END",
+               identifier, values_[i], values_[i]);
+         else
+            markedValues[i] = String.format(
+               "CASE WHEN %s IS NULL THEN 'N' ELSE 'V' || CAST(LENGTH(%s) AS VARCHAR(10)) || ':' || %s END",
+               identifier, values_[i], values_[i]);
+      }
+      if ((flavor == DKDBFlavor.MYSQL) || (flavor == DKDBFlavor.SQLSERVER)) {
+         if (markedValues.length == 1)
+            return String.format("CONCAT(%s, '')", markedValues[0]);
+         return String.format("CONCAT(%s)", StringUtils.join(markedValues, ", "));
+      }
+      return StringUtils.join(markedValues, " || ");
+   }
+
+   /**
+    * Oracle can't concatenate past 4000 bytes, so each value is digested on
+    * its own, to 'N' or 'V' and 32 hex digits, and those digests, in groups
+    * small enough to concatenate, are digested again
+    * 
+    * @return hex MD5 digest of the row
+    */
+   private String generateOracleRowDigest(DKDBColumn[] columns_, String[] values_) {
+      List<String> digests = new ArrayList<String>(columns_.length);
+      for (int i = 0; i < columns_.length; i++)
+         digests.add(String.format("NVL2(%s, 'V' || RAWTOHEX(STANDARD_HASH(%s, 'MD5')), 'N')",
+            this.generateIdentifierString(columns_[i].getName()), values_[i]));
+      // 33 bytes per digest
+      int groupSize = 100;
+      while (true) {
+         List<String> groupDigests = new ArrayList<String>();
+         for (int i = 0; i < digests.size(); i += groupSize) {
+            List<String> group = digests.subList(i, Math.min(i + groupSize, digests.size()));
+            groupDigests.add(String.format("RAWTOHEX(STANDARD_HASH(%s, 'MD5'))",
+               StringUtils.join(group, " || ")));
+         }
+         if (groupDigests.size() == 1)
+            return groupDigests.get(0);
+         digests = groupDigests;
+      }
+   }
+
+   /**
+    * @return SQL rendering the non-null value of column_ as text, with an
+    *         explicit format for dates, times, and approximate numbers, such
+    *         that different values render differently; null if there is none
+    */
+   private String generateValueTextExpression(DKDBColumn column_) {
+      DKDBType type = this.getConcreteType(column_);
+      if (type == null)
+         return null;
+      String identifier = this.generateIdentifierString(column_.getName());
+      DKDBFlavor flavor = _database.getFlavor();
+      switch (type) {
+      case CHAR:
+      case VARCHAR:
+      case NCHAR:
+      case NVARCHAR:
+      case _ORACLE_VARCHAR2:
+      case _H2_VARCHAR_IGNORECASE:
+      case _POSTGRES_BPCHAR:
+      case _DB2_GRAPHIC:
+      case _DB2_VARGRAPHIC:
+         // size is -1 when not known
+         if (column_.getSize() > MAX_HASHABLE_TEXT_SIZE)
+            return null;
+         if (flavor == DKDBFlavor.SQLSERVER)
+            return String.format("CAST(%s AS NVARCHAR(MAX))", identifier);
+         if (flavor == DKDBFlavor.POSTGRES)
+            return String.format("CAST(%s AS TEXT)", identifier);
+         return identifier;
+      case BIGINT:
+      case INTEGER:
+      case SMALLINT:
+      case TINYINT:
+      case DECIMAL:
+      case NUMERIC:
+      case _H2_IDENTITY:
+      case _ORACLE_NUMBER:
+      case _MYSQL_TINYINT_UNSIGNED:
+      case _MYSQL_BIGINT_UNSIGNED:
+      case _MYSQL_INTEGER_UNSIGNED:
+      case _MYSQL_INT:
+      case _MYSQL_INT_UNSIGNED:
+      case _MYSQL_MEDIUMINT:
+      case _MYSQL_MEDIUMINT_UNSIGNED:
+      case _MYSQL_SMALLINT_UNSIGNED:
+      case _MYSQL_DECIMAL_UNSIGNED:
+      case _SQLSERVER_INT:
+      case _SQLSERVER_INT_IDENTITY:
+      case _SQLSERVER_SMALLINT_IDENTITY:
+      case _SQLSERVER_TINYINT_IDENTITY:
+      case _SQLSERVER_BIGINT_IDENTITY:
+      case _SQLSERVER_NUMERIC00_IDENTITY:
+      case _SQLSERVER_DECIMAL00_IDENTITY:
+      case _POSTGRES_INT2:
+      case _POSTGRES_INT4:
+      case _POSTGRES_INT8:
+      case _POSTGRES_SERIAL:
+      case _POSTGRES_BIGSERIAL:
+         return this.generateNumberTextExpression(identifier);
+      case _SQLSERVER_MONEY:
+      case _SQLSERVER_SMALLMONEY:
+         // style 2 keeps all 4 decimal places
+         return String.format("CONVERT(NVARCHAR(MAX), %s, 2)", identifier);
+      case DOUBLE:
+      case FLOAT:
+      case REAL:
+      case _MYSQL_DOUBLE_PRECISION:
+      case _POSTGRES_FLOAT4:
+      case _POSTGRES_FLOAT8:
+         return this.generateApproximateNumberTextExpression(identifier);
+      case DATE:
+         // Oracle DATEs carry a time of day
+         if (flavor == DKDBFlavor.ORACLE)
+            return String.format("TO_CHAR(%s, 'YYYY-MM-DD HH24:MI:SS')", identifier);
+         return this.generateTemporalTextExpression(identifier, "YYYY-MM-DD");
+      case TIME:
+         return this.generateTemporalTextExpression(identifier, "HH24:MI:SS");
+      case TIMESTAMP:
+      case _MYSQL_DATETIME:
+      case _SQLSERVER_DATETIME:
+      case _SQLSERVER_DATETIME2:
+      case _SQLSERVER_SMALLDATETIME:
+         return this.generateTemporalTextExpression(identifier, "YYYY-MM-DD HH24:MI:SS");
+      default:
+         return null;
+      }
+   }
+
+   private String generateNumberTextExpression(String identifier_) {
+      switch (_database.getFlavor()) {
+      case ORACLE:
+         // text minimum format: every significant digit, no padding
+         return String.format("TO_CHAR(%s, 'TM9')", identifier_);
+      case MYSQL:
+         return String.format("CAST(%s AS CHAR)", identifier_);
+      case SQLSERVER:
+         return String.format("CONVERT(NVARCHAR(MAX), %s)", identifier_);
+      case POSTGRES:
+         return String.format("CAST(%s AS TEXT)", identifier_);
+      case DB2:
+         return String.format("VARCHAR(%s)", identifier_);
+      default:
+         return String.format("CAST(%s AS VARCHAR)", identifier_);
+      }
+   }
+
+   /**
+    * the bits themselves where the flavor allows, else enough digits to round
+    * trip
+    */
+   private String generateApproximateNumberTextExpression(String identifier_) {
+      switch (_database.getFlavor()) {
+      case ORACLE:
+         return String.format("TO_CHAR(%s, 'TM9')", identifier_);
+      case MYSQL:
+         return String.format("CAST(%s AS CHAR)", identifier_);
+      case SQLSERVER:
+         // style 3: 17 significant digits
+         return String.format("CONVERT(NVARCHAR(MAX), %s, 3)", identifier_);
+      case POSTGRES:
+         return String.format("ENCODE(FLOAT8SEND(%s), 'hex')", identifier_);
+      case DB2:
+         return String.format("VARCHAR(%s)", identifier_);
+      default:
+         // Double.toString()
+         return String.format("CAST(%s AS VARCHAR)", identifier_);
+      }
+   }
+
+   /**
+    * @param format_
+    *           the Oracle style format, to which the flavor's fractional
+    *           seconds, if any, are appended for times and timestamps
+    */
+   private String generateTemporalTextExpression(String identifier_, String format_) {
+      boolean hasTime = format_.contains("HH24");
+      switch (_database.getFlavor()) {
+      case ORACLE:
+         return String.format("TO_CHAR(%s, '%s')", identifier_, hasTime ? format_
+            + ".FF9" : format_);
+      case POSTGRES:
+         return String.format("TO_CHAR(%s, '%s')", identifier_, hasTime ? format_ + ".US"
+            : format_);
+      case DB2:
+         return String.format("VARCHAR_FORMAT(%s, '%s')", identifier_,
+            hasTime ? format_ + ".FF12" : format_);
+      case MYSQL:
+         if (!hasTime)
+            return String.format("DATE_FORMAT(%s, '%%Y-%%m-%%d')", identifier_);
+         if (!format_.startsWith("YYYY"))
+            return String.format("TIME_FORMAT(%s, '%%H:%%i:%%s.%%f')", identifier_);
+         return String.format("DATE_FORMAT(%s, '%%Y-%%m-%%d %%H:%%i:%%s.%%f')", identifier_);
+      case SQLSERVER:
+         // style 126: ISO8601, with all the fractional seconds the type holds
+         return String.format("CONVERT(NVARCHAR(MAX), %s, 126)", identifier_);
+      default:
+         // H2 renders dates, times, and timestamps, nanos included, in ISO form
+         return String.format("CAST(%s AS VARCHAR)", identifier_);
+      }
+   }
+
    private DKDBType getConcreteType(DKDBColumn column_) {
       if (column_ == null)
          return null;
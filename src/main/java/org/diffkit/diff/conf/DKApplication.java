@@ -44,13 +44,20 @@ import org.slf4j.LoggerFactory;
 import org.diffkit.common.DKDistProperties;
 import org.diffkit.common.DKRuntime;
 import org.diffkit.common.DKUserException;
+import org.diffkit.db.DKDBConnectionInfo;
 import org.diffkit.db.DKDBFlavor;
+import org.diffkit.db.DKDatabase;
 import org.diffkit.diff.engine.DKContext;
 import org.diffkit.diff.engine.DKContext.UserKey;
 import org.diffkit.diff.engine.DKDiffEngine;
+import org.diffkit.diff.engine.DKHashJoinDiffEngine;
+import org.diffkit.diff.engine.DKParallelDiffEngine;
 import org.diffkit.diff.engine.DKSink;
 import org.diffkit.diff.engine.DKSource;
 import org.diffkit.diff.engine.DKTableComparison;
+import org.diffkit.diff.engine.DKTableModel;
+import org.diffkit.diff.sns.DKDBChecksumPrePass;
+import org.diffkit.diff.sns.DKDataGenerator;
 import org.diffkit.util.DKMapUtil;
 import org.diffkit.util.DKSpringUtil;
 import org.diffkit.util.DKStringUtil;
@@ -61,12 +68,24 @@ import org.diffkit.util.DKStringUtil;
 public class DKApplication {
    private static final String APPLICATION_NAME = "diffkit-app";
 
+   /**
+    * exit status when diffs are found, and errorOnDiff is set
+    */
+   public static final int DIFF_EXIT_STATUS = -1;
+   /**
+    * exit status when the diff was stopped (see DKDiffMonitor) before it
+    * finished, so that its results are incomplete
+    */
+   public static final int STOPPED_EXIT_STATUS = -2;
    private static final String VERSION_OPTION_KEY = "version";
    private static final String HELP_OPTION_KEY = "help";
    private static final String TEST_OPTION_KEY = "test";
    private static final String PLAN_FILE_OPTION_KEY = "planfiles";
    private static final String ERROR_ON_DIFF_OPTION_KEY = "errorOnDiff";
    private static final String DEMO_DB_OPTION_KEY = "demoDB";
+   private static final String RESUME_OPTION_KEY = "resume";
+   private static final String GENERATE_OPTION_KEY = "generate";
+   private static final String SERVER_OPTION_KEY = "server";
    private static final Options OPTIONS = new Options();
 
    private static final String LOGBACK_FILE_NAME = "logback.xml";
@@ -91,10 +110,21 @@ public class DKApplication {
       optionGroup.addOption(OptionBuilder.create(PLAN_FILE_OPTION_KEY));
       optionGroup.addOption(new Option(
          ERROR_ON_DIFF_OPTION_KEY,
-         "exit with error status code (-1) if diffs are detected. otherwise will always exit with 0 unless an operating Exception was encountered"));
+         "exit with error status code (-1) if diffs are detected. otherwise will always exit with 0 unless an operating Exception was encountered, or the diff was stopped before it finished (-2)"));
       optionGroup.addOption(new Option(DEMO_DB_OPTION_KEY,
          "run embedded demo H2 database"));
+      OptionBuilder.hasOptionalArgs();
+      OptionBuilder.withArgName("[rows=?] [columns=?] [keyLength=?] [format=csv|xlsx|h2|hypersql] [missing=?] [extra=?] [change=?] [keys=sequential|uniform|clustered] [shuffle=?] [seed=?] [out=?]");
+      OptionBuilder.withDescription("generate a pair of lhs/rhs tables with the given rates of missing, extra and changed rows");
+      optionGroup.addOption(OptionBuilder.create(GENERATE_OPTION_KEY));
+      OptionBuilder.hasOptionalArgs();
+      OptionBuilder.withArgName("[port=?] [secret=?] [watch=?] [threads=?] [poll=?]");
+      OptionBuilder.withDescription("stay resident and run the plans submitted over a local socket (port=-1 for none) by clients that send the secret written to the secret file, or dropped into the watch directory, which must be writable only by you");
+      optionGroup.addOption(OptionBuilder.create(SERVER_OPTION_KEY));
       OPTIONS.addOptionGroup(optionGroup);
+      OPTIONS.addOption(new Option(
+         RESUME_OPTION_KEY,
+         "with planfiles, resume the diff from the plan's checkpointFilePath, appending to its sink"));
    }
 
    public static void main(String[] args_) {
@@ -113,9 +143,14 @@ public class DKApplication {
             runTestCases(line.getOptionValues(TEST_OPTION_KEY));
          else if (line.hasOption(PLAN_FILE_OPTION_KEY))
             runPlan(line.getOptionValue(PLAN_FILE_OPTION_KEY),
-               line.hasOption(ERROR_ON_DIFF_OPTION_KEY));
+               line.hasOption(ERROR_ON_DIFF_OPTION_KEY),
+               line.hasOption(RESUME_OPTION_KEY));
          else if (line.hasOption(DEMO_DB_OPTION_KEY))
             runDemoDB();
+         else if (line.hasOption(GENERATE_OPTION_KEY))
+            runGenerate(line.getOptionValues(GENERATE_OPTION_KEY));
+         else if (line.hasOption(SERVER_OPTION_KEY))
+            runServer(line.getOptionValues(SERVER_OPTION_KEY));
          else
             printInvalidArguments(args_);
       }
@@ -154,7 +189,21 @@ public class DKApplication {
       formatter.printHelp("java -jar diffkit-app.jar", OPTIONS);
    }
 
-   private static void runPlan(String planFilesString_, boolean errorOnDiff_)
+   private static void runPlan(String planFilesString_, boolean errorOnDiff_,
+                               boolean resume_) throws Exception {
+      DKContext diffContext = diffPlan(planFilesString_, resume_);
+      DKRuntime.getInstance().getUserLog().info(
+         diffContext.getSink().generateSummary(diffContext));
+      System.exit(getExitStatus(diffContext, errorOnDiff_));
+   }
+
+   /**
+    * loads the plan from planFilesString_ and diffs it; safe to call from
+    * several threads at once, so long as their plans don't share sinks
+    * 
+    * @return the context of the finished diff
+    */
+   static DKContext diffPlan(String planFilesString_, boolean resume_)
       throws Exception {
       Logger systemLog = getSystemLog();
       Logger userLog = DKRuntime.getInstance().getUserLog();
@@ -174,32 +223,199 @@ public class DKApplication {
       userLog.info("tableComparison->{}", tableComparison);
       Map<UserKey, Object> userDictionary = new HashMap<UserKey, Object>();
       userDictionary.put(UserKey.PLAN_FILES, planFilesString_);
-      DKContext diffContext = doDiff(lhsSource, rhsSource, sink, tableComparison,
+      DKDiffEngine engine = createEngine(plan, resume_);
+      applyChecksumPrePass(plan, lhsSource, rhsSource, tableComparison);
+      return doDiff(engine, lhsSource, rhsSource, sink, tableComparison,
          userDictionary);
-      userLog.info(sink.generateSummary(diffContext));
-      if (plan.getSink().getDiffCount() == 0)
-         System.exit(0);
+   }
+
+   /**
+    * @return STOPPED_EXIT_STATUS if the diff was stopped; otherwise 0, unless
+    *         errorOnDiff_ and diffs were found, then DIFF_EXIT_STATUS
+    */
+   static int getExitStatus(DKContext diffContext_, boolean errorOnDiff_) {
+      if (diffContext_.isStopped())
+         return STOPPED_EXIT_STATUS;
+      if (diffContext_.getSink().getDiffCount() == 0)
+         return 0;
       if (errorOnDiff_)
-         System.exit(-1);
-      System.exit(0);
+         return DIFF_EXIT_STATUS;
+      return 0;
    }
 
    @SuppressWarnings("unchecked")
-   private static DKContext doDiff(DKSource lhsSource_, DKSource rhsSource_,
-                                   DKSink sink_, DKTableComparison tableComparison_,
+   private static DKContext doDiff(DKDiffEngine engine_, DKSource lhsSource_,
+                                   DKSource rhsSource_, DKSink sink_,
+                                   DKTableComparison tableComparison_,
                                    Map<UserKey, Object> userDictionary_) throws Exception {
       Logger systemLog = getSystemLog();
-      DKDiffEngine engine = new DKDiffEngine();
       userDictionary_ = DKMapUtil.combine(userDictionary_,
          tableComparison_.getUserDictionary());
-      systemLog.info("engine->{}", engine);
-      return engine.diff(lhsSource_, rhsSource_, sink_, tableComparison_, userDictionary_);
+      systemLog.info("engine->{}", engine_);
+      return engine_.diff(lhsSource_, rhsSource_, sink_, tableComparison_, userDictionary_);
+   }
+
+   private static void applyChecksumPrePass(DKPlan plan_, DKSource lhsSource_,
+                                           DKSource rhsSource_,
+                                           DKTableComparison tableComparison_)
+      throws Exception {
+      if (!(plan_ instanceof DKMagicPlan))
+         return;
+      if (!Boolean.TRUE.equals(((DKMagicPlan) plan_).getChecksumPrePass()))
+         return;
+      DKDBChecksumPrePass prePass = new DKDBChecksumPrePass();
+      if (!prePass.apply(lhsSource_, rhsSource_, tableComparison_))
+         DKRuntime.getInstance().getUserLog().info(
+            "checksumPrePass not applicable to these sources; diffing all rows");
+      getSystemLog().info("prePass->{}", prePass);
+   }
+
+   private static DKDiffEngine createEngine(DKPlan plan_, boolean resume_) {
+      if (resume_ && !(plan_ instanceof DKMagicPlan))
+         throw new DKUserException(
+            "resume requires a magic plan with a checkpointFilePath");
+      if (!(plan_ instanceof DKMagicPlan))
+         return new DKDiffEngine();
+      DKMagicPlan magicPlan = (DKMagicPlan) plan_;
+      boolean isSerial = !Boolean.TRUE.equals(magicPlan.getHashJoin())
+         && ((magicPlan.getDiffThreads() == null)
+            || (magicPlan.getDiffThreads().intValue() <= 1));
+      if (resume_ && (!isSerial || (magicPlan.getCheckpointFilePath() == null)))
+         throw new DKUserException(
+            "resume requires a serial diff and a checkpointFilePath in the plan");
+      if (!isSerial) {
+         List<String> serialOnly = new ArrayList<String>();
+         if (magicPlan.getCheckpointFilePath() != null)
+            serialOnly.add("checkpointFilePath");
+         if (Boolean.TRUE.equals(magicPlan.getNormalizedKeys()))
+            serialOnly.add("normalizedKeys");
+         if (Boolean.TRUE.equals(magicPlan.getRowFingerprints()))
+            serialOnly.add("rowFingerprints");
+         if (!serialOnly.isEmpty())
+            throw new DKUserException(String.format(
+               "plan properties %s require a serial diff and can't be combined with"
+                  + " hashJoin or diffThreads > 1", serialOnly));
+      }
+      if (Boolean.TRUE.equals(magicPlan.getHashJoin())) {
+         Long memoryBudget = magicPlan.getHashJoinMemoryBudget();
+         if (memoryBudget == null)
+            return new DKHashJoinDiffEngine();
+         return new DKHashJoinDiffEngine(memoryBudget.longValue());
+      }
+      Integer diffThreads = magicPlan.getDiffThreads();
+      if ((diffThreads != null) && (diffThreads.intValue() > 1))
+         return new DKParallelDiffEngine(diffThreads.intValue());
+      boolean normalizedKeys = Boolean.TRUE.equals(magicPlan.getNormalizedKeys());
+      boolean rowFingerprints = Boolean.TRUE.equals(magicPlan.getRowFingerprints());
+      String checkpointFilePath = magicPlan.getCheckpointFilePath();
+      if (checkpointFilePath == null)
+         return new DKDiffEngine(normalizedKeys, rowFingerprints);
+      Long checkpointInterval = magicPlan.getCheckpointInterval();
+      return new DKDiffEngine(normalizedKeys, rowFingerprints,
+         new File(checkpointFilePath), (checkpointInterval == null)
+            ? DKDiffEngine.DEFAULT_CHECKPOINT_INTERVAL : checkpointInterval.longValue(),
+         resume_);
    }
 
    private static void runDemoDB() throws Exception {
       DKDemoDB.run();
    }
 
+   private static void runGenerate(String[] args_) throws Exception {
+      Logger userLog = DKRuntime.getInstance().getUserLog();
+      getSystemLog().info("args_->{}", Arrays.toString(args_));
+      Map<String, String> params = parseParamArgs(args_, "rows", "columns",
+         "keyLength", "format", "missing", "extra", "change", "keys", "shuffle", "seed",
+         "out");
+      DKTableModel model = DKDataGenerator.createDefaultModel(Integer.parseInt(getParam(
+         params, "columns", "10")), Integer.parseInt(getParam(params, "keyLength", "1")));
+      DKDataGenerator generator = new DKDataGenerator(model, Long.parseLong(getParam(
+         params, "rows", "1000")), Long.parseLong(getParam(params, "seed", "0")));
+      generator.setMissingRate(Double.parseDouble(getParam(params, "missing", "0")));
+      generator.setExtraRate(Double.parseDouble(getParam(params, "extra", "0")));
+      generator.setChangeRate(Double.parseDouble(getParam(params, "change", "0")));
+      generator.setKeyDistribution(DKDataGenerator.KeyDistribution.valueOf(getParam(
+         params, "keys", "sequential").toUpperCase()));
+      generator.setShuffleWindow(Integer.parseInt(getParam(params, "shuffle", "0")));
+      File outDir = new File(getParam(params, "out", "./generated"));
+      if (!outDir.isDirectory() && !outDir.mkdirs())
+         throw new DKUserException(String.format("can't create directory [%s]", outDir));
+      String format = getParam(params, "format", "csv");
+      userLog.info("generating {} into [{}]", generator, outDir);
+      generator.generate(createGenerateTarget(format, outDir, "lhs"),
+         createGenerateTarget(format, outDir, "rhs"));
+      userLog.info(String.format(
+         "lhs rows->%s rhs rows->%s missing->%s extra->%s changed->%s",
+         generator.getLhsRowCount(), generator.getRhsRowCount(),
+         generator.getMissingCount(), generator.getExtraCount(),
+         generator.getChangeCount()));
+   }
+
+   private static void runServer(String[] args_) throws Exception {
+      getSystemLog().info("args_->{}", Arrays.toString(args_));
+      Map<String, String> params = parseParamArgs(args_, "port", "secret", "watch",
+         "threads", "poll");
+      String watch = getParam(params, "watch", null);
+      File defaultSecretFile = new File(System.getProperty("user.home"),
+         DKDiffServer.DEFAULT_SECRET_FILE_NAME);
+      File secretFile = new File(getParam(params, "secret",
+         defaultSecretFile.getPath()));
+      DKDiffServer server = new DKDiffServer(Integer.parseInt(getParam(params, "port",
+         String.valueOf(DKDiffServer.DEFAULT_PORT))), secretFile, (watch == null) ? null
+         : new File(watch), Integer.parseInt(getParam(params, "threads",
+         String.valueOf(DKDiffServer.DEFAULT_THREAD_COUNT))), Long.parseLong(getParam(
+         params, "poll", String.valueOf(DKDiffServer.DEFAULT_POLL_INTERVAL))));
+      server.start();
+      getSystemLog().info("server->{}", server);
+      server.awaitShutdown();
+   }
+
+   private static DKDataGenerator.Target createGenerateTarget(String format_,
+                                                              File outDir_,
+                                                              String side_) {
+      if (format_.equals("csv"))
+         return new DKDataGenerator.CsvTarget(new File(outDir_, side_ + ".csv"), ',');
+      if (format_.equals("xlsx"))
+         return new DKDataGenerator.XlsxTarget(new File(outDir_, side_ + ".xlsx"),
+            side_);
+      String tableName = side_.toUpperCase() + "_TABLE";
+      String databasePath = new File(outDir_, "generated").getAbsolutePath();
+      if (format_.equals("h2"))
+         return new DKDataGenerator.DBTarget(new DKDatabase(new DKDBConnectionInfo(
+            "generated", DKDBFlavor.H2, databasePath, null, null, "sa", "")), tableName);
+      if (format_.equals("hypersql"))
+         return new DKDataGenerator.DBTarget(new DKDatabase(new DKDBConnectionInfo(
+            "generated", DKDBFlavor.HYPERSQL, "file:" + databasePath, null, null, "sa",
+            "")), tableName);
+      throw new DKUserException(String.format("unrecognized format->%s", format_));
+   }
+
+   private static String getParam(Map<String, String> params_, String name_,
+                                  String default_) {
+      String value = params_.get(name_);
+      return (value == null) ? default_ : value;
+   }
+
+   /**
+    * @param args_
+    *           name=value pairs
+    * @return guaranteed to be non-null
+    */
+   private static Map<String, String> parseParamArgs(String[] args_, String... names_) {
+      List<String> names = Arrays.asList(names_);
+      Map<String, String> params = new HashMap<String, String>();
+      if (ArrayUtils.isEmpty(args_))
+         return params;
+      for (String arg : args_) {
+         String[] elements = arg.split("=");
+         if ((elements.length != 2) || !names.contains(elements[0]))
+            throw new DKUserException(String.format("unrecognized argument value->%s",
+               arg));
+         params.put(elements[0], elements[1]);
+      }
+      return params;
+   }
+
    @SuppressWarnings("unchecked")
    private static void runTestCases(String[] args_) {
       Logger systemLog = getSystemLog();
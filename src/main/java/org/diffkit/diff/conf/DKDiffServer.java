@@ -0,0 +1,466 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.conf;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.ClassUtils;
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.diffkit.common.DKUserException;
+import org.diffkit.diff.engine.DKContext;
+
+/**
+ * Keeps DiffKit resident, so that each of many small diffs doesn't pay for
+ * JVM startup, class loading and unpacking, and JDBC driver loading and
+ * connecting. DKConnectionPools are shared by url, so pooled connections stay
+ * open from one plan to the next. Plans running at once against the same url
+ * draw on that one pool, whose size is the maxConnections of its DKDatabases.
+ * Each plan still gets its own Spring context, since sources and sinks hold
+ * the state of their diff.
+ * <p>
+ * Plans are submitted either:
+ * <ul>
+ * <li>over a socket on the loopback interface: per connection, a line with the
+ * secret, then one request line, "[-errorOnDiff] [-resume] file1[,file2...]",
+ * answered with the summary of the diff, or the error, followed by a last line
+ * "exitStatus=&lt;n&gt;"</li>
+ * <li>by dropping a plan file, &lt;name&gt;.xml, into the watch directory; it
+ * is renamed &lt;name&gt;.xml.running while it runs, then &lt;name&gt;.xml.done,
+ * and its answer is written to &lt;name&gt;.xml.result</li>
+ * </ul>
+ * exitStatus is that of DKApplication -planfiles, or 1 if the plan failed; a
+ * plan stopped before it finished answers its partial summary, which says so,
+ * with DKApplication.STOPPED_EXIT_STATUS.
+ * Plans run concurrently on a pool of threadCount threads, with a bounded
+ * queue; once that is full, the submitting thread runs the plan itself, so
+ * submissions slow down rather than pile up. The request line "shutdown"
+ * stops taking new plans, and ends the server once the running ones finish.
+ * <p>
+ * A plan is a Spring context, so whoever submits one runs code as the user
+ * running the server. The loopback interface keeps remote hosts out, but not
+ * other users of the same host; so on start() the server writes a fresh random
+ * secret to the secret file, readable and writable only by its owner, and
+ * answers only the connections that present it. The watch directory has no
+ * such check: anyone who can write into it can submit plans, so it must be
+ * writable only by the user running the server.
+ * 
+ * @author jpanico
+ */
+public class DKDiffServer {
+   public static final int DEFAULT_PORT = 7341;
+   /**
+    * relative to user.home
+    */
+   public static final String DEFAULT_SECRET_FILE_NAME = ".diffkit/diffserver.secret";
+   public static final int DEFAULT_THREAD_COUNT = 4;
+   public static final long DEFAULT_POLL_INTERVAL = 1000;
+   public static final String SHUTDOWN_REQUEST = "shutdown";
+   public static final String EXIT_STATUS_PREFIX = "exitStatus=";
+   public static final int ERROR_EXIT_STATUS = 1;
+   private static final String ERROR_ON_DIFF_FLAG = "-errorOnDiff";
+   private static final String RESUME_FLAG = "-resume";
+   private static final String PLAN_FILE_SUFFIX = ".xml";
+   private static final String RUNNING_SUFFIX = ".running";
+   private static final String DONE_SUFFIX = ".done";
+   private static final String RESULT_SUFFIX = ".result";
+   // queued plans per thread
+   private static final int QUEUE_FACTOR = 4;
+   private static final String ENCODING = "UTF-8";
+   private static final Logger USER_LOG = LoggerFactory.getLogger("user");
+
+   private final int _port;
+   private final File _secretFile;
+   private final File _watchDir;
+   private final int _threadCount;
+   private final long _pollInterval;
+   private ThreadPoolExecutor _executor;
+   private ServerSocket _serverSocket;
+   private byte[] _secret;
+   private volatile boolean _isShutdown;
+   private final Logger _log = LoggerFactory.getLogger(this.getClass());
+
+   /**
+    * @param port_
+    *           0 for any free port; < 0 for no socket
+    * @param secretFile_
+    *           where the secret for the socket is written; required with a
+    *           socket, replaced if it exists
+    * @param watchDir_
+    *           null for no watch directory
+    */
+   public DKDiffServer(int port_, File secretFile_, File watchDir_, int threadCount_,
+                       long pollInterval_) {
+      _port = port_;
+      _secretFile = secretFile_;
+      _watchDir = watchDir_;
+      _threadCount = threadCount_;
+      _pollInterval = pollInterval_;
+      if ((_port < 0) && (_watchDir == null))
+         throw new DKUserException("server needs a port or a watch directory");
+      if ((_port >= 0) && (_secretFile == null))
+         throw new DKUserException("server needs a secret file for its port");
+      if (_threadCount < 1)
+         throw new IllegalArgumentException(String.format("threadCount_->%s",
+            _threadCount));
+      if ((_watchDir != null) && !_watchDir.isDirectory())
+         throw new DKUserException(String.format("watch directory [%s] doesn't exist",
+            _watchDir));
+   }
+
+   public synchronized void start() throws IOException {
+      if (_executor != null)
+         throw new IllegalStateException("already started");
+      _executor = new ThreadPoolExecutor(_threadCount, _threadCount, 0L,
+         TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(_threadCount
+            * QUEUE_FACTOR), new ServerThreadFactory(), new CallerRuns());
+      if (_port >= 0) {
+         String secret = generateSecret();
+         writeSecretFile(_secretFile, secret);
+         _secret = secret.getBytes(ENCODING);
+         USER_LOG.info("secret in->{}", _secretFile);
+         _serverSocket = new ServerSocket(_port, 0, InetAddress.getByName(null));
+         startThread(new Acceptor(), "acceptor");
+         USER_LOG.info("listening on port->{}", _serverSocket.getLocalPort());
+      }
+      if (_watchDir != null) {
+         startThread(new Watcher(), "watcher");
+         USER_LOG.info("watching->{}", _watchDir);
+      }
+   }
+
+   /**
+    * @return the port actually listened on; -1 if there's no socket
+    */
+   public int getPort() {
+      ServerSocket serverSocket = _serverSocket;
+      return (serverSocket == null) ? -1 : serverSocket.getLocalPort();
+   }
+
+   public File getSecretFile() {
+      return _secretFile;
+   }
+
+   public File getWatchDir() {
+      return _watchDir;
+   }
+
+   public int getThreadCount() {
+      return _threadCount;
+   }
+
+   public boolean isShutdown() {
+      return _isShutdown;
+   }
+
+   /**
+    * stops taking new plans; doesn't wait for the running ones
+    */
+   public synchronized void shutdown() {
+      if (_isShutdown)
+         return;
+      _isShutdown = true;
+      USER_LOG.info("shutting down");
+      // unblocks the acceptor
+      if (_serverSocket != null) {
+         try {
+            _serverSocket.close();
+         }
+         catch (IOException e_) {
+            _log.debug(null, e_);
+         }
+         if (!_secretFile.delete())
+            _log.warn("couldn't delete {}", _secretFile);
+      }
+      if (_executor != null)
+         _executor.shutdown();
+      this.notifyAll();
+   }
+
+   /**
+    * waits for shutdown(), then for the running plans to finish
+    */
+   public void awaitShutdown() throws InterruptedException {
+      synchronized (this) {
+         while (!_isShutdown)
+            this.wait();
+      }
+      if (_executor != null)
+         _executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      USER_LOG.info("shut down");
+   }
+
+   /**
+    * runs the plan named in request_, on the calling thread; never throws
+    * 
+    * @param request_
+    *           "[-errorOnDiff] [-resume] file1[,file2...]"
+    * @return the summary of the diff, or the error, followed by the
+    *         exitStatus line
+    */
+   public String run(String request_) {
+      _log.debug("request_->{}", request_);
+      StringBuilder builder = new StringBuilder();
+      int exitStatus = ERROR_EXIT_STATUS;
+      try {
+         boolean errorOnDiff = false;
+         boolean resume = false;
+         String planFiles = null;
+         for (String token : request_.trim().split("\\s+")) {
+            if (token.equals(ERROR_ON_DIFF_FLAG))
+               errorOnDiff = true;
+            else if (token.equals(RESUME_FLAG))
+               resume = true;
+            else if ((planFiles == null) && (token.length() > 0))
+               planFiles = token;
+            else
+               throw new DKUserException(String.format("unrecognized request->%s",
+                  request_));
+         }
+         if (planFiles == null)
+            throw new DKUserException("no plan files in request");
+         DKContext diffContext = DKApplication.diffPlan(planFiles, resume);
+         builder.append(diffContext.getSink().generateSummary(diffContext));
+         exitStatus = DKApplication.getExitStatus(diffContext, errorOnDiff);
+      }
+      catch (Throwable e_) {
+         Throwable rootCause = ExceptionUtils.getRootCause(e_);
+         if (rootCause == null)
+            rootCause = e_;
+         if (rootCause instanceof DKUserException)
+            _log.info(null, e_);
+         else
+            _log.error(null, e_);
+         builder.append(String.format("error->%s\n", rootCause.getMessage()));
+      }
+      if ((builder.length() > 0) && (builder.charAt(builder.length() - 1) != '\n'))
+         builder.append('\n');
+      builder.append(EXIT_STATUS_PREFIX).append(exitStatus).append("\n");
+      return builder.toString();
+   }
+
+   public String toString() {
+      return String.format("%s[port=%s, secretFile=%s, watchDir=%s, threadCount=%s]",
+         ClassUtils.getShortClassName(this.getClass()), this.getPort(), _secretFile,
+         _watchDir, _threadCount);
+   }
+
+   private void startThread(Runnable runnable_, String name_) {
+      Thread thread = new Thread(runnable_, String.format("%s-%s",
+         ClassUtils.getShortClassName(this.getClass()), name_));
+      thread.setDaemon(true);
+      thread.start();
+   }
+
+   private void runConnection(Socket socket_) {
+      try {
+         BufferedReader reader = new BufferedReader(new InputStreamReader(
+            socket_.getInputStream(), ENCODING));
+         String secret = reader.readLine();
+         String request = null;
+         String reply = null;
+         if (!this.isSecret(secret)) {
+            _log.warn("connection without the secret from->{}",
+               socket_.getRemoteSocketAddress());
+            reply = String.format("error->not authorized\n%s%s\n",
+               EXIT_STATUS_PREFIX, ERROR_EXIT_STATUS);
+         }
+         else if ((request = reader.readLine()) == null)
+            return;
+         else if (request.trim().equals(SHUTDOWN_REQUEST)) {
+            this.shutdown();
+            reply = EXIT_STATUS_PREFIX + "0\n";
+         }
+         else
+            reply = this.run(request);
+         Writer writer = new OutputStreamWriter(socket_.getOutputStream(), ENCODING);
+         writer.write(reply);
+         writer.flush();
+      }
+      catch (IOException e_) {
+         _log.warn(null, e_);
+      }
+      finally {
+         try {
+            socket_.close();
+         }
+         catch (IOException e_) {
+            _log.debug(null, e_);
+         }
+      }
+   }
+
+   private boolean isSecret(String secret_) throws IOException {
+      if (secret_ == null)
+         return false;
+      // compares in constant time
+      return MessageDigest.isEqual(_secret, secret_.trim().getBytes(ENCODING));
+   }
+
+   private static String generateSecret() {
+      byte[] bytes = new byte[16];
+      new SecureRandom().nextBytes(bytes);
+      return String.format("%032x", new BigInteger(1, bytes));
+   }
+
+   /**
+    * creates file_ anew, and makes it owner only before the secret goes in
+    */
+   private static void writeSecretFile(File file_, String secret_) throws IOException {
+      File parentDir = file_.getAbsoluteFile().getParentFile();
+      if ((parentDir != null) && !parentDir.isDirectory() && !parentDir.mkdirs())
+         throw new IOException(String.format("couldn't create %s", parentDir));
+      if (file_.exists() && !file_.delete())
+         throw new IOException(String.format("couldn't delete %s", file_));
+      // fails, rather than follows, whatever appeared there since
+      if (!file_.createNewFile())
+         throw new IOException(String.format("couldn't create %s", file_));
+      boolean isOwnerOnly = file_.setReadable(false, false)
+         && file_.setReadable(true, true) && file_.setWritable(false, false)
+         && file_.setWritable(true, true) && file_.setExecutable(false, false);
+      if (!isOwnerOnly)
+         throw new IOException(String.format(
+            "couldn't make %s readable only by its owner", file_));
+      FileUtils.writeStringToFile(file_, secret_ + "\n", ENCODING);
+   }
+
+   private void runPlanFile(File runningFile_, File planFile_) {
+      String reply = this.run(runningFile_.getAbsolutePath());
+      try {
+         FileUtils.writeStringToFile(new File(planFile_.getPath() + RESULT_SUFFIX),
+            reply, ENCODING);
+      }
+      catch (IOException e_) {
+         _log.error(null, e_);
+      }
+      File doneFile = new File(planFile_.getPath() + DONE_SUFFIX);
+      if (!runningFile_.renameTo(doneFile))
+         _log.warn("couldn't rename {} to {}", runningFile_, doneFile);
+   }
+
+   /**
+    * hands the plan files in the watch directory, that haven't been touched
+    * for a whole poll interval, to the executor
+    */
+   private void pollWatchDir() {
+      File[] planFiles = _watchDir.listFiles(new FileFilter() {
+         public boolean accept(File file_) {
+            return file_.isFile() && file_.getName().endsWith(PLAN_FILE_SUFFIX);
+         }
+      });
+      if (planFiles == null)
+         return;
+      Arrays.sort(planFiles);
+      long settledTime = System.currentTimeMillis() - _pollInterval;
+      for (final File planFile : planFiles) {
+         if (_isShutdown)
+            return;
+         if (planFile.lastModified() > settledTime)
+            continue;
+         final File runningFile = new File(planFile.getPath() + RUNNING_SUFFIX);
+         if (!planFile.renameTo(runningFile)) {
+            _log.warn("couldn't rename {} to {}", planFile, runningFile);
+            continue;
+         }
+         USER_LOG.info("planFile->{}", planFile);
+         _executor.execute(new Runnable() {
+            public void run() {
+               runPlanFile(runningFile, planFile);
+            }
+         });
+      }
+   }
+
+   private class Acceptor implements Runnable {
+      public void run() {
+         while (!_isShutdown) {
+            final Socket socket;
+            try {
+               socket = _serverSocket.accept();
+            }
+            catch (IOException e_) {
+               if (!_isShutdown)
+                  _log.error(null, e_);
+               return;
+            }
+            _executor.execute(new Runnable() {
+               public void run() {
+                  runConnection(socket);
+               }
+            });
+         }
+      }
+   }
+
+   private class Watcher implements Runnable {
+      public void run() {
+         while (!_isShutdown) {
+            try {
+               pollWatchDir();
+               Thread.sleep(_pollInterval);
+            }
+            catch (InterruptedException e_) {
+               Thread.currentThread().interrupt();
+               return;
+            }
+            catch (RuntimeException e_) {
+               _log.error(null, e_);
+            }
+         }
+      }
+   }
+
+   /**
+    * runs, on the submitting thread, what the pool can't take; even after
+    * shutdown, so that a submitted plan is always answered
+    */
+   private static class CallerRuns implements RejectedExecutionHandler {
+      public void rejectedExecution(Runnable runnable_, ThreadPoolExecutor executor_) {
+         runnable_.run();
+      }
+   }
+
+   private static class ServerThreadFactory implements ThreadFactory {
+      private final AtomicInteger _count = new AtomicInteger();
+
+      public Thread newThread(Runnable runnable_) {
+         return new Thread(runnable_, String.format("DKDiffServer-%s",
+            _count.incrementAndGet()));
+      }
+   }
+}
@@ -26,6 +26,7 @@ import org.diffkit.diff.engine.DKSink;
 import org.diffkit.diff.engine.DKSource;
 import org.diffkit.diff.engine.DKStandardTableComparison;
 import org.diffkit.diff.engine.DKTableComparison;
+import org.diffkit.diff.sns.DKPrefetchingSource;
 
 /**
  * @author jpanico
@@ -63,6 +64,18 @@ public class DKMagicPlan implements DKPlan {
    private Long _maxDiffs;
    private Boolean _withSummary;
    private String[] _groupByColumnNames;
+   private Integer _diffThreads;
+   private Integer _prefetchBufferDepth;
+   private Integer _prefetchBatchSize;
+   private Boolean _hashJoin;
+   private Long _hashJoinMemoryBudget;
+   private Integer _fileParseThreads;
+   private Boolean _checksumPrePass;
+   private Boolean _asyncWrite;
+   private Boolean _normalizedKeys;
+   private Boolean _rowFingerprints;
+   private String _checkpointFilePath;
+   private Long _checkpointInterval;
    private DKPassthroughPlan _builtPlan;
    private final Logger _log = LoggerFactory.getLogger(this.getClass());
 
@@ -266,6 +279,149 @@ public class DKMagicPlan implements DKPlan {
       _groupByColumnNames = groupByColumnNames_;
    }
 
+   /**
+    * if greater than 1, the diff is run by a DKParallelDiffEngine using this
+    * many worker threads
+    */
+   public Integer getDiffThreads() {
+      return _diffThreads;
+   }
+
+   public void setDiffThreads(Integer diffThreads_) {
+      _diffThreads = diffThreads_;
+   }
+
+   /**
+    * if either prefetchBufferDepth or prefetchBatchSize is specified, both
+    * sources are read ahead by a DKPrefetchingSource
+    */
+   public Integer getPrefetchBufferDepth() {
+      return _prefetchBufferDepth;
+   }
+
+   public void setPrefetchBufferDepth(Integer prefetchBufferDepth_) {
+      _prefetchBufferDepth = prefetchBufferDepth_;
+   }
+
+   public Integer getPrefetchBatchSize() {
+      return _prefetchBatchSize;
+   }
+
+   public void setPrefetchBatchSize(Integer prefetchBatchSize_) {
+      _prefetchBatchSize = prefetchBatchSize_;
+   }
+
+   /**
+    * if true, the diff is run by a DKHashJoinDiffEngine, DBSources are read
+    * without ORDER BY, and file and spreadsheet sources are not sorted, whatever
+    * isSorted says
+    */
+   public Boolean getHashJoin() {
+      return _hashJoin;
+   }
+
+   public void setHashJoin(Boolean hashJoin_) {
+      _hashJoin = hashJoin_;
+   }
+
+   /**
+    * bytes of lhs rows the DKHashJoinDiffEngine holds in memory before spilling
+    * to disk; null means the engine default
+    */
+   public Long getHashJoinMemoryBudget() {
+      return _hashJoinMemoryBudget;
+   }
+
+   public void setHashJoinMemoryBudget(Long hashJoinMemoryBudget_) {
+      _hashJoinMemoryBudget = hashJoinMemoryBudget_;
+   }
+
+   /**
+    * if greater than 1, FileSources memory map their files and parse them in
+    * chunks, on this many threads
+    */
+   public Integer getFileParseThreads() {
+      return _fileParseThreads;
+   }
+
+   public void setFileParseThreads(Integer fileParseThreads_) {
+      _fileParseThreads = fileParseThreads_;
+   }
+
+   /**
+    * if true, and both sides are DBSources on the same kind of database, key
+    * ranges whose checksums match on both sides are skipped before diffing
+    */
+   public Boolean getChecksumPrePass() {
+      return _checksumPrePass;
+   }
+
+   public void setChecksumPrePass(Boolean checksumPrePass_) {
+      _checksumPrePass = checksumPrePass_;
+   }
+
+   /**
+    * if true, the FileSink writes diffs on its own thread
+    */
+   public Boolean getAsyncWrite() {
+      return _asyncWrite;
+   }
+
+   public void setAsyncWrite(Boolean asyncWrite_) {
+      _asyncWrite = asyncWrite_;
+   }
+
+   /**
+    * if true, keys are aligned by comparing their DKKeyEncoder encodings.
+    * Requires the serial DKDiffEngine; can't be combined with hashJoin or
+    * diffThreads > 1
+    */
+   public Boolean getNormalizedKeys() {
+      return _normalizedKeys;
+   }
+
+   public void setNormalizedKeys(Boolean normalizedKeys_) {
+      _normalizedKeys = normalizedKeys_;
+   }
+
+   /**
+    * if true, columns that are compared exactly are only diffed for rows whose
+    * fingerprints differ. Requires the serial DKDiffEngine; can't be combined
+    * with hashJoin or diffThreads > 1
+    */
+   public Boolean getRowFingerprints() {
+      return _rowFingerprints;
+   }
+
+   public void setRowFingerprints(Boolean rowFingerprints_) {
+      _rowFingerprints = rowFingerprints_;
+   }
+
+   /**
+    * if specified, checkpoints are written to this file, and the diff can be
+    * resumed from it. Requires the serial DKDiffEngine; can't be combined with
+    * hashJoin or diffThreads > 1
+    */
+   public String getCheckpointFilePath() {
+      return _checkpointFilePath;
+   }
+
+   public void setCheckpointFilePath(String checkpointFilePath_) {
+      _checkpointFilePath = checkpointFilePath_;
+   }
+
+   /**
+    * rows between checkpoints; defaults to
+    * DKDiffEngine.DEFAULT_CHECKPOINT_INTERVAL
+    */
+   public Long getCheckpointInterval() {
+      return _checkpointInterval;
+   }
+
+   public void setCheckpointInterval(Long checkpointInterval_) {
+      _checkpointInterval = checkpointInterval_;
+   }
+
    public DKDBConnectionInfo getDbConnectionInfo() {
       return _dbConnectionInfo;
    }
@@ -352,6 +508,23 @@ public class DKMagicPlan implements DKPlan {
       catch (Exception e_) {
          throw new RuntimeException(e_);
       }
+      if ((_prefetchBufferDepth != null) || (_prefetchBatchSize != null)) {
+         _builtPlan.setLhsSource(this.prefetch(_builtPlan.getLhsSource()));
+         _builtPlan.setRhsSource(this.prefetch(_builtPlan.getRhsSource()));
+      }
       return _builtPlan;
    }
+
+   private DKSource prefetch(DKSource source_) {
+      if ((source_ == null) || (source_ instanceof DKPrefetchingSource))
+         return source_;
+      int bufferDepth = DKPrefetchingSource.DEFAULT_BUFFER_DEPTH;
+      if (_prefetchBufferDepth != null)
+         bufferDepth = _prefetchBufferDepth.intValue();
+      int batchSize = DKPrefetchingSource.DEFAULT_BATCH_SIZE;
+      if (_prefetchBatchSize != null)
+         batchSize = _prefetchBatchSize.intValue();
+      _log.debug("bufferDepth->{} batchSize->{}", bufferDepth, batchSize);
+      return new DKPrefetchingSource(source_, bufferDepth, batchSize);
+   }
 }
@@ -90,6 +90,13 @@ public class DKMagicPlanRules {
       "defaultWhereClause",
       "assign default null value to whereClause if value in Plan is null",
       DKDBSource.class, "whereClause_", "whereClause", false, new PlanValue(false));
+   private static final DKMagicPlanRule DB_IS_SORTED_RULE = new DKMagicPlanRule(
+      "dbIsSorted",
+      "if hashJoin is true in the Plan, then DBSources do not need to ORDER BY",
+      DKDBSource.class, "isSorted_", "hashJoin", true, new PlanFlag(Boolean.FALSE));
+   private static final DKMagicPlanRule DEFAULT_DB_IS_SORTED_RULE = new DKMagicPlanRule(
+      "defaultDBIsSorted", "hardwire isSorted to true", DKDBSource.class, "isSorted_",
+      null, false, new Constant(Boolean.TRUE));
    private static final DKMagicPlanRule DB_CONNECTION_INFO_RULE = new DKMagicPlanRule(
       "dbConnectionInfo",
       "if dbConnectionInfo is specified in plan, then use it in any constructor that requires one",
@@ -172,9 +179,23 @@ public class DKMagicPlanRules {
    private static final DKMagicPlanRule DEFAULT_DELIMITER_RULE = new DKMagicPlanRule(
       "defaultDelimiter", "if no delimiter is specified in plan, use ','",
       DKFileSource.class, "delimiter_", null, false, new Constant(","));
+   private static final DKMagicPlanRule HASH_JOIN_IS_SORTED_RULE = new DKMagicPlanRule(
+      "hashJoinIsSorted",
+      "if hashJoin is true in the Plan, then FileSources do not need to be sorted",
+      DKFileSource.class, "isSorted_", "hashJoin", true, new PlanFlag(Boolean.TRUE));
    private static final DKMagicPlanRule IS_SORTED_RULE = new DKMagicPlanRule("isSorted",
-      "hardwire isSorted to true", DKFileSource.class, "isSorted_", null, true,
-      new Constant(Boolean.TRUE));
+      "unless hashJoin is true, assign isSorted from the Plan to the FileSource",
+      DKFileSource.class, "isSorted_", "isSorted", true, new PlanValueUnlessFlag(
+         "hashJoin"));
+   private static final DKMagicPlanRule DEFAULT_IS_SORTED_RULE = new DKMagicPlanRule(
+      "defaultIsSorted", "if no isSorted specified in the Plan, hardwire it to true",
+      DKFileSource.class, "isSorted_", null, false, new Constant(Boolean.TRUE));
+   private static final DKMagicPlanRule FILE_PARSE_THREADS_RULE = new DKMagicPlanRule(
+      "fileParseThreads", "assign fileParseThreads from the Plan to the FileSource",
+      DKFileSource.class, "parseThreads_", "fileParseThreads", true, new PlanValue(true));
+   private static final DKMagicPlanRule DEFAULT_FILE_PARSE_THREADS_RULE = new DKMagicPlanRule(
+      "defaultFileParseThreads", "if no fileParseThreads in the Plan, parse on one thread",
+      DKFileSource.class, "parseThreads_", null, false, new Constant(Integer.valueOf(1)));
    private static final DKMagicPlanRule VALIDATE_LAZILY_RULE = new DKMagicPlanRule(
       "validateLazily", "hardwire validateLazily to false", DKFileSource.class,
       "validateLazily_", null, true, new Constant(Boolean.FALSE));
@@ -225,6 +246,12 @@ public class DKMagicPlanRules {
       "defaultWithSummary",
       "if no withSummary specified in the Plan, then use this rule", DKFileSink.class,
       "withSummary_", null, false, new Constant(Boolean.FALSE));
+   private static final DKMagicPlanRule ASYNC_WRITE_RULE = new DKMagicPlanRule(
+      "asyncWrite", "assign asyncWrite from the Plan to the FileSink", DKFileSink.class,
+      "asyncWrite_", "asyncWrite", true, new PlanValue(true));
+   private static final DKMagicPlanRule DEFAULT_ASYNC_WRITE_RULE = new DKMagicPlanRule(
+      "defaultAsyncWrite", "if no asyncWrite in the Plan, write on the diff thread",
+      DKFileSink.class, "asyncWrite_", null, false, new Constant(Boolean.FALSE));
    private static final DKMagicPlanRule GROUP_BY_COLUMN_NAMES_RULE = new DKMagicPlanRule(
       "groupByColumnNames", "assign groupByColumnNames from Plan to DKFileSink",
       DKFileSink.class, "groupByColumnNames_", "groupByColumnNames", true, new PlanValue(
@@ -250,10 +277,16 @@ public class DKMagicPlanRules {
       "if rhsSpreadSheetFilePath is specified in plan, then use it as the filePath_ in the rhsSpreadSheetFileSource",
       DKSpreadSheetFileSource.class, "rhsSource_.filePath_", "rhsSpreadSheetFilePath",
       true, new PlanValue(true));
+   private static final DKMagicPlanRule SPREADSHEET_HASH_JOIN_IS_SORTED_RULE = new DKMagicPlanRule(
+      "spreadsheetHashJoinIsSorted",
+      "if hashJoin is true in the Plan, then SpreadSheetFileSources do not need to be sorted",
+      DKSpreadSheetFileSource.class, "isSorted_", "hashJoin", true, new PlanFlag(
+         Boolean.TRUE));
    private static final DKMagicPlanRule SPREADSHEET_IS_SORTED_RULE = new DKMagicPlanRule(
       "spreadsheetIsSorted",
-      "assign isSorted from the Plan to the SpreadSheetFileSource",
-      DKSpreadSheetFileSource.class, "isSorted_", "isSorted", true, new PlanValue(true));
+      "unless hashJoin is true, assign isSorted from the Plan to the SpreadSheetFileSource",
+      DKSpreadSheetFileSource.class, "isSorted_", "isSorted", true,
+      new PlanValueUnlessFlag("hashJoin"));
    private static final DKMagicPlanRule DEFAULT_SPREADSHEET_IS_SORTED_RULE = new DKMagicPlanRule(
       "spreadsheetIsSorted", "hardwire isSorted to true", DKSpreadSheetFileSource.class,
       "isSorted_", null, false, new Constant(Boolean.TRUE));
@@ -291,19 +324,25 @@ public class DKMagicPlanRules {
       RHS_DB_SOURCE_FROM_RHS_DB_TABLE_RULE, LHS_DB_SOURCE_FROM_DB_TABLE_RULE,
       RHS_DB_SOURCE_FROM_DB_TABLE_RULE, DB_TABLE_NAME_RULE, LHS_DB_TABLE_NAME_RULE,
       RHS_DB_TABLE_NAME_RULE, WHERE_CLAUSE_RULE, LHS_WHERE_CLAUSE_RULE,
-      RHS_WHERE_CLAUSE_RULE, DEFAULT_WHERE_CLAUSE_RULE, DB_CONNECTION_INFO_RULE,
-      LHS_DB_CONNECTION_INFO_RULE, RHS_DB_CONNECTION_INFO_RULE, MODEL_DEFAULT_RULE,
+      RHS_WHERE_CLAUSE_RULE, DEFAULT_WHERE_CLAUSE_RULE, DB_IS_SORTED_RULE,
+      DEFAULT_DB_IS_SORTED_RULE, DB_CONNECTION_INFO_RULE, LHS_DB_CONNECTION_INFO_RULE,
+      RHS_DB_CONNECTION_INFO_RULE, MODEL_DEFAULT_RULE,
       KEY_COLUMN_NAMES_RULE, READ_COLUMNS_RULE, LHS_FILE_SOURCE_RULE, LHS_FILE_PATH_RULE,
       RHS_FILE_SOURCE_RULE, RHS_FILE_PATH_RULE, LHS_SPREADSHEET_FILE_SOURCE_RULE,
       RHS_SPREADSHEET_FILE_SOURCE_RULE, LHS_SPREADSHEET_FILE_PATH_RULE,
       RHS_SPREADSHEET_FILE_PATH_RULE, FILE_SINK_RULE, FILE_SINK_PATH_RULE,
       SQL_PATCH_SINK_RULE, SQL_PATCH_SINK_RHS_TABLE_NAME_RULE, SQL_PATCH_FILE_PATH_RULE,
       DEFAULT_SINK_RULE, AUTOMATIC_TABLE_COMPARISON_RULE, DELIMITER_RULE,
-      DEFAULT_DELIMITER_RULE, IS_SORTED_RULE, VALIDATE_LAZILY_RULE, DIFF_KIND_RULE,
-      DEFAULT_DIFF_KIND_RULE, DIFF_COLUMN_NAMES_RULE, IGNORE_COLUMN_NAMES_RULE,
+      DEFAULT_DELIMITER_RULE, HASH_JOIN_IS_SORTED_RULE, IS_SORTED_RULE,
+      DEFAULT_IS_SORTED_RULE,
+      FILE_PARSE_THREADS_RULE, DEFAULT_FILE_PARSE_THREADS_RULE,
+      VALIDATE_LAZILY_RULE, DIFF_KIND_RULE, DEFAULT_DIFF_KIND_RULE,
+      DIFF_COLUMN_NAMES_RULE, IGNORE_COLUMN_NAMES_RULE,
       DISPLAY_COLUMN_NAMES_RULE, MAX_DIFFS_RULE, DEFAULT_MAX_DIFFS_RULE,
       NUMBER_TOLERANCE_RULE, TOLERANCE_MAP_RULE, WITH_SUMMARY_RULE,
-      DEFAULT_WITH_SUMMARY_RULE, GROUP_BY_COLUMN_NAMES_RULE, SPREADSHEET_IS_SORTED_RULE,
+      DEFAULT_WITH_SUMMARY_RULE, ASYNC_WRITE_RULE, DEFAULT_ASYNC_WRITE_RULE,
+      GROUP_BY_COLUMN_NAMES_RULE, SPREADSHEET_HASH_JOIN_IS_SORTED_RULE,
+      SPREADSHEET_IS_SORTED_RULE,
       DEFAULT_SPREADSHEET_IS_SORTED_RULE, SPREADSHEET_HAS_HEADER_RULE,
       DEFAULT_SPREADSHEET_HAS_HEADER_RULE, LHS_SPREADSHEET_SHEET_NAME_RULE,
       RHS_SPREADSHEET_SHEET_NAME_RULE, DEFAULT_SPREADSHEET_SHEET_NAME_RULE,
@@ -367,6 +406,27 @@ public class DKMagicPlanRules {
       }
    }
 
+   /**
+    * a PlanValue that steps aside when the Boolean at flagKey_ is TRUE in the
+    * Plan, so that the PlanFlag rule for that key applies instead
+    */
+   private static class PlanValueUnlessFlag extends PlanValue {
+      private final String _flagKey;
+
+      private PlanValueUnlessFlag(String flagKey_) {
+         super(true);
+         _flagKey = flagKey_;
+      }
+
+      @Override
+      public boolean applies(DKMagicDependency<?> dependency_, DKMagicPlan providedPlan_) {
+         if (Boolean.TRUE.equals(DKKeyValueCoder.getInstance().getValueAtPath(_flagKey,
+            providedPlan_)))
+            return false;
+         return super.applies(dependency_, providedPlan_);
+      }
+   }
+
    private static class Constant extends RuleImplementation {
       private final Object _constantValue;
 
@@ -380,6 +440,31 @@ public class DKMagicPlanRules {
       }
    }
 
+   /**
+    * applies only when the Boolean at the magicPlanKey is TRUE in the Plan;
+    * then resolves to a constant
+    */
+   private static class PlanFlag extends RuleImplementation {
+      private final Object _constantValue;
+
+      private PlanFlag(Object constantValue_) {
+         _constantValue = constantValue_;
+      }
+
+      @Override
+      public boolean applies(DKMagicDependency<?> dependency_, DKMagicPlan providedPlan_) {
+         if (!super.applies(dependency_, providedPlan_))
+            return false;
+         return Boolean.TRUE.equals(DKKeyValueCoder.getInstance().getValueAtPath(
+            this.getRule().getMagicPlanKey(), providedPlan_));
+      }
+
+      @Override
+      public Object resolve(DKMagicDependency<?> dependency_, DKMagicPlan providedPlan_) {
+         return _constantValue;
+      }
+   }
+
    private static class DefaultSink extends RuleImplementation {
 
       @Override
@@ -20,12 +20,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.diffkit.diff.engine.DKContext;
-import org.diffkit.diff.engine.DKDiffor;
+import org.diffkit.diff.engine.DKExactDiffor;
 
 /**
  * @author jpanico
  */
-public class DKEqualsDiffor implements DKDiffor {
+public class DKEqualsDiffor implements DKExactDiffor {
 
    private static final DKEqualsDiffor INSTANCE = new DKEqualsDiffor();
    private final Logger _log = LoggerFactory.getLogger(this.getClass());
@@ -15,25 +15,25 @@
  */
 package org.diffkit.diff.diffor;
 
-import java.util.regex.Pattern;
-
-import org.apache.commons.lang.StringUtils;
 import org.diffkit.diff.engine.DKContext;
 import org.diffkit.diff.engine.DKDiffor;
 
 /**
+ * Compares Strings after normalizing them: characters in ignoreChars are
+ * dropped, each run of spaces, tabs and line breaks counts as one space, and
+ * leading and trailing whitespace is ignored. The comparison walks both
+ * Strings in a single pass, without creating normalized copies.
+ *
  * @author jpanico
  */
 public class DKTextDiffor implements DKDiffor {
 
-	private static final Pattern NEWLINE_TAB_PATTERN = Pattern
-			.compile("[\n\r\t]{1}");
-	private static final Pattern SPACE_RUN_PATTERN = Pattern.compile("[ ]+");
-
 	private final String _ignoreChars;
+	private final boolean _hasIgnoreChars;
 
 	public DKTextDiffor(String ignoreChars_) {
 		_ignoreChars = ignoreChars_;
+		_hasIgnoreChars = ((ignoreChars_ != null) && (ignoreChars_.length() > 0));
 	}
 
 	/**
@@ -50,22 +50,110 @@ public class DKTextDiffor implements DKDiffor {
 		boolean equals = lhs_.equals(rhs_);
 		if (equals)
 			return false;
-		String normalizedLhs = this.normalize((String) lhs_);
-		String normalizedRhs = this.normalize((String) rhs_);
-		lhsNull = (normalizedLhs == null);
-		rhsNull = (normalizedRhs == null);
-		if (lhsNull && rhsNull)
-			return false;
-		if (lhsNull || rhsNull)
-			return true;
-		return !normalizedLhs.equals(normalizedRhs);
+		return !this.isNormalizedEqual((String) lhs_, (String) rhs_);
+	}
+
+	private boolean isNormalizedEqual(String lhs_, String rhs_) {
+		int lhsEnd = this.getTrimmedEnd(lhs_);
+		int rhsEnd = this.getTrimmedEnd(rhs_);
+		int lhsPosition = this.getTrimmedStart(lhs_, lhsEnd);
+		int rhsPosition = this.getTrimmedStart(rhs_, rhsEnd);
+		while (true) {
+			lhsPosition = this.skipIgnored(lhs_, lhsPosition, lhsEnd);
+			rhsPosition = this.skipIgnored(rhs_, rhsPosition, rhsEnd);
+			boolean lhsDone = (lhsPosition >= lhsEnd);
+			boolean rhsDone = (rhsPosition >= rhsEnd);
+			if (lhsDone || rhsDone)
+				return (lhsDone && rhsDone);
+			char lhsChar = lhs_.charAt(lhsPosition);
+			char rhsChar = rhs_.charAt(rhsPosition);
+			if (isSpace(lhsChar) || isSpace(rhsChar)) {
+				if (!(isSpace(lhsChar) && isSpace(rhsChar)))
+					return false;
+				lhsPosition = this.skipSpace(lhs_, lhsPosition, lhsEnd);
+				rhsPosition = this.skipSpace(rhs_, rhsPosition, rhsEnd);
+				continue;
+			}
+			if (lhsChar != rhsChar)
+				return false;
+			lhsPosition++;
+			rhsPosition++;
+		}
+	}
+
+	/**
+	 * the form that isDiff() compares, materialized; null if nothing is left
+	 */
+	String normalize(String target_) {
+		int end = this.getTrimmedEnd(target_);
+		int position = this.getTrimmedStart(target_, end);
+		StringBuilder builder = new StringBuilder(end - position);
+		while (position < end) {
+			char c = target_.charAt(position);
+			if (this.isIgnored(c))
+				position++;
+			else if (isSpace(c)) {
+				builder.append(' ');
+				position = this.skipSpace(target_, position, end);
+			}
+			else {
+				builder.append(c);
+				position++;
+			}
+		}
+		return (builder.length() == 0 ? null : builder.toString());
+	}
+
+	/**
+	 * @return index after the last char that is neither ignored nor <= ' '
+	 */
+	private int getTrimmedEnd(String target_) {
+		int end = target_.length();
+		while ((end > 0) && this.isTrimmed(target_.charAt(end - 1)))
+			end--;
+		return end;
+	}
+
+	/**
+	 * @return index of the first char that is neither ignored nor <= ' '
+	 */
+	private int getTrimmedStart(String target_, int end_) {
+		int start = 0;
+		while ((start < end_) && this.isTrimmed(target_.charAt(start)))
+			start++;
+		return start;
+	}
+
+	private int skipIgnored(String target_, int position_, int end_) {
+		if (!_hasIgnoreChars)
+			return position_;
+		while ((position_ < end_) && this.isIgnored(target_.charAt(position_)))
+			position_++;
+		return position_;
+	}
+
+	/**
+	 * skips a run of whitespace, along with any ignored chars inside of it
+	 */
+	private int skipSpace(String target_, int position_, int end_) {
+		while (position_ < end_) {
+			char c = target_.charAt(position_);
+			if (!(isSpace(c) || this.isIgnored(c)))
+				break;
+			position_++;
+		}
+		return position_;
+	}
+
+	private boolean isTrimmed(char c_) {
+		return ((c_ <= ' ') || this.isIgnored(c_));
+	}
+
+	private boolean isIgnored(char c_) {
+		return (_hasIgnoreChars && (_ignoreChars.indexOf(c_) >= 0));
 	}
 
-	private String normalize(String target_) {
-		String normalizedString = NEWLINE_TAB_PATTERN.matcher(target_)
-				.replaceAll(" ");
-		normalizedString = SPACE_RUN_PATTERN.matcher(normalizedString)
-				.replaceAll(" ");
-		return StringUtils.trimToNull(normalizedString);
+	private static boolean isSpace(char c_) {
+		return ((c_ == ' ') || (c_ == '\n') || (c_ == '\r') || (c_ == '\t'));
 	}
 }
@@ -0,0 +1,33 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+/**
+ * A DKSource or DKSink that does its I/O on a thread of its own, handing work
+ * to and from the engine through a bounded queue.
+ * 
+ * @author jpanico
+ */
+public interface DKAsyncSourceSink extends DKSourceSink {
+
+   /**
+    * may be called from any thread
+    * 
+    * @return units of work queued between the engine and the other thread; 0
+    *         if not open
+    */
+   public int getQueueDepth();
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+import java.io.IOException;
+
+/**
+ * A DKSource that can vend its rows in batches more cheaply than one at a
+ * time. Optional; readers of any DKSource check for it, and fall back to
+ * DKSourceUtil.getNextRows() for sources that aren't.
+ * 
+ * @author jpanico
+ */
+public interface DKBatchSource extends DKSource {
+
+   /**
+    * batch form of getNextRow(). Fills rows_, starting at index 0, with up to
+    * rows_.length rows.
+    * 
+    * @return number of rows placed in rows_; 0 only when it's out of rows
+    */
+   public int getNextRows(Object[][] rows_) throws IOException;
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.ClassUtils;
+
+import org.diffkit.common.DKUserException;
+import org.diffkit.common.DKValidate;
+
+/**
+ * Where a long running diff got to: the last key aligned on both sides, the
+ * DKContext rowStep, how many rows were read from each side, and the state of
+ * a DKResumableSink. Every row up to and including that key has been diffed
+ * and its diffs recorded, so a diff can be resumed from just past it.
+ * 
+ * @author jpanico
+ */
+public class DKCheckpoint implements Serializable {
+   private static final long serialVersionUID = 1L;
+   private static final String TEMP_SUFFIX = ".tmp";
+
+   private final long _rowStep;
+   private final long[] _rowCounts;
+   private final Object[][] _keyValues;
+   private final Serializable _sinkState;
+
+   /**
+    * @param rowCounts_
+    *           rows read from each side, indexed by DKSide constant
+    * @param keyValues_
+    *           key values, in model key order, of the last aligned row on
+    *           each side, indexed by DKSide constant
+    */
+   public DKCheckpoint(long rowStep_, long[] rowCounts_, Object[][] keyValues_,
+                       Serializable sinkState_) {
+      DKValidate.notNull(rowCounts_, keyValues_);
+      _rowStep = rowStep_;
+      _rowCounts = rowCounts_;
+      _keyValues = keyValues_;
+      _sinkState = sinkState_;
+   }
+
+   public static DKCheckpoint read(File file_) throws IOException {
+      DKValidate.notNull(file_);
+      if (!file_.canRead())
+         throw new DKUserException(String.format("can't read checkpoint file [%s]",
+            file_));
+      ObjectInputStream input = new ObjectInputStream(new BufferedInputStream(
+         new FileInputStream(file_)));
+      try {
+         return (DKCheckpoint) input.readObject();
+      }
+      catch (ClassNotFoundException e_) {
+         throw new RuntimeException(e_);
+      }
+      finally {
+         IOUtils.closeQuietly(input);
+      }
+   }
+
+   /**
+    * writes to a temp file that is then renamed over file_, so that a crash
+    * while writing leaves the previous checkpoint intact
+    */
+   public void write(File file_) throws IOException {
+      DKValidate.notNull(file_);
+      File tempFile = new File(file_.getPath() + TEMP_SUFFIX);
+      FileOutputStream fileOutput = new FileOutputStream(tempFile);
+      ObjectOutputStream output = new ObjectOutputStream(new BufferedOutputStream(
+         fileOutput));
+      try {
+         output.writeObject(this);
+         output.flush();
+         fileOutput.getFD().sync();
+      }
+      finally {
+         IOUtils.closeQuietly(output);
+      }
+      if (tempFile.renameTo(file_))
+         return;
+      // some platforms won't rename over an existing file
+      if (!file_.delete() || !tempFile.renameTo(file_))
+         throw new IOException(String.format("couldn't rename [%s] to [%s]", tempFile,
+            file_));
+   }
+
+   public long getRowStep() {
+      return _rowStep;
+   }
+
+   public long getRowCount(int sideIdx_) {
+      return _rowCounts[sideIdx_];
+   }
+
+   public Object[] getKeyValues(int sideIdx_) {
+      return _keyValues[sideIdx_];
+   }
+
+   public Serializable getSinkState() {
+      return _sinkState;
+   }
+
+   public String toString() {
+      return String.format("%s[rowStep=%s, rowCounts=%s, keyValues=%s]",
+         ClassUtils.getShortClassName(this.getClass()), _rowStep,
+         Arrays.toString(_rowCounts), Arrays.toString(_keyValues[DKSide.LEFT_INDEX]));
+   }
+}
@@ -41,15 +41,22 @@ public class DKContext {
    public final DKTableComparison _tableComparison;
    public final Map<UserKey, Object> _userDictionary = new HashMap<UserKey, Object>();
    public final long _id = UUID.randomUUID().getLeastSignificantBits();
-   // current or last
-   public long _rowStep;
+   // current or last; volatile for DKDiffMonitor, only the engine thread writes it
+   public volatile long _rowStep;
    // current or last
    public int _columnStep;
    // column index of the current or last lhs value diff'd
    public int _lhsColumnIdx;
    // column index of the current or last rhs value diff'd
    public int _rhsColumnIdx;
+   // current or last row diff'd, on each side; either may be null
+   public Object[] _lhsRow;
+   public Object[] _rhsRow;
+   public final DKDiffMetrics _metrics = new DKDiffMetrics(this);
+   private final DKDiffMonitor _monitor = new DKDiffMonitor(this);
    private final StopWatch _stopwatch = new StopWatch();
+   private volatile boolean _isStopRequested;
+   private volatile boolean _isStopped;
 
    /**
     * for testing only
@@ -91,15 +98,50 @@ public class DKContext {
       if (_rhs != null)
          _rhs.open(this);
       _stopwatch.start();
+      _metrics.open();
+      _monitor.register();
    }
 
    public void close() throws IOException {
       _stopwatch.stop();
-      _sink.close(this);
-      if (_lhs != null)
-         _lhs.close(this);
-      if (_rhs != null)
-         _rhs.close(this);
+      _metrics.close();
+      try {
+         _sink.close(this);
+         if (_lhs != null)
+            _lhs.close(this);
+         if (_rhs != null)
+            _rhs.close(this);
+      }
+      finally {
+         _monitor.unregister();
+      }
+   }
+
+   /**
+    * asks the engine to stop after the current row; may be called from any
+    * thread
+    */
+   public void requestStop() {
+      _isStopRequested = true;
+   }
+
+   public boolean isStopRequested() {
+      return _isStopRequested;
+   }
+
+   /**
+    * called by the engine when it ends the diff early, on requestStop()
+    */
+   void setStopped() {
+      _isStopped = true;
+   }
+
+   /**
+    * @return true if the diff ended early, on requestStop(), so that its
+    *         results are incomplete
+    */
+   public boolean isStopped() {
+      return _isStopped;
    }
 
    public String getElapsedTimeString() {
@@ -138,6 +180,28 @@ public class DKContext {
       return _stopwatch.getTime();
    }
 
+   public DKDiffMetrics getMetrics() {
+      return _metrics;
+   }
+
+   public DKDiffMonitor getMonitor() {
+      return _monitor;
+   }
+
+   /**
+    * @return key values of the current or last lhs row diff'd, or, if there
+    *         is none, of the rhs row; null if neither
+    */
+   public Object[] getCurrentKeyValues() {
+      Object[] lhsRow = _lhsRow;
+      if (lhsRow != null)
+         return _tableComparison.getRowKeyValues(lhsRow, DKSide.LEFT_INDEX);
+      Object[] rhsRow = _rhsRow;
+      if (rhsRow != null)
+         return _tableComparison.getRowKeyValues(rhsRow, DKSide.RIGHT_INDEX);
+      return null;
+   }
+
    public Map<UserKey, ?> getUserDictionary() {
       return _userDictionary;
    }
@@ -15,29 +15,103 @@
  */
 package org.diffkit.diff.engine;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Map;
 
+import org.apache.commons.lang.ObjectUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.diffkit.common.DKUserException;
 import org.diffkit.common.DKValidate;
 import org.diffkit.common.annot.NotThreadSafe;
 import org.diffkit.common.annot.Stateless;
 import org.diffkit.diff.engine.DKContext.UserKey;
 
 /**
+ * Merge joins two sources that are sorted by key. If normalizedKeys is true,
+ * each row's key is encoded by a DKKeyEncoder as the row is read, and keys are
+ * aligned by comparing those bytes rather than by the row comparator. If
+ * rowFingerprints is true, and both sources are DKFingerprintSources of the
+ * same kind, key matched rows whose fingerprints are equal skip the diffing of
+ * the fingerprinted columns. If checkpointFile is set, and the sink is a
+ * DKResumableSink, a DKCheckpoint is written to it about every
+ * checkpointInterval rows, and deleted when the diff completes; with resume, the
+ * diff carries on from the checkpoint in that file.
+ *
  * @author jpanico
  */
 @NotThreadSafe
 @Stateless
 public class DKDiffEngine {
    private static final long PROGRESS_BATCH_SIZE = 1000;
+   public static final long DEFAULT_CHECKPOINT_INTERVAL = 1000000;
    private final Logger _log = LoggerFactory.getLogger(this.getClass());
    private static final Logger USER_LOG = LoggerFactory.getLogger("user");
    private final boolean _isDebug = _log.isDebugEnabled();
+   private final boolean _normalizedKeys;
+   private final boolean _rowFingerprints;
+   private final File _checkpointFile;
+   private final long _checkpointInterval;
+   private final boolean _resume;
+
+   public DKDiffEngine() {
+      this(false);
+   }
+
+   public DKDiffEngine(boolean normalizedKeys_) {
+      this(normalizedKeys_, false);
+   }
+
+   public DKDiffEngine(boolean normalizedKeys_, boolean rowFingerprints_) {
+      this(normalizedKeys_, rowFingerprints_, null, DEFAULT_CHECKPOINT_INTERVAL, false);
+   }
+
+   /**
+    * @param checkpointFile_
+    *           null means no checkpoints
+    * @param checkpointInterval_
+    *           minimum rowSteps between checkpoints
+    * @param resume_
+    *           true means resume from the checkpoint in checkpointFile_
+    */
+   public DKDiffEngine(boolean normalizedKeys_, boolean rowFingerprints_,
+                       File checkpointFile_, long checkpointInterval_, boolean resume_) {
+      if (checkpointInterval_ < 1)
+         throw new IllegalArgumentException(String.format("checkpointInterval_->%s",
+            checkpointInterval_));
+      if (resume_ && (checkpointFile_ == null))
+         throw new IllegalArgumentException("resume_ requires a checkpointFile_");
+      _normalizedKeys = normalizedKeys_;
+      _rowFingerprints = rowFingerprints_;
+      _checkpointFile = checkpointFile_;
+      _checkpointInterval = checkpointInterval_;
+      _resume = resume_;
+   }
+
+   public boolean getNormalizedKeys() {
+      return _normalizedKeys;
+   }
+
+   public boolean getRowFingerprints() {
+      return _rowFingerprints;
+   }
+
+   public File getCheckpointFile() {
+      return _checkpointFile;
+   }
+
+   public long getCheckpointInterval() {
+      return _checkpointInterval;
+   }
+
+   public boolean getResume() {
+      return _resume;
+   }
 
    public DKContext diff(DKSource lhs_, DKSource rhs_, DKSink sink_,
                          DKTableComparison tableComparison_,
@@ -59,33 +133,89 @@ public class DKDiffEngine {
    protected void diff(DKContext context_) throws IOException {
       long maxDiffs = context_._tableComparison.getMaxDiffs();
       _log.debug("maxDiffs->{}", maxDiffs);
+      boolean[] fingerprinted = this.setFingerprintColumns(context_);
+      int lhsFingerprintIdx = context_._tableComparison.getLhsModel().getColumns().length;
+      int rhsFingerprintIdx = context_._tableComparison.getRhsModel().getColumns().length;
+      long fingerprintMatches = 0;
+      DKCheckpoint resumed = this.setResumeState(context_);
+      boolean[] selfSkipping = this.setResumeAfter(resumed, context_);
+      DKResumableSink checkpointSink = this.getCheckpointSink(context_);
       context_.open();
       int oneSide = -1;
       Object[][] rows = new Object[2][];
+      byte[][] keys = new byte[2][];
       Comparator<Object[]> rowComparator = context_._tableComparison.getRowComparator();
       _log.debug("rowComparator->{}", rowComparator);
+      DKKeyEncoder keyEncoder = this.createKeyEncoder(context_._tableComparison);
+      _log.debug("keyEncoder->{}", keyEncoder);
+      DKDiffMetrics metrics = context_._metrics;
+      // reads are timed per batch, by the readers, rather than sampled here
+      DKSourceReader lhsReader = new DKSourceReader(context_._lhs, metrics,
+         DKDiffMetrics.Phase.LHS_READ);
+      DKSourceReader rhsReader = new DKSourceReader(context_._rhs, metrics,
+         DKDiffMetrics.Phase.RHS_READ);
+      // rows read from each side
+      long[] rowCounts = new long[2];
+      if (resumed != null) {
+         context_._rowStep = resumed.getRowStep();
+         rowCounts[DKSide.LEFT_INDEX] = resumed.getRowCount(DKSide.LEFT_INDEX);
+         rowCounts[DKSide.RIGHT_INDEX] = resumed.getRowCount(DKSide.RIGHT_INDEX);
+         if (!selfSkipping[DKSide.LEFT_INDEX])
+            skip(lhsReader, rowCounts[DKSide.LEFT_INDEX]);
+         if (!selfSkipping[DKSide.RIGHT_INDEX])
+            skip(rhsReader, rowCounts[DKSide.RIGHT_INDEX]);
+         USER_LOG.info("resumed from->{}", resumed);
+      }
+      long checkpointStep = context_._rowStep;
       while (context_._sink.getDiffCount() < maxDiffs) {
+         if (context_.isStopRequested()) {
+            context_.setStopped();
+            break;
+         }
          if (_isDebug)
             _log.debug("diffCount->{}", context_._sink.getDiffCount());
          boolean oneSided = false;
          context_._rowStep++;
          context_._columnStep = 0;
+         metrics.sample(context_._rowStep);
          if (context_._rowStep % PROGRESS_BATCH_SIZE == 0)
             USER_LOG.info("->{}", context_._rowStep);
-         if (rows[DKSide.LEFT_INDEX] == null)
-            rows[DKSide.LEFT_INDEX] = context_._lhs.getNextRow();
+         if (rows[DKSide.LEFT_INDEX] == null) {
+            rows[DKSide.LEFT_INDEX] = lhsReader.next();
+            metrics.count(DKDiffMetrics.Phase.LHS_READ);
+            if (rows[DKSide.LEFT_INDEX] != null)
+               rowCounts[DKSide.LEFT_INDEX]++;
+            if (keyEncoder != null) {
+               long start = metrics.start();
+               keys[DKSide.LEFT_INDEX] = keyEncoder.encode(rows[DKSide.LEFT_INDEX],
+                  DKSide.LEFT_INDEX);
+               metrics.stop(DKDiffMetrics.Phase.KEY_COMPARE, start);
+            }
+         }
          if (rows[DKSide.LEFT_INDEX] == null) {
             oneSided = true;
             oneSide = DKSide.RIGHT_INDEX;
          }
-         if (rows[DKSide.RIGHT_INDEX] == null)
-            rows[DKSide.RIGHT_INDEX] = context_._rhs.getNextRow();
+         if (rows[DKSide.RIGHT_INDEX] == null) {
+            rows[DKSide.RIGHT_INDEX] = rhsReader.next();
+            metrics.count(DKDiffMetrics.Phase.RHS_READ);
+            if (rows[DKSide.RIGHT_INDEX] != null)
+               rowCounts[DKSide.RIGHT_INDEX]++;
+            if (keyEncoder != null) {
+               long start = metrics.start();
+               keys[DKSide.RIGHT_INDEX] = keyEncoder.encode(rows[DKSide.RIGHT_INDEX],
+                  DKSide.RIGHT_INDEX);
+               metrics.stop(DKDiffMetrics.Phase.KEY_COMPARE, start);
+            }
+         }
          if (rows[DKSide.RIGHT_INDEX] == null) {
             if (oneSided)
                break;
             oneSided = true;
             oneSide = DKSide.LEFT_INDEX;
          }
+         context_._lhsRow = rows[DKSide.LEFT_INDEX];
+         context_._rhsRow = rows[DKSide.RIGHT_INDEX];
          if (_isDebug) {
             _log.debug("oneSided->{}", oneSided);
             _log.debug("oneSide->{}", oneSide);
@@ -96,8 +226,16 @@ public class DKDiffEngine {
             continue;
          }
          assert ((rows[DKSide.LEFT_INDEX] != null) && (rows[DKSide.RIGHT_INDEX] != null));
-         int comparison = rowComparator.compare(rows[DKSide.LEFT_INDEX],
-            rows[DKSide.RIGHT_INDEX]);
+         int comparison;
+         long start = metrics.start();
+         // a null key means that row's values couldn't be encoded
+         if ((keys[DKSide.LEFT_INDEX] != null) && (keys[DKSide.RIGHT_INDEX] != null))
+            comparison = DKKeyEncoder.compare(keys[DKSide.LEFT_INDEX],
+               keys[DKSide.RIGHT_INDEX]);
+         else
+            comparison = rowComparator.compare(rows[DKSide.LEFT_INDEX],
+               rows[DKSide.RIGHT_INDEX]);
+         metrics.stop(DKDiffMetrics.Phase.KEY_COMPARE, start);
          // LEFT < RIGHT
          if (comparison < 0) {
             this.recordRowDiff(rows[DKSide.LEFT_INDEX], DKSide.LEFT_INDEX, context_,
@@ -112,17 +250,233 @@ public class DKDiffEngine {
          }
          // at this point you know the keys are aligned
          else {
-            this.diffRow(rows[DKSide.LEFT_INDEX], rows[DKSide.RIGHT_INDEX], context_,
-               context_._sink);
+            if ((fingerprinted != null)
+               && isSameFingerprint(rows[DKSide.LEFT_INDEX], lhsFingerprintIdx,
+                  rows[DKSide.RIGHT_INDEX], rhsFingerprintIdx)) {
+               fingerprintMatches++;
+               this.diffRow(rows[DKSide.LEFT_INDEX], rows[DKSide.RIGHT_INDEX],
+                  fingerprinted, context_, context_._sink);
+            }
+            else
+               this.diffRow(rows[DKSide.LEFT_INDEX], rows[DKSide.RIGHT_INDEX], context_,
+                  context_._sink);
+            // every row up to and including this key is now done, on both sides
+            if ((checkpointSink != null)
+               && (context_._rowStep - checkpointStep >= _checkpointInterval)
+               && this.writeCheckpoint(rows, rowCounts, checkpointSink, context_))
+               checkpointStep = context_._rowStep;
             rows[DKSide.LEFT_INDEX] = null;
             rows[DKSide.RIGHT_INDEX] = null;
          }
       }
+      if (context_.isStopped())
+         USER_LOG.info("stopped on request after rowStep->{}", context_._rowStep);
       context_.close();
+      // keep the checkpoint of a stopped diff, so that it can be resumed
+      if ((checkpointSink != null) && !context_.isStopped()
+         && _checkpointFile.exists() && !_checkpointFile.delete())
+         _log.warn("couldn't delete checkpointFile->{}", _checkpointFile);
+      if (fingerprinted != null) {
+         _log.info("fingerprintMatches->{}", fingerprintMatches);
+         ((DKFingerprintSource) context_._lhs).setFingerprintColumnIdxs(null);
+         ((DKFingerprintSource) context_._rhs).setFingerprintColumnIdxs(null);
+      }
+   }
+
+   /**
+    * @return the checkpoint being resumed from; null if not resuming
+    */
+   private DKCheckpoint setResumeState(DKContext context_) throws IOException {
+      if (!_resume)
+         return null;
+      if (!(context_._sink instanceof DKResumableSink))
+         throw new DKUserException(String.format(
+            "can't resume; sink->%s can't append to what it recorded", context_._sink));
+      DKCheckpoint checkpoint = DKCheckpoint.read(_checkpointFile);
+      _log.info("checkpoint->{}", checkpoint);
+      ((DKResumableSink) context_._sink).setResumeState(checkpoint.getSinkState());
+      return checkpoint;
+   }
+
+   /**
+    * @return for each side, true if the source itself skips the rows that were
+    *         diffed before checkpoint_; null if checkpoint_ is null
+    */
+   private boolean[] setResumeAfter(DKCheckpoint checkpoint_, DKContext context_) {
+      if (checkpoint_ == null)
+         return null;
+      DKSource[] sources = { context_._lhs, context_._rhs };
+      boolean[] selfSkipping = new boolean[2];
+      for (int i = 0; i < sources.length; i++) {
+         if (sources[i] instanceof DKResumableSource)
+            selfSkipping[i] = ((DKResumableSource) sources[i]).setResumeAfter(
+               checkpoint_.getKeyValues(i), checkpoint_.getRowCount(i));
+         _log.info("source->{} selfSkipping->{}", sources[i], selfSkipping[i]);
+      }
+      return selfSkipping;
+   }
+
+   /**
+    * reads and discards count_ rows
+    */
+   private static void skip(DKSourceReader reader_, long count_) throws IOException {
+      for (long i = 0; i < count_; i++) {
+         if (reader_.next() == null)
+            throw new DKUserException(String.format(
+               "source has fewer rows than the checkpoint; expected->%s", count_));
+      }
+   }
+
+   /**
+    * @return null if there's no checkpointFile, or the sink can't checkpoint
+    */
+   private DKResumableSink getCheckpointSink(DKContext context_) {
+      if (_checkpointFile == null)
+         return null;
+      if (context_._sink instanceof DKResumableSink)
+         return (DKResumableSink) context_._sink;
+      USER_LOG.info("checkpoints not applicable to sink->{}; not checkpointing",
+         context_._sink);
+      return null;
+   }
+
+   /**
+    * @param rows_
+    *           the aligned rows that were just diffed
+    * @return false if the checkpoint couldn't be written for this row
+    */
+   private boolean writeCheckpoint(Object[][] rows_, long[] rowCounts_,
+                                   DKResumableSink sink_, DKContext context_)
+      throws IOException {
+      DKTableComparison tableComparison = context_._tableComparison;
+      Object[][] keyValues = {
+         tableComparison.getLhsModel().getKeyValues(rows_[DKSide.LEFT_INDEX]),
+         tableComparison.getRhsModel().getKeyValues(rows_[DKSide.RIGHT_INDEX]) };
+      // a source can't be restarted after a null key
+      if (!isCheckpointable(keyValues[DKSide.LEFT_INDEX])
+         || !isCheckpointable(keyValues[DKSide.RIGHT_INDEX]))
+         return false;
+      DKCheckpoint checkpoint = new DKCheckpoint(context_._rowStep,
+         Arrays.copyOf(rowCounts_, rowCounts_.length), keyValues,
+         sink_.checkpoint(context_));
+      checkpoint.write(_checkpointFile);
+      _log.info("checkpoint->{}", checkpoint);
+      return true;
+   }
+
+   private static boolean isCheckpointable(Object[] keyValues_) {
+      for (Object keyValue : keyValues_) {
+         if (!(keyValue instanceof Serializable))
+            return false;
+      }
+      return true;
+   }
+
+   /**
+    * @return null if normalizedKeys is false, or if the key can't be encoded
+    */
+   private DKKeyEncoder createKeyEncoder(DKTableComparison tableComparison_) {
+      if (!_normalizedKeys)
+         return null;
+      DKKeyEncoder keyEncoder = DKKeyEncoder.create(tableComparison_.getLhsModel(),
+         tableComparison_.getRhsModel());
+      if (keyEncoder == null)
+         USER_LOG.info("normalizedKeys not applicable to this key; using row comparator");
+      return keyEncoder;
    }
 
-   private void diffRow(Object[] lhs_, Object[] rhs_, DKContext context_, DKSink sink_)
+   /**
+    * when rowFingerprints is on, asks both sources to fingerprint the diff
+    * columns that are compared by DKExactDiffors
+    * 
+    * @return for each of the diffIndexes, true if that column is
+    *         fingerprinted; null if rows aren't fingerprinted
+    */
+   private boolean[] setFingerprintColumns(DKContext context_) {
+      if (!_rowFingerprints)
+         return null;
+      DKTableComparison tableComparison = context_._tableComparison;
+      int[] diffIndexes = tableComparison.getDiffIndexes();
+      DKColumnComparison[] map = tableComparison.getMap();
+      if ((tableComparison.getKind() == DKDiff.Kind.ROW_DIFF) || (diffIndexes == null)
+         || (diffIndexes.length == 0) || (map == null))
+         return null;
+      if (!canFingerprint(context_._lhs, context_._rhs)) {
+         USER_LOG.info("rowFingerprints not applicable to these sources; "
+            + "diffing all columns");
+         return null;
+      }
+      DKFingerprintSource lhs = (DKFingerprintSource) context_._lhs;
+      DKFingerprintSource rhs = (DKFingerprintSource) context_._rhs;
+      boolean[] fingerprinted = new boolean[diffIndexes.length];
+      int[] lhsIdxs = new int[diffIndexes.length];
+      int[] rhsIdxs = new int[diffIndexes.length];
+      int count = 0;
+      for (int i = 0; i < diffIndexes.length; i++) {
+         DKColumnComparison columnComparison = map[diffIndexes[i]];
+         if (!isFingerprintable(columnComparison)
+            || !lhs.isFingerprintable(columnComparison._lhsColumn._index)
+            || !rhs.isFingerprintable(columnComparison._rhsColumn._index))
+            continue;
+         fingerprinted[i] = true;
+         lhsIdxs[count] = columnComparison._lhsColumn._index;
+         rhsIdxs[count++] = columnComparison._rhsColumn._index;
+      }
+      lhsIdxs = Arrays.copyOf(lhsIdxs, count);
+      rhsIdxs = Arrays.copyOf(rhsIdxs, count);
+      // one source on both sides can only fingerprint one way
+      if ((count == 0) || ((lhs == rhs) && !Arrays.equals(lhsIdxs, rhsIdxs)))
+         return null;
+      _log.debug("fingerprinted->{}", Arrays.toString(fingerprinted));
+      lhs.setFingerprintColumnIdxs(lhsIdxs);
+      rhs.setFingerprintColumnIdxs(rhsIdxs);
+      return fingerprinted;
+   }
+
+   /**
+    * @return true if both are DKFingerprintSources of the same kind
+    */
+   private static boolean canFingerprint(DKSource lhs_, DKSource rhs_) {
+      if (!(lhs_ instanceof DKFingerprintSource)
+         || !(rhs_ instanceof DKFingerprintSource))
+         return false;
+      String lhsKind = ((DKFingerprintSource) lhs_).getFingerprintKind();
+      String rhsKind = ((DKFingerprintSource) rhs_).getFingerprintKind();
+      return (lhsKind != null) && lhsKind.equals(rhsKind);
+   }
+
+   /**
+    * only exact comparisons of like columns; equal fingerprints say nothing
+    * about values that are compared with a tolerance, or that are parsed
+    * differently on each side
+    */
+   private static boolean isFingerprintable(DKColumnComparison columnComparison_) {
+      DKColumnModel lhsColumn = columnComparison_._lhsColumn;
+      DKColumnModel rhsColumn = columnComparison_._rhsColumn;
+      return (columnComparison_._diffor instanceof DKExactDiffor)
+         && (lhsColumn._type == rhsColumn._type)
+         && ObjectUtils.equals(lhsColumn._formatString, rhsColumn._formatString);
+   }
+
+   private static boolean isSameFingerprint(Object[] lhs_, int lhsIdx_, Object[] rhs_,
+                                            int rhsIdx_) {
+      if ((lhs_.length <= lhsIdx_) || (rhs_.length <= rhsIdx_))
+         return false;
+      return (lhs_[lhsIdx_] != null) && lhs_[lhsIdx_].equals(rhs_[rhsIdx_]);
+   }
+
+   protected void diffRow(Object[] lhs_, Object[] rhs_, DKContext context_, DKSink sink_)
       throws IOException {
+      this.diffRow(lhs_, rhs_, null, context_, sink_);
+   }
+
+   /**
+    * @param skipped_
+    *           for each of the diffIndexes, true if that column is already
+    *           known not to differ; null means none is
+    */
+   private void diffRow(Object[] lhs_, Object[] rhs_, boolean[] skipped_,
+                        DKContext context_, DKSink sink_) throws IOException {
       DKDiff.Kind kind = context_._tableComparison.getKind();
       if (kind == DKDiff.Kind.ROW_DIFF)
          return;
@@ -135,12 +489,18 @@ public class DKDiffEngine {
       // not supposed to happen, but play it safe
       if ((columnComparisons == null) || (columnComparisons.length == 0))
          return;
+      DKDiffMetrics metrics = context_._metrics;
       DKColumnDiffRow diffRow = null;
       for (int i = 0; i < diffIndexes.length; i++) {
          context_._columnStep++;
+         if ((skipped_ != null) && skipped_[i])
+            continue;
          context_._lhsColumnIdx = columnComparisons[diffIndexes[i]]._lhsColumn.getIndex();
          context_._rhsColumnIdx = columnComparisons[diffIndexes[i]]._rhsColumn.getIndex();
-         if (columnComparisons[diffIndexes[i]].isDiff(lhs_, rhs_, context_)) {
+         long start = metrics.start();
+         boolean isDiff = columnComparisons[diffIndexes[i]].isDiff(lhs_, rhs_, context_);
+         metrics.stop(DKDiffMetrics.Phase.COLUMN_DIFF, start);
+         if (isDiff) {
             if (diffRow == null)
                // key side arbitrary; keyValeus guaranteed to match on both
                // sides
@@ -149,13 +509,16 @@ public class DKDiffEngine {
             DKColumnDiff columnDiff = diffRow.createDiff(context_._columnStep,
                columnComparisons[diffIndexes[i]].getLHValue(lhs_),
                columnComparisons[diffIndexes[i]].getRHValue(rhs_));
+            metrics.addColumnDiff(diffIndexes[i]);
+            start = metrics.start();
             sink_.record(columnDiff, context_);
+            metrics.stop(DKDiffMetrics.Phase.SINK_RECORD, start);
          }
       }
    }
 
-   private void recordRowDiff(Object[] row_, int sideIdx_, DKContext context_,
-                              DKSink sink_) throws IOException {
+   protected void recordRowDiff(Object[] row_, int sideIdx_, DKContext context_,
+                                DKSink sink_) throws IOException {
       _log.debug("row_->{} sideIdx_->{}", row_, sideIdx_);
       DKDiff.Kind kind = context_._tableComparison.getKind();
       if (kind == DKDiff.Kind.COLUMN_DIFF)
@@ -166,7 +529,9 @@ public class DKDiffEngine {
       long rowStep = context_.getRowStep();
       DKSide side = DKSide.getEnumForConstant(sideIdx_);
       DKRowDiff rowDiff = new DKRowDiff(rowStep, row_, side, tableComparison);
+      long start = context_._metrics.start();
       sink_.record(rowDiff, context_);
+      context_._metrics.stop(DKDiffMetrics.Phase.SINK_RECORD, start);
    }
 
 }
@@ -0,0 +1,244 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.ClassUtils;
+
+import org.diffkit.common.DKValidate;
+import org.diffkit.common.annot.NotThreadSafe;
+
+/**
+ * Where the time in a diff goes. The engine brackets each phase of a row step
+ * with start() and stop(); every call is counted, but only the phases of one
+ * row step in sampleInterval are actually timed, so the cost of the clock is
+ * small enough to leave this on. The time of a phase is then estimated from
+ * the average of its timed calls. Reads are the exception: their cost lands
+ * on the one row step in a batch that refills the reader, which a fixed
+ * sample can miss every time; so they are counted per row with count(), and
+ * each refill is timed in full with addNanos(). Also counts the column diffs
+ * found for each column comparison.
+ * 
+ * @author jpanico
+ */
+@NotThreadSafe
+public class DKDiffMetrics {
+
+   public enum Phase {
+      LHS_READ, RHS_READ, KEY_COMPARE, COLUMN_DIFF, SINK_RECORD;
+   }
+
+   public static final int DEFAULT_SAMPLE_INTERVAL = 64;
+   private static final long NANOS_PER_SECOND = 1000000000L;
+   private static final long NANOS_PER_MILLI = 1000000L;
+
+   private final DKContext _context;
+   private final long _sampleMask;
+   private final long[] _callCounts = new long[Phase.values().length];
+   private final long[] _sampleCounts = new long[Phase.values().length];
+   private final long[] _sampledNanos = new long[Phase.values().length];
+   private final long[] _addedNanos = new long[Phase.values().length];
+   // indexed by position in the TableComparison map
+   private long[] _columnDiffCounts = new long[0];
+   private boolean _isSampling;
+   private long _startNanos;
+   private long _endNanos;
+
+   public DKDiffMetrics(DKContext context_) {
+      this(context_, DEFAULT_SAMPLE_INTERVAL);
+   }
+
+   /**
+    * @param sampleInterval_
+    *           must be a power of 2; 1 times every row step
+    */
+   public DKDiffMetrics(DKContext context_, int sampleInterval_) {
+      DKValidate.notNull(context_);
+      if ((sampleInterval_ < 1) || (Integer.bitCount(sampleInterval_) != 1))
+         throw new IllegalArgumentException(String.format(
+            "sampleInterval_->%s is not a power of 2", sampleInterval_));
+      _context = context_;
+      _sampleMask = sampleInterval_ - 1;
+   }
+
+   public void open() {
+      _startNanos = System.nanoTime();
+      _endNanos = 0;
+   }
+
+   public void close() {
+      _endNanos = System.nanoTime();
+   }
+
+   /**
+    * decides whether the phases of this row step are timed; call once, at
+    * the start of each row step
+    */
+   public void sample(long rowStep_) {
+      _isSampling = ((rowStep_ & _sampleMask) == 0);
+   }
+
+   /**
+    * @return the value to hand to stop(); 0 if this row step isn't timed
+    */
+   public long start() {
+      return (_isSampling ? System.nanoTime() : 0);
+   }
+
+   public void stop(Phase phase_, long start_) {
+      int idx = phase_.ordinal();
+      _callCounts[idx]++;
+      if (!_isSampling)
+         return;
+      _sampledNanos[idx] += System.nanoTime() - start_;
+      _sampleCounts[idx]++;
+   }
+
+   /**
+    * counts a call of phase_ without timing it
+    */
+   public void count(Phase phase_) {
+      _callCounts[phase_.ordinal()]++;
+   }
+
+   /**
+    * charges nanos_ to phase_ as is, whether or not this row step is sampled;
+    * for work done once per batch, rather than once per row step
+    */
+   public void addNanos(Phase phase_, long nanos_) {
+      _addedNanos[phase_.ordinal()] += nanos_;
+   }
+
+   /**
+    * @param columnComparisonIdx_
+    *           position, in the TableComparison map, of the column comparison
+    *           that found the diff
+    */
+   public void addColumnDiff(int columnComparisonIdx_) {
+      if (columnComparisonIdx_ >= _columnDiffCounts.length)
+         _columnDiffCounts = Arrays.copyOf(_columnDiffCounts, columnComparisonIdx_ + 1);
+      _columnDiffCounts[columnComparisonIdx_]++;
+   }
+
+   public long getCallCount(Phase phase_) {
+      return _callCounts[phase_.ordinal()];
+   }
+
+   public long getSampleCount(Phase phase_) {
+      return _sampleCounts[phase_.ordinal()];
+   }
+
+   /**
+    * @return estimated total time spent in phase_, plus what addNanos()
+    *         charged to it; 0 if none of its calls were timed
+    */
+   public long getNanos(Phase phase_) {
+      int idx = phase_.ordinal();
+      if (_sampleCounts[idx] == 0)
+         return _addedNanos[idx];
+      return (long) ((double) _sampledNanos[idx] / _sampleCounts[idx] * _callCounts[idx])
+         + _addedNanos[idx];
+   }
+
+   public long getMillis(Phase phase_) {
+      return this.getNanos(phase_) / NANOS_PER_MILLI;
+   }
+
+   /**
+    * @return e.g. "lhs_read->12ms, rhs_read->9ms, ..."
+    */
+   public String getPhaseTimesString() {
+      StringBuilder builder = new StringBuilder();
+      Phase[] phases = Phase.values();
+      for (int i = 0; i < phases.length; i++) {
+         if (i > 0)
+            builder.append(", ");
+         builder.append(String.format("%s->%sms", phases[i].name().toLowerCase(),
+            this.getMillis(phases[i])));
+      }
+      return builder.toString();
+   }
+
+   /**
+    * @return from open() to close(), or to now if not yet closed
+    */
+   public long getElapsedNanos() {
+      if (_startNanos == 0)
+         return 0;
+      long endNanos = (_endNanos == 0) ? System.nanoTime() : _endNanos;
+      return endNanos - _startNanos;
+   }
+
+   /**
+    * @return rows diff'd so far; the engine steps once past the last row
+    */
+   public long getRowCount() {
+      return Math.max(_context._rowStep - 1, 0);
+   }
+
+   public long getDiffCount() {
+      return (_context._sink == null) ? 0 : _context._sink.getDiffCount();
+   }
+
+   public double getRowsPerSecond() {
+      return perSecond(this.getRowCount(), this.getElapsedNanos());
+   }
+
+   public double getDiffsPerSecond() {
+      return perSecond(this.getDiffCount(), this.getElapsedNanos());
+   }
+
+   /**
+    * @return column name -> diffs found, for each column that has any, in
+    *         TableComparison map order
+    */
+   public Map<String, Long> getColumnDiffCounts() {
+      Map<String, Long> counts = new LinkedHashMap<String, Long>();
+      DKColumnComparison[] map = (_context._tableComparison == null) ? null
+         : _context._tableComparison.getMap();
+      for (int i = 0; i < _columnDiffCounts.length; i++) {
+         if (_columnDiffCounts[i] == 0)
+            continue;
+         counts.put(getColumnName(map, i), _columnDiffCounts[i]);
+      }
+      return counts;
+   }
+
+   private static String getColumnName(DKColumnComparison[] map_, int idx_) {
+      if ((map_ == null) || (idx_ >= map_.length))
+         return String.valueOf(idx_);
+      String name = map_[idx_].getColumnName();
+      // differently named on each side
+      if (name == null)
+         name = map_[idx_]._lhsColumn.getName();
+      return name;
+   }
+
+   private static double perSecond(long count_, long nanos_) {
+      if (nanos_ <= 0)
+         return 0;
+      return (double) count_ * NANOS_PER_SECOND / nanos_;
+   }
+
+   public String toString() {
+      return String.format("%s[rows/sec=%.1f, diffs/sec=%.1f]",
+         ClassUtils.getShortClassName(this.getClass()), this.getRowsPerSecond(),
+         this.getDiffsPerSecond());
+   }
+}
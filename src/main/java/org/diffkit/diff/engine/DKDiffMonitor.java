@@ -0,0 +1,188 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.lang.ClassUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.diffkit.common.DKValidate;
+
+/**
+ * Registers a DKContext, while it is open, in the platform MBeanServer, under
+ * org.diffkit:type=DKContext,id=<context id>, so that a long running diff can
+ * be watched, and stopped, from jconsole. Attributes are read from the JMX
+ * thread while the engine runs. RowStep is volatile, so it is always current;
+ * the others are read without synchronization, and are best effort.
+ * 
+ * @author jpanico
+ */
+public class DKDiffMonitor implements DKDiffMonitorMBean {
+   public static final String DOMAIN = "org.diffkit";
+
+   private final DKContext _context;
+   private final ObjectName _name;
+   private boolean _isRegistered;
+   private final Logger _log = LoggerFactory.getLogger(this.getClass());
+
+   public DKDiffMonitor(DKContext context_) {
+      DKValidate.notNull(context_);
+      _context = context_;
+      _name = createName(context_);
+   }
+
+   public static ObjectName createName(DKContext context_) {
+      try {
+         return new ObjectName(String.format("%s:type=%s,id=%s", DOMAIN,
+            ClassUtils.getShortClassName(context_.getClass()), context_._id));
+      }
+      catch (MalformedObjectNameException e_) {
+         throw new RuntimeException(e_);
+      }
+   }
+
+   public ObjectName getName() {
+      return _name;
+   }
+
+   public boolean isRegistered() {
+      return _isRegistered;
+   }
+
+   /**
+    * a diff doesn't depend on being monitored, so failures are only logged
+    */
+   public void register() {
+      if (_isRegistered)
+         return;
+      try {
+         ManagementFactory.getPlatformMBeanServer().registerMBean(this, _name);
+         _isRegistered = true;
+         _log.debug("registered->{}", _name);
+      }
+      catch (Exception e_) {
+         _log.warn(String.format("couldn't register->%s", _name), e_);
+      }
+   }
+
+   public void unregister() {
+      if (!_isRegistered)
+         return;
+      _isRegistered = false;
+      try {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         if (server.isRegistered(_name))
+            server.unregisterMBean(_name);
+         _log.debug("unregistered->{}", _name);
+      }
+      catch (Exception e_) {
+         _log.warn(String.format("couldn't unregister->%s", _name), e_);
+      }
+   }
+
+   public String getDescription() {
+      DKTableComparison tableComparison = _context._tableComparison;
+      return (tableComparison == null) ? null : tableComparison.getDescription();
+   }
+
+   public long getRowStep() {
+      return _context._rowStep;
+   }
+
+   public double getRowsPerSecond() {
+      return _context._metrics.getRowsPerSecond();
+   }
+
+   public double getDiffsPerSecond() {
+      return _context._metrics.getDiffsPerSecond();
+   }
+
+   public long getDiffCount() {
+      return _context._sink.getDiffCount();
+   }
+
+   public long getRowDiffCount() {
+      return _context._sink.getRowDiffCount();
+   }
+
+   public long getColumnDiffCount() {
+      return _context._sink.getColumnDiffCount();
+   }
+
+   public String getColumnDiffCounts() {
+      return _context._metrics.getColumnDiffCounts().toString();
+   }
+
+   public String getPhaseTimes() {
+      return _context._metrics.getPhaseTimesString();
+   }
+
+   public String getElapsedTime() {
+      return _context.getElapsedTimeString();
+   }
+
+   public String getCurrentKey() {
+      Object[] keyValues = _context.getCurrentKeyValues();
+      return (keyValues == null) ? null : Arrays.toString(keyValues);
+   }
+
+   public long getLhsLastIndex() {
+      return _context._lhs.getLastIndex();
+   }
+
+   public long getRhsLastIndex() {
+      return _context._rhs.getLastIndex();
+   }
+
+   public int getLhsQueueDepth() {
+      return getQueueDepth(_context._lhs);
+   }
+
+   public int getRhsQueueDepth() {
+      return getQueueDepth(_context._rhs);
+   }
+
+   public int getSinkQueueDepth() {
+      return getQueueDepth(_context._sink);
+   }
+
+   public boolean getStopRequested() {
+      return _context.isStopRequested();
+   }
+
+   public void requestStop() {
+      _log.info("stop requested for->{}", _name);
+      _context.requestStop();
+   }
+
+   private static int getQueueDepth(DKSourceSink sourceSink_) {
+      if (!(sourceSink_ instanceof DKAsyncSourceSink))
+         return 0;
+      return ((DKAsyncSourceSink) sourceSink_).getQueueDepth();
+   }
+
+   public String toString() {
+      return String.format("%s[%s]", ClassUtils.getShortClassName(this.getClass()),
+         _name);
+   }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+/**
+ * JMX view of a running diff; see DKDiffMonitor
+ * 
+ * @author jpanico
+ */
+public interface DKDiffMonitorMBean {
+
+   public String getDescription();
+
+   public long getRowStep();
+
+   public double getRowsPerSecond();
+
+   public double getDiffsPerSecond();
+
+   public long getDiffCount();
+
+   public long getRowDiffCount();
+
+   public long getColumnDiffCount();
+
+   public String getColumnDiffCounts();
+
+   public String getPhaseTimes();
+
+   public String getElapsedTime();
+
+   /**
+    * @return key values of the current or last row diff'd
+    */
+   public String getCurrentKey();
+
+   public long getLhsLastIndex();
+
+   public long getRhsLastIndex();
+
+   /**
+    * @return 0 unless the lhs is a DKAsyncSourceSink
+    */
+   public int getLhsQueueDepth();
+
+   public int getRhsQueueDepth();
+
+   /**
+    * @return 0 unless the sink is a DKAsyncSourceSink
+    */
+   public int getSinkQueueDepth();
+
+   public boolean getStopRequested();
+
+   /**
+    * asks the engine to stop, as if maxDiffs had been reached, once it has
+    * finished the current row; the sink is closed, and its summary written,
+    * as usual
+    */
+   public void requestStop();
+}
@@ -0,0 +1,27 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+/**
+ * Marker for DKDiffors that find a diff exactly when the two values are not
+ * equal. Columns compared by one of these can be covered by a row fingerprint
+ * (see DKFingerprintSource); columns compared with a tolerance, or after
+ * normalizing, can't.
+ * 
+ * @author jpanico
+ */
+public interface DKExactDiffor extends DKDiffor {
+}
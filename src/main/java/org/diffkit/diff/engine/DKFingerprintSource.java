@@ -0,0 +1,53 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+/**
+ * A DKSource that can append to each row a fingerprint of some of its column
+ * values, computed more cheaply than reading and comparing those values (e.g.
+ * by the database, or from the raw field text). Rows from two sources of the
+ * same fingerprint kind whose fingerprints are equal are taken to have equal
+ * values in the fingerprinted columns, so the engine doesn't diff those
+ * columns. Fingerprints are hashes, so there is a small chance that two
+ * different rows collide.
+ * 
+ * @author jpanico
+ */
+public interface DKFingerprintSource extends DKSource {
+
+   /**
+    * @return fingerprints can only be compared between sources of equal kind;
+    *         null if this source can't fingerprint
+    */
+   public String getFingerprintKind();
+
+   /**
+    * @return false if the column at DKColumnModel index columnIdx_ can't be
+    *         fingerprinted faithfully (e.g. a LOB column in a database); the
+    *         engine diffs such columns itself
+    */
+   public boolean isFingerprintable(int columnIdx_);
+
+   /**
+    * must be called while the source is not open
+    * 
+    * @param columnIdxs_
+    *           DKColumnModel indices of the columns to fingerprint, in the
+    *           order they are fingerprinted. While not null, every row carries
+    *           a Long fingerprint at index getModel().getColumns().length
+    */
+   public void setFingerprintColumnIdxs(int[] columnIdxs_);
+}
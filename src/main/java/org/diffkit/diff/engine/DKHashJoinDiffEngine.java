@@ -0,0 +1,412 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.ClassUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.diffkit.common.annot.NotThreadSafe;
+import org.diffkit.util.DKRowIOUtil;
+
+/**
+ * Diffs sources that are not sorted by key. The lhs is loaded into a hash
+ * index, keyed by the key values of the lhs DKTableModel; the rhs is then
+ * streamed against that index. Matched rows are column diffed, unmatched rhs
+ * rows are recorded as they stream by, and whatever remains in the index at
+ * the end is recorded as lhs only rows.
+ *
+ * When the estimated size of the index exceeds memoryBudget_, both sides are
+ * hash partitioned into temporary files under spillDir_ (grace hash join), and
+ * each pair of partitions is then joined in turn; recursively, should a
+ * partition still not fit. So inputs larger than the heap still diff in
+ * roughly linear time.
+ *
+ * Keys must be unique on the lhs. Diffs are reported in lhs/rhs read order,
+ * not key order, so rowSteps are not comparable to those of DKDiffEngine.
+ *
+ * @author jpanico
+ */
+@NotThreadSafe
+public class DKHashJoinDiffEngine extends DKDiffEngine {
+   public static final int DEFAULT_PARTITION_COUNT = 16;
+   /**
+    * past this many levels of partitioning, join in memory regardless of the
+    * budget; that only happens with heavily skewed keys
+    */
+   private static final int MAX_SPILL_DEPTH = 3;
+   private static final long PROGRESS_BATCH_SIZE = 1000;
+   private static final Logger USER_LOG = LoggerFactory.getLogger("user");
+
+   private final long _memoryBudget;
+   private final File _spillDir;
+   private final int _partitionCount;
+   private final Logger _log = LoggerFactory.getLogger(this.getClass());
+
+   public DKHashJoinDiffEngine() {
+      this(Runtime.getRuntime().maxMemory() / 4);
+   }
+
+   public DKHashJoinDiffEngine(long memoryBudget_) {
+      this(memoryBudget_, null, DEFAULT_PARTITION_COUNT);
+   }
+
+   /**
+    * @param memoryBudget_
+    *           approximate number of bytes the lhs index may occupy before
+    *           spilling to disk
+    * @param spillDir_
+    *           where partition files are written; null means java.io.tmpdir
+    */
+   public DKHashJoinDiffEngine(long memoryBudget_, File spillDir_, int partitionCount_) {
+      if (memoryBudget_ < 1)
+         throw new IllegalArgumentException(String.format("memoryBudget_->%s",
+            memoryBudget_));
+      if (partitionCount_ < 2)
+         throw new IllegalArgumentException(String.format("partitionCount_->%s",
+            partitionCount_));
+      _memoryBudget = memoryBudget_;
+      _spillDir = spillDir_;
+      _partitionCount = partitionCount_;
+   }
+
+   public long getMemoryBudget() {
+      return _memoryBudget;
+   }
+
+   public File getSpillDir() {
+      return _spillDir;
+   }
+
+   public int getPartitionCount() {
+      return _partitionCount;
+   }
+
+   public String toString() {
+      return String.format("%s[memoryBudget=%s, partitionCount=%s]",
+         ClassUtils.getShortClassName(this.getClass()), _memoryBudget, _partitionCount);
+   }
+
+   protected void diff(DKContext context_) throws IOException {
+      long maxDiffs = context_._tableComparison.getMaxDiffs();
+      _log.debug("maxDiffs->{}", maxDiffs);
+      context_.open();
+      RowInput lhs = new SourceInput(context_._lhs);
+      RowInput rhs = new SourceInput(context_._rhs);
+      boolean isLimitReached = this.join(lhs, rhs, 0, maxDiffs, context_);
+      // mirror the serial engine, which steps once more to discover that both
+      // sides are exhausted
+      if (!isLimitReached)
+         context_._rowStep++;
+      context_.close();
+   }
+
+   /**
+    * @return true if maxDiffs_ was reached, or a stop was requested
+    */
+   private boolean join(RowInput lhs_, RowInput rhs_, int depth_, long maxDiffs_,
+                        DKContext context_) throws IOException {
+      DKTableComparison tableComparison = context_._tableComparison;
+      Map<Key, Object[]> index = new LinkedHashMap<Key, Object[]>();
+      long indexSize = 0;
+      Object[] row = null;
+      while ((row = lhs_.next()) != null) {
+         Key key = new Key(tableComparison.getRowKeyValues(row, DKSide.LEFT_INDEX));
+         if (index.put(key, row) != null)
+            throw new RuntimeException(String.format("duplicate lhs key->%s", key));
+         indexSize += DKRowIOUtil.estimateHeapSize(row);
+         if ((indexSize > _memoryBudget) && (depth_ < MAX_SPILL_DEPTH))
+            return this.spill(index, lhs_, rhs_, depth_, maxDiffs_, context_);
+      }
+      if (indexSize > _memoryBudget)
+         _log.warn("joining {} rows in memory past the budget at depth {}",
+            index.size(), depth_);
+      while ((row = rhs_.next()) != null) {
+         if (!this.step(maxDiffs_, context_))
+            return true;
+         Key key = new Key(tableComparison.getRowKeyValues(row, DKSide.RIGHT_INDEX));
+         Object[] lhsRow = index.remove(key);
+         context_._lhsRow = lhsRow;
+         context_._rhsRow = row;
+         if (lhsRow == null)
+            this.recordRowDiff(row, DKSide.RIGHT_INDEX, context_, context_._sink);
+         else
+            this.diffRow(lhsRow, row, context_, context_._sink);
+      }
+      for (Iterator<Object[]> it = index.values().iterator(); it.hasNext();) {
+         if (!this.step(maxDiffs_, context_))
+            return true;
+         context_._lhsRow = it.next();
+         context_._rhsRow = null;
+         this.recordRowDiff(context_._lhsRow, DKSide.LEFT_INDEX, context_,
+            context_._sink);
+         it.remove();
+      }
+      return false;
+   }
+
+   /**
+    * partitions what has been indexed so far, the remainder of lhs_, and all
+    * of rhs_, then joins each pair of partitions one level deeper
+    */
+   private boolean spill(Map<Key, Object[]> index_, RowInput lhs_, RowInput rhs_,
+                         int depth_, long maxDiffs_, DKContext context_)
+      throws IOException {
+      USER_LOG.info("spilling to {} partitions at depth {}", _partitionCount, depth_);
+      DKTableComparison tableComparison = context_._tableComparison;
+      Partition[] lhsPartitions = this.createPartitions();
+      Partition[] rhsPartitions = this.createPartitions();
+      try {
+         Iterator<Map.Entry<Key, Object[]>> indexed = index_.entrySet().iterator();
+         while (indexed.hasNext()) {
+            Map.Entry<Key, Object[]> entry = indexed.next();
+            this.getPartition(lhsPartitions, entry.getKey(), depth_).write(
+               entry.getValue());
+            indexed.remove();
+         }
+         Object[] row = null;
+         while ((row = lhs_.next()) != null) {
+            Key key = new Key(tableComparison.getRowKeyValues(row, DKSide.LEFT_INDEX));
+            this.getPartition(lhsPartitions, key, depth_).write(row);
+         }
+         while ((row = rhs_.next()) != null) {
+            Key key = new Key(tableComparison.getRowKeyValues(row, DKSide.RIGHT_INDEX));
+            this.getPartition(rhsPartitions, key, depth_).write(row);
+         }
+         for (int i = 0; i < _partitionCount; i++) {
+            lhsPartitions[i].closeOutput();
+            rhsPartitions[i].closeOutput();
+         }
+         for (int i = 0; i < _partitionCount; i++) {
+            _log.debug("partition->{} lhs->{} rhs->{}", new Object[] { i,
+               lhsPartitions[i]._rowCount, rhsPartitions[i]._rowCount });
+            RowInput lhsInput = lhsPartitions[i].openInput();
+            RowInput rhsInput = rhsPartitions[i].openInput();
+            try {
+               if (this.join(lhsInput, rhsInput, depth_ + 1, maxDiffs_, context_))
+                  return true;
+            }
+            finally {
+               lhsPartitions[i].dispose();
+               rhsPartitions[i].dispose();
+            }
+         }
+         return false;
+      }
+      finally {
+         for (int i = 0; i < _partitionCount; i++) {
+            lhsPartitions[i].dispose();
+            rhsPartitions[i].dispose();
+         }
+      }
+   }
+
+   /**
+    * @return false if maxDiffs_ has already been reached, or a stop was
+    *         requested, otherwise advances the context to the next step
+    */
+   private boolean step(long maxDiffs_, DKContext context_) {
+      if (context_._sink.getDiffCount() >= maxDiffs_)
+         return false;
+      if (context_.isStopRequested()) {
+         context_.setStopped();
+         return false;
+      }
+      context_._rowStep++;
+      context_._columnStep = 0;
+      context_._metrics.sample(context_._rowStep);
+      if (context_._rowStep % PROGRESS_BATCH_SIZE == 0)
+         USER_LOG.info("->{}", context_._rowStep);
+      return true;
+   }
+
+   private Partition[] createPartitions() throws IOException {
+      Partition[] partitions = new Partition[_partitionCount];
+      try {
+         for (int i = 0; i < _partitionCount; i++)
+            partitions[i] = new Partition(File.createTempFile("dkhash", ".part",
+               _spillDir));
+      }
+      catch (IOException e_) {
+         for (Partition partition : partitions)
+            if (partition != null)
+               partition.dispose();
+         throw e_;
+      }
+      return partitions;
+   }
+
+   /**
+    * the hash is salted with the depth, so that a partition that is split again
+    * does not land entirely in a single sub-partition
+    */
+   private Partition getPartition(Partition[] partitions_, Key key_, int depth_) {
+      int hash = key_.hashCode() ^ (depth_ * 0x9E3779B9);
+      hash ^= (hash >>> 16);
+      hash *= 0x85EBCA6B;
+      hash ^= (hash >>> 13);
+      return partitions_[(hash & Integer.MAX_VALUE) % partitions_.length];
+   }
+
+   /**
+    * the two sides can carry the same logical key value in different types
+    * (e.g. Integer vs Long from different DB flavors) or scales (1.0 vs 1.00
+    * BigDecimal), so numbers are normalized before hashing
+    */
+   private static final class Key {
+      private final Object[] _values;
+      private final int _hash;
+
+      private Key(Object[] values_) {
+         _values = new Object[values_.length];
+         for (int i = 0; i < values_.length; i++)
+            _values[i] = normalize(values_[i]);
+         _hash = Arrays.hashCode(_values);
+      }
+
+      private static Object normalize(Object value_) {
+         if ((value_ instanceof Integer) || (value_ instanceof Short)
+            || (value_ instanceof Byte))
+            return Long.valueOf(((Number) value_).longValue());
+         if ((value_ instanceof BigInteger) && (((BigInteger) value_).bitLength() < 64))
+            return Long.valueOf(((BigInteger) value_).longValue());
+         if (value_ instanceof BigDecimal) {
+            BigDecimal decimal = (BigDecimal) value_;
+            if (decimal.signum() == 0)
+               return Long.valueOf(0);
+            decimal = decimal.stripTrailingZeros();
+            if (decimal.scale() > 0)
+               return decimal;
+            // integral, so the same as the Long or BigInteger of its value
+            return normalize(decimal.toBigIntegerExact());
+         }
+         if (value_ instanceof Float)
+            return Double.valueOf(((Float) value_).doubleValue());
+         return value_;
+      }
+
+      public int hashCode() {
+         return _hash;
+      }
+
+      public boolean equals(Object that_) {
+         if (this == that_)
+            return true;
+         if (!(that_ instanceof Key))
+            return false;
+         Key that = (Key) that_;
+         return (_hash == that._hash) && Arrays.equals(_values, that._values);
+      }
+
+      public String toString() {
+         return Arrays.toString(_values);
+      }
+   }
+
+   private static interface RowInput {
+      /**
+       * @return null when there are no more rows
+       */
+      Object[] next() throws IOException;
+   }
+
+   private static class SourceInput implements RowInput {
+      private final DKSourceReader _reader;
+
+      private SourceInput(DKSource source_) {
+         _reader = new DKSourceReader(source_);
+      }
+
+      public Object[] next() throws IOException {
+         return _reader.next();
+      }
+   }
+
+   /**
+    * one temporary file of rows, written in full before being read back
+    */
+   private static class Partition {
+      private final File _file;
+      private DataOutputStream _output;
+      private DataInputStream _input;
+      private long _rowCount;
+
+      private Partition(File file_) throws IOException {
+         _file = file_;
+         _file.deleteOnExit();
+         _output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+            _file)));
+      }
+
+      private void write(Object[] row_) throws IOException {
+         DKRowIOUtil.writeRow(row_, _output);
+         _rowCount++;
+      }
+
+      private void closeOutput() throws IOException {
+         _output.close();
+         _output = null;
+      }
+
+      private RowInput openInput() throws IOException {
+         _input = new DataInputStream(new BufferedInputStream(
+            new FileInputStream(_file)));
+         return new RowInput() {
+            private long _remaining = _rowCount;
+
+            public Object[] next() throws IOException {
+               if (_remaining <= 0)
+                  return null;
+               _remaining--;
+               return DKRowIOUtil.readRow(_input);
+            }
+         };
+      }
+
+      /**
+       * idempotent
+       */
+      private void dispose() {
+         try {
+            if (_output != null)
+               _output.close();
+            if (_input != null)
+               _input.close();
+         }
+         catch (IOException e_) {
+            LoggerFactory.getLogger(Partition.class).warn(null, e_);
+         }
+         _output = null;
+         _input = null;
+         _file.delete();
+      }
+   }
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.apache.commons.lang.ClassUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.diffkit.common.DKValidate;
+import org.diffkit.common.annot.NotThreadSafe;
+
+/**
+ * Encodes the key values of a row into a byte[] whose unsigned lexicographic
+ * order, compare(), is the same as the order DKRowComparator gives the rows.
+ * So a key can be encoded once, when its row is read, and then compared with
+ * a single byte loop. Each key part is a null marker (null < notnull)
+ * followed, for notnull, by:
+ * <ul>
+ * <li>INTEGER: 8 bytes, big endian, sign bit flipped</li>
+ * <li>REAL: 8 bytes of the IEEE 754 double, sign adjusted so that the bytes
+ * order as Double.compareTo()</li>
+ * <li>STRING, TEXT: 2 bytes per char, 0 chars escaped as 0x0000FFFF,
+ * terminated by 0x0000</li>
+ * <li>BOOLEAN: 1 byte</li>
+ * <li>DATE, TIME, TIMESTAMP: 8 bytes of millis, as INTEGER, then 4 bytes of
+ * sub-milli nanos</li>
+ * </ul>
+ * DECIMAL and MIXED keys can't be encoded; for them create() answers null.
+ * encode() answers null for any value that is not of the class expected for
+ * its type (e.g. a BigDecimal in an INTEGER column), and callers should then
+ * fall back to the row comparator for that row.
+ *
+ * @author jpanico
+ */
+@NotThreadSafe
+public class DKKeyEncoder {
+   private static final byte NULL_MARKER = 0;
+   private static final byte NOTNULL_MARKER = 1;
+   private static final Logger LOG = LoggerFactory.getLogger(DKKeyEncoder.class);
+
+   private final int[][] _indexes = new int[2][];
+   private final DKColumnModel.Type[] _types;
+   private byte[] _buffer = new byte[64];
+   private int _length;
+
+   private DKKeyEncoder(int[] lhsIndexes_, int[] rhsIndexes_, DKColumnModel.Type[] types_) {
+      _indexes[DKSide.LEFT_INDEX] = lhsIndexes_;
+      _indexes[DKSide.RIGHT_INDEX] = rhsIndexes_;
+      _types = types_;
+   }
+
+   /**
+    * assumes that lhs_ and rhs_ keys have already been validated as
+    * compatible: same length, same types
+    *
+    * @return null if any key column is of a type that can't be encoded
+    */
+   public static DKKeyEncoder create(DKTableModel lhs_, DKTableModel rhs_) {
+      DKValidate.notNull(lhs_, rhs_);
+      DKColumnModel[] lhsColumns = lhs_.getColumns();
+      int[] lhsKey = lhs_.getKey();
+      DKColumnModel[] rhsColumns = rhs_.getColumns();
+      int[] rhsKey = rhs_.getKey();
+      int[] lhsIndexes = new int[lhsKey.length];
+      int[] rhsIndexes = new int[lhsKey.length];
+      DKColumnModel.Type[] types = new DKColumnModel.Type[lhsKey.length];
+      for (int i = 0; i < lhsKey.length; i++) {
+         lhsIndexes[i] = lhsColumns[lhsKey[i]]._index;
+         rhsIndexes[i] = rhsColumns[rhsKey[i]]._index;
+         types[i] = lhsColumns[lhsKey[i]]._type;
+         if (!isEncodable(types[i])) {
+            LOG.debug("key column->{} can't be encoded", lhsColumns[lhsKey[i]]);
+            return null;
+         }
+      }
+      return new DKKeyEncoder(lhsIndexes, rhsIndexes, types);
+   }
+
+   public static boolean isEncodable(DKColumnModel.Type type_) {
+      if (type_ == null)
+         return false;
+      switch (type_) {
+      case DECIMAL:
+      case MIXED:
+         return false;
+      default:
+         return true;
+      }
+   }
+
+   /**
+    * unsigned lexicographic comparison; a proper prefix is <
+    */
+   public static int compare(byte[] lhs_, byte[] rhs_) {
+      int length = Math.min(lhs_.length, rhs_.length);
+      for (int i = 0; i < length; i++) {
+         int lhs = lhs_[i] & 0xFF;
+         int rhs = rhs_[i] & 0xFF;
+         if (lhs != rhs)
+            return (lhs < rhs) ? -1 : 1;
+      }
+      return lhs_.length - rhs_.length;
+   }
+
+   /**
+    * @return null if row_ is null, or if any key value is not of a class that
+    *         can be encoded for its column type
+    */
+   public byte[] encode(Object[] row_, int sideIdx_) {
+      if (row_ == null)
+         return null;
+      int[] indexes = _indexes[sideIdx_];
+      _length = 0;
+      for (int i = 0; i < indexes.length; i++) {
+         if (!this.encodeValue(row_[indexes[i]], _types[i]))
+            return null;
+      }
+      return Arrays.copyOf(_buffer, _length);
+   }
+
+   public String toString() {
+      return String.format("%s%s", ClassUtils.getShortClassName(this.getClass()),
+         Arrays.toString(_types));
+   }
+
+   private boolean encodeValue(Object value_, DKColumnModel.Type type_) {
+      if (value_ == null) {
+         this.putByte(NULL_MARKER);
+         return true;
+      }
+      this.putByte(NOTNULL_MARKER);
+      switch (type_) {
+      case INTEGER:
+         if (!((value_ instanceof Long) || (value_ instanceof Integer)
+            || (value_ instanceof Short) || (value_ instanceof Byte)))
+            return false;
+         this.putLong(((Number) value_).longValue() ^ Long.MIN_VALUE);
+         return true;
+      case REAL:
+         if (!((value_ instanceof Double) || (value_ instanceof Float)))
+            return false;
+         long bits = Double.doubleToLongBits(((Number) value_).doubleValue());
+         this.putLong((bits < 0) ? ~bits : (bits ^ Long.MIN_VALUE));
+         return true;
+      case STRING:
+      case TEXT:
+         if (!(value_ instanceof String))
+            return false;
+         this.putString((String) value_);
+         return true;
+      case BOOLEAN:
+         if (!(value_ instanceof Boolean))
+            return false;
+         this.putByte((byte) (((Boolean) value_).booleanValue() ? 1 : 0));
+         return true;
+      case DATE:
+      case TIME:
+      case TIMESTAMP:
+         if (!(value_ instanceof Date))
+            return false;
+         this.putLong(((Date) value_).getTime() ^ Long.MIN_VALUE);
+         int nanos = 0;
+         if (value_ instanceof Timestamp)
+            nanos = ((Timestamp) value_).getNanos() % 1000000;
+         this.putChar((char) (nanos >>> 16));
+         this.putChar((char) nanos);
+         return true;
+      default:
+         return false;
+      }
+   }
+
+   private void putString(String value_) {
+      int length = value_.length();
+      for (int i = 0; i < length; i++) {
+         char c = value_.charAt(i);
+         this.putChar(c);
+         if (c == 0)
+            this.putChar((char) 0xFFFF);
+      }
+      this.putChar((char) 0);
+   }
+
+   private void putLong(long value_) {
+      this.ensureCapacity(8);
+      for (int shift = 56; shift >= 0; shift -= 8)
+         _buffer[_length++] = (byte) (value_ >>> shift);
+   }
+
+   private void putChar(char value_) {
+      this.ensureCapacity(2);
+      _buffer[_length++] = (byte) (value_ >>> 8);
+      _buffer[_length++] = (byte) value_;
+   }
+
+   private void putByte(byte value_) {
+      this.ensureCapacity(1);
+      _buffer[_length++] = value_;
+   }
+
+   private void ensureCapacity(int count_) {
+      if (_length + count_ > _buffer.length)
+         _buffer = Arrays.copyOf(_buffer, Math.max(_buffer.length * 2, _length + count_));
+   }
+}
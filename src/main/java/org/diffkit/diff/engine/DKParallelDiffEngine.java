@@ -0,0 +1,422 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang.ClassUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.diffkit.common.annot.NotThreadSafe;
+
+/**
+ * Diffs in parallel by splitting the key space into contiguous ranges. The
+ * calling thread pulls rows from both sources and cuts them into ranges such
+ * that every key in a range sorts before every key in all later ranges. Each
+ * range is merged and diff'd, by the same rules as DKDiffEngine, on a worker
+ * pool. Workers do not touch the sink; they record which rows and columns
+ * diff'd, and the calling thread replays those results into the sink in range
+ * order, renumbering the row steps as it goes. So the sink sees exactly the
+ * same sequence of diffs, with the same row and column steps, as it would from
+ * the serial engine.
+ *
+ * Like the serial engine, this requires both sources to be sorted on, and
+ * unique in, the key.
+ *
+ * DKDiffMetrics is not thread safe, so only the replay is metered: the
+ * context metrics count column diffs and time sink records, but don't see the
+ * reads, compares and column diffing done by the workers.
+ *
+ * @author jpanico
+ */
+@NotThreadSafe
+public class DKParallelDiffEngine extends DKDiffEngine {
+   public static final int DEFAULT_RANGE_SIZE = 10000;
+   private static final Logger USER_LOG = LoggerFactory.getLogger("user");
+   private final int _threadCount;
+   private final int _rangeSize;
+   private final Logger _log = LoggerFactory.getLogger(this.getClass());
+
+   public DKParallelDiffEngine(int threadCount_) {
+      this(threadCount_, DEFAULT_RANGE_SIZE);
+   }
+
+   /**
+    * @param rangeSize_
+    *           maximum number of rows, per side, in a single key range
+    */
+   public DKParallelDiffEngine(int threadCount_, int rangeSize_) {
+      if (threadCount_ < 1)
+         throw new IllegalArgumentException(String.format("threadCount_->%s",
+            threadCount_));
+      if (rangeSize_ < 1)
+         throw new IllegalArgumentException(String.format("rangeSize_->%s", rangeSize_));
+      _threadCount = threadCount_;
+      _rangeSize = rangeSize_;
+   }
+
+   public int getThreadCount() {
+      return _threadCount;
+   }
+
+   public int getRangeSize() {
+      return _rangeSize;
+   }
+
+   protected void diff(DKContext context_) throws IOException {
+      long maxDiffs = context_._tableComparison.getMaxDiffs();
+      _log.debug("maxDiffs->{}", maxDiffs);
+      context_.open();
+      Comparator<Object[]> rowComparator = context_._tableComparison.getRowComparator();
+      _log.debug("rowComparator->{}", rowComparator);
+      RangeReader reader = new RangeReader(context_._lhs, context_._rhs, rowComparator,
+         _rangeSize);
+      // bounds the number of ranges (and therefore rows) held in memory
+      int maxPending = _threadCount * 2;
+      LinkedList<Future<RangeResult>> pending = new LinkedList<Future<RangeResult>>();
+      ExecutorService executor = Executors.newFixedThreadPool(_threadCount);
+      try {
+         boolean isLimitReached = (context_._sink.getDiffCount() >= maxDiffs);
+         long stepOffset = 0;
+         while (!isLimitReached) {
+            Range range = reader.nextRange();
+            if (range != null)
+               pending.add(executor.submit(new RangeTask(range, rowComparator,
+                  context_)));
+            if (pending.isEmpty())
+               break;
+            if ((range != null) && (pending.size() < maxPending))
+               continue;
+            RangeResult result = getResult(pending.removeFirst());
+            isLimitReached = this.replay(result, stepOffset, maxDiffs, context_);
+            stepOffset += result._stepCount;
+            USER_LOG.info("->{}", stepOffset);
+         }
+         // mirror the serial engine, which steps once more to discover that
+         // both sides are exhausted
+         if (!isLimitReached)
+            context_._rowStep = stepOffset + 1;
+      }
+      finally {
+         for (Future<RangeResult> future : pending)
+            future.cancel(true);
+         executor.shutdownNow();
+      }
+      context_.close();
+   }
+
+   /**
+    * @return true if maxDiffs_ was reached, or a stop was requested
+    */
+   private boolean replay(RangeResult result_, long stepOffset_, long maxDiffs_,
+                          DKContext context_) throws IOException {
+      DKTableComparison tableComparison = context_._tableComparison;
+      DKColumnComparison[] columnComparisons = tableComparison.getMap();
+      int[] diffIndexes = tableComparison.getDiffIndexes();
+      DKDiffMetrics metrics = context_._metrics;
+      for (StepResult step : result_._steps) {
+         if (context_._sink.getDiffCount() >= maxDiffs_)
+            return true;
+         if (context_.isStopRequested()) {
+            context_.setStopped();
+            return true;
+         }
+         context_._rowStep = stepOffset_ + step._step;
+         context_._columnStep = 0;
+         metrics.sample(context_._rowStep);
+         context_._lhsRow = step._lhsRow;
+         context_._rhsRow = step._rhsRow;
+         if (step._rowDiffSide >= 0) {
+            DKSide side = DKSide.getEnumForConstant(step._rowDiffSide);
+            Object[] row = (step._rowDiffSide == DKSide.LEFT_INDEX) ? step._lhsRow
+               : step._rhsRow;
+            long start = metrics.start();
+            context_._sink.record(new DKRowDiff(context_._rowStep, row, side,
+               tableComparison), context_);
+            metrics.stop(DKDiffMetrics.Phase.SINK_RECORD, start);
+            continue;
+         }
+         DKColumnDiffRow diffRow = new DKColumnDiffRow(context_._rowStep, step._lhsRow,
+            step._rhsRow, tableComparison);
+         for (int i = 0; i < step._diffPositions.length; i++) {
+            int position = step._diffPositions[i];
+            DKColumnComparison columnComparison =
+               columnComparisons[diffIndexes[position]];
+            context_._columnStep = position + 1;
+            context_._lhsColumnIdx = columnComparison._lhsColumn.getIndex();
+            context_._rhsColumnIdx = columnComparison._rhsColumn.getIndex();
+            DKColumnDiff columnDiff = diffRow.createDiff(context_._columnStep,
+               columnComparison.getLHValue(step._lhsRow),
+               columnComparison.getRHValue(step._rhsRow));
+            metrics.addColumnDiff(diffIndexes[position]);
+            long start = metrics.start();
+            context_._sink.record(columnDiff, context_);
+            metrics.stop(DKDiffMetrics.Phase.SINK_RECORD, start);
+         }
+      }
+      return (context_._sink.getDiffCount() >= maxDiffs_);
+   }
+
+   private static RangeResult getResult(Future<RangeResult> future_) throws IOException {
+      try {
+         return future_.get();
+      }
+      catch (InterruptedException e_) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException(e_);
+      }
+      catch (ExecutionException e_) {
+         Throwable cause = e_.getCause();
+         if (cause instanceof IOException)
+            throw (IOException) cause;
+         if (cause instanceof RuntimeException)
+            throw (RuntimeException) cause;
+         throw new RuntimeException(cause);
+      }
+   }
+
+   public String toString() {
+      return String.format("%s[%s,%s]", ClassUtils.getShortClassName(this.getClass()),
+         _threadCount, _rangeSize);
+   }
+
+   /**
+    * a contiguous slice of the key space, from both sides
+    */
+   private static class Range {
+      private final List<Object[]> _lhsRows;
+      private final List<Object[]> _rhsRows;
+
+      private Range(List<Object[]> lhsRows_, List<Object[]> rhsRows_) {
+         _lhsRows = lhsRows_;
+         _rhsRows = rhsRows_;
+      }
+   }
+
+   /**
+    * one step of the merge that produced at least one diff. Either a row diff
+    * on _rowDiffSide, or one or more column diffs at _diffPositions (indexes
+    * into DKTableComparison.getDiffIndexes()).
+    */
+   private static class StepResult {
+      private final long _step;
+      private final Object[] _lhsRow;
+      private final Object[] _rhsRow;
+      private final int _rowDiffSide;
+      private final int[] _diffPositions;
+
+      private StepResult(long step_, Object[] lhsRow_, Object[] rhsRow_,
+                         int rowDiffSide_, int[] diffPositions_) {
+         _step = step_;
+         _lhsRow = lhsRow_;
+         _rhsRow = rhsRow_;
+         _rowDiffSide = rowDiffSide_;
+         _diffPositions = diffPositions_;
+      }
+   }
+
+   private static class RangeResult {
+      private final long _stepCount;
+      private final List<StepResult> _steps;
+
+      private RangeResult(long stepCount_, List<StepResult> steps_) {
+         _stepCount = stepCount_;
+         _steps = steps_;
+      }
+   }
+
+   /**
+    * merges a single Range, following the same stepping rules as
+    * DKDiffEngine.diff(DKContext)
+    */
+   private static class RangeTask implements Callable<RangeResult> {
+      private final Range _range;
+      private final Comparator<Object[]> _rowComparator;
+      private final DKContext _context;
+
+      private RangeTask(Range range_, Comparator<Object[]> rowComparator_,
+                        DKContext context_) {
+         _range = range_;
+         _rowComparator = rowComparator_;
+         _context = context_;
+      }
+
+      public RangeResult call() throws Exception {
+         DKTableComparison tableComparison = _context._tableComparison;
+         DKDiff.Kind kind = tableComparison.getKind();
+         boolean recordRowDiffs = (kind != DKDiff.Kind.COLUMN_DIFF);
+         List<StepResult> steps = new ArrayList<StepResult>();
+         List<Object[]> lhsRows = _range._lhsRows;
+         List<Object[]> rhsRows = _range._rhsRows;
+         int lhsIdx = 0;
+         int rhsIdx = 0;
+         long step = 0;
+         while ((lhsIdx < lhsRows.size()) || (rhsIdx < rhsRows.size())) {
+            step++;
+            Object[] lhsRow = (lhsIdx < lhsRows.size()) ? lhsRows.get(lhsIdx) : null;
+            Object[] rhsRow = (rhsIdx < rhsRows.size()) ? rhsRows.get(rhsIdx) : null;
+            int comparison;
+            if (lhsRow == null)
+               comparison = 1;
+            else if (rhsRow == null)
+               comparison = -1;
+            else
+               comparison = _rowComparator.compare(lhsRow, rhsRow);
+            if (comparison < 0) {
+               lhsIdx++;
+               if (recordRowDiffs)
+                  steps.add(new StepResult(step, lhsRow, null, DKSide.LEFT_INDEX, null));
+            }
+            else if (comparison > 0) {
+               rhsIdx++;
+               if (recordRowDiffs)
+                  steps.add(new StepResult(step, null, rhsRow, DKSide.RIGHT_INDEX, null));
+            }
+            else {
+               lhsIdx++;
+               rhsIdx++;
+               int[] diffPositions = this.diffRow(lhsRow, rhsRow, kind);
+               if (diffPositions != null)
+                  steps.add(new StepResult(step, lhsRow, rhsRow, -1, diffPositions));
+            }
+         }
+         return new RangeResult(step, steps);
+      }
+
+      /**
+       * @return positions within getDiffIndexes() that diff'd, or null if none
+       */
+      private int[] diffRow(Object[] lhs_, Object[] rhs_, DKDiff.Kind kind_) {
+         if (kind_ == DKDiff.Kind.ROW_DIFF)
+            return null;
+         int[] diffIndexes = _context._tableComparison.getDiffIndexes();
+         if ((diffIndexes == null) || (diffIndexes.length == 0))
+            return null;
+         DKColumnComparison[] columnComparisons = _context._tableComparison.getMap();
+         if ((columnComparisons == null) || (columnComparisons.length == 0))
+            return null;
+         int[] positions = null;
+         int positionCount = 0;
+         for (int i = 0; i < diffIndexes.length; i++) {
+            if (!columnComparisons[diffIndexes[i]].isDiff(lhs_, rhs_, _context))
+               continue;
+            if (positions == null)
+               positions = new int[diffIndexes.length];
+            positions[positionCount++] = i;
+         }
+         if (positions == null)
+            return null;
+         int[] result = new int[positionCount];
+         System.arraycopy(positions, 0, result, 0, positionCount);
+         return result;
+      }
+   }
+
+   /**
+    * Cuts the two sorted sources into Ranges. Each Range holds at most
+    * rangeSize_ rows per side, and ends on a boundary key such that every row
+    * remaining in either source sorts after it. Row comparisons always go
+    * through the table comparison's rowComparator, with the lhs row as the
+    * first argument, since the lhs and rhs models can place the key in
+    * different columns.
+    */
+   private static class RangeReader {
+      private final DKSourceReader _lhs;
+      private final DKSourceReader _rhs;
+      private final Comparator<Object[]> _rowComparator;
+      private final int _rangeSize;
+      // lhs rows read but given back from a Range
+      private final LinkedList<Object[]> _lhsPushback = new LinkedList<Object[]>();
+
+      private RangeReader(DKSource lhs_, DKSource rhs_,
+                          Comparator<Object[]> rowComparator_, int rangeSize_) {
+         _lhs = new DKSourceReader(lhs_);
+         _rhs = new DKSourceReader(rhs_);
+         _rowComparator = rowComparator_;
+         _rangeSize = rangeSize_;
+      }
+
+      /**
+       * @return null when both sides are exhausted
+       */
+      private Range nextRange() throws IOException {
+         List<Object[]> lhsRows = new ArrayList<Object[]>(_rangeSize);
+         List<Object[]> rhsRows = new ArrayList<Object[]>();
+         while (lhsRows.size() < _rangeSize) {
+            Object[] row = this.nextLhs();
+            if (row == null)
+               break;
+            lhsRows.add(row);
+         }
+         if (lhsRows.isEmpty()) {
+            // only rhs left; any rhs rows form their own Ranges
+            while (rhsRows.size() < _rangeSize) {
+               Object[] row = this.nextRhs();
+               if (row == null)
+                  break;
+               rhsRows.add(row);
+            }
+            if (rhsRows.isEmpty())
+               return null;
+            return new Range(lhsRows, rhsRows);
+         }
+         Object[] lhsLast = lhsRows.get(lhsRows.size() - 1);
+         while (rhsRows.size() < _rangeSize) {
+            Object[] row = this.peekRhs();
+            if ((row == null) || (_rowComparator.compare(lhsLast, row) < 0))
+               break;
+            rhsRows.add(this.nextRhs());
+         }
+         Object[] rhsNext = this.peekRhs();
+         if ((rhsNext != null) && (_rowComparator.compare(lhsLast, rhsNext) >= 0)) {
+            // rhs filled up before reaching lhsLast, so end the Range on the
+            // last rhs row instead, and give back the lhs rows beyond it
+            Object[] rhsLast = rhsRows.get(rhsRows.size() - 1);
+            while (!lhsRows.isEmpty()) {
+               Object[] row = lhsRows.get(lhsRows.size() - 1);
+               if (_rowComparator.compare(row, rhsLast) <= 0)
+                  break;
+               _lhsPushback.addFirst(lhsRows.remove(lhsRows.size() - 1));
+            }
+         }
+         return new Range(lhsRows, rhsRows);
+      }
+
+      private Object[] nextLhs() throws IOException {
+         if (!_lhsPushback.isEmpty())
+            return _lhsPushback.removeFirst();
+         return _lhs.next();
+      }
+
+      private Object[] peekRhs() throws IOException {
+         return _rhs.peek();
+      }
+
+      private Object[] nextRhs() throws IOException {
+         return _rhs.next();
+      }
+   }
+}
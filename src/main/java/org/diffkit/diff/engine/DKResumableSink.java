@@ -0,0 +1,45 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * A DKSink that can make the diffs it has recorded durable, and later carry
+ * on from that point, appending to them, in a new diff that resumes from a
+ * DKCheckpoint.
+ * 
+ * @author jpanico
+ */
+public interface DKResumableSink extends DKSink {
+
+   /**
+    * called, while open, at a point where every row diffed so far has all of
+    * its diffs recorded. On return those diffs are durable
+    * 
+    * @return state to pass to setResumeState(); must be serialized before the
+    *         next record()
+    */
+   public Serializable checkpoint(DKContext context_) throws IOException;
+
+   /**
+    * must be called while the sink is not open; the next open() then drops
+    * anything recorded after the checkpoint that produced state_, and appends
+    * from there
+    */
+   public void setResumeState(Serializable state_);
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+/**
+ * A DKSource that can start reading just past the rows that were diffed
+ * before a DKCheckpoint was written, rather than having the engine read and
+ * discard them.
+ * 
+ * @author jpanico
+ */
+public interface DKResumableSource extends DKSource {
+
+   /**
+    * must be called while the source is not open; applies to the next open()
+    * 
+    * @param keyValues_
+    *           key values, in model key order, of the last row diffed before
+    *           the checkpoint
+    * @param rowCount_
+    *           number of rows this source vended up to and including that row
+    * @return false if the source can't skip those rows itself, in which case
+    *         it will read from the start
+    */
+   public boolean setResumeAfter(Object[] keyValues_, long rowCount_);
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.commons.lang.ClassUtils;
+
+import org.diffkit.common.DKValidate;
+import org.diffkit.common.annot.Stateless;
+
+/**
+ * Compares an lhs row to an rhs row by their keys. createComparator() picks a
+ * concrete class for the shape of the key (single integer, single string,
+ * single other, composite), so that the merge loop calls one small, final
+ * compare() rather than walking a ComparatorChain of DKElementComparators.
+ * <p>
+ * Integer and string key parts are compared directly when the values are of
+ * the expected class (Long, Integer, String), otherwise through
+ * Comparable.compareTo(), so the ordering is always the same as that of
+ * DKComparableComparator; null is < notnull.
+ *
+ * @author jpanico
+ */
+@Stateless
+public abstract class DKRowComparator implements Comparator<Object[]> {
+   private static final byte INTEGER_PART = 0;
+   private static final byte STRING_PART = 1;
+   private static final byte COMPARABLE_PART = 2;
+
+   protected final int[] _lhsIndexes;
+   protected final int[] _rhsIndexes;
+
+   private DKRowComparator(int[] lhsIndexes_, int[] rhsIndexes_) {
+      _lhsIndexes = lhsIndexes_;
+      _rhsIndexes = rhsIndexes_;
+   }
+
+   /**
+    * assumes that lhs_ and rhs_ keys have already been validated as
+    * compatible: same length, same types
+    */
+   public static DKRowComparator createComparator(DKTableModel lhs_, DKTableModel rhs_) {
+      DKValidate.notNull(lhs_, rhs_);
+      DKColumnModel[] lhsColumns = lhs_.getColumns();
+      int[] lhsKey = lhs_.getKey();
+      DKColumnModel[] rhsColumns = rhs_.getColumns();
+      int[] rhsKey = rhs_.getKey();
+      int[] lhsIndexes = new int[lhsKey.length];
+      int[] rhsIndexes = new int[lhsKey.length];
+      byte[] parts = new byte[lhsKey.length];
+      for (int i = 0; i < lhsKey.length; i++) {
+         lhsIndexes[i] = lhsColumns[lhsKey[i]]._index;
+         rhsIndexes[i] = rhsColumns[rhsKey[i]]._index;
+         parts[i] = getPart(lhsColumns[lhsKey[i]]._type);
+      }
+      if (parts.length != 1)
+         return new CompositeKeyComparator(lhsIndexes, rhsIndexes, parts);
+      switch (parts[0]) {
+      case INTEGER_PART:
+         return new IntegerKeyComparator(lhsIndexes, rhsIndexes);
+      case STRING_PART:
+         return new StringKeyComparator(lhsIndexes, rhsIndexes);
+      default:
+         return new ComparableKeyComparator(lhsIndexes, rhsIndexes);
+      }
+   }
+
+   /**
+    * @return number of key parts compared
+    */
+   public int size() {
+      return _lhsIndexes.length;
+   }
+
+   public String toString() {
+      return String.format("%s(%s,%s)", ClassUtils.getShortClassName(this.getClass()),
+         Arrays.toString(_lhsIndexes), Arrays.toString(_rhsIndexes));
+   }
+
+   private static byte getPart(DKColumnModel.Type type_) {
+      if (type_ == null)
+         return COMPARABLE_PART;
+      switch (type_) {
+      case INTEGER:
+         return INTEGER_PART;
+      case STRING:
+      case TEXT:
+         return STRING_PART;
+      default:
+         return COMPARABLE_PART;
+      }
+   }
+
+   private static int compareIntegers(Object lhs_, Object rhs_) {
+      if ((lhs_ instanceof Long) && (rhs_ instanceof Long)) {
+         long lhs = ((Long) lhs_).longValue();
+         long rhs = ((Long) rhs_).longValue();
+         return (lhs < rhs) ? -1 : ((lhs == rhs) ? 0 : 1);
+      }
+      if ((lhs_ instanceof Integer) && (rhs_ instanceof Integer)) {
+         int lhs = ((Integer) lhs_).intValue();
+         int rhs = ((Integer) rhs_).intValue();
+         return (lhs < rhs) ? -1 : ((lhs == rhs) ? 0 : 1);
+      }
+      return compareComparables(lhs_, rhs_);
+   }
+
+   private static int compareStrings(Object lhs_, Object rhs_) {
+      if ((lhs_ instanceof String) && (rhs_ instanceof String))
+         return ((String) lhs_).compareTo((String) rhs_);
+      return compareComparables(lhs_, rhs_);
+   }
+
+   @SuppressWarnings("unchecked")
+   private static int compareComparables(Object lhs_, Object rhs_) {
+      if (lhs_ == null)
+         return (rhs_ == null) ? 0 : -1;
+      if (rhs_ == null)
+         return 1;
+      return ((Comparable<Object>) lhs_).compareTo(rhs_);
+   }
+
+   private static final class IntegerKeyComparator extends DKRowComparator {
+      private final int _lhsIndex;
+      private final int _rhsIndex;
+
+      private IntegerKeyComparator(int[] lhsIndexes_, int[] rhsIndexes_) {
+         super(lhsIndexes_, rhsIndexes_);
+         _lhsIndex = lhsIndexes_[0];
+         _rhsIndex = rhsIndexes_[0];
+      }
+
+      public int compare(Object[] lhs_, Object[] rhs_) {
+         return compareIntegers(lhs_[_lhsIndex], rhs_[_rhsIndex]);
+      }
+   }
+
+   private static final class StringKeyComparator extends DKRowComparator {
+      private final int _lhsIndex;
+      private final int _rhsIndex;
+
+      private StringKeyComparator(int[] lhsIndexes_, int[] rhsIndexes_) {
+         super(lhsIndexes_, rhsIndexes_);
+         _lhsIndex = lhsIndexes_[0];
+         _rhsIndex = rhsIndexes_[0];
+      }
+
+      public int compare(Object[] lhs_, Object[] rhs_) {
+         return compareStrings(lhs_[_lhsIndex], rhs_[_rhsIndex]);
+      }
+   }
+
+   private static final class ComparableKeyComparator extends DKRowComparator {
+      private final int _lhsIndex;
+      private final int _rhsIndex;
+
+      private ComparableKeyComparator(int[] lhsIndexes_, int[] rhsIndexes_) {
+         super(lhsIndexes_, rhsIndexes_);
+         _lhsIndex = lhsIndexes_[0];
+         _rhsIndex = rhsIndexes_[0];
+      }
+
+      public int compare(Object[] lhs_, Object[] rhs_) {
+         return compareComparables(lhs_[_lhsIndex], rhs_[_rhsIndex]);
+      }
+   }
+
+   private static final class CompositeKeyComparator extends DKRowComparator {
+      private final byte[] _parts;
+
+      private CompositeKeyComparator(int[] lhsIndexes_, int[] rhsIndexes_,
+                                     byte[] parts_) {
+         super(lhsIndexes_, rhsIndexes_);
+         _parts = parts_;
+      }
+
+      public int compare(Object[] lhs_, Object[] rhs_) {
+         for (int i = 0; i < _parts.length; i++) {
+            Object lhsValue = lhs_[_lhsIndexes[i]];
+            Object rhsValue = rhs_[_rhsIndexes[i]];
+            int comparison;
+            switch (_parts[i]) {
+            case INTEGER_PART:
+               comparison = compareIntegers(lhsValue, rhsValue);
+               break;
+            case STRING_PART:
+               comparison = compareStrings(lhsValue, rhsValue);
+               break;
+            default:
+               comparison = compareComparables(lhsValue, rhsValue);
+            }
+            if (comparison != 0)
+               return comparison;
+         }
+         return 0;
+      }
+   }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+import java.io.IOException;
+
+import org.diffkit.common.annot.NotThreadSafe;
+
+/**
+ * Pulls rows from a DKSource in batches, via DKBatchSource.getNextRows() when
+ * the source is one, else DKSourceUtil.getNextRows(), into a buffer that is
+ * reused for the life of the reader; then vends them one at a time to the
+ * engine loop. So the engine pays for one interface call, and a batch source
+ * for one open check, per batch rather than per row. Given a DKDiffMetrics,
+ * each batch read is timed, and charged to the phase of its side.
+ *
+ * @author jpanico
+ */
+@NotThreadSafe
+final class DKSourceReader {
+   public static final int DEFAULT_BATCH_SIZE = 1000;
+
+   private final DKSource _source;
+   private final DKDiffMetrics _metrics;
+   private final DKDiffMetrics.Phase _phase;
+   private final Object[][] _buffer;
+   private int _count;
+   private int _idx;
+   private boolean _isAtEnd;
+
+   DKSourceReader(DKSource source_) {
+      this(source_, DEFAULT_BATCH_SIZE);
+   }
+
+   DKSourceReader(DKSource source_, int batchSize_) {
+      this(source_, batchSize_, null, null);
+   }
+
+   /**
+    * @param metrics_
+    *           null for no timing
+    */
+   DKSourceReader(DKSource source_, DKDiffMetrics metrics_, DKDiffMetrics.Phase phase_) {
+      this(source_, DEFAULT_BATCH_SIZE, metrics_, phase_);
+   }
+
+   DKSourceReader(DKSource source_, int batchSize_, DKDiffMetrics metrics_,
+                  DKDiffMetrics.Phase phase_) {
+      if (source_ == null)
+         throw new IllegalArgumentException("source_ null");
+      if (batchSize_ < 1)
+         throw new IllegalArgumentException(String.format("batchSize_->%s", batchSize_));
+      _source = source_;
+      _buffer = new Object[batchSize_][];
+      _metrics = metrics_;
+      _phase = phase_;
+   }
+
+   /**
+    * @return null when the source is out of rows
+    */
+   Object[] next() throws IOException {
+      if ((_idx >= _count) && !this.fill())
+         return null;
+      Object[] row = _buffer[_idx];
+      _buffer[_idx++] = null;
+      return row;
+   }
+
+   /**
+    * @return the row that the next call to next() will return, without
+    *         consuming it
+    */
+   Object[] peek() throws IOException {
+      if ((_idx >= _count) && !this.fill())
+         return null;
+      return _buffer[_idx];
+   }
+
+   private boolean fill() throws IOException {
+      if (_isAtEnd)
+         return false;
+      _idx = 0;
+      long start = (_metrics == null) ? 0 : System.nanoTime();
+      if (_source instanceof DKBatchSource)
+         _count = ((DKBatchSource) _source).getNextRows(_buffer);
+      else
+         _count = DKSourceUtil.getNextRows(_source, _buffer);
+      if (_metrics != null)
+         _metrics.addNanos(_phase, System.nanoTime() - start);
+      if (_count <= 0) {
+         _count = 0;
+         _isAtEnd = true;
+         return false;
+      }
+      return true;
+   }
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine;
+
+import java.io.IOException;
+
+import org.diffkit.common.DKValidate;
+
+/**
+ * @author jpanico
+ */
+public class DKSourceUtil {
+
+   private DKSourceUtil() {
+   }
+
+   /**
+    * DKBatchSource.getNextRows() for any DKSource, in terms of getNextRow()
+    */
+   public static int getNextRows(DKSource source_, Object[][] rows_) throws IOException {
+      DKValidate.notNull(source_, rows_);
+      int count = 0;
+      while (count < rows_.length) {
+         Object[] row = source_.getNextRow();
+         if (row == null)
+            break;
+         rows_[count++] = row;
+      }
+      return count;
+   }
+}
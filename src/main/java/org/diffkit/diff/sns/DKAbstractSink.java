@@ -16,6 +16,7 @@
 package org.diffkit.diff.sns;
 
 import java.io.IOException;
+import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
@@ -34,6 +35,7 @@ import org.diffkit.diff.engine.DKColumnDiff;
 import org.diffkit.diff.engine.DKColumnDiffRow;
 import org.diffkit.diff.engine.DKContext;
 import org.diffkit.diff.engine.DKDiff;
+import org.diffkit.diff.engine.DKDiffMetrics;
 import org.diffkit.diff.engine.DKRowDiff;
 import org.diffkit.diff.engine.DKSide;
 import org.diffkit.diff.engine.DKSink;
@@ -52,6 +54,9 @@ public abstract class DKAbstractSink implements DKSink {
    private DKContext _context;
    private long[] _rowDiffCount = new long[2];
    private DKCountingBag _columnDiffCount = new DKCountingBag();
+   // running total across _columnDiffCount; the engine polls getDiffCount()
+   // once per row, so this must not require a walk of the bag
+   private long _columnDiffTotal;
    private long _runningRowStep;
    private DKColumnDiffRow _runningRow;
    private StringBuilder _runningColumnClusterKey;
@@ -80,6 +85,40 @@ public abstract class DKAbstractSink implements DKSink {
       _runningRowStep = -1;
    }
 
+   /**
+    * for checkpoints, taken at a point where the current row has all of its
+    * diffs recorded; so the running cluster is complete and is closed here
+    * 
+    * @return the counts behind the summaries; must be serialized before the
+    *         next record()
+    */
+   protected Serializable getCountState() {
+      this.ensureStarted();
+      DKColumnDiffRow clusterRow = _runningRow;
+      String clusterKey = (_runningColumnClusterKey == null) ? null
+         : _runningColumnClusterKey.toString();
+      _runningRowStep = -1;
+      _runningRow = null;
+      _runningColumnClusterKey = null;
+      this.recordDiffCluster(clusterKey);
+      this.recordDiffClusterGroup(clusterKey, clusterRow);
+      return new CountState(this);
+   }
+
+   /**
+    * carry on counting from countState_, which came from getCountState()
+    */
+   protected void setCountState(Serializable countState_) {
+      CountState countState = (CountState) countState_;
+      _rowDiffCount = countState._rowDiffCount;
+      _columnDiffCount = countState._columnDiffCount;
+      _columnDiffTotal = countState._columnDiffTotal;
+      _columnDiffClusterCount = countState._columnDiffClusterCount;
+      _rowGroupDiffCount = countState._rowGroupDiffCount;
+      _columnGroupDiffCount = countState._columnGroupDiffCount;
+      _columnDiffClusterGroupCount = countState._columnDiffClusterGroupCount;
+   }
+
    public void close(DKContext context_) throws IOException {
       this.ensureStarted();
       this.ensureNotEnded();
@@ -205,6 +244,7 @@ public abstract class DKAbstractSink implements DKSink {
 
    private void recordColumnDiffCount(DKColumnDiff columnDiff_, DKContext context_) {
       _columnDiffCount.add(columnDiff_.getColumnName());
+      _columnDiffTotal++;
    }
 
    private void recordColumnGroupDiffCount(DKColumnDiff columnDiff_, DKContext context_) {
@@ -223,7 +263,7 @@ public abstract class DKAbstractSink implements DKSink {
    }
 
    public long getColumnDiffCount() {
-      return _columnDiffCount.totalCount();
+      return _columnDiffTotal;
    }
 
    public long getDiffCount() {
@@ -354,6 +394,9 @@ public abstract class DKAbstractSink implements DKSink {
    public String generateVeryHighLevelSummary(DKContext context_) {
       StringBuilder builder = new StringBuilder();
       builder.append("--- vhl summary ---\n");
+      if (context_.isStopped())
+         builder.append(String.format("stopped at rowStep %s (incomplete)\n",
+            context_._rowStep));
       String timeString = (DKRuntime.getInstance().getIsTest() ? "xxx"
          : context_.getElapsedTimeString());
       builder.append(String.format("diff'd %s rows in %s, found:\n",
@@ -363,11 +406,25 @@ public abstract class DKAbstractSink implements DKSink {
       else
          builder.append(String.format("!%s row diffs\n@%s column diffs\n",
             this.getRowDiffCount(), this.getColumnDiffCount()));
+      // timings differ from run to run
+      if (!DKRuntime.getInstance().getIsTest())
+         builder.append(generateMetricsSummary(context_.getMetrics()));
 
       builder.append("-------------------\n");
       return builder.toString();
    }
 
+   private static String generateMetricsSummary(DKDiffMetrics metrics_) {
+      StringBuilder builder = new StringBuilder();
+      builder.append(String.format("%.1f rows/sec, %.1f diffs/sec\n",
+         metrics_.getRowsPerSecond(), metrics_.getDiffsPerSecond()));
+      builder.append(String.format("%s\n", metrics_.getPhaseTimesString()));
+      Map<String, Long> columnDiffCounts = metrics_.getColumnDiffCounts();
+      if (!columnDiffCounts.isEmpty())
+         builder.append(String.format("column diffs->%s\n", columnDiffCounts));
+      return builder.toString();
+   }
+
    public String generateSummary(DKContext context_) {
       StringBuilder builder = new StringBuilder();
       builder.append(this.generateVeryHighLevelSummary(context_));
@@ -403,4 +460,25 @@ public abstract class DKAbstractSink implements DKSink {
          return null;
       return keyBuilder.toString();
    }
+
+   private static class CountState implements Serializable {
+      private static final long serialVersionUID = 1L;
+      private final long[] _rowDiffCount;
+      private final DKCountingBag _columnDiffCount;
+      private final long _columnDiffTotal;
+      private final DKCountingBag _columnDiffClusterCount;
+      private final DKCountingBag[] _rowGroupDiffCount;
+      private final DKCountingBag _columnGroupDiffCount;
+      private final DKCountingBag _columnDiffClusterGroupCount;
+
+      private CountState(DKAbstractSink sink_) {
+         _rowDiffCount = sink_._rowDiffCount;
+         _columnDiffCount = sink_._columnDiffCount;
+         _columnDiffTotal = sink_._columnDiffTotal;
+         _columnDiffClusterCount = sink_._columnDiffClusterCount;
+         _rowGroupDiffCount = sink_._rowGroupDiffCount;
+         _columnGroupDiffCount = sink_._columnGroupDiffCount;
+         _columnDiffClusterGroupCount = sink_._columnDiffClusterGroupCount;
+      }
+   }
 }
@@ -0,0 +1,434 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.sns;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.commons.lang.ClassUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.diffkit.common.annot.NotThreadSafe;
+import org.diffkit.db.DKDatabase;
+import org.diffkit.diff.engine.DKColumnComparison;
+import org.diffkit.diff.engine.DKColumnModel;
+import org.diffkit.diff.engine.DKDiff;
+import org.diffkit.diff.engine.DKSource;
+import org.diffkit.diff.engine.DKTableComparison;
+import org.diffkit.diff.engine.DKTableModel;
+import org.diffkit.util.DKSqlUtil;
+
+/**
+ * Narrows a DB to DB diff to the key ranges that actually differ, before any
+ * rows are read. Each database is asked for COUNT(*) and SUM(row hash) per
+ * range of the first key column; ranges whose aggregates match on both sides
+ * are skipped, ranges that don't are subdivided, fanOut ways, until they hold
+ * no more than leafRowCount rows. Both DKDBSources are then restricted, by a
+ * key range predicate, to the mismatched ranges, and the diff proceeds as
+ * usual.
+ * <p>
+ * The row hash covers the key and diff columns, and is computed by
+ * flavor-specific SQL (DKSqlGenerator.generateRowHashExpression()), so both
+ * sides must be the same flavor. Each 64 bit hash is summed exactly, as a
+ * DECIMAL, so a differing range only goes unnoticed if its sums collide.
+ * Values that checksum differently but diff equal (e.g. within a tolerance)
+ * only cost some extra rows read. When the first key column is not an
+ * INTEGER, the whole table is a single range.
+ *
+ * @author jpanico
+ */
+@NotThreadSafe
+public class DKDBChecksumPrePass {
+   public static final int DEFAULT_FAN_OUT = 16;
+   public static final long DEFAULT_LEAF_ROW_COUNT = 1000;
+   /**
+    * above this, neighbouring ranges are coalesced, to keep the predicate
+    * down to a reasonable size
+    */
+   public static final int MAX_RANGES = 256;
+   private static final Logger USER_LOG = LoggerFactory.getLogger("user");
+
+   private final int _fanOut;
+   private final long _leafRowCount;
+   private DKDBSource[] _sources;
+   private String[] _rangeColumns;
+   private String[] _rowHashes;
+   private Connection[] _connections;
+   private int _queryCount;
+   private final Logger _log = LoggerFactory.getLogger(this.getClass());
+
+   public DKDBChecksumPrePass() {
+      this(DEFAULT_FAN_OUT, DEFAULT_LEAF_ROW_COUNT);
+   }
+
+   public DKDBChecksumPrePass(int fanOut_, long leafRowCount_) {
+      if (fanOut_ < 2)
+         throw new IllegalArgumentException(String.format("fanOut_->%s", fanOut_));
+      _fanOut = fanOut_;
+      _leafRowCount = leafRowCount_;
+   }
+
+   public int getFanOut() {
+      return _fanOut;
+   }
+
+   public long getLeafRowCount() {
+      return _leafRowCount;
+   }
+
+   /**
+    * number of checksum queries issued, per side, by the last apply()
+    */
+   public int getQueryCount() {
+      return _queryCount;
+   }
+
+   /**
+    * must be called before the sources are opened
+    *
+    * @return false if the pre-pass does not apply to these sources (not both
+    *         DKDBSources, different flavors, no hash function for the
+    *         flavor, or a diff column that can't be hashed); the sources are
+    *         then left untouched
+    */
+   public boolean apply(DKSource lhs_, DKSource rhs_,
+                        DKTableComparison tableComparison_) throws SQLException {
+      DKDBSource lhs = toDBSource(lhs_);
+      DKDBSource rhs = toDBSource(rhs_);
+      if ((lhs == null) || (rhs == null)) {
+         _log.info("not both DKDBSources; skipping");
+         return false;
+      }
+      if (lhs.getDatabase().getFlavor() != rhs.getDatabase().getFlavor()) {
+         _log.info("lhs and rhs flavors differ; skipping");
+         return false;
+      }
+      _sources = new DKDBSource[] { lhs, rhs };
+      String[][] hashColumns = getHashColumnNames(tableComparison_);
+      _rowHashes = new String[2];
+      for (int i = 0; i < 2; i++) {
+         DKDatabase database = _sources[i].getDatabase();
+         _rowHashes[i] = database.getSqlGenerator().generateRowHashExpression(
+            _sources[i].getTable().getColumns(hashColumns[i]));
+         if (_rowHashes[i] == null) {
+            _log.info("no row hash for flavor->{} or columns->{}; skipping",
+               database.getFlavor(), Arrays.toString(hashColumns[i]));
+            return false;
+         }
+      }
+      DKColumnModel[] keyColumns = new DKColumnModel[] {
+         getFirstKeyColumn(tableComparison_.getLhsModel()),
+         getFirstKeyColumn(tableComparison_.getRhsModel()) };
+      _rangeColumns = new String[2];
+      for (int i = 0; i < 2; i++) {
+         DKDatabase database = _sources[i].getDatabase();
+         _rangeColumns[i] = database.getSqlGenerator().generateIdentifierString(
+            keyColumns[i].getName());
+      }
+      boolean isRangeable = (keyColumns[0]._type == DKColumnModel.Type.INTEGER)
+         && (keyColumns[1]._type == DKColumnModel.Type.INTEGER);
+      _queryCount = 0;
+      _connections = new Connection[2];
+      try {
+         for (int i = 0; i < 2; i++)
+            _connections[i] = _sources[i].getDatabase().getLongLivedConnection();
+         if (!isRangeable) {
+            this.compareTable();
+            return true;
+         }
+         List<long[]> ranges = new ArrayList<long[]>();
+         this.compareAll(ranges);
+         this.narrow(coalesce(ranges, MAX_RANGES));
+         return true;
+      }
+      finally {
+         for (Connection connection : _connections)
+            DKSqlUtil.close(connection);
+         _connections = null;
+      }
+   }
+
+   /**
+    * whole table comparison; if the checksums match, neither source reads
+    * any rows
+    *
+    * @return true if the tables differ
+    */
+   private boolean compareTable() throws SQLException {
+      Object[][] checksums = new Object[2][];
+      for (int i = 0; i < 2; i++) {
+         String sql = String.format("SELECT COUNT(*), %s FROM %s\n%s",
+            this.generateHashSum(i), this.getTableIdentifier(i),
+            this.getWhereClause(i, null));
+         ResultSet resultSet = this.query(i, sql);
+         resultSet.next();
+         checksums[i] = new Object[] { resultSet.getObject(1), resultSet.getObject(2) };
+         DKSqlUtil.close(resultSet);
+      }
+      _queryCount++;
+      if (!isEqual(checksums[0], checksums[1])) {
+         USER_LOG.info("checksum pre-pass: tables differ");
+         return true;
+      }
+      USER_LOG.info("checksum pre-pass: tables are identical");
+      for (DKDBSource source : _sources)
+         source.setKeyRangePredicate("1 = 0");
+      return false;
+   }
+
+   private void compareAll(List<long[]> ranges_) throws SQLException {
+      Long low = null;
+      Long high = null;
+      for (int i = 0; i < 2; i++) {
+         String sql = String.format("SELECT MIN(%s), MAX(%s) FROM %s\n%s",
+            _rangeColumns[i], _rangeColumns[i], this.getTableIdentifier(i),
+            this.getWhereClause(i, null));
+         ResultSet resultSet = this.query(i, sql);
+         resultSet.next();
+         Object min = resultSet.getObject(1);
+         Object max = resultSet.getObject(2);
+         DKSqlUtil.close(resultSet);
+         if (min == null)
+            continue;
+         long minValue = ((Number) min).longValue();
+         long maxValue = ((Number) max).longValue();
+         low = (low == null) ? minValue : Math.min(low, minValue);
+         high = (high == null) ? maxValue : Math.max(high, maxValue);
+      }
+      if (low != null)
+         this.compareRange(low, high, ranges_);
+      USER_LOG.info(String.format(
+         "checksum pre-pass: %s mismatched ranges after %s queries", ranges_.size(),
+         _queryCount));
+   }
+
+   /**
+    * buckets [low_, high_] into at most _fanOut ranges, compares them, and
+    * recurses into the ones that differ
+    */
+   private void compareRange(long low_, long high_, List<long[]> ranges_)
+      throws SQLException {
+      // a span past Long.MAX_VALUE overflows (key - low_), in the database as
+      // well as here; each side of 0 spans at most Long.MAX_VALUE
+      if ((low_ < 0) && (high_ - low_ < 0)) {
+         this.compareRange(low_, -1, ranges_);
+         this.compareRange(0, high_, ranges_);
+         return;
+      }
+      long width = ((high_ - low_) / _fanOut) + 1;
+      List<Map<Long, Object[]>> buckets = new ArrayList<Map<Long, Object[]>>(2);
+      for (int i = 0; i < 2; i++)
+         buckets.add(this.queryBuckets(i, low_, high_, width));
+      _queryCount++;
+      TreeSet<Long> bucketIds = new TreeSet<Long>(buckets.get(0).keySet());
+      bucketIds.addAll(buckets.get(1).keySet());
+      for (Long bucketId : bucketIds) {
+         Object[] lhs = buckets.get(0).get(bucketId);
+         Object[] rhs = buckets.get(1).get(bucketId);
+         if (isEqual(lhs, rhs))
+            continue;
+         long low = low_ + (bucketId * width);
+         // low + width - 1 can pass Long.MAX_VALUE
+         long high = ((high_ - low) < width) ? high_ : (low + width - 1);
+         long rowCount = Math.max(getCount(lhs), getCount(rhs));
+         if ((width == 1) || (rowCount <= _leafRowCount))
+            ranges_.add(new long[] { low, high });
+         else
+            this.compareRange(low, high, ranges_);
+      }
+   }
+
+   /**
+    * @return bucket id -> {COUNT(*), SUM(row hash)}
+    */
+   private Map<Long, Object[]> queryBuckets(int side_, long low_, long high_,
+                                            long width_) throws SQLException {
+      String bucket = String.format("FLOOR((%s - %s) / %s)", _rangeColumns[side_],
+         low_, width_);
+      String sql = String.format("SELECT %s, COUNT(*), %s FROM %s\n%s\nGROUP BY %s",
+         bucket, this.generateHashSum(side_), this.getTableIdentifier(side_),
+         this.getWhereClause(side_, this.generateRangePredicate(side_, low_, high_)),
+         bucket);
+      ResultSet resultSet = this.query(side_, sql);
+      Map<Long, Object[]> buckets = new HashMap<Long, Object[]>();
+      while (resultSet.next())
+         buckets.put(((Number) resultSet.getObject(1)).longValue(), new Object[] {
+            resultSet.getObject(2), resultSet.getObject(3) });
+      DKSqlUtil.close(resultSet);
+      return buckets;
+   }
+
+   /**
+    * row hashes span all 64 bits, so they are summed as DECIMAL; a BIGINT
+    * SUM overflows, on some flavors with an error
+    */
+   private String generateHashSum(int side_) {
+      return String.format("SUM(CAST(%s AS DECIMAL(31)))", _rowHashes[side_]);
+   }
+
+   private void narrow(List<long[]> ranges_) {
+      for (int i = 0; i < 2; i++) {
+         if (ranges_.isEmpty()) {
+            _sources[i].setKeyRangePredicate("1 = 0");
+            continue;
+         }
+         StringBuilder builder = new StringBuilder();
+         for (long[] range : ranges_) {
+            if (builder.length() > 0)
+               builder.append(" OR ");
+            builder.append(this.generateRangePredicate(i, range[0], range[1]));
+         }
+         _sources[i].setKeyRangePredicate(builder.toString());
+      }
+   }
+
+   private String generateRangePredicate(int side_, long low_, long high_) {
+      return String.format("%s BETWEEN %s AND %s", _rangeColumns[side_], low_, high_);
+   }
+
+   private String getTableIdentifier(int side_) throws SQLException {
+      DKDatabase database = _sources[side_].getDatabase();
+      return database.getSqlGenerator().generateQualifiedTableIdentifierString(
+         _sources[side_].getTable());
+   }
+
+   private String getWhereClause(int side_, String extraPredicate_) {
+      String whereClause = _sources[side_].generateWhereClause(extraPredicate_);
+      return (whereClause == null) ? "" : whereClause;
+   }
+
+   private ResultSet query(int side_, String sql_) throws SQLException {
+      _log.debug("sql_->{}", sql_);
+      return DKSqlUtil.executeQuery(sql_, _connections[side_]);
+   }
+
+   /**
+    * sorts and merges adjacent ranges, then, while there are more than
+    * maxRanges_, merges the pair of neighbours with the smallest gap
+    */
+   static List<long[]> coalesce(List<long[]> ranges_, int maxRanges_) {
+      List<long[]> sorted = new ArrayList<long[]>(ranges_);
+      Collections.sort(sorted, new Comparator<long[]>() {
+         public int compare(long[] lhs_, long[] rhs_) {
+            return (lhs_[0] < rhs_[0]) ? -1 : ((lhs_[0] == rhs_[0]) ? 0 : 1);
+         }
+      });
+      List<long[]> coalesced = new ArrayList<long[]>();
+      for (long[] range : sorted) {
+         long[] last = coalesced.isEmpty() ? null : coalesced.get(coalesced.size() - 1);
+         if ((last != null) && (range[0] <= last[1] + 1))
+            last[1] = Math.max(last[1], range[1]);
+         else
+            coalesced.add(new long[] { range[0], range[1] });
+      }
+      while (coalesced.size() > maxRanges_) {
+         int closest = 0;
+         for (int i = 1; i < coalesced.size() - 1; i++) {
+            if (getGap(coalesced, i) < getGap(coalesced, closest))
+               closest = i;
+         }
+         coalesced.get(closest)[1] = coalesced.remove(closest + 1)[1];
+      }
+      return coalesced;
+   }
+
+   /**
+    * @return the number of keys between ranges_[index_] and the next range
+    */
+   private static long getGap(List<long[]> ranges_, int index_) {
+      long gap = ranges_.get(index_ + 1)[0] - ranges_.get(index_)[1];
+      // the ranges are sorted and disjoint, so a negative gap overflowed
+      return (gap < 0) ? Long.MAX_VALUE : gap;
+   }
+
+   /**
+    * the lhs (index 0) and rhs (index 1) names of the key columns, followed by
+    * those of the diff columns
+    */
+   private static String[][] getHashColumnNames(DKTableComparison tableComparison_) {
+      List<String> lhsNames = new ArrayList<String>();
+      List<String> rhsNames = new ArrayList<String>();
+      DKTableModel lhsModel = tableComparison_.getLhsModel();
+      DKTableModel rhsModel = tableComparison_.getRhsModel();
+      int[] lhsKey = lhsModel.getKey();
+      int[] rhsKey = rhsModel.getKey();
+      for (int i = 0; i < lhsKey.length; i++) {
+         lhsNames.add(lhsModel.getColumns()[lhsKey[i]].getName());
+         rhsNames.add(rhsModel.getColumns()[rhsKey[i]].getName());
+      }
+      int[] diffIndexes = tableComparison_.getDiffIndexes();
+      DKColumnComparison[] map = tableComparison_.getMap();
+      if ((tableComparison_.getKind() != DKDiff.Kind.ROW_DIFF) && (diffIndexes != null)) {
+         for (int diffIndex : diffIndexes) {
+            if (map[diffIndex].isInKey())
+               continue;
+            lhsNames.add(map[diffIndex]._lhsColumn.getName());
+            rhsNames.add(map[diffIndex]._rhsColumn.getName());
+         }
+      }
+      return new String[][] { lhsNames.toArray(new String[lhsNames.size()]),
+         rhsNames.toArray(new String[rhsNames.size()]) };
+   }
+
+   private static DKColumnModel getFirstKeyColumn(DKTableModel model_) {
+      return model_.getColumns()[model_.getKey()[0]];
+   }
+
+   private static DKDBSource toDBSource(DKSource source_) {
+      if (source_ instanceof DKPrefetchingSource)
+         source_ = ((DKPrefetchingSource) source_).getSource();
+      if (source_ instanceof DKDBSource)
+         return (DKDBSource) source_;
+      return null;
+   }
+
+   /**
+    * @param checksum_
+    *           {COUNT(*), SUM(row hash)}, either may be null
+    */
+   private static boolean isEqual(Object[] lhs_, Object[] rhs_) {
+      if ((lhs_ == null) || (rhs_ == null))
+         return (getCount(lhs_) == 0) && (getCount(rhs_) == 0);
+      if (getCount(lhs_) != getCount(rhs_))
+         return false;
+      if ((lhs_[1] == null) || (rhs_[1] == null))
+         return (lhs_[1] == rhs_[1]);
+      return new BigDecimal(lhs_[1].toString()).compareTo(
+         new BigDecimal(rhs_[1].toString())) == 0;
+   }
+
+   private static long getCount(Object[] checksum_) {
+      if ((checksum_ == null) || (checksum_[0] == null))
+         return 0;
+      return ((Number) checksum_[0]).longValue();
+   }
+
+   public String toString() {
+      return String.format("%s[fanOut=%s, leafRowCount=%s]",
+         ClassUtils.getShortClassName(this.getClass()), _fanOut, _leafRowCount);
+   }
+}
@@ -17,11 +17,14 @@ package org.diffkit.diff.sns;
 
 import java.io.IOException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.apache.commons.lang.ArrayUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,24 +43,50 @@ import org.diffkit.util.DKObjectUtil;
 import org.diffkit.util.DKSqlUtil;
 
 /**
+ * Diffs are inserted into the DIFF table through one PreparedStatement, in
+ * JDBC batches of batchSize; each batch is committed as it is executed, and
+ * the last partial batch is flushed by close().
+ *
  * @author jpanico
  */
 public class DKDBSink extends DKAbstractSink {
 
+   public static final int DEFAULT_BATCH_SIZE = 1000;
+   /**
+    * java.sql.Types of the DIFF table columns, in generateDiffTable() order
+    */
+   private static final int[] DIFF_SQL_TYPES = { Types.BIGINT, Types.INTEGER,
+      Types.INTEGER, Types.TINYINT, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR };
    private final DKDatabase _database;
    private final DKDBTableDataAccess _tableDataAccess;
    private final DKDBTable _diffContextTable;
    private final DKDBTable _diffTable;
+   private final int _batchSize;
    private transient Connection _connection;
+   private transient PreparedStatement _insertDiffStatement;
+   /**
+    * for each parameter of _insertDiffStatement, the index of the _diffTable
+    * column it binds
+    */
+   private transient int[] _insertDiffColumns;
+   private transient int _batchCount;
    private final Logger _log = LoggerFactory.getLogger(this.getClass());
 
    public DKDBSink(DKDatabase database_) throws SQLException {
+      this(database_, DEFAULT_BATCH_SIZE);
+   }
+
+   public DKDBSink(DKDatabase database_, int batchSize_) throws SQLException {
       super(null);
       _database = database_;
+      _batchSize = batchSize_;
       _tableDataAccess = new DKDBTableDataAccess(_database);
       _diffContextTable = this.generateDiffContextTable();
       _diffTable = this.generateDiffTable();
       DKValidate.notNull(_database, _diffContextTable, _diffTable);
+      if (_batchSize < 1)
+         throw new IllegalArgumentException(String.format("batchSize_->%s",
+            batchSize_));
    }
 
    // @Override
@@ -68,9 +97,10 @@ public class DKDBSink extends DKAbstractSink {
    public void open(DKContext context_) throws IOException {
       super.open(context_);
       try {
-         _connection = _database.getConnection();
+         _connection = _database.getLongLivedConnection();
          this.ensureTables();
          this.saveContext(context_);
+         this.prepareInsertDiff();
       }
       catch (SQLException e_) {
          _log.error(null, e_);
@@ -80,8 +110,19 @@ public class DKDBSink extends DKAbstractSink {
    }
 
    public void close(DKContext context_) throws IOException {
-      DKSqlUtil.close(_connection);
-      _connection = null;
+      try {
+         this.flush();
+      }
+      catch (SQLException e_) {
+         _log.error(null, e_);
+         throw new RuntimeException(e_);
+      }
+      finally {
+         DKSqlUtil.close(_insertDiffStatement);
+         _insertDiffStatement = null;
+         DKSqlUtil.close(_connection);
+         _connection = null;
+      }
       super.close(context_);
    }
 
@@ -103,14 +144,64 @@ public class DKDBSink extends DKAbstractSink {
       return _diffTable;
    }
 
+   public int getBatchSize() {
+      return _batchSize;
+   }
+
    private void saveContext(DKContext context_) throws SQLException {
       Map<String, ?> row = this.createRow(context_);
-      _database.insertRow(row, _diffContextTable);
+      String insertSql = _database.generateInsertDML(row, _diffContextTable);
+      if (!DKSqlUtil.executeUpdate(insertSql, _connection))
+         throw new SQLException(String.format("couldn't insert context row->%s", row));
+   }
+
+   /**
+    * binds to the DIFF table as it exists in the database, which might lack
+    * columns whose type the database does not support
+    */
+   private void prepareInsertDiff() throws SQLException {
+      DKDBTable table = _tableDataAccess.getTable(_diffTable.getCatalog(),
+         _diffTable.getSchema(), _diffTable.getTableName());
+      String[] diffColumnNames = _diffTable.getColumnNames();
+      String[] columnNames = table.getColumnNames();
+      _insertDiffColumns = new int[columnNames.length];
+      for (int i = 0; i < columnNames.length; i++) {
+         _insertDiffColumns[i] = ArrayUtils.indexOf(diffColumnNames,
+            columnNames[i].toUpperCase());
+         if (_insertDiffColumns[i] < 0)
+            throw new RuntimeException(String.format(
+               "unexpected column->%s in _diffTable->%s", columnNames[i], table));
+      }
+      String insertSql = _database.getSqlGenerator().generatePreparedInsertDML(table);
+      _connection.setAutoCommit(false);
+      _insertDiffStatement = _connection.prepareStatement(insertSql);
+      _batchCount = 0;
    }
 
    private void saveDiff(DKDiff diff_, DKContext context_) throws SQLException {
-      Map<String, ?> row = this.createRow(diff_, context_);
-      _database.insertRow(row, _diffTable);
+      Object[] values = this.createRow(diff_, context_);
+      for (int i = 0; i < _insertDiffColumns.length; i++) {
+         int column = _insertDiffColumns[i];
+         if (values[column] == null)
+            _insertDiffStatement.setNull(i + 1, DIFF_SQL_TYPES[column]);
+         else
+            _insertDiffStatement.setObject(i + 1, values[column], DIFF_SQL_TYPES[column]);
+      }
+      _insertDiffStatement.addBatch();
+      if (++_batchCount >= _batchSize)
+         this.flush();
+   }
+
+   /**
+    * executes and commits the pending batch
+    */
+   private void flush() throws SQLException {
+      if ((_insertDiffStatement == null) || (_batchCount == 0))
+         return;
+      _log.debug("_batchCount->{}", _batchCount);
+      _insertDiffStatement.executeBatch();
+      _connection.commit();
+      _batchCount = 0;
    }
 
    // check that diff_context and diff tables exist; if not, create them
@@ -177,15 +268,13 @@ public class DKDBSink extends DKAbstractSink {
       return row;
    }
 
-   private Map<String, ?> createRow(DKDiff diff_, DKContext context_) {
-      Map<String, Object> row = new HashMap<String, Object>();
-      row.put("CONTEXT_ID", new Long(context_._id));
-      row.put("ROW_STEP", diff_.getRowStep());
-      row.put("COLUMN_STEP", diff_.getColumnStep());
-      row.put("KIND", new Integer(diff_.getKind().ordinal()));
-      row.put("LHS", this.format(diff_, DKSide.LEFT));
-      row.put("RHS", this.format(diff_, DKSide.RIGHT));
-      return row;
+   /**
+    * @return values of the DIFF table columns, in generateDiffTable() order
+    */
+   private Object[] createRow(DKDiff diff_, DKContext context_) {
+      return new Object[] { new Long(context_._id), new Long(diff_.getRowStep()),
+         new Long(diff_.getColumnStep()), new Integer(diff_.getKind().ordinal()), null,
+         this.format(diff_, DKSide.LEFT), this.format(diff_, DKSide.RIGHT) };
    }
 
    private String format(DKDiff diff_, DKSide side_) {
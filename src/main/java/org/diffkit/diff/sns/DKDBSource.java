@@ -22,33 +22,49 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.ClassUtils;
-import org.apache.commons.lang.NotImplementedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.diffkit.common.DKValidate;
 import org.diffkit.common.annot.NotThreadSafe;
+import org.diffkit.db.DKDBColumn;
 import org.diffkit.db.DKDBFlavor;
 import org.diffkit.db.DKDBPrimaryKey;
 import org.diffkit.db.DKDBTable;
+import org.diffkit.db.DKDBTypeInfo;
 import org.diffkit.db.DKDatabase;
+import org.diffkit.diff.engine.DKBatchSource;
+import org.diffkit.diff.engine.DKColumnComparison;
 import org.diffkit.diff.engine.DKColumnModel;
 import org.diffkit.diff.engine.DKContext;
-import org.diffkit.diff.engine.DKSource;
+import org.diffkit.diff.engine.DKDiff;
+import org.diffkit.diff.engine.DKFingerprintSource;
+import org.diffkit.diff.engine.DKResumableSource;
+import org.diffkit.diff.engine.DKSide;
+import org.diffkit.diff.engine.DKTableComparison;
 import org.diffkit.diff.engine.DKTableModel;
 import org.diffkit.util.DKSqlUtil;
 import org.diffkit.util.DKSqlUtil.ReadType;
+import org.diffkit.util.DKSqlUtil.WriteType;
 import org.diffkit.util.DKStringUtil;
 import org.diffkit.util.DKStringUtil.Quote;
 
 /**
+ * Row fingerprints, when asked for, are computed by the database, with the
+ * hash function DKSqlGenerator.generateRowHashExpression() picks for its
+ * flavor, and selected as one more column. On resume, a keyset predicate
+ * restricts the SELECT to the rows ordered after the checkpoint key.
+ *
  * @author jpanico
  */
 @NotThreadSafe
-public class DKDBSource implements DKSource {
+public class DKDBSource implements DKFingerprintSource, DKResumableSource,
+   DKBatchSource {
    /**
     * Gives the JDBC driver a hint as to the number of rows that should be
     * fetched from the database when more rows are needed for ResultSet objects
@@ -56,17 +72,39 @@ public class DKDBSource implements DKSource {
     * is ignored. The default value is zero.
     */
    private static final int DEFAULT_FETCH_SIZE = 1000;
+   private static final String FINGERPRINT_COLUMN_NAME = "DK_FINGERPRINT";
 
    private final String _tableName;
    private final String _whereClause;
    private final DKTableModel _model;
    private final String[] _keyColumnNames;
    private final DKDatabase _database;
+   private final boolean _isSorted;
+   /**
+    * DKColumnModel indices
+    */
+   private final int[] _readColumnIdxs;
    private String[] _readColumnNames;
    private ReadType[] _readTypes;
+   /**
+    * row position of each of _readColumnNames; null when every modelled
+    * column is read
+    */
+   private int[] _readRowIndexes;
+   /**
+    * set by a DKDBChecksumPrePass; restricts the rows read to the key ranges
+    * whose checksums differed
+    */
+   private String _keyRangePredicate;
+   private int[] _fingerprintColumnIdxs;
+   /**
+    * keyset predicate that selects the rows after a checkpoint
+    */
+   private String _resumePredicate;
    private final DKDBTable _table;
    private transient Connection _connection;
    private transient ResultSet _resultSet;
+   private transient DKSqlUtil.RowReader _rowReader;
    private transient long _lastIndex;
    private transient boolean _isOpen;
    private transient boolean _isValidated;
@@ -79,21 +117,42 @@ public class DKDBSource implements DKSource {
    public DKDBSource(String tableName_, String whereClause_, DKDatabase database_,
                      DKTableModel model_, String[] keyColumnNames_, int[] readColumnIdxs_)
       throws SQLException {
+      this(tableName_, whereClause_, database_, model_, keyColumnNames_,
+         readColumnIdxs_, true);
+   }
+
+   /**
+    * @param readColumnIdxs_
+    *           instructs Source to only SELECT a subset of the modelled
+    *           columns (the key columns are always read); the rows still have
+    *           one position per modelled column, with the unread ones null.
+    *           null means the Source selects the columns that the
+    *           DKTableComparison in the DKContext passed to open() actually
+    *           needs
+    * @param isSorted_
+    *           false means the rows are read in whatever order the database
+    *           returns them (no ORDER BY); only suitable for engines that do not
+    *           rely on key order, such as DKHashJoinDiffEngine
+    */
+   public DKDBSource(String tableName_, String whereClause_, DKDatabase database_,
+                     DKTableModel model_, String[] keyColumnNames_,
+                     int[] readColumnIdxs_, boolean isSorted_) throws SQLException {
       _log.debug("tableName_->{}", tableName_);
       _log.debug("whereClause_->{}", whereClause_);
       _log.debug("database_->{}", database_);
       _log.debug("model_->{}", model_);
       _log.debug("keyColumnNames_->{}", keyColumnNames_);
       _log.debug("readColumnIdxs_->{}", readColumnIdxs_);
+      _log.debug("isSorted_->{}", isSorted_);
 
-      if (readColumnIdxs_ != null)
-         throw new NotImplementedException("readColumnIdxs_ not yet implemented");
       if ((model_ != null) && (keyColumnNames_ != null))
          throw new RuntimeException(String.format("does not allow both %s and %s params",
             "model_", "keyColumnNames_"));
       _tableName = tableName_;
       _whereClause = whereClause_;
       _database = database_;
+      _isSorted = isSorted_;
+      _readColumnIdxs = readColumnIdxs_;
       DKValidate.notNull(_database);
       _table = _database.getTable(tableName_);
       _log.debug("table->{}", _table);
@@ -107,6 +166,13 @@ public class DKDBSource implements DKSource {
       _log.debug("_model->{}", _model);
       DKValidate.notNull(_model);
       this.validateModel(_model, _table);
+      if (_readColumnIdxs != null) {
+         for (int readColumnIdx : _readColumnIdxs) {
+            if ((readColumnIdx < 0) || (readColumnIdx >= _model.getColumns().length))
+               throw new IllegalArgumentException(String.format(
+                  "readColumnIdx->%s not in model->%s", readColumnIdx, _model));
+         }
+      }
    }
 
    public String getTableName() {
@@ -121,12 +187,29 @@ public class DKDBSource implements DKSource {
       return _keyColumnNames;
    }
 
+   public boolean getIsSorted() {
+      return _isSorted;
+   }
+
+   public int[] getReadColumnIdxs() {
+      return _readColumnIdxs;
+   }
+
+   /**
+    * @return the names of the columns SELECTed by the current or last open();
+    *         null if never opened
+    */
+   public String[] getReadColumnNames() {
+      return _readColumnNames;
+   }
+
    // @Override
    public void close(DKContext context_) throws IOException {
       this.ensureOpen();
       DKSqlUtil.close(_resultSet);
       DKSqlUtil.close(_connection);
       _resultSet = null;
+      _rowReader = null;
       _connection = null;
       _isOpen = false;
       _rsIsConsumed = true;
@@ -136,12 +219,13 @@ public class DKDBSource implements DKSource {
    public void open(DKContext context_) throws IOException {
       this.ensureNotOpen();
       try {
-         _readColumnNames = _model.getColumnNames();
+         this.resolveReadColumns(this.getNeededColumnIdxs(context_));
          _readTypes = _table.getReadTypes(_readColumnNames, _database);
-         _connection = _database.getConnection();
+         _connection = _database.getLongLivedConnection();
          if (_database.getFlavor() != DKDBFlavor.DB2)
             _connection.setAutoCommit(false);
          _resultSet = this.createResultSet();
+         _rowReader = this.createRowReader();
          if (_isDebug)
             _log.debug("_resultSet->{}", _resultSet);
          _lastIndex = -1;
@@ -152,6 +236,7 @@ public class DKDBSource implements DKSource {
          _log.error(null, e_);
          _connection = null;
          _resultSet = null;
+         _rowReader = null;
          _isOpen = false;
          throw new RuntimeException(e_);
       }
@@ -176,7 +261,7 @@ public class DKDBSource implements DKSource {
          this.getDatabase().toString());
    }
 
-   private DKDBTable getTable() throws SQLException {
+   DKDBTable getTable() throws SQLException {
       return _table;
    }
 
@@ -198,7 +283,26 @@ public class DKDBSource implements DKSource {
             return null;
          }
          _lastIndex++;
-         return DKSqlUtil.readRow(_resultSet, _readColumnNames, _readTypes);
+         return _rowReader.readRow();
+      }
+      catch (Exception e_) {
+         throw new RuntimeException(e_);
+      }
+   }
+
+   public int getNextRows(Object[][] rows_) throws IOException {
+      try {
+         this.ensureOpen();
+         int count = 0;
+         while ((count < rows_.length) && !_rsIsConsumed) {
+            if (!_resultSet.next()) {
+               _rsIsConsumed = true;
+               break;
+            }
+            rows_[count++] = _rowReader.readRow();
+         }
+         _lastIndex += count;
+         return count;
       }
       catch (Exception e_) {
          throw new RuntimeException(e_);
@@ -210,6 +314,49 @@ public class DKDBSource implements DKSource {
       return Kind.DB;
    }
 
+   /**
+    * fingerprints are text renderings hashed by the database, so they only
+    * compare between databases of the same flavor
+    * 
+    * @return null if the flavor has no suitable hash function
+    */
+   public String getFingerprintKind() {
+      if (!_database.getSqlGenerator().supportsRowHash())
+         return null;
+      return "db:" + _database.getFlavor();
+   }
+
+   /**
+    * LOBs, long text, and other columns without a lossless text rendering are
+    * left to the engine; see DKSqlGenerator.isHashable()
+    */
+   public boolean isFingerprintable(int columnIdx_) {
+      DKDBColumn column = this.getTableColumn(_model.getColumns()[columnIdx_]);
+      return (column != null) && _database.getSqlGenerator().isHashable(column);
+   }
+
+   private DKDBColumn getTableColumn(DKColumnModel column_) {
+      return (_table == null) ? null : _table.getColumn(column_.getName());
+   }
+
+   public void setFingerprintColumnIdxs(int[] columnIdxs_) {
+      this.ensureNotOpen();
+      _log.debug("columnIdxs_->{}", columnIdxs_);
+      _fingerprintColumnIdxs = columnIdxs_;
+   }
+
+   public boolean setResumeAfter(Object[] keyValues_, long rowCount_) {
+      this.ensureNotOpen();
+      try {
+         _resumePredicate = this.generateResumePredicate(keyValues_);
+      }
+      catch (SQLException e_) {
+         throw new RuntimeException(e_);
+      }
+      _log.debug("_resumePredicate->{}", _resumePredicate);
+      return (_resumePredicate != null);
+   }
+
    // @Override
    public long getLastIndex() {
       return _lastIndex;
@@ -225,32 +372,216 @@ public class DKDBSource implements DKSource {
       }
    }
 
+   /**
+    * when fingerprinting, the fingerprint column is read into the position
+    * just past the modelled columns
+    */
+   private DKSqlUtil.RowReader createRowReader() throws SQLException {
+      int width = _model.getColumns().length;
+      if (_fingerprintColumnIdxs == null)
+         return new DKSqlUtil.RowReader(_resultSet, _readColumnNames, _readTypes,
+            _readRowIndexes, width);
+      int count = _readColumnNames.length;
+      String[] names = Arrays.copyOf(_readColumnNames, count + 1);
+      names[count] = FINGERPRINT_COLUMN_NAME;
+      ReadType[] types = Arrays.copyOf(_readTypes, count + 1);
+      types[count] = ReadType.LONG;
+      int[] rowIndexes = new int[count + 1];
+      for (int i = 0; i < count; i++)
+         rowIndexes[i] = (_readRowIndexes == null) ? i : _readRowIndexes[i];
+      rowIndexes[count] = width;
+      return new DKSqlUtil.RowReader(_resultSet, names, types, rowIndexes, width + 1);
+   }
+
    private ResultSet createResultSet() throws SQLException {
       return DKSqlUtil.executeQuery(this.generateSelectString(), _connection,
          DEFAULT_FETCH_SIZE);
    }
 
+   /**
+    * @param keyRangePredicate_
+    *           SQL boolean expression over the key columns, ANDed to the
+    *           whereClause; null clears it
+    */
+   void setKeyRangePredicate(String keyRangePredicate_) {
+      _log.debug("keyRangePredicate_->{}", keyRangePredicate_);
+      _keyRangePredicate = keyRangePredicate_;
+   }
+
+   String getKeyRangePredicate() {
+      return _keyRangePredicate;
+   }
+
+   /**
+    * @return the WHERE clause, keyword included, that ANDs together the
+    *         whereClause_ given at construction, the key range predicate, and
+    *         extraPredicate_; null if there is none of those
+    */
+   String generateWhereClause(String extraPredicate_) {
+      String whereClause = _whereClause;
+      if ((whereClause != null) && _database.getCaseSensitive()) {
+         String[] columnNames = _table.getColumnNames();
+         whereClause = DKStringUtil.quoteAllOccurrencesOfEach(whereClause, columnNames,
+            Quote.DOUBLE);
+      }
+      if ((_keyRangePredicate == null) && (extraPredicate_ == null))
+         return whereClause;
+      StringBuilder builder = new StringBuilder("WHERE ");
+      // whereClause_ carries its own WHERE keyword
+      if (whereClause != null)
+         builder.append(String.format("(%s) AND ",
+            whereClause.replaceFirst("(?i)^\\s*where\\s+", "")));
+      if (_keyRangePredicate != null)
+         builder.append("(" + _keyRangePredicate + ")");
+      if ((_keyRangePredicate != null) && (extraPredicate_ != null))
+         builder.append(" AND ");
+      if (extraPredicate_ != null)
+         builder.append("(" + extraPredicate_ + ")");
+      return builder.toString();
+   }
+
    private String generateSelectString() throws SQLException {
       StringBuilder builder = new StringBuilder();
       DKDBTable table = this.getTable();
-      builder.append(String.format("SELECT * FROM %s",
+      builder.append("SELECT ");
+      for (int i = 0; i < _readColumnNames.length; i++) {
+         builder.append(_database.getSqlGenerator().generateIdentifierString(
+            _readColumnNames[i]));
+         if (i < _readColumnNames.length - 1)
+            builder.append(", ");
+      }
+      if (_fingerprintColumnIdxs != null) {
+         DKColumnModel[] columns = _model.getColumns();
+         DKDBColumn[] fingerprintColumns = new DKDBColumn[_fingerprintColumnIdxs.length];
+         for (int i = 0; i < _fingerprintColumnIdxs.length; i++)
+            fingerprintColumns[i] = this.getTableColumn(columns[_fingerprintColumnIdxs[i]]);
+         builder.append(String.format(", %s AS %s",
+            _database.getSqlGenerator().generateRowHashExpression(fingerprintColumns),
+            FINGERPRINT_COLUMN_NAME));
+      }
+      builder.append(String.format(" FROM %s",
          _database.getSqlGenerator().generateQualifiedTableIdentifierString(table)));
-      if (_whereClause != null) {
-         String whereClause = _whereClause;
-         if (_database.getCaseSensitive()) {
-            String[] columnNames = _table.getColumnNames();
-            whereClause = DKStringUtil.quoteAllOccurrencesOfEach(whereClause,
-               columnNames, Quote.DOUBLE);
-         }
+      String whereClause = this.generateWhereClause(_resumePredicate);
+      if (whereClause != null)
          builder.append("\n" + whereClause);
-      }
       String orderBy = this.generateOrderByClause();
       if (orderBy != null)
          builder.append("\n" + orderBy);
       return builder.toString();
    }
 
+   /**
+    * @param columnIdxs_
+    *           ascending DKColumnModel indices; null means all
+    */
+   private void resolveReadColumns(int[] columnIdxs_) {
+      DKColumnModel[] columns = _model.getColumns();
+      if ((columnIdxs_ == null) || (columnIdxs_.length == columns.length)) {
+         _readColumnNames = _model.getColumnNames();
+         _readRowIndexes = null;
+         return;
+      }
+      _readColumnNames = new String[columnIdxs_.length];
+      _readRowIndexes = new int[columnIdxs_.length];
+      for (int i = 0; i < columnIdxs_.length; i++) {
+         _readColumnNames[i] = columns[columnIdxs_[i]].getName();
+         _readRowIndexes[i] = columns[columnIdxs_[i]]._index;
+      }
+      _log.debug("_readColumnNames->{}", Arrays.toString(_readColumnNames));
+   }
+
+   /**
+    * the key columns, plus either the explicit _readColumnIdxs or the diff
+    * and display columns of this side of the DKTableComparison
+    * 
+    * @return ascending DKColumnModel indices; null means all columns
+    */
+   private int[] getNeededColumnIdxs(DKContext context_) {
+      Set<Integer> idxs = new TreeSet<Integer>();
+      addAll(idxs, _model.getKey());
+      if (_readColumnIdxs != null) {
+         addAll(idxs, _readColumnIdxs);
+         return ArrayUtils.toPrimitive(idxs.toArray(new Integer[idxs.size()]));
+      }
+      if ((context_ == null) || (context_._tableComparison == null))
+         return null;
+      // patches are whole rows, so every column is needed
+      if (context_._sink instanceof DKSqlPatchSink)
+         return null;
+      DKTableComparison comparison = context_._tableComparison;
+      boolean isLhs = (comparison.getLhsModel() == _model);
+      boolean isRhs = (comparison.getRhsModel() == _model);
+      int[] diffIndexes = comparison.getDiffIndexes();
+      int[][] displayIndexes = comparison.getDisplayIndexes();
+      DKColumnComparison[] map = comparison.getMap();
+      if ((!isLhs && !isRhs) || (diffIndexes == null) || (displayIndexes == null)
+         || (map == null))
+         return null;
+      if (comparison.getKind() != DKDiff.Kind.ROW_DIFF) {
+         for (int diffIndex : diffIndexes) {
+            if (isLhs)
+               idxs.add(map[diffIndex]._lhsColumn._index);
+            if (isRhs)
+               idxs.add(map[diffIndex]._rhsColumn._index);
+         }
+      }
+      if (isLhs)
+         addAll(idxs, displayIndexes[DKSide.LEFT_INDEX]);
+      if (isRhs)
+         addAll(idxs, displayIndexes[DKSide.RIGHT_INDEX]);
+      return ArrayUtils.toPrimitive(idxs.toArray(new Integer[idxs.size()]));
+   }
+
+   private static void addAll(Set<Integer> target_, int[] idxs_) {
+      if (idxs_ == null)
+         return;
+      for (int idx : idxs_)
+         target_.add(idx);
+   }
+
+   /**
+    * (k1 > v1) OR (k1 = v1 AND k2 > v2) OR ...; compared by the database, so
+    * it agrees with the ORDER BY
+    * 
+    * @return null if the rows aren't ordered by the model key, or if any key
+    *         value is null or not a number or string (date and time literals
+    *         lose precision)
+    */
+   private String generateResumePredicate(Object[] keyValues_) throws SQLException {
+      String[] keyColumnNames = _model.getKeyColumnNames();
+      if (!_isSorted || (keyValues_ == null)
+         || (keyValues_.length != keyColumnNames.length)
+         || !Arrays.equals(keyColumnNames, this.getOrderByColumnNames()))
+         return null;
+      String[] identifiers = new String[keyColumnNames.length];
+      String[] literals = new String[keyColumnNames.length];
+      for (int i = 0; i < keyColumnNames.length; i++) {
+         DKDBColumn column = _table.getColumn(keyColumnNames[i]);
+         if ((keyValues_[i] == null) || (column == null))
+            return null;
+         DKDBTypeInfo typeInfo = _database.getConcreteTypeInfo(column.getDBTypeName());
+         WriteType writeType = (typeInfo == null) ? null : typeInfo.getWriteType();
+         if ((writeType != WriteType.NUMBER) && (writeType != WriteType.STRING))
+            return null;
+         identifiers[i] = _database.getSqlGenerator().generateIdentifierString(
+            keyColumnNames[i]);
+         literals[i] = DKSqlUtil.formatForSql(keyValues_[i], writeType);
+      }
+      StringBuilder builder = new StringBuilder();
+      for (int i = 0; i < identifiers.length; i++) {
+         if (i > 0)
+            builder.append(" OR ");
+         builder.append("(");
+         for (int j = 0; j < i; j++)
+            builder.append(String.format("%s = %s AND ", identifiers[j], literals[j]));
+         builder.append(String.format("%s > %s)", identifiers[i], literals[i]));
+      }
+      return builder.toString();
+   }
+
    private String generateOrderByClause() throws SQLException {
+      if (!_isSorted)
+         return null;
       String[] orderByColumnNames = this.getOrderByColumnNames();
       if (orderByColumnNames == null)
          return null;
@@ -0,0 +1,762 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.sns;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.lang.ArrayUtils;
+import org.apache.commons.lang.ClassUtils;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.diffkit.common.DKUserException;
+import org.diffkit.common.DKValidate;
+import org.diffkit.common.annot.NotThreadSafe;
+import org.diffkit.db.DKDBColumn;
+import org.diffkit.db.DKDBTable;
+import org.diffkit.db.DKDBType;
+import org.diffkit.db.DKDatabase;
+import org.diffkit.db.DKSqlGenerator;
+import org.diffkit.diff.engine.DKColumnModel;
+import org.diffkit.diff.engine.DKTableModel;
+import org.diffkit.util.DKSqlUtil;
+
+/**
+ * Generates a pair of tables, lhs and rhs, of any size, whose differences are
+ * known up front. Keys are generated in order, and for each key, by the rates
+ * set on the receiver, the row is either: on both sides, equal; only on the
+ * lhs (missing); only on the rhs (extra); or on both sides with one value
+ * column changed on the rhs. Rows stream to a Target as they are generated;
+ * only the shuffle window, if any, is held in memory. All values derive from
+ * the seed, so the same settings always generate the same tables.
+ * 
+ * @author jpanico
+ */
+@NotThreadSafe
+public class DKDataGenerator {
+
+   public enum KeyDistribution {
+      /** consecutive keys */
+      SEQUENTIAL,
+      /** gaps of 1 to UNIFORM_MAX_GAP between keys */
+      UNIFORM,
+      /** runs of CLUSTER_SIZE consecutive keys, separated by large gaps */
+      CLUSTERED
+   }
+
+   /**
+    * receives the rows of one side
+    */
+   public interface Target {
+      public void open(DKTableModel model_) throws IOException;
+
+      public void write(Object[] row_) throws IOException;
+
+      public void close() throws IOException;
+   }
+
+   public static final int UNIFORM_MAX_GAP = 10;
+   public static final int CLUSTER_SIZE = 100;
+   public static final int CLUSTER_MAX_GAP = 100000;
+   public static final int DECIMAL_SCALE = 2;
+   // composite keys: each key part after the first varies 16 times faster
+   private static final int KEY_PART_BITS = 4;
+   private static final long KEY_TIMESTAMP_BASE = Timestamp.valueOf(
+      "2000-01-01 00:00:00").getTime();
+   private static final DKColumnModel.Type[] DEFAULT_KEY_TYPES = {
+      DKColumnModel.Type.INTEGER, DKColumnModel.Type.STRING };
+   private static final DKColumnModel.Type[] DEFAULT_VALUE_TYPES = {
+      DKColumnModel.Type.STRING, DKColumnModel.Type.INTEGER, DKColumnModel.Type.DECIMAL,
+      DKColumnModel.Type.REAL, DKColumnModel.Type.DATE, DKColumnModel.Type.TIMESTAMP,
+      DKColumnModel.Type.BOOLEAN };
+
+   private final DKTableModel _model;
+   private final long _rowCount;
+   private final long _seed;
+   private final int[] _valueIdxs;
+   private KeyDistribution _keyDistribution = KeyDistribution.SEQUENTIAL;
+   private int _shuffleWindow;
+   private double _missingRate;
+   private double _extraRate;
+   private double _changeRate;
+   private long _lhsRowCount;
+   private long _rhsRowCount;
+   private long _missingCount;
+   private long _extraCount;
+   private long _changeCount;
+   private final Logger _log = LoggerFactory.getLogger(this.getClass());
+
+   /**
+    * @param rowCount_
+    *           number of keys generated, across both sides
+    */
+   public DKDataGenerator(DKTableModel model_, long rowCount_, long seed_) {
+      DKValidate.notNull(model_);
+      _model = model_;
+      _rowCount = rowCount_;
+      _seed = seed_;
+      for (int keyIdx : _model.getKey()) {
+         DKColumnModel column = _model.getColumns()[keyIdx];
+         if ((column._type == DKColumnModel.Type.TIME)
+            || (column._type == DKColumnModel.Type.BOOLEAN))
+            throw new DKUserException(String.format(
+               "can't generate ordered keys for column->%s", column));
+      }
+      int[] valueIdxs = new int[_model.getColumns().length];
+      int valueCount = 0;
+      for (int i = 0; i < valueIdxs.length; i++) {
+         if (!ArrayUtils.contains(_model.getKey(), i))
+            valueIdxs[valueCount++] = i;
+      }
+      _valueIdxs = Arrays.copyOf(valueIdxs, valueCount);
+   }
+
+   /**
+    * the first keyLength_ columns are the key, alternating INTEGER and STRING;
+    * the rest cycle through DEFAULT_VALUE_TYPES
+    */
+   public static DKTableModel createDefaultModel(int columnCount_, int keyLength_) {
+      if ((keyLength_ < 1) || (columnCount_ < keyLength_))
+         throw new DKUserException(String.format(
+            "columnCount_->%s must be at least keyLength_->%s, which must be at least 1",
+            columnCount_, keyLength_));
+      DKColumnModel[] columns = new DKColumnModel[columnCount_];
+      for (int i = 0; i < columnCount_; i++) {
+         DKColumnModel.Type type = (i < keyLength_) ? DEFAULT_KEY_TYPES[i
+            % DEFAULT_KEY_TYPES.length] : DEFAULT_VALUE_TYPES[(i - keyLength_)
+            % DEFAULT_VALUE_TYPES.length];
+         columns[i] = new DKColumnModel(i, "column" + i, type);
+      }
+      int[] key = new int[keyLength_];
+      for (int i = 0; i < keyLength_; i++)
+         key[i] = i;
+      return new DKTableModel("generated_table", columns, key);
+   }
+
+   public DKTableModel getModel() {
+      return _model;
+   }
+
+   public long getRowCount() {
+      return _rowCount;
+   }
+
+   public long getSeed() {
+      return _seed;
+   }
+
+   public KeyDistribution getKeyDistribution() {
+      return _keyDistribution;
+   }
+
+   public void setKeyDistribution(KeyDistribution keyDistribution_) {
+      DKValidate.notNull(keyDistribution_);
+      _keyDistribution = keyDistribution_;
+   }
+
+   public int getShuffleWindow() {
+      return _shuffleWindow;
+   }
+
+   /**
+    * @param shuffleWindow_
+    *           rows are shuffled within consecutive runs of this many rows; 0
+    *           or 1 leaves each side sorted by its key
+    */
+   public void setShuffleWindow(int shuffleWindow_) {
+      _shuffleWindow = shuffleWindow_;
+   }
+
+   public double getMissingRate() {
+      return _missingRate;
+   }
+
+   /**
+    * @param missingRate_
+    *           fraction of keys whose row is only on the lhs
+    */
+   public void setMissingRate(double missingRate_) {
+      _missingRate = missingRate_;
+      this.validateRates();
+   }
+
+   public double getExtraRate() {
+      return _extraRate;
+   }
+
+   /**
+    * @param extraRate_
+    *           fraction of keys whose row is only on the rhs
+    */
+   public void setExtraRate(double extraRate_) {
+      _extraRate = extraRate_;
+      this.validateRates();
+   }
+
+   public double getChangeRate() {
+      return _changeRate;
+   }
+
+   /**
+    * @param changeRate_
+    *           fraction of keys whose rhs row has one value column changed
+    */
+   public void setChangeRate(double changeRate_) {
+      _changeRate = changeRate_;
+      this.validateRates();
+   }
+
+   public long getLhsRowCount() {
+      return _lhsRowCount;
+   }
+
+   public long getRhsRowCount() {
+      return _rhsRowCount;
+   }
+
+   /**
+    * @return rows generated only on the lhs, by the last generate()
+    */
+   public long getMissingCount() {
+      return _missingCount;
+   }
+
+   /**
+    * @return rows generated only on the rhs, by the last generate()
+    */
+   public long getExtraCount() {
+      return _extraCount;
+   }
+
+   /**
+    * @return rows generated with one changed column, by the last generate()
+    */
+   public long getChangeCount() {
+      return _changeCount;
+   }
+
+   public void generate(Target lhs_, Target rhs_) throws IOException {
+      DKValidate.notNull(lhs_, rhs_);
+      _log.info("generating {}", this);
+      _lhsRowCount = 0;
+      _rhsRowCount = 0;
+      _missingCount = 0;
+      _extraCount = 0;
+      _changeCount = 0;
+      // separate streams, so that changing one rate does not change the keys
+      // or values generated
+      Random keyRandom = new Random(_seed);
+      Random rateRandom = new Random(_seed + 1);
+      Random valueRandom = new Random(_seed + 2);
+      ShufflingTarget lhs = new ShufflingTarget(lhs_, _shuffleWindow, new Random(
+         _seed + 3));
+      ShufflingTarget rhs = new ShufflingTarget(rhs_, _shuffleWindow, new Random(
+         _seed + 4));
+      lhs_.open(_model);
+      try {
+         rhs_.open(_model);
+         try {
+            long keyValue = -1;
+            for (long i = 0; i < _rowCount; i++) {
+               keyValue = this.nextKeyValue(keyValue, i, keyRandom);
+               this.generateRow(this.createRow(keyValue, valueRandom),
+                  rateRandom.nextDouble(), valueRandom, lhs, rhs);
+            }
+            lhs.flush();
+            rhs.flush();
+         }
+         finally {
+            rhs_.close();
+         }
+      }
+      finally {
+         lhs_.close();
+      }
+      _log.info("lhsRowCount->{} rhsRowCount->{}", _lhsRowCount, _rhsRowCount);
+   }
+
+   public String toString() {
+      return String.format(
+         "%s[rowCount=%s, seed=%s, keyDistribution=%s, shuffleWindow=%s, missingRate=%s, extraRate=%s, changeRate=%s, model=%s]",
+         ClassUtils.getShortClassName(this.getClass()), _rowCount, _seed,
+         _keyDistribution, _shuffleWindow, _missingRate, _extraRate, _changeRate,
+         _model);
+   }
+
+   private void generateRow(Object[] row_, double rate_, Random valueRandom_,
+                            ShufflingTarget lhs_, ShufflingTarget rhs_)
+      throws IOException {
+      double rate = rate_;
+      if ((rate -= _missingRate) < 0) {
+         lhs_.write(row_);
+         _lhsRowCount++;
+         _missingCount++;
+         return;
+      }
+      if ((rate -= _extraRate) < 0) {
+         rhs_.write(row_);
+         _rhsRowCount++;
+         _extraCount++;
+         return;
+      }
+      lhs_.write(row_);
+      _lhsRowCount++;
+      _rhsRowCount++;
+      if (((rate -= _changeRate) < 0) && (_valueIdxs.length > 0)) {
+         rhs_.write(this.changeRow(row_, valueRandom_));
+         _changeCount++;
+      }
+      else
+         rhs_.write(row_);
+   }
+
+   private void validateRates() {
+      if ((_missingRate < 0) || (_extraRate < 0) || (_changeRate < 0)
+         || ((_missingRate + _extraRate + _changeRate) > 1))
+         throw new DKUserException(String.format(
+            "rates must be >= 0 and sum to <= 1; missing->%s extra->%s change->%s",
+            _missingRate, _extraRate, _changeRate));
+   }
+
+   private long nextKeyValue(long keyValue_, long ordinal_, Random random_) {
+      switch (_keyDistribution) {
+      case UNIFORM:
+         return keyValue_ + 1 + random_.nextInt(UNIFORM_MAX_GAP);
+      case CLUSTERED:
+         if ((ordinal_ > 0) && ((ordinal_ % CLUSTER_SIZE) == 0))
+            return keyValue_ + 1 + random_.nextInt(CLUSTER_MAX_GAP);
+         return keyValue_ + 1;
+      default:
+         return keyValue_ + 1;
+      }
+   }
+
+   private Object[] createRow(long keyValue_, Random random_) {
+      DKColumnModel[] columns = _model.getColumns();
+      int[] key = _model.getKey();
+      Object[] row = new Object[columns.length];
+      for (int i = 0; i < key.length; i++) {
+         long part = keyValue_ >> (KEY_PART_BITS * (key.length - 1 - i));
+         row[key[i]] = createKeyValue(columns[key[i]]._type, part);
+      }
+      for (int valueIdx : _valueIdxs)
+         row[valueIdx] = createValue(columns[valueIdx]._type, random_);
+      return row;
+   }
+
+   private Object[] changeRow(Object[] row_, Random random_) {
+      Object[] changed = Arrays.copyOf(row_, row_.length);
+      int valueIdx = _valueIdxs[random_.nextInt(_valueIdxs.length)];
+      DKColumnModel.Type type = _model.getColumns()[valueIdx]._type;
+      Object value = null;
+      do
+         value = createValue(type, random_);
+      while (value.equals(row_[valueIdx]));
+      changed[valueIdx] = value;
+      return changed;
+   }
+
+   /**
+    * ordered as part_ is
+    */
+   private static Object createKeyValue(DKColumnModel.Type type_, long part_) {
+      switch (type_) {
+      case INTEGER:
+         return Long.valueOf(part_);
+      case REAL:
+         return Double.valueOf(part_);
+      case DECIMAL:
+         return BigDecimal.valueOf(part_);
+      case DATE:
+         return new java.sql.Date(KEY_TIMESTAMP_BASE + (part_ * 86400000L));
+      case TIMESTAMP:
+         return new Timestamp(KEY_TIMESTAMP_BASE + (part_ * 1000L));
+      default:
+         return String.format("%012d", part_);
+      }
+   }
+
+   private static Object createValue(DKColumnModel.Type type_, Random random_) {
+      switch (type_) {
+      case INTEGER:
+         return Long.valueOf(random_.nextInt(1000000000));
+      case REAL:
+         return Double.valueOf(random_.nextInt(100000000) / 100d);
+      case DECIMAL:
+         return BigDecimal.valueOf(random_.nextInt(100000000), DECIMAL_SCALE);
+      case DATE:
+         return java.sql.Date.valueOf(createDateString(random_));
+      case TIME:
+         return Time.valueOf(createTimeString(random_));
+      case TIMESTAMP:
+         return Timestamp.valueOf(createDateString(random_) + " "
+            + createTimeString(random_));
+      case BOOLEAN:
+         return Boolean.valueOf(random_.nextBoolean());
+      case TEXT: {
+         StringBuilder builder = new StringBuilder();
+         for (int i = 5 + random_.nextInt(20); i > 0; i--)
+            builder.append(createWord(random_)).append(i > 1 ? " " : "");
+         return builder.toString();
+      }
+      default:
+         return createWord(random_);
+      }
+   }
+
+   private static String createDateString(Random random_) {
+      return String.format("%04d-%02d-%02d", 1970 + random_.nextInt(60),
+         1 + random_.nextInt(12), 1 + random_.nextInt(28));
+   }
+
+   private static String createTimeString(Random random_) {
+      return String.format("%02d:%02d:%02d", random_.nextInt(24), random_.nextInt(60),
+         random_.nextInt(60));
+   }
+
+   private static String createWord(Random random_) {
+      char[] chars = new char[4 + random_.nextInt(12)];
+      for (int i = 0; i < chars.length; i++)
+         chars[i] = (char) ('a' + random_.nextInt(26));
+      return new String(chars);
+   }
+
+   /**
+    * passes rows through, or shuffles each run of window_ rows
+    */
+   private static class ShufflingTarget {
+      private final Target _target;
+      private final int _window;
+      private final Random _random;
+      private final List<Object[]> _buffer;
+
+      private ShufflingTarget(Target target_, int window_, Random random_) {
+         _target = target_;
+         _window = window_;
+         _random = random_;
+         _buffer = (_window > 1) ? new ArrayList<Object[]>(_window) : null;
+      }
+
+      private void write(Object[] row_) throws IOException {
+         if (_buffer == null) {
+            _target.write(row_);
+            return;
+         }
+         _buffer.add(row_);
+         if (_buffer.size() >= _window)
+            this.flush();
+      }
+
+      private void flush() throws IOException {
+         if (_buffer == null)
+            return;
+         Collections.shuffle(_buffer, _random);
+         for (Object[] row : _buffer)
+            _target.write(row);
+         _buffer.clear();
+      }
+   }
+
+   /**
+    * keeps the rows in memory, e.g. for a DKListSource
+    */
+   public static class ListTarget implements Target {
+      private final List<Object[]> _rows = new ArrayList<Object[]>();
+
+      public void open(DKTableModel model_) {
+         _rows.clear();
+      }
+
+      public void write(Object[] row_) {
+         _rows.add(row_);
+      }
+
+      public void close() {
+      }
+
+      public List<Object[]> getRows() {
+         return _rows;
+      }
+   }
+
+   /**
+    * delimited text, with a header line of the column names, as read by
+    * DKFileSource. Dates and times are written in JDBC escape format.
+    */
+   public static class CsvTarget implements Target {
+      private final File _file;
+      private final char _delimiter;
+      private Writer _writer;
+      private final StringBuilder _line = new StringBuilder();
+
+      public CsvTarget(File file_, char delimiter_) {
+         DKValidate.notNull(file_);
+         _file = file_;
+         _delimiter = delimiter_;
+      }
+
+      public void open(DKTableModel model_) throws IOException {
+         _writer = new BufferedWriter(new FileWriter(_file));
+         this.write(model_.getColumnNames());
+      }
+
+      public void write(Object[] row_) throws IOException {
+         _line.setLength(0);
+         for (int i = 0; i < row_.length; i++) {
+            if (i > 0)
+               _line.append(_delimiter);
+            if (row_[i] != null)
+               this.appendValue(row_[i].toString());
+         }
+         _line.append('\n');
+         _writer.write(_line.toString());
+      }
+
+      public void close() throws IOException {
+         if (_writer != null)
+            _writer.close();
+         _writer = null;
+      }
+
+      private void appendValue(String value_) {
+         if ((value_.indexOf(_delimiter) < 0) && (value_.indexOf('"') < 0)
+            && (value_.indexOf('\n') < 0)) {
+            _line.append(value_);
+            return;
+         }
+         _line.append('"').append(value_.replace("\"", "\"\"")).append('"');
+      }
+   }
+
+   /**
+    * a single sheet, with a header row of the column names, as read by
+    * DKSpreadSheetFileSource. Unlike the other Targets this doesn't stream:
+    * the POI in use has no streaming xlsx writer, so the whole workbook is
+    * built in memory and written on close(). Heap, rather than MAX_ROWS, is
+    * then the practical limit; it suits tables of up to a few hundred
+    * thousand rows. Cells hold numbers as doubles, so integers beyond
+    * +/-2^53, which a double can't hold exactly, are rejected.
+    */
+   public static class XlsxTarget implements Target {
+      public static final int MAX_ROWS = 1048576;
+      public static final long MAX_EXACT_INTEGER = 1L << 53;
+      private final File _file;
+      private final String _sheetName;
+      private Workbook _workbook;
+      private Sheet _sheet;
+      private CellStyle _dateStyle;
+      private int _rowIdx;
+
+      public XlsxTarget(File file_, String sheetName_) {
+         DKValidate.notNull(file_, sheetName_);
+         _file = file_;
+         _sheetName = sheetName_;
+      }
+
+      public void open(DKTableModel model_) {
+         _workbook = new XSSFWorkbook();
+         _sheet = _workbook.createSheet(_sheetName);
+         _dateStyle = _workbook.createCellStyle();
+         _dateStyle.setDataFormat(_workbook.getCreationHelper().createDataFormat()
+            .getFormat("yyyy-mm-dd hh:mm:ss"));
+         _rowIdx = 0;
+         this.write(model_.getColumnNames());
+      }
+
+      public void write(Object[] row_) {
+         if (_rowIdx >= MAX_ROWS)
+            throw new DKUserException(String.format(
+               "file [%s] can't hold more than %s rows", _file, MAX_ROWS));
+         Row row = _sheet.createRow(_rowIdx++);
+         for (int i = 0; i < row_.length; i++) {
+            if (row_[i] == null)
+               continue;
+            Cell cell = row.createCell(i);
+            if (row_[i] instanceof Number)
+               cell.setCellValue(this.toDouble((Number) row_[i]));
+            else if (row_[i] instanceof Boolean)
+               cell.setCellValue(((Boolean) row_[i]).booleanValue());
+            else if (row_[i] instanceof Date) {
+               cell.setCellValue((Date) row_[i]);
+               cell.setCellStyle(_dateStyle);
+            }
+            else
+               cell.setCellValue(row_[i].toString());
+         }
+      }
+
+      private double toDouble(Number number_) {
+         if (!((number_ instanceof Long) || (number_ instanceof Integer)
+            || (number_ instanceof Short) || (number_ instanceof Byte)))
+            return number_.doubleValue();
+         long value = number_.longValue();
+         if ((value > MAX_EXACT_INTEGER) || (value < -MAX_EXACT_INTEGER))
+            throw new DKUserException(String.format(
+               "file [%s] can't hold %s exactly; xlsx cells hold integers up to +/-2^53",
+               _file, number_));
+         return value;
+      }
+
+      public void close() throws IOException {
+         if (_workbook == null)
+            return;
+         OutputStream stream = new FileOutputStream(_file);
+         try {
+            _workbook.write(stream);
+         }
+         finally {
+            stream.close();
+            _workbook = null;
+            _sheet = null;
+         }
+      }
+   }
+
+   /**
+    * (re)creates the table, with a primary key on the model's key, and inserts
+    * the rows in batches
+    */
+   public static class DBTarget implements Target {
+      private static final int INSERT_BATCH_SIZE = 1000;
+      private final DKDatabase _database;
+      private final String _tableName;
+      private int[] _rowIdxs;
+      private Connection _connection;
+      private PreparedStatement _statement;
+      private int _batchCount;
+
+      public DBTarget(DKDatabase database_, String tableName_) {
+         DKValidate.notNull(database_, tableName_);
+         _database = database_;
+         _tableName = tableName_;
+      }
+
+      public void open(DKTableModel model_) throws IOException {
+         try {
+            DKDBTable table = this.createTable(model_);
+            if (_database.tableExists(table))
+               _database.dropTable(table);
+            _database.createTable(table);
+            _connection = _database.getLongLivedConnection();
+            _connection.setAutoCommit(false);
+            _statement = _connection.prepareStatement(this.createInsertSql(model_));
+            _batchCount = 0;
+         }
+         catch (SQLException e_) {
+            this.closeConnection();
+            throw new IOException(e_.getMessage(), e_);
+         }
+      }
+
+      public void write(Object[] row_) throws IOException {
+         try {
+            for (int i = 0; i < _rowIdxs.length; i++)
+               _statement.setObject(i + 1, row_[_rowIdxs[i]]);
+            _statement.addBatch();
+            if (++_batchCount >= INSERT_BATCH_SIZE)
+               this.executeBatch();
+         }
+         catch (SQLException e_) {
+            throw new IOException(e_.getMessage(), e_);
+         }
+      }
+
+      public void close() throws IOException {
+         try {
+            if (_statement != null)
+               this.executeBatch();
+         }
+         catch (SQLException e_) {
+            throw new IOException(e_.getMessage(), e_);
+         }
+         finally {
+            this.closeConnection();
+         }
+      }
+
+      private void executeBatch() throws SQLException {
+         if (_batchCount > 0)
+            _statement.executeBatch();
+         _connection.commit();
+         _batchCount = 0;
+      }
+
+      private void closeConnection() {
+         DKSqlUtil.close(_statement);
+         DKSqlUtil.close(_connection);
+         _statement = null;
+         _connection = null;
+      }
+
+      private DKDBTable createTable(DKTableModel model_) throws SQLException {
+         DKColumnModel[] columnModels = model_.getColumns();
+         DKDBColumn[] columns = new DKDBColumn[columnModels.length];
+         for (int i = 0; i < columns.length; i++) {
+            // the default DECIMAL column has no scale
+            if (columnModels[i]._type == DKColumnModel.Type.DECIMAL)
+               columns[i] = new DKDBColumn(columnModels[i]._name,
+                  columnModels[i]._index + 1, DKDBType.NUMERIC.toString(), 18,
+                  DECIMAL_SCALE, true);
+            else
+               columns[i] = DKTableModelUtil.createDefaultDBColumn(columnModels[i]);
+         }
+         return new DKDBTable(null, null, _tableName, columns,
+            DKTableModelUtil.createDefaultPrimaryKey(_tableName, model_));
+      }
+
+      private String createInsertSql(DKTableModel model_) {
+         DKSqlGenerator generator = _database.getSqlGenerator();
+         DKColumnModel[] columns = model_.getColumns();
+         _rowIdxs = new int[columns.length];
+         StringBuilder names = new StringBuilder();
+         StringBuilder markers = new StringBuilder();
+         for (int i = 0; i < columns.length; i++) {
+            String separator = (i == 0) ? "" : ", ";
+            names.append(separator).append(
+               generator.generateIdentifierString(columns[i]._name));
+            markers.append(separator).append("?");
+            _rowIdxs[i] = columns[i]._index;
+         }
+         return String.format("INSERT INTO %s (%s) VALUES (%s)",
+            generator.generateQualifiedTableIdentifierString(null, _tableName), names,
+            markers);
+      }
+   }
+}
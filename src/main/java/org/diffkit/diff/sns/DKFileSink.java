@@ -19,6 +19,8 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
 import java.text.SimpleDateFormat;
 import java.util.Map;
 
@@ -31,36 +33,54 @@ import org.diffkit.common.DKUserException;
 import org.diffkit.common.DKValidate;
 import org.diffkit.diff.engine.DKContext;
 import org.diffkit.diff.engine.DKContext.UserKey;
+import org.diffkit.diff.engine.DKResumableSink;
 import org.diffkit.util.DKFileUtil;
 
 /**
+ * If withSummary, the diffs are written to a sidecar body file while the diff
+ * runs; close() then writes the summary header to the sink file and appends
+ * the body to it, so the diffs are copied once by the OS instead of being
+ * rewritten behind the header.
+ * <p>
+ * A checkpoint records the length of the file being written (the body file,
+ * if withSummary). On resume, open() cuts the file back to that length and
+ * appends to it.
+ *
  * @author jpanico
  */
-public class DKFileSink extends DKWriterSink {
+public class DKFileSink extends DKWriterSink implements DKResumableSink {
 
+   private static final String BODY_SUFFIX = ".__body__";
    private final File _file;
    private final boolean _withSummary;
+   private ResumeState _resumeState;
    private final Logger _log = LoggerFactory.getLogger(this.getClass());
 
    public DKFileSink(String filePath_) throws IOException {
-      this(new File(filePath_), false, null);
+      this(new File(filePath_), false, null, false);
    }
 
    public DKFileSink(String newFilePath_, DKFileSink toClone_) throws IOException {
-      this(newFilePath_, toClone_.getWithSummary(), toClone_.getGroupByColumnNames());
+      this(newFilePath_, toClone_.getWithSummary(), toClone_.getGroupByColumnNames(),
+         toClone_.getAsyncWrite());
    }
 
    public DKFileSink(String filePath_, Boolean withSummary_, String[] groupByColumnNames_)
       throws IOException {
-      this(new File(filePath_), withSummary_, groupByColumnNames_);
+      this(filePath_, withSummary_, groupByColumnNames_, Boolean.FALSE);
+   }
+
+   public DKFileSink(String filePath_, Boolean withSummary_,
+                     String[] groupByColumnNames_, Boolean asyncWrite_)
+      throws IOException {
+      this(new File(filePath_), withSummary_, groupByColumnNames_,
+         Boolean.TRUE.equals(asyncWrite_));
    }
 
-   private DKFileSink(File file_, boolean withSummary_, String[] groupByColumnNames_) {
-      super(groupByColumnNames_);
+   private DKFileSink(File file_, boolean withSummary_, String[] groupByColumnNames_,
+                      boolean asyncWrite_) {
+      super(groupByColumnNames_, asyncWrite_);
       DKValidate.notNull(file_);
-      if (file_.exists())
-         throw new DKUserException(String.format(
-            "sink file [%s] already exists! please remove it and try again.", file_));
       _file = file_;
       _withSummary = withSummary_;
       _log.debug("_file->{}", _file);
@@ -80,10 +100,51 @@ public class DKFileSink extends DKWriterSink {
       return _withSummary;
    }
 
+   /**
+    * the sink file must not exist, unless resuming
+    */
    @Override
    public void open(DKContext context_) throws IOException {
-      this.init(new BufferedWriter(new FileWriter(_file)), this.getFormatter());
+      File writeFile = this.getWriteFile();
+      if (_resumeState == null) {
+         if (_file.exists())
+            throw new DKUserException(String.format(
+               "sink file [%s] already exists! please remove it and try again.", _file));
+         this.init(new BufferedWriter(new FileWriter(writeFile)), this.getFormatter());
+         super.open(context_);
+         return;
+      }
+      truncate(writeFile, _resumeState._length);
+      this.init(new BufferedWriter(new FileWriter(writeFile, true)), this.getFormatter());
       super.open(context_);
+      this.setCountState(_resumeState._countState);
+      _resumeState = null;
+   }
+
+   public Serializable checkpoint(DKContext context_) throws IOException {
+      Serializable countState = this.getCountState();
+      this.sync();
+      return new ResumeState(this.getWriteFile().length(), countState);
+   }
+
+   public void setResumeState(Serializable state_) {
+      this.ensureNotStarted();
+      DKValidate.notNull(state_);
+      _resumeState = (ResumeState) state_;
+      _log.debug("_resumeState->{}", _resumeState);
+   }
+
+   private static void truncate(File file_, long length_) throws IOException {
+      if (file_.length() < length_)
+         throw new DKUserException(String.format(
+            "sink file [%s] is shorter than its checkpoint; length->%s", file_, length_));
+      RandomAccessFile randomAccessFile = new RandomAccessFile(file_, "rw");
+      try {
+         randomAccessFile.setLength(length_);
+      }
+      finally {
+         randomAccessFile.close();
+      }
    }
 
    public String toString() {
@@ -96,8 +157,20 @@ public class DKFileSink extends DKWriterSink {
    @Override
    public void close(DKContext context_) throws IOException {
       super.close(context_);
-      if (_withSummary)
-         DKFileUtil.prepend(this.generateHeader(context_), _file);
+      if (!_withSummary)
+         return;
+      File bodyFile = this.getBodyFile();
+      DKFileUtil.concatenate(this.generateHeader(context_), bodyFile, _file);
+      if (!bodyFile.delete())
+         _log.warn("couldn't delete bodyFile->{}", bodyFile);
+   }
+
+   private File getWriteFile() {
+      return (_withSummary ? this.getBodyFile() : _file);
+   }
+
+   private File getBodyFile() {
+      return new File(_file.getParentFile(), _file.getName() + BODY_SUFFIX);
    }
 
    public String generateHeader(DKContext context_) {
@@ -128,4 +201,20 @@ public class DKFileSink extends DKWriterSink {
       }
       return builder.toString();
    }
+
+   private static class ResumeState implements Serializable {
+      private static final long serialVersionUID = 1L;
+      private final long _length;
+      private final Serializable _countState;
+
+      private ResumeState(long length_, Serializable countState_) {
+         _length = length_;
+         _countState = countState_;
+      }
+
+      public String toString() {
+         return String.format("%s[length=%s]",
+            ClassUtils.getShortClassName(this.getClass()), _length);
+      }
+   }
 }
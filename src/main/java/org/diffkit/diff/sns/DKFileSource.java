@@ -21,6 +21,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.LineNumberReader;
 import java.net.URI;
+import java.nio.charset.Charset;
 import java.text.ParseException;
 import java.util.Arrays;
 
@@ -35,21 +36,39 @@ import org.diffkit.common.DKRuntime;
 import org.diffkit.common.DKUserException;
 import org.diffkit.common.DKValidate;
 import org.diffkit.common.annot.NotThreadSafe;
+import org.diffkit.diff.engine.DKBatchSource;
 import org.diffkit.diff.engine.DKColumnModel;
 import org.diffkit.diff.engine.DKContext;
-import org.diffkit.diff.engine.DKSource;
+import org.diffkit.diff.engine.DKFingerprintSource;
+import org.diffkit.diff.engine.DKResumableSource;
 import org.diffkit.diff.engine.DKTableModel;
 import org.diffkit.util.DKArrayUtil;
+import org.diffkit.util.DKCsvTokenizer;
 import org.diffkit.util.DKFileUtil;
 
 /**
+ * Row fingerprints, when asked for, are 64 bit FNV-1a hashes of the raw field
+ * text, taken before the fields are parsed. On resume, the rows that were
+ * already diffed are skipped by count, without parsing their fields; the
+ * readers decode through buffered Readers, or parse mapped chunks, so there is
+ * no byte position per row to seek to.
+ *
  * @author jpanico
  */
 @NotThreadSafe
-public class DKFileSource implements DKSource {
+public class DKFileSource implements DKFingerprintSource, DKResumableSource,
+   DKBatchSource {
+   private static final String FINGERPRINT_KIND = "file";
+   private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+   private static final long FNV_PRIME = 0x100000001b3L;
 
    private final File _file;
    private final String _delimiter;
+   /**
+    * literal char equivalent of _delimiter, when there is one; then lines are
+    * parsed by a DKCsvTokenizer rather than split by regex
+    */
+   private final Character _delimiterChar;
    /**
     * read from the first line of actual file
     */
@@ -63,9 +82,28 @@ public class DKFileSource implements DKSource {
    private DKColumnModel[] _readColumns;
    private final boolean _isSorted;
    private final boolean _validateLazily;
+   /**
+    * more than 1 means the file is memory mapped and parsed in chunks by
+    * that many threads, see DKMappedFileParser
+    */
+   private final int _parseThreads;
+   private int[] _fingerprintColumnIdxs;
+   /**
+    * rows to skip on the next open(DKContext)
+    */
+   private long _resumeRowCount;
+   private int _parseChunkSize = DKMappedFileParser.DEFAULT_CHUNK_SIZE;
    private transient boolean _isOpen;
    private transient long _lastIndex = -1;
    private transient LineNumberReader _lineReader;
+   private transient DKCsvTokenizer _tokenizer;
+   private transient DKMappedFileParser _parser;
+   private transient Object[][] _chunk;
+   private transient int _chunkPosition;
+   /**
+    * when !_isSorted, the rows are vended through this instead of the file
+    */
+   private transient DKSortingSource _sortingSource;
    private final Logger _log = LoggerFactory.getLogger(this.getClass());
 
    /**
@@ -86,6 +124,19 @@ public class DKFileSource implements DKSource {
    public DKFileSource(String filePath_, DKTableModel model_, String[] keyColumnNames_,
                        int[] readColumnIdxs_, String delimiter_, boolean isSorted_,
                        boolean validateLazily_) throws IOException {
+      this(filePath_, model_, keyColumnNames_, readColumnIdxs_, delimiter_, isSorted_,
+         validateLazily_, 1);
+   }
+
+   /**
+    * @param parseThreads_
+    *           values greater than 1 select memory mapped, chunk parallel,
+    *           parsing; only honored for single char delimiters, and quoted
+    *           values must then not contain line breaks
+    */
+   public DKFileSource(String filePath_, DKTableModel model_, String[] keyColumnNames_,
+                       int[] readColumnIdxs_, String delimiter_, boolean isSorted_,
+                       boolean validateLazily_, int parseThreads_) throws IOException {
 
       _log.debug("filePath_->{}", filePath_);
       _log.debug("model_->{}", model_);
@@ -94,6 +145,7 @@ public class DKFileSource implements DKSource {
       _log.debug("delimiter_->{}", delimiter_);
       _log.debug("isSorted_->{}", isSorted_);
       _log.debug("validateLazily_->{}", validateLazily_);
+      _log.debug("parseThreads_->{}", parseThreads_);
 
       if ((model_ != null) && (keyColumnNames_ != null))
          throw new RuntimeException(String.format("does not allow both %s and %s params",
@@ -101,6 +153,7 @@ public class DKFileSource implements DKSource {
 
       _file = DKFileUtil.findFile(filePath_);
       _delimiter = delimiter_;
+      _delimiterChar = DKCsvTokenizer.toDelimiterChar(_delimiter);
       _model = model_;
       _keyColumnNames = keyColumnNames_;
       _readColumnIdxs = readColumnIdxs_;
@@ -110,10 +163,8 @@ public class DKFileSource implements DKSource {
 
       _isSorted = isSorted_;
       _validateLazily = validateLazily_;
+      _parseThreads = parseThreads_;
       DKValidate.notNull(_delimiter);
-      if (!_isSorted)
-         throw new NotImplementedException(String.format(
-            "isSorted_->%s is not currently supported", _isSorted));
       if (!_validateLazily) {
          if (_file == null)
             throw new RuntimeException(String.format(
@@ -180,10 +231,42 @@ public class DKFileSource implements DKSource {
       return _validateLazily;
    }
 
+   public int getParseThreads() {
+      return _parseThreads;
+   }
+
    public Kind getKind() {
       return Kind.FILE;
    }
 
+   public String getFingerprintKind() {
+      return FINGERPRINT_KIND;
+   }
+
+   /**
+    * every field fingerprints by its raw text
+    */
+   public boolean isFingerprintable(int columnIdx_) {
+      return true;
+   }
+
+   /**
+    * fields are only parsed as rows are read, so unlike other sources this may
+    * also be called once open, as long as no rows have been read
+    */
+   public void setFingerprintColumnIdxs(int[] columnIdxs_) {
+      _fingerprintColumnIdxs = columnIdxs_;
+   }
+
+   /**
+    * keyValues_ are not needed; the rows are skipped by count
+    */
+   public boolean setResumeAfter(Object[] keyValues_, long rowCount_) {
+      _log.debug("rowCount_->{}", rowCount_);
+      _resumeRowCount = rowCount_;
+      return true;
+   }
+
    public URI getURI() throws IOException {
       return _file.toURI();
    }
@@ -197,11 +280,67 @@ public class DKFileSource implements DKSource {
 
    public Object[] getNextRow() throws IOException {
       this.ensureOpen();
-      String line = this.readLine();
-      if (line == null)
+      if (_sortingSource != null) {
+         Object[] row = _sortingSource.getNextRow();
+         if (row != null)
+            _lastIndex++;
+         return row;
+      }
+      if (_parser != null) {
+         if (!this.fillChunk())
+            return null;
+         _lastIndex++;
+         return _chunk[_chunkPosition++];
+      }
+      String[] fields = this.readFields();
+      if (fields == null)
          return null;
       _lastIndex++;
-      return createRow(line);
+      return createRow(fields);
+   }
+
+   public int getNextRows(Object[][] rows_) throws IOException {
+      this.ensureOpen();
+      if (_sortingSource != null) {
+         int count = _sortingSource.getNextRows(rows_);
+         _lastIndex += count;
+         return count;
+      }
+      if (_parser != null) {
+         if (!this.fillChunk())
+            return 0;
+         int count = Math.min(rows_.length, _chunk.length - _chunkPosition);
+         System.arraycopy(_chunk, _chunkPosition, rows_, 0, count);
+         _chunkPosition += count;
+         _lastIndex += count;
+         return count;
+      }
+      int count = 0;
+      while (count < rows_.length) {
+         String[] fields = this.readFields();
+         if (fields == null)
+            break;
+         rows_[count++] = createRow(fields);
+      }
+      _lastIndex += count;
+      return count;
+   }
+
+   /**
+    * @return false only when every chunk has been consumed
+    */
+   private boolean fillChunk() throws IOException {
+      if (_chunk == null)
+         _parser.setColumns(this.getReadColumns(), _model, _fingerprintColumnIdxs);
+      while ((_chunk == null) || (_chunkPosition >= _chunk.length)) {
+         _chunk = _parser.nextChunk();
+         _chunkPosition = 0;
+         if (_chunk == null) {
+            _chunk = new Object[0][];
+            return false;
+         }
+      }
+      return true;
    }
 
    /**
@@ -220,35 +359,73 @@ public class DKFileSource implements DKSource {
       }
    }
 
-   private Object[] createRow(String line_) throws IOException {
-      if (line_ == null)
+   /**
+    * @return null only when EOF is reached
+    */
+   private String[] readFields() throws IOException {
+      if (_tokenizer != null)
+         return _tokenizer.nextRecord();
+      String line = this.readLine();
+      if (line == null)
          return null;
       // Each field may or may not be enclosed in double quotes
-      String[] strings = line_.split(_delimiter + "(?=([^\"]*\"[^\"]*\")*[^\"]*$)", -1);
-      DKColumnModel[] readColumns = this.getReadColumns();
-      if (strings.length != readColumns.length)
+      String[] strings = line.split(_delimiter + "(?=([^\"]*\"[^\"]*\")*[^\"]*$)", -1);
+      for (int i = 0; i < strings.length; i++) {
+         // When strings are enclosed by quotes, remove them.
+         if (strings[i].startsWith("\"") && strings[i].endsWith("\""))
+            strings[i] = strings[i].substring(1, strings[i].length() - 1);
+      }
+      return strings;
+   }
+
+   private Object[] createRow(String[] strings_) throws IOException {
+      return createRow(strings_, this.getReadColumns(), _model, _fingerprintColumnIdxs);
+   }
+
+   /**
+    * @param model_
+    *           only used for error messages
+    * @param fingerprintColumnIdxs_
+    *           if not null, the row gets one extra element: the fingerprint of
+    *           these fields
+    */
+   static Object[] createRow(String[] strings_, DKColumnModel[] readColumns_,
+                             DKTableModel model_, int[] fingerprintColumnIdxs_) {
+      if (strings_.length != readColumns_.length)
          throw new RuntimeException(String.format(
                  "columnCount->%s in row->%s does not match modelled table->%s",
-                 strings.length, Arrays.toString(strings), _model));
+                 strings_.length, Arrays.toString(strings_), model_));
       try {
-         Object[] row = new Object[strings.length];
-         for (int i = 0; i < strings.length; i++) {
-            // When strings are enclosed by quotes, remove them.
-            final String s;
-            if (strings[i].startsWith("\"") && strings[i].endsWith("\""))
-               s = strings[i].substring(1, strings[i].length()-1);
-            else
-               s = strings[i];
-            row[i] = readColumns[i].parseObject(s);
-         }
+         int width = strings_.length + ((fingerprintColumnIdxs_ == null) ? 0 : 1);
+         Object[] row = new Object[width];
+         for (int i = 0; i < strings_.length; i++)
+            row[i] = readColumns_[i].parseObject(strings_[i]);
+         if (fingerprintColumnIdxs_ != null)
+            row[strings_.length] = fingerprint(strings_, fingerprintColumnIdxs_);
          return row;
       }
       catch (ParseException e_) {
-         _log.error(null, e_);
+         LoggerFactory.getLogger(DKFileSource.class).error(null, e_);
          throw new RuntimeException(e_);
       }
    }
 
+   private static Long fingerprint(String[] strings_, int[] idxs_) {
+      long hash = FNV_OFFSET_BASIS;
+      for (int idx : idxs_) {
+         String string = strings_[idx];
+         int length = string.length();
+         for (int i = 0; i < length; i++) {
+            hash ^= string.charAt(i);
+            hash *= FNV_PRIME;
+         }
+         // so that field boundaries count
+         hash ^= length;
+         hash *= FNV_PRIME;
+      }
+      return Long.valueOf(hash);
+   }
+
    private DKColumnModel[] getReadColumns() {
       if (_readColumns != null)
          return _readColumns;
@@ -266,7 +443,22 @@ public class DKFileSource implements DKSource {
    // @Override
    public void close(DKContext context_) throws IOException {
       this.ensureOpen();
-      _lineReader.close();
+      this.closeReader();
+      if (_sortingSource != null)
+         _sortingSource.close(context_);
+      _sortingSource = null;
+   }
+
+   private void closeReader() throws IOException {
+      if (_parser != null)
+         _parser.close();
+      else if (_tokenizer != null)
+         _tokenizer.close();
+      else if (_lineReader != null)
+         _lineReader.close();
+      _parser = null;
+      _chunk = null;
+      _tokenizer = null;
       _lineReader = null;
       _isOpen = false;
    }
@@ -278,7 +470,40 @@ public class DKFileSource implements DKSource {
 
    // @Override
    public void open(DKContext context_) throws IOException {
-      this.open();
+      if (_isSorted)
+         this.open();
+      else if (_sortingSource == null) {
+         // a sorted view of the same file, read by a second, plain, DKFileSource
+         DKFileSource unsorted = new DKFileSource(_file.getPath(), this.getModel(),
+            null, null, _delimiter, true, true, _parseThreads);
+         unsorted.setFingerprintColumnIdxs(_fingerprintColumnIdxs);
+         _sortingSource = new DKSortingSource(unsorted);
+         _sortingSource.open(context_);
+         // rows come from the sorting source; getModel() may have opened this
+         // file just to read the header
+         this.closeReader();
+      }
+      this.skipResumedRows();
+   }
+
+   /**
+    * sorted and mapped rows are already parsed by the time they can be
+    * skipped; plain reads skip just the field splitting
+    */
+   private void skipResumedRows() throws IOException {
+      long count = _resumeRowCount;
+      _resumeRowCount = 0;
+      boolean isPlain = (_sortingSource == null) && (_parser == null);
+      for (long i = 0; i < count; i++) {
+         boolean isRead = isPlain ? (this.readFields() != null)
+            : (this.getNextRow() != null);
+         if (!isRead)
+            throw new DKUserException(String.format(
+               "file [%s] has fewer rows than its checkpoint; expected->%s", _file,
+               count));
+         if (isPlain)
+            _lastIndex++;
+      }
    }
 
    private void open() throws IOException {
@@ -286,18 +511,46 @@ public class DKFileSource implements DKSource {
          return;
       _isOpen = true;
       this.validateFile();
-      _lineReader = new LineNumberReader(new BufferedReader(new FileReader(_file)));
+      if (this.canParseMapped()) {
+         _parser = new DKMappedFileParser(_file, _delimiterChar.charValue(),
+            _parseThreads, _parseChunkSize);
+         _parser.open();
+         _headerColumnNames = _parser.getHeader();
+         _log.debug("header->{}", Arrays.toString(_headerColumnNames));
+         return;
+      }
+      if (_delimiterChar != null)
+         _tokenizer = new DKCsvTokenizer(new FileReader(_file),
+            _delimiterChar.charValue());
+      else
+         _lineReader = new LineNumberReader(new BufferedReader(new FileReader(_file)));
       this.readHeader();
    }
 
+   private boolean canParseMapped() {
+      if (_parseThreads <= 1)
+         return false;
+      if ((_delimiterChar != null)
+         && DKMappedFileParser.supportsCharset(Charset.defaultCharset()))
+         return true;
+      _log.warn("can't parse file->{} in parallel; delimiter->{} charset->{}",
+         new Object[] { _file, _delimiter, Charset.defaultCharset() });
+      return false;
+   }
+
    private void readHeader() throws IOException {
+      if (_tokenizer != null) {
+         _headerColumnNames = _tokenizer.nextRecord();
+         _log.debug("header->{}", Arrays.toString(_headerColumnNames));
+         return;
+      }
       String line = this.readLine();
       _log.debug("header->{}", line);
       _headerColumnNames = line.split(_delimiter);
    }
 
    private void ensureOpen() {
-      if (!_isOpen)
+      if (!_isOpen && (_sortingSource == null))
          throw new RuntimeException("not open!");
    }
 }
@@ -23,7 +23,7 @@ import java.util.List;
 import org.apache.commons.lang.ClassUtils;
 import org.diffkit.common.DKValidate;
 import org.diffkit.diff.engine.DKContext;
-import org.diffkit.diff.engine.DKSource;
+import org.diffkit.diff.engine.DKBatchSource;
 import org.diffkit.diff.engine.DKTableModel;
 import org.diffkit.util.DKObjectUtil;
 import org.diffkit.util.DKStringUtil;
@@ -31,7 +31,7 @@ import org.diffkit.util.DKStringUtil;
 /**
  * @author jpanico
  */
-public class DKListSource implements DKSource {
+public class DKListSource implements DKBatchSource {
 
    private final DKTableModel _model;
    private final List<Object[]> _rows;
@@ -63,6 +63,16 @@ public class DKListSource implements DKSource {
       return _iterator.next();
    }
 
+   public int getNextRows(Object[][] rows_) {
+      if (_iterator == null)
+         return 0;
+      int count = 0;
+      while ((count < rows_.length) && _iterator.hasNext())
+         rows_[count++] = _iterator.next();
+      _lastIndex += count;
+      return count;
+   }
+
    public URI getURI() {
       return DKStringUtil.createURI(String.format("heap://%s",
          DKObjectUtil.getAddressHexString(this)));
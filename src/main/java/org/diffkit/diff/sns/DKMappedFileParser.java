@@ -0,0 +1,293 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.sns;
+
+import java.io.CharArrayReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.lang.ClassUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.diffkit.common.annot.NotThreadSafe;
+import org.diffkit.diff.engine.DKColumnModel;
+import org.diffkit.diff.engine.DKTableModel;
+import org.diffkit.util.DKCsvTokenizer;
+
+/**
+ * Parses a delimited file by memory mapping it and splitting it into chunks
+ * that are parsed concurrently, each on its own pool thread. Chunk boundaries
+ * are nominal byte offsets; a chunk owns every line that <em>starts</em>
+ * inside it, so it skips its leading partial line and reads past its end to
+ * finish its last one. Parsed chunks are handed out strictly in file order,
+ * with at most 2 * threadCount chunks parsed ahead of the consumer.
+ * <p>
+ * Lines are found by scanning bytes for '\n', so quoted fields must not
+ * contain line breaks, and the charset must encode '\n' as that single byte.
+ * Each chunk parses with its own copy of the DKColumnModels, as their Formats
+ * are not thread safe.
+ *
+ * @author jpanico
+ */
+@NotThreadSafe
+class DKMappedFileParser {
+   public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+   /**
+    * how far past its nominal end a chunk first maps, to finish its last
+    * line; doubled until the line fits
+    */
+   private static final int LINE_SLACK = 64 * 1024;
+   private static final Object[][] EMPTY = new Object[0][];
+
+   private final File _file;
+   private final char _delimiter;
+   private final int _threadCount;
+   private final int _chunkSize;
+   private final Charset _charset = Charset.defaultCharset();
+   private FileInputStream _stream;
+   private FileChannel _channel;
+   private long _fileSize;
+   private long _dataStart;
+   private String[] _header;
+   private long _nextChunkStart;
+   private DKColumnModel[] _columns;
+   private DKTableModel _model;
+   private int[] _fingerprintColumnIdxs;
+   private ExecutorService _executor;
+   private final LinkedList<Future<Object[][]>> _pending =
+      new LinkedList<Future<Object[][]>>();
+   private final Logger _log = LoggerFactory.getLogger(this.getClass());
+
+   DKMappedFileParser(File file_, char delimiter_, int threadCount_, int chunkSize_) {
+      if (file_ == null)
+         throw new IllegalArgumentException("file_ null");
+      if (threadCount_ < 1)
+         throw new IllegalArgumentException(String.format("threadCount_->%s",
+            threadCount_));
+      if (chunkSize_ < 1)
+         throw new IllegalArgumentException(String.format("chunkSize_->%s", chunkSize_));
+      _file = file_;
+      _delimiter = delimiter_;
+      _threadCount = threadCount_;
+      _chunkSize = chunkSize_;
+   }
+
+   /**
+    * true if lines of charset_ can be found by scanning bytes for '\n'
+    */
+   static boolean supportsCharset(Charset charset_) {
+      byte[] newline = "\n".getBytes(charset_);
+      byte[] sample = "a,\"".getBytes(charset_);
+      return (newline.length == 1) && (newline[0] == '\n') && (sample.length == 3);
+   }
+
+   /**
+    * maps the file and reads the header, which is the first non-blank line
+    */
+   void open() throws IOException {
+      _stream = new FileInputStream(_file);
+      _channel = _stream.getChannel();
+      _fileSize = _channel.size();
+      long headerStart = 0;
+      ByteBuffer buffer = this.map(0, Math.min(_fileSize, LINE_SLACK));
+      while (true) {
+         // unsigned, so the bytes of non-ASCII characters aren't taken for blanks
+         while (buffer.hasRemaining() && ((buffer.get(buffer.position()) & 0xFF) <= ' '))
+            buffer.position(buffer.position() + 1);
+         int newline = indexOfNewline(buffer, buffer.position(), buffer.limit());
+         if ((newline >= 0) || (buffer.limit() == _fileSize)) {
+            int end = (newline < 0) ? buffer.limit() : newline;
+            _dataStart = (newline < 0) ? end : headerStart + newline + 1;
+            if (buffer.position() < end) {
+               ByteBuffer headerBytes = buffer.duplicate();
+               headerBytes.limit(end);
+               String header = _charset.decode(headerBytes).toString();
+               _header = DKCsvTokenizer.tokenize(header, _delimiter);
+            }
+            break;
+         }
+         // header longer than the window; map a bigger one
+         headerStart += buffer.position();
+         buffer = this.map(headerStart, Math.min(_fileSize - headerStart,
+            2L * (buffer.limit() - buffer.position() + LINE_SLACK)));
+      }
+      _nextChunkStart = _dataStart;
+      _executor = Executors.newFixedThreadPool(_threadCount, new ThreadFactory() {
+         public Thread newThread(Runnable runnable_) {
+            Thread thread = new Thread(runnable_, "DKMappedFileParser-"
+               + _file.getName());
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+      _log.debug("file->{} size->{} dataStart->{}", new Object[] { _file, _fileSize,
+         _dataStart });
+   }
+
+   String[] getHeader() {
+      return _header;
+   }
+
+   /**
+    * @param columns_
+    *           the columns to parse each field with, in file column order
+    * @param model_
+    *           only used for error messages
+    * @param fingerprintColumnIdxs_
+    *           see DKFileSource.createRow(); may be null
+    */
+   void setColumns(DKColumnModel[] columns_, DKTableModel model_,
+                   int[] fingerprintColumnIdxs_) {
+      _columns = columns_;
+      _model = model_;
+      _fingerprintColumnIdxs = fingerprintColumnIdxs_;
+   }
+
+   /**
+    * @return the rows of the next chunk in file order, possibly empty; null
+    *         once every chunk has been consumed
+    */
+   Object[][] nextChunk() throws IOException {
+      if (_columns == null)
+         throw new IllegalStateException("setColumns() not called");
+      while (_pending.size() < (2 * _threadCount) && (_nextChunkStart < _fileSize)) {
+         final long start = _nextChunkStart;
+         final long end = Math.min(_fileSize, start + _chunkSize);
+         _nextChunkStart = end;
+         _pending.add(_executor.submit(new Callable<Object[][]>() {
+            public Object[][] call() throws Exception {
+               return parseChunk(start, end);
+            }
+         }));
+      }
+      if (_pending.isEmpty())
+         return null;
+      try {
+         return _pending.removeFirst().get();
+      }
+      catch (InterruptedException e_) {
+         Thread.currentThread().interrupt();
+         throw new IOException("interrupted");
+      }
+      catch (ExecutionException e_) {
+         Throwable cause = e_.getCause();
+         if (cause instanceof IOException)
+            throw (IOException) cause;
+         if (cause instanceof RuntimeException)
+            throw (RuntimeException) cause;
+         throw new RuntimeException(cause);
+      }
+   }
+
+   void close() throws IOException {
+      for (Future<Object[][]> future : _pending)
+         future.cancel(true);
+      _pending.clear();
+      if (_executor != null)
+         _executor.shutdownNow();
+      _executor = null;
+      if (_stream != null)
+         _stream.close();
+      _stream = null;
+      _channel = null;
+   }
+
+   public String toString() {
+      return String.format("%s[%s]", ClassUtils.getShortClassName(this.getClass()),
+         _file.getPath());
+   }
+
+   private Object[][] parseChunk(long start_, long end_) throws IOException {
+      // the byte before start_ tells whether a line begins exactly at start_
+      long mapStart = (start_ == _dataStart) ? start_ : start_ - 1;
+      long slack = LINE_SLACK;
+      while (true) {
+         long mapEnd = Math.min(_fileSize, end_ + slack);
+         ByteBuffer buffer = this.map(mapStart, mapEnd - mapStart);
+         int first = 0;
+         if (mapStart != start_) {
+            first = indexOfNewline(buffer, 0, (int) (end_ - mapStart)) + 1;
+            // no line starts in this chunk
+            if (first == 0)
+               return EMPTY;
+         }
+         if (mapStart + first >= end_)
+            return EMPTY;
+         int last = indexOfNewline(buffer, (int) (end_ - 1 - mapStart), buffer.limit());
+         if ((last < 0) && (mapEnd < _fileSize)) {
+            slack *= 2;
+            continue;
+         }
+         buffer.limit((last < 0) ? buffer.limit() : last + 1);
+         buffer.position(first);
+         DKColumnModel[] columns = new DKColumnModel[_columns.length];
+         for (int i = 0; i < columns.length; i++)
+            columns[i] = _columns[i].copy();
+         return this.parse(buffer, columns);
+      }
+   }
+
+   private Object[][] parse(ByteBuffer bytes_, DKColumnModel[] columns_)
+      throws IOException {
+      // substitutes for bad bytes, as the FileReader of a serial parse does
+      CharBuffer chars = _charset.newDecoder().onMalformedInput(
+         CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE)
+         .decode(bytes_.slice());
+      DKCsvTokenizer tokenizer = new DKCsvTokenizer(new CharArrayReader(chars.array(),
+         chars.arrayOffset() + chars.position(), chars.remaining()), _delimiter);
+      List<Object[]> rows = new ArrayList<Object[]>();
+      String[] fields = null;
+      while ((fields = tokenizer.nextRecord()) != null)
+         rows.add(DKFileSource.createRow(fields, columns_, _model,
+            _fingerprintColumnIdxs));
+      return rows.toArray(new Object[rows.size()][]);
+   }
+
+   private MappedByteBuffer map(long position_, long size_) throws IOException {
+      if (size_ > Integer.MAX_VALUE)
+         throw new IOException(String.format("line at position_->%s too long to map",
+            position_));
+      return _channel.map(FileChannel.MapMode.READ_ONLY, position_, size_);
+   }
+
+   /**
+    * @return the absolute index of the first '\n' in [from_, to_), or -1
+    */
+   private static int indexOfNewline(ByteBuffer buffer_, int from_, int to_) {
+      for (int i = from_; i < to_; i++) {
+         if (buffer_.get(i) == '\n')
+            return i;
+      }
+      return -1;
+   }
+}
@@ -0,0 +1,342 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.sns;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.commons.lang.ClassUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.diffkit.common.DKValidate;
+import org.diffkit.common.annot.NotThreadSafe;
+import org.diffkit.diff.engine.DKAsyncSourceSink;
+import org.diffkit.diff.engine.DKBatchSource;
+import org.diffkit.diff.engine.DKContext;
+import org.diffkit.diff.engine.DKFingerprintSource;
+import org.diffkit.diff.engine.DKResumableSource;
+import org.diffkit.diff.engine.DKSource;
+import org.diffkit.diff.engine.DKSourceUtil;
+import org.diffkit.diff.engine.DKTableModel;
+
+/**
+ * Decorates another DKSource, reading it ahead on a dedicated producer thread.
+ * The producer pulls batches of up to batchSize_ rows from the underlying
+ * source into a bounded queue holding at most bufferDepth_ batches; the
+ * consumer (the engine) takes rows from the head of the queue. So source I/O
+ * and parsing overlap with diffing.
+ *
+ * Time spent blocked on either end of the queue is accumulated. A large
+ * consumerStall means the engine waited on this source (the source is the
+ * bottleneck); a large producerStall means the source waited on the engine.
+ * Both are reported to the user log at close.
+ * <p>
+ * Fingerprinting and resuming are delegated to the underlying source, when it
+ * supports them; like the other setters, only while this is not open.
+ *
+ * @author jpanico
+ */
+@NotThreadSafe
+public class DKPrefetchingSource implements DKBatchSource, DKFingerprintSource,
+   DKResumableSource, DKAsyncSourceSink {
+   public static final int DEFAULT_BUFFER_DEPTH = 4;
+   public static final int DEFAULT_BATCH_SIZE = 1000;
+   private static final Object[][] END_OF_ROWS = new Object[0][];
+   private static final Logger USER_LOG = LoggerFactory.getLogger("user");
+
+   private final DKSource _source;
+   private final int _bufferDepth;
+   private final int _batchSize;
+   private BlockingQueue<Object[][]> _queue;
+   private Thread _producer;
+   private volatile boolean _isClosed;
+   private volatile Throwable _producerFailure;
+   private volatile long _producerStallNanos;
+   private long _consumerStallNanos;
+   private Object[][] _batch;
+   private int _batchIdx;
+   private boolean _isAtEnd;
+   private long _lastIndex = -1;
+   private final Logger _log = LoggerFactory.getLogger(this.getClass());
+
+   public DKPrefetchingSource(DKSource source_) {
+      this(source_, DEFAULT_BUFFER_DEPTH, DEFAULT_BATCH_SIZE);
+   }
+
+   public DKPrefetchingSource(DKSource source_, int bufferDepth_, int batchSize_) {
+      _source = source_;
+      _bufferDepth = bufferDepth_;
+      _batchSize = batchSize_;
+      DKValidate.notNull(_source);
+      if (_bufferDepth < 1)
+         throw new IllegalArgumentException(String.format("bufferDepth_->%s",
+            _bufferDepth));
+      if (_batchSize < 1)
+         throw new IllegalArgumentException(String.format("batchSize_->%s", _batchSize));
+   }
+
+   public DKSource getSource() {
+      return _source;
+   }
+
+   public int getBufferDepth() {
+      return _bufferDepth;
+   }
+
+   public int getBatchSize() {
+      return _batchSize;
+   }
+
+   public Kind getKind() {
+      return _source.getKind();
+   }
+
+   public DKTableModel getModel() {
+      return _source.getModel();
+   }
+
+   public URI getURI() throws IOException {
+      return _source.getURI();
+   }
+
+   /**
+    * @return null if the underlying source isn't a DKFingerprintSource
+    */
+   public String getFingerprintKind() {
+      if (!(_source instanceof DKFingerprintSource))
+         return null;
+      return ((DKFingerprintSource) _source).getFingerprintKind();
+   }
+
+   public boolean isFingerprintable(int columnIdx_) {
+      return (_source instanceof DKFingerprintSource)
+         && ((DKFingerprintSource) _source).isFingerprintable(columnIdx_);
+   }
+
+   /**
+    * the producer reads ahead as soon as this is open, so unlike some sources,
+    * this can't be called once open
+    */
+   public void setFingerprintColumnIdxs(int[] columnIdxs_) {
+      this.ensureNotOpen();
+      if (_source instanceof DKFingerprintSource)
+         ((DKFingerprintSource) _source).setFingerprintColumnIdxs(columnIdxs_);
+      else if (columnIdxs_ != null)
+         throw new RuntimeException(String.format("can't fingerprint source->%s",
+            _source));
+   }
+
+   /**
+    * @return false if the underlying source isn't a DKResumableSource
+    */
+   public boolean setResumeAfter(Object[] keyValues_, long rowCount_) {
+      this.ensureNotOpen();
+      if (!(_source instanceof DKResumableSource))
+         return false;
+      return ((DKResumableSource) _source).setResumeAfter(keyValues_, rowCount_);
+   }
+
+   public void open(DKContext context_) throws IOException {
+      this.ensureNotOpen();
+      _source.open(context_);
+      _isClosed = false;
+      _isAtEnd = false;
+      _queue = new ArrayBlockingQueue<Object[][]>(_bufferDepth);
+      _producer = new Thread(new Producer(), String.format("%s-%s",
+         ClassUtils.getShortClassName(this.getClass()), _source));
+      _producer.setDaemon(true);
+      _producer.start();
+   }
+
+   public void close(DKContext context_) throws IOException {
+      _isClosed = true;
+      if (_producer != null) {
+         _producer.interrupt();
+         try {
+            _producer.join();
+         }
+         catch (InterruptedException e_) {
+            Thread.currentThread().interrupt();
+         }
+         _producer = null;
+      }
+      _queue = null;
+      _batch = null;
+      _source.close(context_);
+      USER_LOG.info(String.format("%s consumerStall->%sms producerStall->%sms", _source,
+         this.getConsumerStallMillis(), this.getProducerStallMillis()));
+   }
+
+   public Object[] getNextRow() throws IOException {
+      this.ensureOpen();
+      if (!this.ensureBatch())
+         return null;
+      _lastIndex++;
+      Object[] row = _batch[_batchIdx];
+      // release the reference so the batch can be collected as it drains
+      _batch[_batchIdx++] = null;
+      return row;
+   }
+
+   /**
+    * hands over at most one prefetched batch per call
+    */
+   public int getNextRows(Object[][] rows_) throws IOException {
+      this.ensureOpen();
+      if (!this.ensureBatch())
+         return 0;
+      int count = Math.min(_batch.length - _batchIdx, rows_.length);
+      System.arraycopy(_batch, _batchIdx, rows_, 0, count);
+      for (int i = 0; i < count; i++)
+         _batch[_batchIdx++] = null;
+      _lastIndex += count;
+      return count;
+   }
+
+   /**
+    * @return false at end of rows
+    */
+   private boolean ensureBatch() throws IOException {
+      if (_isAtEnd)
+         return false;
+      if ((_batch != null) && (_batchIdx < _batch.length))
+         return true;
+      _batch = this.takeBatch();
+      _batchIdx = 0;
+      if (_batch != END_OF_ROWS)
+         return true;
+      _isAtEnd = true;
+      _batch = null;
+      this.rethrowProducerFailure();
+      return false;
+   }
+
+   public long getLastIndex() {
+      return _lastIndex;
+   }
+
+   /**
+    * @return batches read ahead and waiting for the engine
+    */
+   public int getQueueDepth() {
+      BlockingQueue<Object[][]> queue = _queue;
+      return (queue == null ? 0 : queue.size());
+   }
+
+   /**
+    * total time the consumer spent waiting for the producer
+    */
+   public long getConsumerStallMillis() {
+      return _consumerStallNanos / 1000000;
+   }
+
+   /**
+    * total time the producer spent waiting for the consumer to make room
+    */
+   public long getProducerStallMillis() {
+      return _producerStallNanos / 1000000;
+   }
+
+   public String toString() {
+      return String.format("%s[%s]", ClassUtils.getShortClassName(this.getClass()),
+         _source);
+   }
+
+   private Object[][] takeBatch() throws IOException {
+      long start = System.nanoTime();
+      try {
+         return _queue.take();
+      }
+      catch (InterruptedException e_) {
+         Thread.currentThread().interrupt();
+         throw new IOException("interrupted while waiting for rows");
+      }
+      finally {
+         _consumerStallNanos += (System.nanoTime() - start);
+      }
+   }
+
+   private void rethrowProducerFailure() throws IOException {
+      Throwable failure = _producerFailure;
+      if (failure == null)
+         return;
+      if (failure instanceof IOException)
+         throw (IOException) failure;
+      if (failure instanceof RuntimeException)
+         throw (RuntimeException) failure;
+      if (failure instanceof Error)
+         throw (Error) failure;
+      throw new RuntimeException(failure);
+   }
+
+   private void ensureOpen() {
+      if (_queue == null)
+         throw new RuntimeException("not open!");
+   }
+
+   private void ensureNotOpen() {
+      if (_queue != null)
+         throw new RuntimeException("already open!");
+   }
+
+   /**
+    * runs on the producer thread; the only reader of _source
+    */
+   private class Producer implements Runnable {
+
+      public void run() {
+         BlockingQueue<Object[][]> queue = _queue;
+         try {
+            while (!_isClosed) {
+               Object[][] batch = new Object[_batchSize][];
+               int count = 0;
+               try {
+                  if (_source instanceof DKBatchSource)
+                     count = ((DKBatchSource) _source).getNextRows(batch);
+                  else
+                     count = DKSourceUtil.getNextRows(_source, batch);
+               }
+               catch (Throwable e_) {
+                  _log.error(null, e_);
+                  _producerFailure = e_;
+               }
+               if (count == 0)
+                  break;
+               if (count < _batchSize) {
+                  Object[][] trimmed = new Object[count][];
+                  System.arraycopy(batch, 0, trimmed, 0, count);
+                  batch = trimmed;
+               }
+               this.put(queue, batch);
+            }
+            this.put(queue, END_OF_ROWS);
+         }
+         catch (InterruptedException e_) {
+            // closed underneath us; nobody is waiting for more rows
+         }
+      }
+
+      private void put(BlockingQueue<Object[][]> queue_, Object[][] batch_)
+         throws InterruptedException {
+         long start = System.nanoTime();
+         queue_.put(batch_);
+         _producerStallNanos += (System.nanoTime() - start);
+      }
+   }
+}
@@ -0,0 +1,465 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.sns;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang.ClassUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.diffkit.common.DKComparableComparator;
+import org.diffkit.common.DKComparatorChain;
+import org.diffkit.common.DKElementComparator;
+import org.diffkit.common.DKValidate;
+import org.diffkit.common.annot.NotThreadSafe;
+import org.diffkit.diff.engine.DKBatchSource;
+import org.diffkit.diff.engine.DKContext;
+import org.diffkit.diff.engine.DKSource;
+import org.diffkit.diff.engine.DKSourceUtil;
+import org.diffkit.diff.engine.DKTableModel;
+import org.diffkit.util.DKRowIOUtil;
+
+/**
+ * Decorates another DKSource whose rows are not in key order, and vends them
+ * in key order (external merge sort). At open, the underlying source is read
+ * in full: rows are gathered into runs that fit the memory budget, each run is
+ * sorted, by the key of the source's DKTableModel, on a worker thread and
+ * written to a temporary file; the runs are then k-way merged as rows are
+ * requested. If the whole source fits in a single run, it is sorted in memory
+ * and nothing touches the disk.
+ *
+ * Rows with equal keys keep their source order.
+ *
+ * @author jpanico
+ */
+@NotThreadSafe
+public class DKSortingSource implements DKBatchSource {
+   private static final int BATCH_SIZE = 1000;
+   private static final int RUN_BUFFER_SIZE = 64 * 1024;
+   private static final Logger USER_LOG = LoggerFactory.getLogger("user");
+
+   private final DKSource _source;
+   private final long _memoryBudget;
+   private final int _threadCount;
+   private final File _spillDir;
+   private Comparator<Object[]> _keyComparator;
+   private transient List<Object[]> _memoryRows;
+   private transient int _memoryIdx;
+   private transient List<Run> _runs;
+   private transient PriorityQueue<Run> _mergeQueue;
+   private transient long _lastIndex = -1;
+   private transient boolean _isOpen;
+   private final Logger _log = LoggerFactory.getLogger(this.getClass());
+
+   public DKSortingSource(DKSource source_) {
+      this(source_, Runtime.getRuntime().maxMemory() / 4,
+         Runtime.getRuntime().availableProcessors(), null);
+   }
+
+   /**
+    * @param memoryBudget_
+    *           approximate number of bytes of rows held in memory, across all
+    *           runs being gathered and sorted
+    * @param threadCount_
+    *           number of runs sorted concurrently
+    * @param spillDir_
+    *           where run files are written; null means java.io.tmpdir
+    */
+   public DKSortingSource(DKSource source_, long memoryBudget_, int threadCount_,
+                          File spillDir_) {
+      _source = source_;
+      _memoryBudget = memoryBudget_;
+      _threadCount = threadCount_;
+      _spillDir = spillDir_;
+      DKValidate.notNull(_source);
+      if (_memoryBudget < 1)
+         throw new IllegalArgumentException(String.format("memoryBudget_->%s",
+            _memoryBudget));
+      if (_threadCount < 1)
+         throw new IllegalArgumentException(String.format("threadCount_->%s",
+            _threadCount));
+   }
+
+   public DKSource getSource() {
+      return _source;
+   }
+
+   public long getMemoryBudget() {
+      return _memoryBudget;
+   }
+
+   public int getThreadCount() {
+      return _threadCount;
+   }
+
+   public Kind getKind() {
+      return _source.getKind();
+   }
+
+   public DKTableModel getModel() {
+      return _source.getModel();
+   }
+
+   public URI getURI() throws IOException {
+      return _source.getURI();
+   }
+
+   /**
+    * reads, and closes, the underlying source
+    */
+   public void open(DKContext context_) throws IOException {
+      this.ensureNotOpen();
+      _lastIndex = -1;
+      _source.open(context_);
+      try {
+         this.sort();
+         _isOpen = true;
+      }
+      finally {
+         _source.close(context_);
+         if (!_isOpen)
+            this.dispose();
+      }
+   }
+
+   public void close(DKContext context_) throws IOException {
+      this.ensureOpen();
+      this.dispose();
+      _isOpen = false;
+   }
+
+   public Object[] getNextRow() throws IOException {
+      this.ensureOpen();
+      Object[] row = this.next();
+      if (row != null)
+         _lastIndex++;
+      return row;
+   }
+
+   public int getNextRows(Object[][] rows_) throws IOException {
+      this.ensureOpen();
+      int count = 0;
+      while (count < rows_.length) {
+         Object[] row = this.next();
+         if (row == null)
+            break;
+         rows_[count++] = row;
+      }
+      _lastIndex += count;
+      return count;
+   }
+
+   public long getLastIndex() {
+      return _lastIndex;
+   }
+
+   public String toString() {
+      return String.format("%s[%s]", ClassUtils.getShortClassName(this.getClass()),
+         _source);
+   }
+
+   private Object[] next() throws IOException {
+      if (_memoryRows != null) {
+         if (_memoryIdx >= _memoryRows.size())
+            return null;
+         // release the reference so the rows can be collected as they drain
+         return _memoryRows.set(_memoryIdx++, null);
+      }
+      Run run = _mergeQueue.poll();
+      if (run == null)
+         return null;
+      Object[] row = run._head;
+      if (run.advance())
+         _mergeQueue.add(run);
+      return row;
+   }
+
+   /**
+    * orders rows by the key of the source model, the same way
+    * DKStandardTableComparison orders them across sides
+    */
+   @SuppressWarnings({ "rawtypes", "unchecked" })
+   private Comparator<Object[]> getKeyComparator() {
+      if (_keyComparator != null)
+         return _keyComparator;
+      DKTableModel model = this.getModel();
+      DKValidate.notNull(model);
+      int[] key = model.getKey();
+      DKComparatorChain chain = new DKComparatorChain();
+      for (int i = 0; i < key.length; i++) {
+         int index = model.getColumns()[key[i]].getIndex();
+         chain.addComparator(new DKElementComparator<Comparable>(index, index,
+            DKComparableComparator.getInstance()));
+      }
+      _keyComparator = chain;
+      return _keyComparator;
+   }
+
+   private void sort() throws IOException {
+      Comparator<Object[]> keyComparator = this.getKeyComparator();
+      // one run being gathered while up to _threadCount are sorted
+      long runBudget = _memoryBudget / (_threadCount + 1);
+      _runs = new ArrayList<Run>();
+      LinkedList<Future<Run>> pending = new LinkedList<Future<Run>>();
+      ExecutorService executor = null;
+      try {
+         Object[][] batch = new Object[BATCH_SIZE][];
+         List<Object[]> rows = new ArrayList<Object[]>();
+         long rowsSize = 0;
+         int count = 0;
+         while ((count = this.readBatch(batch)) > 0) {
+            for (int i = 0; i < count; i++) {
+               rows.add(batch[i]);
+               rowsSize += DKRowIOUtil.estimateHeapSize(batch[i]);
+               batch[i] = null;
+               if (rowsSize < runBudget)
+                  continue;
+               if (executor == null)
+                  executor = Executors.newFixedThreadPool(_threadCount);
+               // bound the rows in memory to the runs being sorted
+               if (pending.size() >= _threadCount)
+                  _runs.add(getRun(pending.removeFirst()));
+               pending.add(executor.submit(new RunTask(rows, keyComparator,
+                  _runs.size() + pending.size())));
+               rows = new ArrayList<Object[]>();
+               rowsSize = 0;
+            }
+         }
+         if (executor == null) {
+            Collections.sort(rows, keyComparator);
+            _memoryRows = rows;
+            _memoryIdx = 0;
+            return;
+         }
+         if (!rows.isEmpty())
+            pending.add(executor.submit(new RunTask(rows, keyComparator, _runs.size()
+               + pending.size())));
+         while (!pending.isEmpty())
+            _runs.add(getRun(pending.removeFirst()));
+      }
+      catch (IOException e_) {
+         this.cancel(pending);
+         throw e_;
+      }
+      catch (RuntimeException e_) {
+         this.cancel(pending);
+         throw e_;
+      }
+      finally {
+         if (executor != null)
+            executor.shutdownNow();
+      }
+      USER_LOG.info("{} sorted {} runs", _source, _runs.size());
+      _mergeQueue = new PriorityQueue<Run>(_runs.size(),
+         new RunComparator(keyComparator));
+      for (Run run : _runs) {
+         if (run.open())
+            _mergeQueue.add(run);
+      }
+   }
+
+   private void cancel(List<Future<Run>> pending_) {
+      for (Future<Run> future : pending_) {
+         future.cancel(true);
+         try {
+            future.get().dispose();
+         }
+         catch (Exception e_) {
+            // cancelled or failed; nothing to clean up
+         }
+      }
+      pending_.clear();
+   }
+
+   private static Run getRun(Future<Run> future_) throws IOException {
+      try {
+         return future_.get();
+      }
+      catch (InterruptedException e_) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException(e_);
+      }
+      catch (ExecutionException e_) {
+         Throwable cause = e_.getCause();
+         if (cause instanceof IOException)
+            throw (IOException) cause;
+         if (cause instanceof RuntimeException)
+            throw (RuntimeException) cause;
+         throw new RuntimeException(cause);
+      }
+   }
+
+   private void dispose() {
+      if (_runs != null) {
+         for (Run run : _runs)
+            run.dispose();
+      }
+      _runs = null;
+      _mergeQueue = null;
+      _memoryRows = null;
+   }
+
+   private void ensureOpen() {
+      if (!_isOpen)
+         throw new RuntimeException("not open!");
+   }
+
+   private void ensureNotOpen() {
+      if (_isOpen)
+         throw new RuntimeException("already open!");
+   }
+
+   /**
+    * sorts one run of rows and writes it to a temporary file
+    */
+   private class RunTask implements Callable<Run> {
+      private final List<Object[]> _rows;
+      private final Comparator<Object[]> _comparator;
+      private final int _sequence;
+
+      private RunTask(List<Object[]> rows_, Comparator<Object[]> comparator_,
+                      int sequence_) {
+         _rows = rows_;
+         _comparator = comparator_;
+         _sequence = sequence_;
+      }
+
+      public Run call() throws Exception {
+         Collections.sort(_rows, _comparator);
+         File file = File.createTempFile("dksort", ".run", _spillDir);
+         file.deleteOnExit();
+         Run run = new Run(file, _rows.size(), _sequence);
+         DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(file), RUN_BUFFER_SIZE));
+         try {
+            for (Object[] row : _rows)
+               DKRowIOUtil.writeRow(row, output);
+         }
+         catch (IOException e_) {
+            run.dispose();
+            throw e_;
+         }
+         finally {
+            output.close();
+         }
+         _log.debug("run->{} rows->{}", _sequence, _rows.size());
+         return run;
+      }
+   }
+
+   /**
+    * fills batch_ from the underlying source; returns the number of rows read
+    */
+   private int readBatch(Object[][] batch_) throws IOException {
+      if (_source instanceof DKBatchSource)
+         return ((DKBatchSource) _source).getNextRows(batch_);
+      return DKSourceUtil.getNextRows(_source, batch_);
+   }
+
+   /**
+    * one sorted run file, and its read position during the merge
+    */
+   private static class Run {
+      private final File _file;
+      private final long _rowCount;
+      // runs are gathered in source order, so breaking key ties by run keeps
+      // the sort stable
+      private final int _sequence;
+      private DataInputStream _input;
+      private long _remaining;
+      private Object[] _head;
+
+      private Run(File file_, long rowCount_, int sequence_) {
+         _file = file_;
+         _rowCount = rowCount_;
+         _sequence = sequence_;
+      }
+
+      /**
+       * @return false if the run is empty
+       */
+      private boolean open() throws IOException {
+         _input = new DataInputStream(new BufferedInputStream(new FileInputStream(
+            _file), RUN_BUFFER_SIZE));
+         _remaining = _rowCount;
+         return this.advance();
+      }
+
+      /**
+       * @return false when the run is exhausted
+       */
+      private boolean advance() throws IOException {
+         if (_remaining <= 0) {
+            _head = null;
+            this.dispose();
+            return false;
+         }
+         _remaining--;
+         _head = DKRowIOUtil.readRow(_input);
+         return true;
+      }
+
+      private void dispose() {
+         if (_input != null) {
+            try {
+               _input.close();
+            }
+            catch (IOException e_) {
+               LoggerFactory.getLogger(Run.class).warn(null, e_);
+            }
+         }
+         _input = null;
+         _file.delete();
+      }
+   }
+
+   private static class RunComparator implements Comparator<Run> {
+      private final Comparator<Object[]> _keyComparator;
+
+      private RunComparator(Comparator<Object[]> keyComparator_) {
+         _keyComparator = keyComparator_;
+      }
+
+      public int compare(Run lhs_, Run rhs_) {
+         int comparison = _keyComparator.compare(lhs_._head, rhs_._head);
+         if (comparison != 0)
+            return comparison;
+         if (lhs_._sequence == rhs_._sequence)
+            return 0;
+         return (lhs_._sequence < rhs_._sequence) ? -1 : 1;
+      }
+   }
+}
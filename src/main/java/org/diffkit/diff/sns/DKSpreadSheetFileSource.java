@@ -29,6 +29,7 @@ import org.slf4j.LoggerFactory;
 
 import org.diffkit.common.DKValidate;
 import org.diffkit.common.annot.NotThreadSafe;
+import org.diffkit.diff.engine.DKBatchSource;
 import org.diffkit.diff.engine.DKColumnModel;
 import org.diffkit.diff.engine.DKContext;
 import org.diffkit.diff.engine.DKSource;
@@ -39,7 +40,7 @@ import org.diffkit.util.DKFileUtil;
  * @author kratnapu
  */
 @NotThreadSafe
-public class DKSpreadSheetFileSource implements DKSource {
+public class DKSpreadSheetFileSource implements DKBatchSource {
 
    @SuppressWarnings("rawtypes")
    public static final Class[] HANDLER_CLASSES = { DKPoiSheet.class };
@@ -156,6 +157,20 @@ public class DKSpreadSheetFileSource implements DKSource {
       return _rowIterator.next();
    }
 
+   /*
+    * (non-Javadoc)
+    * 
+    * @see org.diffkit.diff.engine.DKBatchSource#getNextRows(java.lang.Object[][])
+    */
+   public int getNextRows(Object[][] rows_) throws IOException {
+      this.ensureOpen();
+      int count = 0;
+      while ((count < rows_.length) && _rowIterator.hasNext())
+         rows_[count++] = _rowIterator.next();
+      _lastIndex += count;
+      return count;
+   }
+
    /*
     * (non-Javadoc)
     * 
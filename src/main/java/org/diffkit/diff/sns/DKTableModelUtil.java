@@ -219,6 +219,10 @@ public class DKTableModelUtil {
          return DKDBType.TIME;
       case TIMESTAMP:
          return DKDBType.TIMESTAMP;
+      case BOOLEAN:
+         return DKDBType.BOOLEAN;
+      case TEXT:
+         return DKDBType.CLOB;
 
       default:
          throw new RuntimeException(String.format("unrecognized modelType_->%s",
@@ -23,26 +23,45 @@ import org.slf4j.LoggerFactory;
 
 import org.diffkit.common.DKValidate;
 import org.diffkit.common.annot.NotThreadSafe;
+import org.diffkit.diff.engine.DKAsyncSourceSink;
 import org.diffkit.diff.engine.DKContext;
 import org.diffkit.diff.engine.DKDiff;
+import org.diffkit.util.DKAsyncWriter;
 
 /**
+ * If asyncWrite, formatted diffs are written to the Writer on a separate
+ * thread, through a DKAsyncWriter, so that a slow Writer does not stall the
+ * diff until its buffers are full.
+ *
  * @author jpanico
  */
 @NotThreadSafe
-public class DKWriterSink extends DKAbstractSink {
+public class DKWriterSink extends DKAbstractSink implements DKAsyncSourceSink {
 
+   private final boolean _asyncWrite;
    private Writer _writer;
+   private DKAsyncWriter _asyncWriter;
    private DKDiffFormatter _formatter;
    private final Logger _log = LoggerFactory.getLogger(this.getClass());
 
    protected DKWriterSink(String[] groupByColumnNames_) {
+      this(groupByColumnNames_, false);
+   }
+
+   protected DKWriterSink(String[] groupByColumnNames_, boolean asyncWrite_) {
       super(groupByColumnNames_);
       _formatter = null;
+      _asyncWrite = asyncWrite_;
    }
 
    public DKWriterSink(Writer writer_, DKDiffFormatter formatter_) throws IOException {
+      this(writer_, formatter_, false);
+   }
+
+   public DKWriterSink(Writer writer_, DKDiffFormatter formatter_, boolean asyncWrite_)
+      throws IOException {
       super(null);
+      _asyncWrite = asyncWrite_;
       this.init(writer_, formatter_);
    }
 
@@ -50,7 +69,9 @@ public class DKWriterSink extends DKAbstractSink {
     * designated initializer
     */
    protected void init(Writer writer_, DKDiffFormatter formatter_) {
-      _writer = writer_;
+      DKValidate.notNull(writer_);
+      _asyncWriter = (_asyncWrite ? new DKAsyncWriter(writer_) : null);
+      _writer = (_asyncWrite ? _asyncWriter : writer_);
       _formatter = (formatter_ == null ? DKDefaultFormatter.getInstance() : formatter_);
       DKValidate.notNull(_writer, _formatter);
    }
@@ -68,6 +89,43 @@ public class DKWriterSink extends DKAbstractSink {
       return _formatter;
    }
 
+   public boolean getAsyncWrite() {
+      return _asyncWrite;
+   }
+
+   /**
+    * @return full buffers waiting to be written; 0 unless asyncWrite
+    */
+   public int getWriterQueueDepth() {
+      return (_asyncWriter == null ? 0 : _asyncWriter.getQueueDepth());
+   }
+
+   /**
+    * same as getWriterQueueDepth()
+    */
+   public int getQueueDepth() {
+      return this.getWriterQueueDepth();
+   }
+
+   /**
+    * @return millis that record() has spent blocked, waiting for the writer
+    *         thread to catch up; 0 unless asyncWrite
+    */
+   public long getWriterStallTime() {
+      return (_asyncWriter == null ? 0 : _asyncWriter.getStallTime());
+   }
+
+   /**
+    * on return, every diff recorded so far has been written through to the
+    * Writer's destination
+    */
+   protected void sync() throws IOException {
+      if (_asyncWriter != null)
+         _asyncWriter.sync();
+      else
+         _writer.flush();
+   }
+
    public void record(DKDiff diff_, DKContext context_) throws IOException {
       super.record(diff_, context_);
       if (diff_ == null)
@@ -77,7 +135,8 @@ public class DKWriterSink extends DKAbstractSink {
          _log.error(String.format("could not format diff->%s", diff_));
          return;
       }
-      _writer.write(diffString + "\n");
+      _writer.write(diffString);
+      _writer.write('\n');
    }
 
    public void open(DKContext context_) throws IOException {
@@ -89,6 +148,9 @@ public class DKWriterSink extends DKAbstractSink {
       super.close(context_);
       _writer.close();
       _writer = null;
+      if (_asyncWriter != null)
+         _log.info("writer stallTime->{} maxQueueDepth->{}",
+            _asyncWriter.getStallTime(), _asyncWriter.getMaxQueueDepth());
    }
 
 }
@@ -0,0 +1,323 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.lang.ClassUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.diffkit.common.annot.NotThreadSafe;
+
+/**
+ * Writer that moves the writing to a target Writer off of the calling thread.
+ * Characters are copied into one of bufferCount reusable char buffers; full
+ * buffers are queued to a dedicated writer thread, which writes them to the
+ * target and hands them back. When every buffer is queued the caller blocks
+ * until one comes back (backpressure); the time spent blocked is reported by
+ * getStallTime().
+ * <p>
+ * An IOException from the target is rethrown from the next write(), flush()
+ * or close() on the calling thread. flush() only queues the current buffer and
+ * a flush of the target; sync() also waits for the writer thread to get
+ * through them; close() drains every queued buffer, then flushes and closes
+ * the target.
+ * <p>
+ * Only one thread may write to this Writer.
+ *
+ * @author jpanico
+ */
+@NotThreadSafe
+public class DKAsyncWriter extends Writer {
+   public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+   public static final int DEFAULT_BUFFER_COUNT = 4;
+   private static final Buffer FLUSH = new Buffer(0);
+   private static final Buffer SYNC = new Buffer(0);
+   private static final Buffer END = new Buffer(0);
+
+   private final Writer _target;
+   private final BlockingQueue<Buffer> _full;
+   private final BlockingQueue<Buffer> _free;
+   private final Thread _thread;
+   private final Semaphore _synced = new Semaphore(0);
+   private Buffer _current;
+   private volatile Throwable _error;
+   private volatile long _stallNanos;
+   private volatile int _maxQueueDepth;
+   private boolean _isClosed;
+   private final Logger _log = LoggerFactory.getLogger(this.getClass());
+
+   public DKAsyncWriter(Writer target_) {
+      this(target_, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT);
+   }
+
+   public DKAsyncWriter(Writer target_, int bufferSize_, int bufferCount_) {
+      if (target_ == null)
+         throw new IllegalArgumentException("target_ null");
+      if ((bufferSize_ < 1) || (bufferCount_ < 2))
+         throw new IllegalArgumentException(String.format(
+            "bufferSize_->%s bufferCount_->%s", bufferSize_, bufferCount_));
+      _target = target_;
+      // room for every buffer, plus the FLUSH and END markers
+      _full = new ArrayBlockingQueue<Buffer>(bufferCount_ + 2);
+      _free = new ArrayBlockingQueue<Buffer>(bufferCount_);
+      for (int i = 1; i < bufferCount_; i++)
+         _free.add(new Buffer(bufferSize_));
+      _current = new Buffer(bufferSize_);
+      _thread = new Thread(new Runnable() {
+         public void run() {
+            drain();
+         }
+      }, "DKAsyncWriter");
+      _thread.setDaemon(true);
+      _thread.start();
+   }
+
+   public void write(char[] chars_, int offset_, int length_) throws IOException {
+      this.ensureOpen();
+      while (length_ > 0) {
+         int count = Math.min(length_, _current._chars.length - _current._length);
+         System.arraycopy(chars_, offset_, _current._chars, _current._length, count);
+         _current._length += count;
+         offset_ += count;
+         length_ -= count;
+         if (_current._length == _current._chars.length)
+            this.handOff();
+      }
+   }
+
+   public void write(String string_, int offset_, int length_) throws IOException {
+      this.ensureOpen();
+      while (length_ > 0) {
+         int count = Math.min(length_, _current._chars.length - _current._length);
+         string_.getChars(offset_, offset_ + count, _current._chars, _current._length);
+         _current._length += count;
+         offset_ += count;
+         length_ -= count;
+         if (_current._length == _current._chars.length)
+            this.handOff();
+      }
+   }
+
+   public void write(int char_) throws IOException {
+      this.ensureOpen();
+      _current._chars[_current._length++] = (char) char_;
+      if (_current._length == _current._chars.length)
+         this.handOff();
+   }
+
+   /**
+    * queues the current buffer, and a flush of the target; does not wait for
+    * them to be written
+    */
+   public void flush() throws IOException {
+      this.ensureOpen();
+      if (_current._length > 0)
+         this.handOff();
+      this.put(FLUSH);
+   }
+
+   /**
+    * like flush(), but waits until everything written so far has been written
+    * to, and flushed by, the target
+    */
+   public void sync() throws IOException {
+      this.ensureOpen();
+      if (_current._length > 0)
+         this.handOff();
+      this.put(SYNC);
+      try {
+         _synced.acquire();
+      }
+      catch (InterruptedException e_) {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("interrupted waiting for sync");
+      }
+      this.checkError();
+   }
+
+   /**
+    * waits for every queued buffer to be written, then flushes and closes the
+    * target
+    */
+   public void close() throws IOException {
+      if (_isClosed)
+         return;
+      _isClosed = true;
+      try {
+         if ((_current != null) && (_current._length > 0))
+            this.put(_current);
+         this.put(END);
+         _thread.join();
+      }
+      catch (InterruptedException e_) {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("interrupted draining writer");
+      }
+      finally {
+         _current = null;
+      }
+      try {
+         this.checkError();
+         _target.flush();
+      }
+      finally {
+         _target.close();
+      }
+      _log.debug("stallTime->{} maxQueueDepth->{}", this.getStallTime(),
+         this.getMaxQueueDepth());
+   }
+
+   /**
+    * @return how many full buffers are waiting for the writer thread
+    */
+   public int getQueueDepth() {
+      int depth = 0;
+      for (Buffer buffer : _full) {
+         if (buffer._chars.length > 0)
+            depth++;
+      }
+      return depth;
+   }
+
+   public int getMaxQueueDepth() {
+      return _maxQueueDepth;
+   }
+
+   /**
+    * @return millis the writing thread has spent blocked, waiting for the
+    *         writer thread to free a buffer
+    */
+   public long getStallTime() {
+      return _stallNanos / 1000000;
+   }
+
+   public String toString() {
+      return String.format("%s[%s]", ClassUtils.getShortClassName(this.getClass()),
+         _target);
+   }
+
+   private void ensureOpen() throws IOException {
+      if (_isClosed)
+         throw new IOException("writer closed");
+      this.checkError();
+   }
+
+   private void checkError() throws IOException {
+      Throwable error = _error;
+      if (error == null)
+         return;
+      if (error instanceof IOException)
+         throw (IOException) error;
+      throw new IOException("writer thread failed", error);
+   }
+
+   /**
+    * queues the current buffer, then waits, if need be, for a free one
+    */
+   private void handOff() throws IOException {
+      this.put(_current);
+      _current = null;
+      int depth = this.getQueueDepth();
+      if (depth > _maxQueueDepth)
+         _maxQueueDepth = depth;
+      try {
+         _current = _free.poll();
+         if (_current != null)
+            return;
+         long start = System.nanoTime();
+         _current = _free.take();
+         _stallNanos += System.nanoTime() - start;
+      }
+      catch (InterruptedException e_) {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("interrupted waiting for free buffer");
+      }
+      this.checkError();
+   }
+
+   private void put(Buffer buffer_) throws IOException {
+      try {
+         _full.put(buffer_);
+      }
+      catch (InterruptedException e_) {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("interrupted queueing buffer");
+      }
+   }
+
+   /**
+    * writer thread loop. After a failure it keeps recycling buffers, without
+    * writing them, so the writing thread never blocks forever
+    */
+   private void drain() {
+      try {
+         while (true) {
+            Buffer buffer = _full.take();
+            if (buffer == END)
+               return;
+            if ((_error == null) && ((buffer == FLUSH) || (buffer == SYNC)))
+               this.flushTarget();
+            else if (_error == null)
+               this.writeTarget(buffer);
+            if (buffer == SYNC)
+               _synced.release();
+            else if (buffer._chars.length > 0) {
+               buffer._length = 0;
+               _free.put(buffer);
+            }
+         }
+      }
+      catch (InterruptedException e_) {
+         _error = e_;
+      }
+   }
+
+   private void writeTarget(Buffer buffer_) {
+      try {
+         _target.write(buffer_._chars, 0, buffer_._length);
+      }
+      catch (Throwable e_) {
+         _log.error(null, e_);
+         _error = e_;
+      }
+   }
+
+   private void flushTarget() {
+      try {
+         _target.flush();
+      }
+      catch (Throwable e_) {
+         _log.error(null, e_);
+         _error = e_;
+      }
+   }
+
+   private static class Buffer {
+      private final char[] _chars;
+      private int _length;
+
+      private Buffer(int size_) {
+         _chars = new char[size_];
+      }
+   }
+}
@@ -0,0 +1,231 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.diffkit.common.annot.NotThreadSafe;
+
+/**
+ * Single pass tokenizer for delimited (CSV) text. Reads records straight from
+ * a Reader, through its own buffer, and splits them into fields:
+ * <ul>
+ * <li>a field that starts with the quote char runs to the matching closing
+ * quote, and may contain delimiters and line breaks</li>
+ * <li>inside a quoted field, a doubled quote stands for one quote char</li>
+ * <li>records end at \n, \r, or \r\n outside of quotes</li>
+ * <li>blank lines are skipped, and whitespace is trimmed from the start and
+ * end of each record, as DKFileSource has always done with lines</li>
+ * </ul>
+ * The only per record allocations are the field Strings and the returned
+ * array.
+ *
+ * @author jpanico
+ */
+@NotThreadSafe
+public class DKCsvTokenizer {
+   public static final char DEFAULT_QUOTE = '"';
+   private static final int BUFFER_SIZE = 64 * 1024;
+
+   private final Reader _reader;
+   private final char _delimiter;
+   private final char _quote;
+   private final char[] _buffer = new char[BUFFER_SIZE];
+   private int _position;
+   private int _limit;
+   private char[] _field = new char[256];
+   private int _fieldLength;
+   private final List<String> _fields = new ArrayList<String>();
+   private long _lineNumber;
+
+   public DKCsvTokenizer(Reader reader_, char delimiter_) {
+      this(reader_, delimiter_, DEFAULT_QUOTE);
+   }
+
+   public DKCsvTokenizer(Reader reader_, char delimiter_, char quote_) {
+      if (reader_ == null)
+         throw new IllegalArgumentException("reader_ null");
+      if (delimiter_ == quote_)
+         throw new IllegalArgumentException(String.format(
+            "delimiter_->%s same as quote_", delimiter_));
+      _reader = reader_;
+      _delimiter = delimiter_;
+      _quote = quote_;
+   }
+
+   /**
+    * convenience for tokenizing a single record held in a String
+    */
+   public static String[] tokenize(String record_, char delimiter_) {
+      if (record_ == null)
+         return null;
+      try {
+         return new DKCsvTokenizer(new StringReader(record_), delimiter_).nextRecord();
+      }
+      catch (IOException e_) {
+         throw new RuntimeException(e_);
+      }
+   }
+
+   /**
+    * maps the delimiter regex historically accepted by DKFileSource, e.g. ","
+    * or "\\,", to the single literal char it matches
+    *
+    * @return null if delimiterRegex_ is not simply one (possibly escaped)
+    *         char
+    */
+   public static Character toDelimiterChar(String delimiterRegex_) {
+      if (delimiterRegex_ == null)
+         return null;
+      if (delimiterRegex_.length() == 1)
+         return Character.valueOf(delimiterRegex_.charAt(0));
+      if ((delimiterRegex_.length() != 2) || (delimiterRegex_.charAt(0) != '\\'))
+         return null;
+      char escaped = delimiterRegex_.charAt(1);
+      if (escaped == 't')
+         return Character.valueOf('\t');
+      if (Character.isLetterOrDigit(escaped))
+         return null;
+      return Character.valueOf(escaped);
+   }
+
+   /**
+    * number of line breaks consumed so far, including those inside quoted
+    * fields
+    */
+   public long getLineNumber() {
+      return _lineNumber;
+   }
+
+   /**
+    * @return the fields of the next non-blank record; null at end of input
+    */
+   public String[] nextRecord() throws IOException {
+      int c = this.skipBlank();
+      if (c < 0)
+         return null;
+      _fields.clear();
+      while (true) {
+         _fieldLength = 0;
+         int quotedLength = 0;
+         if (c == _quote) {
+            c = this.readQuoted();
+            quotedLength = _fieldLength;
+         }
+         while ((c >= 0) && (c != _delimiter) && (c != '\n') && (c != '\r')) {
+            this.append((char) c);
+            c = this.read();
+         }
+         if (c == _delimiter) {
+            _fields.add(new String(_field, 0, _fieldLength));
+            c = this.read();
+            continue;
+         }
+         // end of record; trim it, but never into a quoted value
+         while ((_fieldLength > quotedLength) && (_field[_fieldLength - 1] <= ' '))
+            _fieldLength--;
+         _fields.add(new String(_field, 0, _fieldLength));
+         this.endLine(c);
+         return _fields.toArray(new String[_fields.size()]);
+      }
+   }
+
+   public void close() throws IOException {
+      _reader.close();
+   }
+
+   /**
+    * entered just past the opening quote
+    *
+    * @return the char following the closing quote
+    */
+   private int readQuoted() throws IOException {
+      while (true) {
+         int c = this.read();
+         if (c < 0)
+            return c;
+         if (c == _quote) {
+            c = this.read();
+            if (c != _quote)
+               return c;
+         }
+         else if (c == '\n') {
+            _lineNumber++;
+         }
+         this.append((char) c);
+      }
+   }
+
+   /**
+    * skips whitespace, including blank lines
+    *
+    * @return the first char of the record, or -1 at end of input
+    */
+   private int skipBlank() throws IOException {
+      while (true) {
+         int c = this.read();
+         if (c < 0)
+            return c;
+         if (c == '\n')
+            _lineNumber++;
+         else if ((c > ' ') || (c == _delimiter))
+            return c;
+      }
+   }
+
+   private void endLine(int c_) throws IOException {
+      if (c_ < 0)
+         return;
+      _lineNumber++;
+      if (c_ != '\r')
+         return;
+      // swallow the \n of \r\n
+      if ((_position < _limit) || this.fill()) {
+         if (_buffer[_position] == '\n')
+            _position++;
+      }
+   }
+
+   private void append(char c_) {
+      if (_fieldLength == _field.length) {
+         char[] field = new char[_field.length * 2];
+         System.arraycopy(_field, 0, field, 0, _fieldLength);
+         _field = field;
+      }
+      _field[_fieldLength++] = c_;
+   }
+
+   private int read() throws IOException {
+      if ((_position >= _limit) && !this.fill())
+         return -1;
+      return _buffer[_position++];
+   }
+
+   private boolean fill() throws IOException {
+      int count = 0;
+      while ((count = _reader.read(_buffer, 0, _buffer.length)) == 0)
+         ;
+      if (count < 0)
+         return false;
+      _position = 0;
+      _limit = count;
+      return true;
+   }
+}
@@ -11,9 +11,8 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
 import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
 import java.util.Map;
 
 import org.apache.commons.collections.MapUtils;
@@ -69,18 +68,35 @@ public class DKFileUtil {
             target_));
       File holdFile = new File(target_.getParentFile(), target_.getName() + HOLD_SUFFIX);
       target_.renameTo(holdFile);
-      OutputStream outStream = toBufferedOutputStream(target_);
-      Writer outWriter = new OutputStreamWriter(outStream);
-      outWriter.write(prepend_);
-      outWriter.flush();
-
-      FileInputStream holdInStream = new FileInputStream(holdFile);
-      IOUtils.copy(holdInStream, outStream);
-      outStream.flush();
-      outStream.close();
+      concatenate(prepend_, holdFile, target_);
       holdFile.delete();
    }
 
+   /**
+    * write head_, in the default charset, followed by the entire content of
+    * body_, to target_. body_ is copied with FileChannel.transferTo, so that
+    * the OS can move its bytes without passing them through the JVM
+    */
+   public static void concatenate(String head_, File body_, File target_)
+      throws IOException {
+      DKValidate.notNull(head_, body_, target_);
+      FileOutputStream outStream = new FileOutputStream(target_);
+      FileInputStream bodyStream = null;
+      try {
+         outStream.write(head_.getBytes());
+         bodyStream = new FileInputStream(body_);
+         FileChannel bodyChannel = bodyStream.getChannel();
+         FileChannel outChannel = outStream.getChannel();
+         long size = bodyChannel.size();
+         for (long position = 0; position < size;)
+            position += bodyChannel.transferTo(position, size - position, outChannel);
+      }
+      finally {
+         IOUtils.closeQuietly(bodyStream);
+         outStream.close();
+      }
+   }
+
    /**
     * silently eats all exceptions, so only call if you know for a fact that the
     * file is writable, etc.
@@ -0,0 +1,259 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Date;
+
+/**
+ * Compact binary encoding of rows (Object[]) for temporary spill files. Each
+ * value is written as a one byte type tag followed by its payload; the common
+ * column types get fixed, Java serialization free, encodings. Anything else
+ * that is Serializable falls back to Java serialization.
+ *
+ * Not a persistence format: only intended to be read back by the same
+ * process that wrote it.
+ *
+ * @author jpanico
+ */
+public class DKRowIOUtil {
+
+   private static final String CHARSET = "UTF-8";
+   // rough heap costs, in bytes, used by estimateHeapSize()
+   private static final long ROW_OVERHEAD = 64;
+   private static final long COLUMN_OVERHEAD = 24;
+   private static final long STRING_OVERHEAD = 40;
+   private static final long VALUE_SIZE = 16;
+
+   private static final byte NULL = 0;
+   private static final byte STRING = 1;
+   private static final byte INTEGER = 2;
+   private static final byte LONG = 3;
+   private static final byte SHORT = 4;
+   private static final byte BYTE = 5;
+   private static final byte DOUBLE = 6;
+   private static final byte FLOAT = 7;
+   private static final byte BIG_DECIMAL = 8;
+   private static final byte BIG_INTEGER = 9;
+   private static final byte BOOLEAN = 10;
+   private static final byte TIMESTAMP = 11;
+   private static final byte SQL_DATE = 12;
+   private static final byte SQL_TIME = 13;
+   private static final byte DATE = 14;
+   private static final byte SERIALIZED = 15;
+
+   private DKRowIOUtil() {
+   }
+
+   /**
+    * writes the column count, followed by each column value
+    */
+   public static void writeRow(Object[] row_, DataOutput output_) throws IOException {
+      if (row_ == null)
+         throw new IllegalArgumentException("row_ null");
+      output_.writeInt(row_.length);
+      for (int i = 0; i < row_.length; i++)
+         writeValue(row_[i], output_);
+   }
+
+   /**
+    * reads back a row written by writeRow()
+    */
+   public static Object[] readRow(DataInput input_) throws IOException {
+      int length = input_.readInt();
+      Object[] row = new Object[length];
+      for (int i = 0; i < length; i++)
+         row[i] = readValue(input_);
+      return row;
+   }
+
+   /**
+    * rough estimate of the heap occupied by row_, including the overhead of
+    * holding it in a collection; used for memory budgets, not accounting
+    */
+   public static long estimateHeapSize(Object[] row_) {
+      if (row_ == null)
+         return 0;
+      long size = ROW_OVERHEAD + (COLUMN_OVERHEAD * row_.length);
+      for (Object value : row_) {
+         if (value instanceof String)
+            size += STRING_OVERHEAD + (2 * ((String) value).length());
+         else if (value != null)
+            size += VALUE_SIZE;
+      }
+      return size;
+   }
+
+   public static void writeValue(Object value_, DataOutput output_) throws IOException {
+      if (value_ == null) {
+         output_.writeByte(NULL);
+      }
+      else if (value_ instanceof String) {
+         output_.writeByte(STRING);
+         writeBytes(((String) value_).getBytes(CHARSET), output_);
+      }
+      else if (value_ instanceof Integer) {
+         output_.writeByte(INTEGER);
+         output_.writeInt(((Integer) value_).intValue());
+      }
+      else if (value_ instanceof Long) {
+         output_.writeByte(LONG);
+         output_.writeLong(((Long) value_).longValue());
+      }
+      else if (value_ instanceof Short) {
+         output_.writeByte(SHORT);
+         output_.writeShort(((Short) value_).shortValue());
+      }
+      else if (value_ instanceof Byte) {
+         output_.writeByte(BYTE);
+         output_.writeByte(((Byte) value_).byteValue());
+      }
+      else if (value_ instanceof Double) {
+         output_.writeByte(DOUBLE);
+         output_.writeDouble(((Double) value_).doubleValue());
+      }
+      else if (value_ instanceof Float) {
+         output_.writeByte(FLOAT);
+         output_.writeFloat(((Float) value_).floatValue());
+      }
+      else if (value_ instanceof BigDecimal) {
+         BigDecimal decimal = (BigDecimal) value_;
+         output_.writeByte(BIG_DECIMAL);
+         output_.writeInt(decimal.scale());
+         writeBytes(decimal.unscaledValue().toByteArray(), output_);
+      }
+      else if (value_ instanceof BigInteger) {
+         output_.writeByte(BIG_INTEGER);
+         writeBytes(((BigInteger) value_).toByteArray(), output_);
+      }
+      else if (value_ instanceof Boolean) {
+         output_.writeByte(BOOLEAN);
+         output_.writeBoolean(((Boolean) value_).booleanValue());
+      }
+      else if (value_ instanceof Timestamp) {
+         Timestamp timestamp = (Timestamp) value_;
+         output_.writeByte(TIMESTAMP);
+         output_.writeLong(timestamp.getTime());
+         output_.writeInt(timestamp.getNanos());
+      }
+      else if (value_.getClass() == java.sql.Date.class) {
+         output_.writeByte(SQL_DATE);
+         output_.writeLong(((Date) value_).getTime());
+      }
+      else if (value_.getClass() == Time.class) {
+         output_.writeByte(SQL_TIME);
+         output_.writeLong(((Date) value_).getTime());
+      }
+      else if (value_.getClass() == Date.class) {
+         output_.writeByte(DATE);
+         output_.writeLong(((Date) value_).getTime());
+      }
+      else if (value_ instanceof Serializable) {
+         output_.writeByte(SERIALIZED);
+         writeBytes(serialize(value_), output_);
+      }
+      else {
+         throw new IOException(String.format("can't encode value_->%s of type->%s",
+            value_, value_.getClass()));
+      }
+   }
+
+   public static Object readValue(DataInput input_) throws IOException {
+      byte tag = input_.readByte();
+      switch (tag) {
+      case NULL:
+         return null;
+      case STRING:
+         return new String(readBytes(input_), CHARSET);
+      case INTEGER:
+         return Integer.valueOf(input_.readInt());
+      case LONG:
+         return Long.valueOf(input_.readLong());
+      case SHORT:
+         return Short.valueOf(input_.readShort());
+      case BYTE:
+         return Byte.valueOf(input_.readByte());
+      case DOUBLE:
+         return Double.valueOf(input_.readDouble());
+      case FLOAT:
+         return Float.valueOf(input_.readFloat());
+      case BIG_DECIMAL:
+         int scale = input_.readInt();
+         return new BigDecimal(new BigInteger(readBytes(input_)), scale);
+      case BIG_INTEGER:
+         return new BigInteger(readBytes(input_));
+      case BOOLEAN:
+         return Boolean.valueOf(input_.readBoolean());
+      case TIMESTAMP:
+         Timestamp timestamp = new Timestamp(input_.readLong());
+         timestamp.setNanos(input_.readInt());
+         return timestamp;
+      case SQL_DATE:
+         return new java.sql.Date(input_.readLong());
+      case SQL_TIME:
+         return new Time(input_.readLong());
+      case DATE:
+         return new Date(input_.readLong());
+      case SERIALIZED:
+         return deserialize(readBytes(input_));
+      default:
+         throw new IOException(String.format("unrecognized tag->%s", tag));
+      }
+   }
+
+   private static void writeBytes(byte[] bytes_, DataOutput output_) throws IOException {
+      output_.writeInt(bytes_.length);
+      output_.write(bytes_);
+   }
+
+   private static byte[] readBytes(DataInput input_) throws IOException {
+      byte[] bytes = new byte[input_.readInt()];
+      input_.readFully(bytes);
+      return bytes;
+   }
+
+   private static byte[] serialize(Object value_) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream output = new ObjectOutputStream(bytes);
+      output.writeObject(value_);
+      output.close();
+      return bytes.toByteArray();
+   }
+
+   private static Object deserialize(byte[] bytes_) throws IOException {
+      ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes_));
+      try {
+         return input.readObject();
+      }
+      catch (ClassNotFoundException e_) {
+         throw new IOException(e_.getMessage());
+      }
+      finally {
+         input.close();
+      }
+   }
+}
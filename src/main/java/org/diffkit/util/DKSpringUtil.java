@@ -4,6 +4,7 @@
  */
 package org.diffkit.util;
 
+import java.io.File;
 import java.util.Arrays;
 
 import org.apache.commons.lang.ArrayUtils;
@@ -36,7 +37,8 @@ public class DKSpringUtil {
          return null;
       AbstractXmlApplicationContext context = null;
       if (DKFileUtil.canReadFilePaths(xmlConfigFilePaths_))
-         context = new FileSystemXmlApplicationContext(xmlConfigFilePaths_, false);
+         context = new FileSystemXmlApplicationContext(toFileUrls(xmlConfigFilePaths_),
+            false);
       else
          context = new ClassPathXmlApplicationContext(xmlConfigFilePaths_, false);
       LOG.debug("context->{}", context);
@@ -53,4 +55,16 @@ public class DKSpringUtil {
             Arrays.toString(xmlConfigFilePaths_)));
       return bean;
    }
+
+   /**
+    * FileSystemXmlApplicationContext strips the leading / from an absolute
+    * path, and resolves it against the working directory; it only takes file:
+    * URLs as given
+    */
+   private static String[] toFileUrls(String[] filePaths_) {
+      String[] fileUrls = new String[filePaths_.length];
+      for (int i = 0; i < filePaths_.length; i++)
+         fileUrls[i] = new File(filePaths_[i]).getAbsoluteFile().toURI().toString();
+      return fileUrls;
+   }
 }
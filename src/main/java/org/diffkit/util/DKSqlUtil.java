@@ -37,6 +37,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.diffkit.common.DKValidate;
+import org.diffkit.common.annot.NotThreadSafe;
 
 /**
  * @author jpanico
@@ -47,8 +48,115 @@ public class DKSqlUtil {
    public static final String DATABASE_PRODUCT_NAME_KEY = "DatabaseProductName";
    public static final String DATABASE_PRODUCT_VERSION_KEY = "DatabaseProductVersion";
 
+   /**
+    * how a column value is fetched from a ResultSet. Each constant reads by
+    * column ordinal, using the primitive getter where the resulting class is
+    * the same as getObject() would return
+    */
    public static enum ReadType {
-      OBJECT, STRING, TEXT, TIMESTAMP;
+      OBJECT {
+         public Object read(ResultSet resultSet_, int column_) throws SQLException {
+            return resultSet_.getObject(column_);
+         }
+      },
+      STRING {
+         public Object read(ResultSet resultSet_, int column_) throws SQLException {
+            return resultSet_.getString(column_);
+         }
+      },
+      TEXT {
+         public Object read(ResultSet resultSet_, int column_) throws SQLException {
+            return resultSet_.getString(column_);
+         }
+      },
+      TIMESTAMP {
+         public Object read(ResultSet resultSet_, int column_) throws SQLException {
+            return resultSet_.getTimestamp(column_);
+         }
+      },
+      LONG {
+         public Object read(ResultSet resultSet_, int column_) throws SQLException {
+            long value = resultSet_.getLong(column_);
+            return resultSet_.wasNull() ? null : Long.valueOf(value);
+         }
+      },
+      INTEGER {
+         public Object read(ResultSet resultSet_, int column_) throws SQLException {
+            int value = resultSet_.getInt(column_);
+            return resultSet_.wasNull() ? null : Integer.valueOf(value);
+         }
+      },
+      DOUBLE {
+         public Object read(ResultSet resultSet_, int column_) throws SQLException {
+            double value = resultSet_.getDouble(column_);
+            return resultSet_.wasNull() ? null : Double.valueOf(value);
+         }
+      },
+      DECIMAL {
+         public Object read(ResultSet resultSet_, int column_) throws SQLException {
+            return resultSet_.getBigDecimal(column_);
+         }
+      };
+
+      /**
+       * @param column_
+       *           1 based ordinal of the column in resultSet_
+       */
+      public abstract Object read(ResultSet resultSet_, int column_) throws SQLException;
+   }
+
+   /**
+    * Reads rows from one ResultSet. The column ordinals are resolved once, at
+    * construction, so reading a row costs no column name lookups.
+    */
+   @NotThreadSafe
+   public static class RowReader {
+      private final ResultSet _resultSet;
+      private final ReadType[] _readTypes;
+      private final int[] _ordinals;
+      private final int[] _rowIndexes;
+      private final int _rowWidth;
+
+      /**
+       * @param rowIndexes_
+       *           position, in each row, of the value of each column in
+       *           columnNames_; null means the values fill the row in order
+       * @param rowWidth_
+       *           length of each row; positions not covered by rowIndexes_ are
+       *           left null
+       */
+      public RowReader(ResultSet resultSet_, String[] columnNames_,
+                       ReadType[] readTypes_, int[] rowIndexes_, int rowWidth_)
+         throws SQLException {
+         DKValidate.notNull(resultSet_, columnNames_, readTypes_);
+         if (readTypes_.length != columnNames_.length)
+            throw new IllegalArgumentException(String.format(
+               "readTypes_->%s does not match columnNames_->%s",
+               Arrays.toString(readTypes_), Arrays.toString(columnNames_)));
+         _resultSet = resultSet_;
+         _readTypes = readTypes_;
+         _ordinals = new int[columnNames_.length];
+         for (int i = 0; i < columnNames_.length; i++)
+            _ordinals[i] = resultSet_.findColumn(columnNames_[i]);
+         _rowIndexes = rowIndexes_;
+         _rowWidth = rowWidth_;
+      }
+
+      /**
+       * reads the current row; does not advance the ResultSet
+       */
+      public Object[] readRow() throws SQLException {
+         Object[] row = new Object[_rowWidth];
+         if (_rowIndexes == null) {
+            for (int i = 0; i < _ordinals.length; i++)
+               row[i] = _readTypes[i].read(_resultSet, _ordinals[i]);
+         }
+         else {
+            for (int i = 0; i < _ordinals.length; i++)
+               row[_rowIndexes[i]] = _readTypes[i].read(_resultSet, _ordinals[i]);
+         }
+         return row;
+      }
    }
 
    public static enum WriteType {
@@ -142,9 +250,14 @@ public class DKSqlUtil {
       ResultSet resultSet = executeQuery(selectSql_, connection_);
       if (resultSet == null)
          return null;
-      List<Map<String, ?>> rows = readRows(resultSet);
-      close(resultSet);
-      return rows;
+      Statement statement = resultSet.getStatement();
+      try {
+         return readRows(resultSet);
+      }
+      finally {
+         close(resultSet);
+         close(statement);
+      }
    }
 
    /**
@@ -161,25 +274,8 @@ public class DKSqlUtil {
          || (readTypes_ == null))
          return null;
       Object[] row = new Object[columnNames_.length];
-      for (int i = 0; i < columnNames_.length; i++) {
-         switch (readTypes_[i]) {
-         case TEXT:
-            row[i] = resultSet_.getString(columnNames_[i]);
-            break;
-         case STRING:
-            row[i] = resultSet_.getString(columnNames_[i]);
-            break;
-         case TIMESTAMP:
-            row[i] = resultSet_.getTimestamp(columnNames_[i]);
-            break;
-         case OBJECT:
-            row[i] = resultSet_.getObject(columnNames_[i]);
-            break;
-         default:
-            throw new RuntimeException(String.format("unrecognized ReadType->%s",
-               readTypes_[i]));
-         }
-      }
+      for (int i = 0; i < columnNames_.length; i++)
+         row[i] = readTypes_[i].read(resultSet_, resultSet_.findColumn(columnNames_[i]));
       return row;
    }
 
@@ -346,6 +442,9 @@ public class DKSqlUtil {
          LOG.error(null, e_);
          return false;
       }
+      finally {
+         close(statement);
+      }
    }
 
    public static long executeBatchUpdate(List<String> sqlUpdateStrings_,
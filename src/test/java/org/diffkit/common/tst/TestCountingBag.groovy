@@ -64,4 +64,15 @@ public class TestCountingBag extends GroovyTestCase {
       assert iterator.next() == key1
       assert iterator.next() == key3
    }
+   
+   public void testTotalCountWithNull(){
+      DKCountingBag target = []
+      assert target.totalCount() == 0
+      target.add(null)
+      target.add('key1',4)
+      target.add(null,2)
+      assert target.getCount(null) == 3
+      assert target.size() == 2
+      assert target.totalCount() == 7
+   }
 }
@@ -0,0 +1,144 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.db.tst
+
+import java.sql.SQLException;
+
+import org.diffkit.db.DKConnectionPool;
+import org.diffkit.db.DKDBConnectionInfo;
+import org.diffkit.db.DKDatabase
+import org.diffkit.db.DKDBFlavor;
+
+import groovy.util.GroovyTestCase;
+
+
+/**
+ * @author jpanico
+ */
+public class TestConnectionPool extends GroovyTestCase {
+
+   public void testReuse() {
+      DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:pooltest", null, null, 'test', 'test']
+      DKConnectionPool pool = [connectionInfo]
+      def connection = pool.connection
+      assert connection
+      assert pool.borrowedCount == 1
+      def statement = connection.createStatement()
+      connection.autoCommit = false
+      connection.close()
+      assert connection.isClosed()
+      assert statement.isClosed()
+      shouldFail(SQLException) {
+         connection.createStatement()
+      }
+      assert pool.borrowedCount == 0
+      assert pool.idleCount == 1
+
+      connection = pool.connection
+      assert connection.autoCommit
+      def second = pool.connection
+      assert pool.openCount == 2
+      assert connection != second
+      connection.close()
+      second.close()
+      assert pool.idleCount == 2
+      pool.close()
+      assert pool.idleCount == 0
+      shouldFail(SQLException) {
+         pool.connection
+      }
+   }
+
+   public void testBorrowTimeout() {
+      DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:pooltest", null, null, 'test', 'test']
+      DKConnectionPool pool = [connectionInfo, 1, 60000L, 60000L, 100L]
+      def connection = pool.connection
+      shouldFail(SQLException) {
+         pool.connection
+      }
+      connection.close()
+      connection = pool.connection
+      assert pool.openCount == 1
+      connection.close()
+      pool.close()
+   }
+
+   public void testLeakThreshold() {
+      DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:pooltest", null, null, 'test', 'test']
+      DKConnectionPool pool = [connectionInfo, 4, 60000L, 0L, 1000L]
+      def longLived = pool.longLivedConnection
+      def leaked = pool.connection
+      Thread.sleep(10)
+      // housekeeping runs on the next borrow
+      pool.connection.close()
+      assert pool.leakCount == 1
+      longLived.close()
+      leaked.close()
+      pool.close()
+   }
+
+   public void testSettings() {
+      DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:settingspooltest", null, null, 'test', 'test']
+      DKDatabase database = [connectionInfo]
+      database.maxConnections = 1
+      database.connectionBorrowTimeout = 100
+      database.connectionLeakThreshold = 1234
+      DKConnectionPool pool = database.connectionPool
+      assert pool.maxSize == 1
+      assert pool.borrowTimeout == 100
+      assert pool.leakThreshold == 1234
+      def connection = database.connection
+      shouldFail(SQLException) {
+         database.connection
+      }
+      database.maxConnections = 2
+      database.connection.close()
+      connection.close()
+      shouldFail(IllegalArgumentException) {
+         database.maxConnections = 0
+      }
+      pool.close()
+   }
+
+   public void testIdleEviction() {
+      DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:pooltest", null, null, 'test', 'test']
+      DKConnectionPool pool = [connectionInfo, 4, 0L, 60000L, 1000L]
+      def connection = pool.connection
+      connection.close()
+      Thread.sleep(10)
+      connection = pool.connection
+      assert pool.openCount == 2
+      connection.close()
+      pool.close()
+   }
+
+   public void testSharedByDatabases() {
+      DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:pooltest", null, null, 'test', 'test']
+      DKDatabase lhs = [connectionInfo]
+      DKDatabase rhs = [connectionInfo]
+      assert lhs.connectionPool.is(rhs.connectionPool)
+      DKDBConnectionInfo otherInfo = ['other', DKDBFlavor.H2,"mem:otherpooltest", null, null, 'test', 'test']
+      DKDatabase other = [otherInfo]
+      assert !other.connectionPool.is(lhs.connectionPool)
+
+      assert lhs.canConnect()
+      long openCount = lhs.connectionPool.openCount
+      assert lhs.canConnect()
+      assert rhs.canConnect()
+      assert lhs.connectionPool.openCount == openCount
+      assert lhs.connectionPool.borrowedCount == 0
+   }
+}
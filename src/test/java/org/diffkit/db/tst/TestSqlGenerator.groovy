@@ -57,6 +57,19 @@ public class TestSqlGenerator extends GroovyTestCase {
       assert updateStatement == "UPDATE schema.customer\nSET address='addr1', city='city', country='country', age=55\nWHERE (first_name='bob' ) AND (last_name='smith' )"
    }
    
+   public void testGeneratePreparedInsertDML(){
+      DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:test", null, null, 'test', 'test']
+      DKDatabase database = [connectionInfo]
+      DKDBColumn column1 = ['ID', 1, 'BIGINT', -1, false]
+      DKDBColumn column2 = ['NAME', 2, 'VARCHAR', 50, true]
+      DKDBColumn[] columns = [column1, column2]
+      DKDBTable table = [ null, 'SCHEMA', 'CUSTOMER', columns, null]
+      DKSqlGenerator sqlGenerator = [database]
+      def insertStatement = sqlGenerator.generatePreparedInsertDML(table)
+      println "insertStatement->$insertStatement"
+      assert insertStatement == "INSERT INTO SCHEMA.CUSTOMER (ID, NAME)\nVALUES (?, ?)"
+   }
+
    public void testGenerateSetClause(){
       DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:test", null, null, 'test', 'test']
       DKDatabase database = [connectionInfo]
@@ -137,6 +150,47 @@ public class TestSqlGenerator extends GroovyTestCase {
       assert !fetchedTable
    }
    
+   public void testGenerateRowHashExpression(){
+      DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:test", null, null, 'test', 'test']
+      DKDatabase database = [connectionInfo]
+      DKSqlGenerator sqlGenerator = [database]
+      DKDBTable table = this.createHashMetaTable()
+      assert database.createTable( table)
+      def connection = database.connection
+      def statement = connection.createStatement()
+      // each pair differs only in a way a naive rendering would lose
+      [ "(1, 'a|b', 'c', NULL, NULL, NULL)", "(2, 'a', 'b|c', NULL, NULL, NULL)",
+        "(3, NULL, 'x', NULL, NULL, NULL)", "(4, '~', 'x', NULL, NULL, NULL)",
+        "(5, '', 'x', NULL, NULL, NULL)", "(6, NULL, 'Nx', NULL, NULL, NULL)",
+        "(7, NULL, NULL, TIMESTAMP '2011-01-02 03:04:05.000000001', NULL, NULL)",
+        "(8, NULL, NULL, TIMESTAMP '2011-01-02 03:04:05.000000002', NULL, NULL)",
+        "(9, NULL, NULL, NULL, 0.1, NULL)", "(10, NULL, NULL, NULL, 0.10000000000000002, NULL)",
+        "(11, 'a|b', 'c', NULL, NULL, 'notes')" ].each {
+         statement.executeUpdate("INSERT INTO ROW_HASH VALUES $it")
+      }
+      DKDBColumn[] columns = table.getColumns((String[])['A', 'B', 'STAMP', 'RATIO'])
+      def hash = sqlGenerator.generateRowHashExpression(columns)
+      assert hash
+      def resultSet = statement.executeQuery("SELECT ID, $hash FROM ROW_HASH ORDER BY ID")
+      def hashes = [:]
+      while(resultSet.next())
+         hashes[resultSet.getInt(1)] = resultSet.getObject(2)
+      resultSet.close()
+      assert hashes.size() == 11
+      assert hashes.values().every { it instanceof Long }
+      // NOTES is not hashed
+      assert hashes[11] == hashes[1]
+      assert hashes.values().toSet().size() == 10
+      
+      // LOBs are left out
+      assert !sqlGenerator.isHashable(table.getColumn('NOTES'))
+      assert sqlGenerator.isHashable(table.getColumn('A'))
+      assert !sqlGenerator.generateRowHashExpression(table.getColumns((String[])['A', 'NOTES']))
+      statement.close()
+      connection.close()
+      assert database.dropTable( table)
+   }
+   
    public void testGenerateDDL(){
       DKDBTable table = this.createCustomerMetaTable()
       DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:test", null, null, 'test', 'test']
@@ -195,6 +249,18 @@ public class TestSqlGenerator extends GroovyTestCase {
       return table
    }
    
+   private DKDBTable createHashMetaTable() {
+      DKDBColumn column1 = ['ID', 1, 'INTEGER', -1, false]
+      DKDBColumn column2 = ['A', 2, 'VARCHAR', 20, true]
+      DKDBColumn column3 = ['B', 3, 'VARCHAR', 20, true]
+      DKDBColumn column4 = ['STAMP', 4, 'TIMESTAMP', -1, true]
+      DKDBColumn column5 = ['RATIO', 5, 'DOUBLE', -1, true]
+      DKDBColumn column6 = ['NOTES', 6, 'CLOB', -1, true]
+      DKDBColumn[] columns = [column1, column2, column3, column4, column5, column6]
+      DKDBTable table = [null, null, 'ROW_HASH', columns, null]
+      return table
+   }
+   
    private DKDBTable createCustomerMetaTable(){
       DKDBColumn column1 = ['first_name', 1, 'VARCHAR', 20, true]
       DKDBColumn column2 = ['last_name', 2, 'VARCHAR', 20, true]
@@ -0,0 +1,131 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.conf.tst
+
+
+import org.apache.commons.io.FileUtils;
+
+import org.diffkit.diff.conf.DKDiffServer;
+
+import groovy.util.GroovyTestCase;
+
+
+/**
+ * @author jpanico
+ */
+public class TestDiffServer extends GroovyTestCase {
+
+   public void testSocket(){
+      File dir = this.createScratchDir('testSocket')
+      File planFile = this.createPlan(dir)
+      File secretFile = new File(dir, 'secret/diffserver.secret')
+      DKDiffServer server = new DKDiffServer(0, secretFile, null, 2, DKDiffServer.DEFAULT_POLL_INTERVAL)
+      server.start()
+      try {
+         assert secretFile.exists()
+         // only connections that present the secret are answered
+         String unauthorized = "error->not authorized\n${DKDiffServer.EXIT_STATUS_PREFIX}${DKDiffServer.ERROR_EXIT_STATUS}\n"
+         assert this.request(server, 'wrong', "-errorOnDiff ${planFile.absolutePath}") == unauthorized
+         assert this.request(server, 'wrong', DKDiffServer.SHUTDOWN_REQUEST) == unauthorized
+         assert !server.shutdown
+         String reply = this.request(server, "-errorOnDiff ${planFile.absolutePath}")
+         assert reply.contains('--- vhl summary ---')
+         assert reply.contains('(no diffs)')
+         assert reply.endsWith("${DKDiffServer.EXIT_STATUS_PREFIX}0\n")
+         // the server is still up for the next plan, and several at once
+         def planFiles = (1..3).collect { this.createPlan(new File(dir, "concurrent$it")) }
+         def replies = Collections.synchronizedList([])
+         def threads = planFiles.collect { file -> Thread.start { replies << this.request(server, file.absolutePath) } }
+         threads*.join()
+         assert replies.size() == 3
+         replies.each { assert it.endsWith("${DKDiffServer.EXIT_STATUS_PREFIX}0\n") }
+         reply = this.request(server, new File(dir, 'nosuch.plan.xml').absolutePath)
+         assert reply.startsWith('error->')
+         assert reply.endsWith("${DKDiffServer.EXIT_STATUS_PREFIX}${DKDiffServer.ERROR_EXIT_STATUS}\n")
+         assert this.request(server, DKDiffServer.SHUTDOWN_REQUEST) == "${DKDiffServer.EXIT_STATUS_PREFIX}0\n"
+         server.awaitShutdown()
+         assert server.shutdown
+         assert !secretFile.exists()
+      }
+      finally {
+         server.shutdown()
+      }
+   }
+
+   public void testWatchDir(){
+      File dir = this.createScratchDir('testWatchDir')
+      File watchDir = new File(dir, 'watch')
+      watchDir.mkdirs()
+      File planFile = this.createPlan(dir)
+      DKDiffServer server = new DKDiffServer(-1, null, watchDir, 1, 100)
+      assert server.port == -1
+      server.start()
+      try {
+         File watchedFile = new File(watchDir, 'test3.plan.xml')
+         FileUtils.copyFile(planFile, watchedFile)
+         // only settled files are picked up
+         watchedFile.lastModified = System.currentTimeMillis() - 1000
+         File resultFile = new File(watchDir, 'test3.plan.xml.result')
+         for (int i = 0; (i < 100) && !resultFile.exists(); i++)
+            Thread.sleep(100)
+         assert resultFile.exists()
+         assert resultFile.text.endsWith("${DKDiffServer.EXIT_STATUS_PREFIX}0\n")
+         assert new File(watchDir, 'test3.plan.xml.done').exists()
+         assert !watchedFile.exists()
+      }
+      finally {
+         server.shutdown()
+         server.awaitShutdown()
+      }
+   }
+
+   private String request(DKDiffServer server, String request){
+      return this.request(server, server.secretFile.getText('UTF-8').trim(), request)
+   }
+
+   private String request(DKDiffServer server, String secret, String request){
+      Socket socket = new Socket(InetAddress.getByName(null), server.port)
+      try {
+         socket.outputStream.write("${secret}\n${request}\n".getBytes('UTF-8'))
+         socket.outputStream.flush()
+         return socket.inputStream.getText('UTF-8')
+      }
+      finally {
+         socket.close()
+      }
+   }
+
+   private File createScratchDir(String name){
+      File dir = new File("./tstscratch/TestDiffServer/${name}")
+      FileUtils.deleteDirectory(dir)
+      dir.mkdirs()
+      return dir
+   }
+
+   /**
+    * test3, with its relative file paths made absolute
+    */
+   private File createPlan(File dir){
+      String resourceDir = 'org/diffkit/diff/testcase/'
+      ['test3.lhs.csv', 'test3.rhs.csv'].each {
+         FileUtils.copyURLToFile(this.class.classLoader.getResource(resourceDir + it), new File(dir, it))
+      }
+      String plan = this.class.classLoader.getResource(resourceDir + 'test3.plan.xml').getText('UTF-8')
+      File planFile = new File(dir, 'test3.plan.xml')
+      planFile.setText(plan.replace('./test3.', dir.absolutePath + '/test3.'), 'UTF-8')
+      return planFile
+   }
+}
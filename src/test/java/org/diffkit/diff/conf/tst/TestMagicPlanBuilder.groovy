@@ -101,6 +101,25 @@ public class TestMagicPlanBuilder extends GroovyTestCase {
       assert tableComparison.displayIndexes == [[0],[0]]
    }
    
+   public void testHashJoinFileBuild(){
+      def lhsFile = DKResourceUtil.findResourceAsFile('org/diffkit/diff/conf/tst/test.lhs.csv')
+      def rhsFile = DKResourceUtil.findResourceAsFile('org/diffkit/diff/conf/tst/test.rhs.csv')
+      DKMagicPlan magicPlan = []
+      magicPlan.lhsFilePath =lhsFile.absolutePath
+      magicPlan.rhsFilePath = rhsFile.absolutePath
+      magicPlan.delimiter = '\\,'
+      magicPlan.isSorted = false
+      
+      def builtPlan = new DKMagicPlanBuilder(magicPlan).build()
+      assert !builtPlan.lhsSource.isSorted
+      
+      // the hash join doesn't need sorted input, so unsorted files aren't sorted
+      magicPlan.hashJoin = true
+      builtPlan = new DKMagicPlanBuilder(magicPlan).build()
+      assert builtPlan.lhsSource.isSorted
+      assert builtPlan.rhsSource.isSorted
+   }
+   
    public void testFullyMagicDBBuild(){
       DBTestSetup.setupDB(new File('org/diffkit/diff/conf/tst/test.dbsetup.xml'), (File[])[new File('org/diffkit/diff/conf/tst/dbConnectionInfo.xml')], 'org/diffkit/diff/conf/tst/test.lhs.csv', 'org/diffkit/diff/conf/tst/test.rhs.csv')
       DKDBConnectionInfo dbConnectionInfo = ['test', DKDBFlavor.H2, 'mem:conf.test;DB_CLOSE_DELAY=-1', null, null, 'test', 'test']
@@ -49,6 +49,34 @@ public class TestTextDiffor extends GroovyTestCase {
       assert diffor.isDiff( 'hello', 'world', null)
       assert !diffor.isDiff( 'hello\n\r', 'hello', null)
       assert !diffor.isDiff( 'hel\nlo\r', 'hel lo', null)
-      
+      assert !diffor.isDiff( '  \t', '\n', null)
+      assert diffor.isDiff( 'hel lo', 'hello', null)
+      assert diffor.isDiff( 'hello ', 'hello!', null)
+      assert diffor.isDiff( null, 'hello', null)
+   }
+   
+   public void testIgnoreChars(){
+      def diffor = new DKTextDiffor('-_')
+      assert diffor.normalize('-a - b_') == 'a b'
+      assert !diffor.isDiff( 'a - b', 'a b', null)
+      assert !diffor.isDiff( 'a-b', 'ab', null)
+      assert !diffor.isDiff( 'a- b', 'a \n_b', null)
+      assert !diffor.isDiff( '--', ' ', null)
+      assert diffor.isDiff( 'a-b', 'a b', null)
+      assert diffor.isDiff( 'a+b', 'ab', null)
+   }
+   
+   /**
+    * isDiff() must agree with comparing the normalize()d forms
+    */
+   public void testMatchesNormalize(){
+      def diffor = new DKTextDiffor('x')
+      def values = ['', ' ', 'ab', 'a b', ' a  b ', 'a\tb', 'axb', 'a x b', 'xa\nbx', 'a\fb', 'a b c', 'abc ']
+      for (lhs in values) {
+         for (rhs in values) {
+            boolean expected = diffor.normalize(lhs) != diffor.normalize(rhs)
+            assert diffor.isDiff(lhs, rhs, null) == expected : "lhs->'$lhs' rhs->'$rhs'"
+         }
+      }
    }
 }
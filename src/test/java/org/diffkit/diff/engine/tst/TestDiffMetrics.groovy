@@ -0,0 +1,134 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine.tst
+
+
+import org.diffkit.diff.diffor.DKEqualsDiffor;
+import org.diffkit.diff.engine.DKColumnComparison;
+import org.diffkit.diff.engine.DKColumnModel;
+import org.diffkit.diff.engine.DKContext;
+import org.diffkit.diff.engine.DKDiff;
+import org.diffkit.diff.engine.DKDiffEngine;
+import org.diffkit.diff.engine.DKDiffMetrics;
+import org.diffkit.diff.engine.DKStandardTableComparison;
+import org.diffkit.diff.engine.DKTableModel;
+import org.diffkit.diff.sns.DKListSink;
+import org.diffkit.diff.sns.DKListSource;
+
+import groovy.util.GroovyTestCase;
+
+
+/**
+ * @author jpanico
+ */
+public class TestDiffMetrics extends GroovyTestCase {
+
+   public void testSampleInterval(){
+      shouldFail(IllegalArgumentException) {
+         new DKDiffMetrics(this.createContext([], []), 3)
+      }
+      DKDiffMetrics metrics = new DKDiffMetrics(this.createContext([], []), 4)
+      metrics.sample(5)
+      assert metrics.start() == 0
+      metrics.stop(DKDiffMetrics.Phase.LHS_READ, 0)
+      metrics.stop(DKDiffMetrics.Phase.LHS_READ, 0)
+      metrics.stop(DKDiffMetrics.Phase.LHS_READ, 0)
+      assert metrics.getNanos(DKDiffMetrics.Phase.LHS_READ) == 0
+      metrics.sample(8)
+      assert metrics.start() > 0
+      metrics.stop(DKDiffMetrics.Phase.LHS_READ, System.nanoTime() - 1000000)
+      assert metrics.getCallCount(DKDiffMetrics.Phase.LHS_READ) == 4
+      assert metrics.getSampleCount(DKDiffMetrics.Phase.LHS_READ) == 1
+      // the one timed call stands for all 4
+      assert metrics.getNanos(DKDiffMetrics.Phase.LHS_READ) >= 4000000
+      assert metrics.getNanos(DKDiffMetrics.Phase.RHS_READ) == 0
+   }
+
+   public void testEngine(){
+      def lRows = [['1111', '1111', 1], ['1111', '1111', 2], ['4444', '4444', 1], ['6666', '6666', 1]]
+      def rRows = [['1111', 'xxxx', 1], ['1111', 'xxxx', 2], ['2222', '2222', 1], ['6666', '6666', 1]]
+      DKContext context = this.createContext(lRows, rRows)
+      context = new DKDiffEngine().diff(context.lhs, context.rhs, context.sink, context.tableComparison, null)
+      DKDiffMetrics metrics = context.metrics
+      assert metrics.rowCount == 5
+      assert metrics.diffCount == 4
+      assert metrics.columnDiffCounts == [column2:2L]
+      // one more read on each side to find it exhausted
+      assert metrics.getCallCount(DKDiffMetrics.Phase.LHS_READ) == 5
+      assert metrics.getCallCount(DKDiffMetrics.Phase.RHS_READ) == 5
+      assert metrics.getCallCount(DKDiffMetrics.Phase.COLUMN_DIFF) == 3
+      assert metrics.getCallCount(DKDiffMetrics.Phase.SINK_RECORD) == 4
+      assert metrics.elapsedNanos > 0
+      assert metrics.rowsPerSecond > 0
+   }
+
+   /**
+    * aligned sides refill their readers on odd row steps only, which a
+    * sample every 64 row steps would never see
+    */
+   public void testBatchedReadTime(){
+      def rows = (0..<2500).collect { [String.format('%05d', it), 'value', 1] }
+      DKContext context = this.createContext(rows, rows)
+      SlowSource lhs = [this.createTableModel(), rows.collect { it as Object[] }]
+      SlowSource rhs = [this.createTableModel(), rows.collect { it as Object[] }]
+      context = new DKDiffEngine().diff(lhs, rhs, context.sink, context.tableComparison, null)
+      DKDiffMetrics metrics = context.metrics
+      assert metrics.diffCount == 0
+      assert metrics.getCallCount(DKDiffMetrics.Phase.LHS_READ) == 2501
+      // 3 full batches, and the empty one that finds the end
+      assert lhs.batchCount == 4
+      assert metrics.getNanos(DKDiffMetrics.Phase.LHS_READ) >= 4 * SlowSource.SLEEP_MILLIS * 1000000L
+      assert metrics.getNanos(DKDiffMetrics.Phase.RHS_READ) >= 4 * SlowSource.SLEEP_MILLIS * 1000000L
+   }
+
+   private DKContext createContext(List lRows, List rRows){
+      DKTableModel tableModel = this.createTableModel()
+      DKColumnComparison[] map = DKColumnComparison.createColumnPlans( tableModel, tableModel, (int[]) [1], DKEqualsDiffor.instance)
+      DKStandardTableComparison comparison = new DKStandardTableComparison(tableModel, tableModel, DKDiff.Kind.BOTH, map, (int[])[0], (int[][])[[1,2],[1,2]], (long)100)
+      return new DKContext(this.createSource(lRows), this.createSource(rRows), new DKListSink(), comparison, null)
+   }
+
+   private DKListSource createSource(List rows){
+      return new DKListSource(this.createTableModel(), rows.collect { it as Object[] })
+   }
+
+   private DKTableModel createTableModel(){
+      DKColumnModel column1 = [0, 'column1', DKColumnModel.Type.STRING]
+      DKColumnModel column2 = [1, 'column2', DKColumnModel.Type.STRING]
+      DKColumnModel column3 = [2, 'column3', DKColumnModel.Type.INTEGER]
+      DKColumnModel[] columns = [column1, column2, column3]
+      int[] key = [0,2]
+      return new DKTableModel("table", columns, key)
+   }
+}
+
+/**
+ * sleeps on each batch read
+ */
+class SlowSource extends DKListSource {
+   static final long SLEEP_MILLIS = 5
+   int batchCount
+
+   SlowSource(DKTableModel model_, List<Object[]> rows_){
+      super(model_, rows_)
+   }
+
+   public int getNextRows(Object[][] rows_) {
+      batchCount++
+      Thread.sleep(SLEEP_MILLIS)
+      return super.getNextRows(rows_)
+   }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine.tst
+
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.diffkit.diff.diffor.DKEqualsDiffor;
+import org.diffkit.diff.engine.DKColumnComparison;
+import org.diffkit.diff.engine.DKColumnModel;
+import org.diffkit.diff.engine.DKContext;
+import org.diffkit.diff.engine.DKDiff;
+import org.diffkit.diff.engine.DKDiffEngine;
+import org.diffkit.diff.engine.DKHashJoinDiffEngine;
+import org.diffkit.diff.engine.DKStandardTableComparison;
+import org.diffkit.diff.engine.DKTableModel;
+import org.diffkit.diff.sns.DKListSink;
+import org.diffkit.diff.sns.DKListSource;
+
+import groovy.util.GroovyTestCase;
+
+
+/**
+ * @author jpanico
+ */
+public class TestDiffMonitor extends GroovyTestCase {
+
+   public void testRegistration(){
+      DKContext context = this.createContext([[1L, 'a']], [])
+      ObjectName name = context.monitor.name
+      def server = ManagementFactory.platformMBeanServer
+      assert !server.isRegistered(name)
+      context.open()
+      assert server.isRegistered(name)
+      assert server.getAttribute(name, 'RowStep') == 0L
+      assert server.getAttribute(name, 'LhsLastIndex') == -1L
+      assert server.getAttribute(name, 'SinkQueueDepth') == 0
+      assert !server.getAttribute(name, 'StopRequested')
+      server.invoke(name, 'requestStop', null, null)
+      assert context.stopRequested
+      context.close()
+      assert !server.isRegistered(name)
+   }
+
+   /**
+    * a stop requested over JMX, while the third row diff is being recorded,
+    * ends the diff after that row
+    */
+   public void testRequestStop(){
+      def lRows = (1..10).collect { [(long) it, 'a'] }
+      DKContext context = this.createContext(lRows, [])
+      StoppingSink sink = new StoppingSink(3)
+      context = new DKDiffEngine().diff(context.lhs, context.rhs, sink, context.tableComparison, null)
+      assert sink.currentKeys == [[1L], [2L], [3L]]
+      assert sink.diffCount == 3
+      assert context.rowStep == 3
+      assert context.stopRequested
+      assert context.stopped
+      assert sink.generateVeryHighLevelSummary(context).contains('stopped at rowStep 3 (incomplete)')
+      assert !ManagementFactory.platformMBeanServer.isRegistered(context.monitor.name)
+
+      // a diff that runs to the end was not stopped
+      context = this.createContext(lRows, [])
+      sink = new StoppingSink(100)
+      context = new DKDiffEngine().diff(context.lhs, context.rhs, sink, context.tableComparison, null)
+      assert sink.diffCount == 10
+      assert !context.stopped
+      assert !sink.generateVeryHighLevelSummary(context).contains('stopped')
+   }
+
+   public void testHashJoinRequestStop(){
+      def lRows = (1..10).collect { [(long) it, 'a'] }
+      DKContext context = this.createContext(lRows, [])
+      StoppingSink sink = new StoppingSink(3)
+      context = new DKHashJoinDiffEngine().diff(context.lhs, context.rhs, sink, context.tableComparison, null)
+      assert sink.diffCount == 3
+      assert context.stopped
+      assert sink.generateVeryHighLevelSummary(context).contains('stopped at rowStep 3 (incomplete)')
+   }
+
+   private DKContext createContext(List lRows, List rRows){
+      DKTableModel tableModel = this.createTableModel()
+      DKColumnComparison[] map = DKColumnComparison.createColumnPlans( tableModel, tableModel, (int[]) [1], DKEqualsDiffor.instance)
+      DKStandardTableComparison comparison = new DKStandardTableComparison(tableModel, tableModel, DKDiff.Kind.BOTH, map, (int[])[1], (int[][])[[0],[0]], (long)100)
+      return new DKContext(this.createSource(lRows), this.createSource(rRows), new DKListSink(), comparison, null)
+   }
+
+   private DKListSource createSource(List rows){
+      return new DKListSource(this.createTableModel(), rows.collect { it as Object[] })
+   }
+
+   private DKTableModel createTableModel(){
+      DKColumnModel column1 = [0, 'column1', DKColumnModel.Type.INTEGER]
+      DKColumnModel column2 = [1, 'column2', DKColumnModel.Type.STRING]
+      DKColumnModel[] columns = [column1, column2]
+      int[] key = [0]
+      return new DKTableModel("table", columns, key)
+   }
+}
+
+/**
+ * reads the running diff through its MBean, and asks it to stop once
+ * stopAfter diffs have been recorded
+ */
+class StoppingSink extends DKListSink {
+   final int stopAfter
+   final List currentKeys = []
+
+   StoppingSink(int stopAfter){
+      this.stopAfter = stopAfter
+   }
+
+   public void record(DKDiff diff_, DKContext context_) throws IOException {
+      super.record(diff_, context_)
+      def server = ManagementFactory.platformMBeanServer
+      ObjectName name = context_.monitor.name
+      assert server.getAttribute(name, 'RowStep') == context_.rowStep
+      currentKeys << context_.currentKeyValues.toList()
+      if (diffCount == stopAfter)
+         server.invoke(name, 'requestStop', null, null)
+   }
+}
@@ -35,12 +35,18 @@ import org.diffkit.db.DKDBTable;
 import org.diffkit.db.DKDBTableDataAccess 
 import org.diffkit.db.DKDBTableLoader 
 import org.diffkit.diff.diffor.DKEqualsDiffor;
+import org.diffkit.diff.diffor.DKNumberDiffor;
+import org.diffkit.diff.engine.DKBatchSource;
+import org.diffkit.diff.engine.DKCheckpoint;
 import org.diffkit.diff.engine.DKColumnComparison 
 import org.diffkit.diff.engine.DKColumnDiff 
 import org.diffkit.diff.engine.DKColumnModel 
 import org.diffkit.diff.engine.DKContext 
 import org.diffkit.diff.engine.DKDiff;
 import org.diffkit.diff.engine.DKDiffEngine 
+import org.diffkit.diff.engine.DKFingerprintSource;
+import org.diffkit.diff.engine.DKHashJoinDiffEngine;
+import org.diffkit.diff.engine.DKParallelDiffEngine;
 import org.diffkit.diff.engine.DKRowDiff 
 import org.diffkit.diff.engine.DKSide;
 import org.diffkit.diff.engine.DKSource 
@@ -52,6 +58,8 @@ import org.diffkit.diff.sns.DKFileSink
 import org.diffkit.diff.sns.DKFileSource 
 import org.diffkit.diff.sns.DKListSource
 import org.diffkit.diff.sns.DKListSink
+import org.diffkit.diff.sns.DKPrefetchingSource;
+import org.diffkit.diff.sns.DKWriterSink;
 import org.diffkit.diff.sns.DKTableModelUtil;
 import org.diffkit.util.DKFileUtil;
 import org.diffkit.util.DKResourceUtil;
@@ -426,6 +434,24 @@ public class TestEngine extends GroovyTestCase {
       assert sink.diffCount == 0
    }
    
+   /**
+    * sources that aren't DKBatchSources are read a row at a time
+    */
+   public void testRowSources(){
+      DKListSource lhs = this.createSimpleSource()
+      DKListSource rhs = new DKListSource(this.createSimpleTableModel(), this.createSimpleRows()[0..2])
+      DKSource lhSource = this.createRowSource(lhs)
+      DKSource rhSource = this.createRowSource(rhs)
+      assert !(lhSource instanceof DKBatchSource)
+      DKListSink sink = []
+      
+      new DKDiffEngine().diff(lhSource, rhSource, sink, this.createSimpleComparison(), null)
+      
+      assert sink.diffCount == 1
+      assert lhs.lastIndex == 3
+      assert rhs.lastIndex == 2
+   }
+   
    public void testDiffRow(){
       DKDiffEngine engine = new DKDiffEngine()
       DKContext context = this.createSimpleContext()
@@ -477,6 +503,226 @@ public class TestEngine extends GroovyTestCase {
    }
    
    
+   /**
+    * the parallel engine must feed the sink exactly what the serial engine
+    * does, including row steps, regardless of how the key space is cut up
+    */
+   public void testParallelMatchesSerial(){
+      def lRows = []
+      def rRows = []
+      for (i in 0..<300) {
+         String key = String.format('%05d', i)
+         if (i % 17 != 0)
+            lRows << ([key, "value$i".toString(), 1] as Object[])
+         if (i % 23 != 0)
+            rRows << ([key, (i % 11 == 0 ? "other$i" : "value$i").toString(), 1] as Object[])
+      }
+      // long one-sided runs on each side
+      for (i in 300..<340)
+         lRows << ([String.format('%05d', i), 'lonly', 1] as Object[])
+      for (i in 340..<400)
+         rRows << ([String.format('%05d', i), 'ronly', 1] as Object[])
+      
+      for (maxDiffs in [(long)Long.MAX_VALUE, (long)30, (long)0]) {
+         def serial = this.diffToString(new DKDiffEngine(), lRows, rRows, maxDiffs)
+         for (rangeSize in [1, 3, 7, 50, 1000]) {
+            def parallel = this.diffToString(new DKParallelDiffEngine(4, rangeSize), lRows, rRows, maxDiffs)
+            assert parallel == serial
+         }
+      }
+   }
+   
+   public void testNormalizedKeysMatchesSerial(){
+      def lRows = []
+      def rRows = []
+      for (i in 0..<300) {
+         String key = String.format('%05d', i)
+         if (i % 17 != 0)
+            lRows << ([key, "value$i".toString(), i % 3] as Object[])
+         if (i % 23 != 0)
+            rRows << ([key, (i % 11 == 0 ? "other$i" : "value$i").toString(), i % 3] as Object[])
+      }
+      // a key value that can't be encoded falls back to the row comparator
+      lRows << (['00300', 'value300', new BigDecimal(1)] as Object[])
+      rRows << (['00300', 'value300', new BigDecimal(1)] as Object[])
+      for (maxDiffs in [(long)Long.MAX_VALUE, (long)30]) {
+         def serial = this.diffToString(new DKDiffEngine(), lRows, rRows, maxDiffs)
+         assert this.diffToString(new DKDiffEngine(true), lRows, rRows, maxDiffs) == serial
+      }
+   }
+   
+   public void testRowFingerprints(){
+      DKColumnModel column1 = [0, 'column1', DKColumnModel.Type.STRING]
+      DKColumnModel column2 = [1, 'column2', DKColumnModel.Type.STRING]
+      DKColumnModel column3 = [2, 'column3', DKColumnModel.Type.REAL]
+      DKColumnModel[] columns = [column1, column2, column3]
+      DKTableModel tableModel = ['fingerprint_table_model', columns, (int[])[0]]
+      DKColumnComparison[] map = [
+         DKColumnComparison.createColumnPlan(tableModel, tableModel, 1, 1, DKEqualsDiffor.instance),
+         DKColumnComparison.createColumnPlan(tableModel, tableModel, 2, 2, new DKNumberDiffor(0.1, false))]
+      DKStandardTableComparison tableComparison = [tableModel, tableModel, DKDiff.Kind.BOTH, map, (int[])[0, 1], (int[][])[[1, 2], [1, 2]], Long.MAX_VALUE]
+      def lRows = [(['1111', 'aaaa', 1.0d] as Object[]), (['2222', 'bbbb', 2.0d] as Object[]), (['3333', 'cccc', 3.0d] as Object[])]
+      def rRows = [(['1111', 'aaaa', 1.0d] as Object[]), (['2222', 'xxxx', 2.0d] as Object[]), (['3333', 'cccc', 9.0d] as Object[])]
+      
+      DKListSink sink = []
+      new DKDiffEngine().diff(new CollidingSource(tableModel, lRows), new CollidingSource(tableModel, rRows), sink, tableComparison, null)
+      assert sink.diffs*.columnName == ['column2', 'column3']
+      
+      // every fingerprint collides, so only the tolerance compared column3 is
+      // still diffed
+      CollidingSource lSource = [tableModel, lRows]
+      CollidingSource rSource = [tableModel, rRows]
+      sink = []
+      new DKDiffEngine(false, true).diff(lSource, rSource, sink, tableComparison, null)
+      assert sink.diffs*.columnName == ['column3']
+      assert sink.diffs[0].columnStep == 2
+      assert lSource.fingerprintColumnIdxs == null
+      assert lSource.fingerprintedIdxs == [1]
+      
+      // fingerprinting reaches through a DKPrefetchingSource
+      lSource = [tableModel, lRows]
+      rSource = [tableModel, rRows]
+      sink = []
+      new DKDiffEngine(false, true).diff(new DKPrefetchingSource(lSource), new DKPrefetchingSource(rSource), sink, tableComparison, null)
+      assert sink.diffs*.columnName == ['column3']
+      assert lSource.fingerprintedIdxs == [1]
+      
+      // different kinds of fingerprint don't compare
+      rSource = [tableModel, rRows]
+      rSource.fingerprintKind = 'other'
+      sink = []
+      new DKDiffEngine(false, true).diff(new CollidingSource(tableModel, lRows), rSource, sink, tableComparison, null)
+      assert sink.diffs*.columnName == ['column2', 'column3']
+   }
+   
+   /**
+    * a diff that dies part way, then is resumed from its checkpoint, must leave
+    * the sink exactly as an uninterrupted diff does
+    */
+   public void testCheckpointResume(){
+      def lRows = []
+      def rRows = []
+      for (i in 0..<300) {
+         String key = String.format('%05d', i)
+         if (i % 17 != 0)
+            lRows << ([key, "value$i".toString(), 1] as Object[])
+         if (i % 23 != 0)
+            rRows << ([key, (i % 11 == 0 ? "other$i" : "value$i").toString(), 1] as Object[])
+      }
+      DKTableModel tableModel = this.createSimpleTableModel()
+      DKColumnComparison[] map = DKColumnComparison.createColumnPlans( tableModel, tableModel, (int[]) [1], DKEqualsDiffor.instance)
+      DKStandardTableComparison tableComparison = new DKStandardTableComparison(tableModel, tableModel, DKDiff.Kind.BOTH, map, (int[])[0], (int[][])[[1,2],[1,2]], Long.MAX_VALUE)
+      File checkpointFile = ['./tstscratch/testCheckpointResume.checkpoint']
+      File expectedFile = ['./tstscratch/testCheckpointResume.expected.diff']
+      File resumedFile = ['./tstscratch/testCheckpointResume.resumed.diff']
+      
+      for (asyncWrite in [false, true]) {
+         [checkpointFile, expectedFile, resumedFile]*.delete()
+         DKFileSink sink = [expectedFile.path, false, null, asyncWrite]
+         DKContext context = new DKDiffEngine().diff(new DKListSource(tableModel, lRows), new DKListSource(tableModel, rRows), sink, tableComparison, null)
+         def expectedSummary = this.countSummary(sink, context)
+         
+         sink = [resumedFile.path, false, null, asyncWrite]
+         def engine = new DKDiffEngine(false, false, checkpointFile, 50, false)
+         shouldFail(IOException) {
+            engine.diff(new FailingSource(tableModel, lRows, 200), new DKListSource(tableModel, rRows), sink, tableComparison, null)
+         }
+         DKCheckpoint checkpoint = DKCheckpoint.read(checkpointFile)
+         assert checkpoint.rowStep >= 150
+         assert checkpoint.getRowCount(DKSide.LEFT_INDEX) <= 200
+         
+         sink = [resumedFile.path, false, null, asyncWrite]
+         engine = new DKDiffEngine(false, false, checkpointFile, 50, true)
+         context = engine.diff(new DKListSource(tableModel, lRows), new DKListSource(tableModel, rRows), sink, tableComparison, null)
+         assert this.countSummary(sink, context) == expectedSummary
+         assert resumedFile.text == expectedFile.text
+         assert !checkpointFile.exists()
+      }
+   }
+   
+   private String countSummary(DKFileSink sink_, DKContext context_){
+      return "rowStep->${context_.rowStep} diffCount->${sink_.diffCount}\n${sink_.generateRowDiffSummary(context_)}${sink_.generateColumnDiffSummary(context_)}${sink_.generateColumnDiffClusterSummary(context_)}"
+   }
+   
+   public void testHashJoinMatchesSerial(){
+      def lRows = []
+      def rRows = []
+      for (i in 0..<300) {
+         String key = String.format('%05d', i)
+         if (i % 17 != 0)
+            lRows << ([key, "value$i".toString(), 1] as Object[])
+         if (i % 23 != 0)
+            rRows << ([key, (i % 11 == 0 ? "other$i" : "value$i").toString(), 1] as Object[])
+      }
+      def serial = this.diffToSet(new DKDiffEngine(), lRows, rRows, Long.MAX_VALUE)
+      assert serial.size() == 55
+      
+      Random random = new Random(7)
+      def lShuffled = new ArrayList(lRows)
+      def rShuffled = new ArrayList(rRows)
+      Collections.shuffle(lShuffled, random)
+      Collections.shuffle(rShuffled, random)
+      // in memory, spilled one level, and spilled to the maximum depth
+      for (memoryBudget in [Long.MAX_VALUE, 5000L, 1L]) {
+         def engine = new DKHashJoinDiffEngine(memoryBudget, null, 4)
+         assert this.diffToSet(engine, lShuffled, rShuffled, Long.MAX_VALUE) == serial
+         def limited = this.diffToSet(engine, lShuffled, rShuffled, 30L)
+         assert limited.size() == 30
+         assert serial.containsAll(limited)
+      }
+   }
+   
+   /**
+    * the same key value, read as different Number types
+    */
+   public void testHashJoinNumberKeys(){
+      def lRows = [(['aaaa', 'x', Long.MAX_VALUE] as Object[]),
+         (['aaaa', 'x', 1234567890123456789L] as Object[]),
+         (['aaaa', 'x', new BigInteger('123456789012345678901')] as Object[]),
+         (['aaaa', 'x', 5] as Object[])]
+      def rRows = [(['aaaa', 'x', new BigDecimal(Long.MAX_VALUE)] as Object[]),
+         (['aaaa', 'x', new BigDecimal('1234567890123456789')] as Object[]),
+         (['aaaa', 'x', new BigDecimal('123456789012345678901.000')] as Object[]),
+         (['aaaa', 'x', new BigDecimal('5.00')] as Object[])]
+      assert this.diffToSet(new DKHashJoinDiffEngine(), lRows, rRows, Long.MAX_VALUE).isEmpty()
+   }
+   
+   public void testHashJoinDuplicateKey(){
+      def lRows = [(['aaaa', 'x', 1] as Object[]), (['aaaa', 'y', 1] as Object[])]
+      def rRows = [(['aaaa', 'x', 1] as Object[])]
+      shouldFail(RuntimeException) {
+         this.diffToSet(new DKHashJoinDiffEngine(), lRows, rRows, Long.MAX_VALUE)
+      }
+   }
+   
+   /**
+    * order and rowStep independent rendering of the diffs
+    */
+   private Set diffToSet(DKDiffEngine engine_, List lRows_, List rRows_, long maxDiffs_){
+      DKTableModel tableModel = this.createSimpleTableModel()
+      DKColumnComparison[] map = DKColumnComparison.createColumnPlans( tableModel, tableModel, (int[]) [1], DKEqualsDiffor.instance)
+      DKStandardTableComparison tableComparison = new DKStandardTableComparison(tableModel, tableModel, DKDiff.Kind.BOTH, map, (int[])[0], (int[][])[[1,2],[1,2]], maxDiffs_)
+      DKListSink sink = []
+      engine_.diff(new DKListSource(tableModel, lRows_), new DKListSource(tableModel, rRows_), sink, tableComparison, null)
+      return sink.diffs.collect { diff ->
+         if (diff instanceof DKRowDiff)
+            return "${diff.side}:${diff.row.toList()}".toString()
+         return "${diff.rowKeyValues.toList()}:${diff.columnName}:${diff.lhs}:${diff.rhs}".toString()
+      } as Set
+   }
+   
+   private String diffToString(DKDiffEngine engine_, List lRows_, List rRows_, long maxDiffs_){
+      DKTableModel tableModel = this.createSimpleTableModel()
+      DKColumnComparison[] map = DKColumnComparison.createColumnPlans( tableModel, tableModel, (int[]) [1], DKEqualsDiffor.instance)
+      DKStandardTableComparison tableComparison = new DKStandardTableComparison(tableModel, tableModel, DKDiff.Kind.BOTH, map, (int[])[0], (int[][])[[1,2],[1,2]], maxDiffs_)
+      DKListSource lSource = [tableModel, lRows_]
+      DKListSource rSource = [tableModel, rRows_]
+      StringWriter writer = []
+      DKWriterSink sink = new DKWriterSink(writer, null)
+      DKContext context = engine_.diff(lSource, rSource, sink, tableComparison, null)
+      return "rowStep->${context.rowStep} diffCount->${sink.diffCount}\n${sink.generateRowDiffSummary(context)}${sink.generateColumnDiffSummary(context)}${writer}"
+   }
+   
    private DKContext createSimpleContext() {
       return new DKContext(this.createSimpleSource(), this.createSimpleSource(), new DKListSink(),this.createSimpleComparison(), null)
    }
@@ -490,6 +736,17 @@ public class TestEngine extends GroovyTestCase {
       return comparison
    }
    
+   private DKSource createRowSource(DKSource source_){
+      return [
+         getModel: { source_.model },
+         getKind: { source_.kind },
+         open: { context -> source_.open(context) },
+         close: { context -> source_.close(context) },
+         getNextRow: { source_.nextRow },
+         getLastIndex: { source_.lastIndex }
+      ] as DKSource
+   }
+   
    private DKListSource createSimpleSource(){
       return new DKListSource(this.createSimpleTableModel(), this.createSimpleRows())
    }
@@ -512,4 +769,64 @@ public class TestEngine extends GroovyTestCase {
       
       return new DKTableModel("simple_table_model",columns, key)
    }
+   
+   /**
+    * fingerprints every row the same
+    */
+   private static class CollidingSource extends DKListSource implements DKFingerprintSource {
+      String fingerprintKind = 'colliding'
+      int[] fingerprintColumnIdxs
+      List fingerprintedIdxs
+      
+      public CollidingSource(DKTableModel model_, List<Object[]> rows_) {
+         super(model_, rows_)
+      }
+      
+      public boolean isFingerprintable(int columnIdx_) {
+         return true
+      }
+      
+      public void setFingerprintColumnIdxs(int[] columnIdxs_) {
+         fingerprintColumnIdxs = columnIdxs_
+         if (columnIdxs_ != null)
+            fingerprintedIdxs = columnIdxs_.toList()
+      }
+      
+      public int getNextRows(Object[][] rows_) {
+         int count = super.getNextRows(rows_)
+         if (fingerprintColumnIdxs != null) {
+            for (i in 0..<count)
+               rows_[i] = ((rows_[i] as List) + [1L]) as Object[]
+         }
+         return count
+      }
+   }
+   
+   /**
+    * vends at most 10 rows at a time, and fails once failAfter rows have been
+    * vended
+    */
+   private static class FailingSource extends DKListSource {
+      int failAfter
+      int vended
+      
+      public FailingSource(DKTableModel model_, List<Object[]> rows_, int failAfter_) {
+         super(model_, rows_)
+         failAfter = failAfter_
+      }
+      
+      public int getNextRows(Object[][] rows_) {
+         if (vended >= failAfter)
+            throw new IOException('connection lost')
+         int count = 0
+         while (count < Math.min(rows_.length, 10)) {
+            Object[] row = this.getNextRow()
+            if (row == null)
+               break
+            rows_[count++] = row
+         }
+         vended += count
+         return count
+      }
+   }
 }
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine.tst
+
+import java.sql.Timestamp;
+
+import org.diffkit.diff.engine.DKColumnModel;
+import org.diffkit.diff.engine.DKKeyEncoder;
+import org.diffkit.diff.engine.DKRowComparator;
+import org.diffkit.diff.engine.DKSide;
+import org.diffkit.diff.engine.DKTableModel;
+
+import groovy.util.GroovyTestCase;
+
+
+/**
+ * @author jpanico
+ */
+public class TestKeyEncoder extends GroovyTestCase {
+
+   public void testNotEncodable(){
+      assert !createEncoder([DKColumnModel.Type.STRING, DKColumnModel.Type.DECIMAL])
+      assert !createEncoder([DKColumnModel.Type.MIXED])
+      def encoder = createEncoder([DKColumnModel.Type.INTEGER])
+      assert encoder
+      assert encoder.encode((Object[])[new BigDecimal(1)], DKSide.LEFT_INDEX) == null
+      assert encoder.encode(null, DKSide.LEFT_INDEX) == null
+   }
+
+   public void testCompare(){
+      assert DKKeyEncoder.compare((byte[])[1, 2], (byte[])[1, 2]) == 0
+      assert DKKeyEncoder.compare((byte[])[1], (byte[])[1, 2]) < 0
+      // unsigned
+      assert DKKeyEncoder.compare((byte[])[1], (byte[])[-1]) < 0
+   }
+
+   /**
+    * for every type, the encoded order must be that of DKRowComparator
+    */
+   public void testMatchesRowComparator(){
+      def values = [
+         (DKColumnModel.Type.INTEGER): [null, Long.MIN_VALUE, -5L, -1L, 0L, 1L, 7L, Long.MAX_VALUE],
+         (DKColumnModel.Type.REAL): [null, Double.NEGATIVE_INFINITY, -2.5d, -0.0d, 0.0d, 1.0E-10d, 3.0d, Double.POSITIVE_INFINITY, Double.NaN],
+         (DKColumnModel.Type.STRING): [null, '', 'a', 'a\u0000', 'a\u0000b', 'a\u0001', 'ab', 'b', '￿', 'z😀'],
+         (DKColumnModel.Type.BOOLEAN): [null, false, true],
+         (DKColumnModel.Type.TIMESTAMP): [null, new Timestamp(-1000L), new Timestamp(0L), timestamp(0L, 1), timestamp(0L, 999999), new Timestamp(1L), new Timestamp(1000000000000L)],
+      ]
+      values.each { type, typeValues ->
+         assertSameOrder([type], typeValues.collect { [it] })
+      }
+      // composite: string part followed by integer part
+      def rows = []
+      for (s in values[DKColumnModel.Type.STRING]) {
+         for (i in values[DKColumnModel.Type.INTEGER])
+            rows << [s, i]
+      }
+      assertSameOrder([DKColumnModel.Type.STRING, DKColumnModel.Type.INTEGER], rows)
+   }
+
+   private void assertSameOrder(List types, List rows){
+      def encoder = createEncoder(types)
+      def comparator = createComparator(types)
+      for (lhs in rows) {
+         for (rhs in rows) {
+            byte[] lhsKey = encoder.encode(lhs as Object[], DKSide.LEFT_INDEX)
+            byte[] rhsKey = encoder.encode(rhs as Object[], DKSide.RIGHT_INDEX)
+            assert lhsKey != null
+            assert Math.signum(DKKeyEncoder.compare(lhsKey, rhsKey)) == Math.signum(comparator.compare(lhs as Object[], rhs as Object[])) : "lhs->$lhs rhs->$rhs"
+         }
+      }
+   }
+
+   private Timestamp timestamp(long millis, int nanos){
+      Timestamp timestamp = new Timestamp(millis)
+      timestamp.nanos = nanos
+      return timestamp
+   }
+
+   private DKTableModel createTable(List types){
+      DKColumnModel[] columns = new DKColumnModel[types.size()]
+      types.eachWithIndex { type, i -> columns[i] = new DKColumnModel(i, "column$i", type) }
+      int[] key = (0..<types.size()) as int[]
+      return new DKTableModel('table', columns, key)
+   }
+
+   private DKKeyEncoder createEncoder(List types){
+      DKTableModel table = createTable(types)
+      return DKKeyEncoder.create(table, table)
+   }
+
+   private DKRowComparator createComparator(List types){
+      DKTableModel table = createTable(types)
+      return DKRowComparator.createComparator(table, table)
+   }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.engine.tst
+
+import java.util.Comparator;
+
+import org.diffkit.common.DKComparableComparator;
+import org.diffkit.common.DKComparatorChain;
+import org.diffkit.common.DKElementComparator;
+import org.diffkit.diff.engine.DKColumnModel;
+import org.diffkit.diff.engine.DKRowComparator;
+import org.diffkit.diff.engine.DKTableModel;
+
+import groovy.util.GroovyTestCase;
+
+
+/**
+ * @author jpanico
+ */
+public class TestRowComparator extends GroovyTestCase {
+
+   public void testShapes(){
+      assert createComparator([DKColumnModel.Type.INTEGER]).class.simpleName == 'IntegerKeyComparator'
+      assert createComparator([DKColumnModel.Type.TEXT]).class.simpleName == 'StringKeyComparator'
+      assert createComparator([DKColumnModel.Type.DATE]).class.simpleName == 'ComparableKeyComparator'
+      def comparator = createComparator([DKColumnModel.Type.STRING, DKColumnModel.Type.INTEGER])
+      assert comparator.class.simpleName == 'CompositeKeyComparator'
+      assert comparator.size() == 2
+   }
+
+   public void testNulls(){
+      def comparator = createComparator([DKColumnModel.Type.INTEGER])
+      assert comparator.compare((Object[])[null], (Object[])[null]) == 0
+      assert comparator.compare((Object[])[null], (Object[])[1L]) < 0
+      assert comparator.compare((Object[])[1L], (Object[])[null]) > 0
+      // not the expected class, falls back to compareTo
+      assert comparator.compare((Object[])[new BigDecimal(2)], (Object[])[new BigDecimal(10)]) < 0
+      assert comparator.compare((Object[])[Long.MIN_VALUE], (Object[])[Long.MAX_VALUE]) < 0
+   }
+
+   /**
+    * must order exactly as the ComparatorChain it replaces
+    */
+   public void testMatchesChain(){
+      def types = [DKColumnModel.Type.INTEGER, DKColumnModel.Type.STRING, DKColumnModel.Type.INTEGER, DKColumnModel.Type.DECIMAL]
+      Random random = new Random(17)
+      for (keyLength in [1,2,4]) {
+         def keyTypes = types[0..<keyLength]
+         def comparator = createComparator(keyTypes)
+         def chain = createChain(keyLength)
+         def rows = createRows(keyTypes, 200, random)
+         for (lhs in rows) {
+            for (rhs in rows)
+               assert Math.signum(comparator.compare(lhs, rhs)) == Math.signum(chain.compare(lhs, rhs))
+         }
+      }
+   }
+
+   private DKRowComparator createComparator(List types){
+      DKColumnModel[] columns = new DKColumnModel[types.size()]
+      types.eachWithIndex { type, i -> columns[i] = new DKColumnModel(i, "column$i", type) }
+      int[] key = (0..<types.size()) as int[]
+      DKTableModel table = ['table', columns, key]
+      return DKRowComparator.createComparator(table, table)
+   }
+
+   private Comparator createChain(int keyLength){
+      DKComparatorChain chain = new DKComparatorChain()
+      keyLength.times { chain.addComparator(new DKElementComparator(it, it, DKComparableComparator.instance)) }
+      return chain
+   }
+
+   private Object[][] createRows(List types, int count, Random random){
+      Object[][] rows = new Object[count][]
+      for (i in 0..<count) {
+         Object[] row = new Object[types.size()]
+         types.eachWithIndex { type, j ->
+            if (random.nextInt(20) == 0)
+               row[j] = null
+            else if (type == DKColumnModel.Type.INTEGER)
+               row[j] = (long) random.nextInt(5)
+            else if (type == DKColumnModel.Type.STRING)
+               row[j] = 'key' + random.nextInt(5)
+            else
+               row[j] = new BigDecimal(random.nextInt(5))
+         }
+         rows[i] = row
+      }
+      return rows
+   }
+}
@@ -0,0 +1,226 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.sns.tst
+
+
+
+import org.diffkit.db.DKDBColumn
+import org.diffkit.db.DKDBConnectionInfo
+import org.diffkit.db.DKDatabase
+import org.diffkit.db.DKDBFlavor;
+import org.diffkit.db.DKDBPrimaryKey;
+import org.diffkit.db.DKDBTable
+import org.diffkit.diff.diffor.DKEqualsDiffor
+import org.diffkit.diff.engine.DKColumnComparison
+import org.diffkit.diff.engine.DKDiff
+import org.diffkit.diff.engine.DKStandardTableComparison
+import org.diffkit.diff.engine.DKTableModel;
+import org.diffkit.diff.sns.DKDBChecksumPrePass
+import org.diffkit.diff.sns.DKDBSource
+import org.diffkit.diff.sns.DKListSource
+import org.diffkit.diff.sns.DKTableModelUtil;
+import org.diffkit.util.DKSqlUtil;
+
+import groovy.util.GroovyTestCase;
+
+
+/**
+ * @author jpanico
+ */
+public class TestDBChecksumPrePass extends GroovyTestCase {
+
+   public void testCoalesce(){
+      List<long[]> ranges = [(long[])[20, 29], (long[])[0, 9], (long[])[10, 19], (long[])[100, 109], (long[])[40, 49]]
+      def coalesced = DKDBChecksumPrePass.coalesce(ranges, 10)
+      assert coalesced.collect { it as List } == [[0, 29], [40, 49], [100, 109]]
+      // the smallest gap, 30..39, is merged first
+      coalesced = DKDBChecksumPrePass.coalesce(ranges, 2)
+      assert coalesced.collect { it as List } == [[0, 49], [100, 109]]
+      coalesced = DKDBChecksumPrePass.coalesce(ranges, 1)
+      assert coalesced.collect { it as List } == [[0, 109]]
+      assert DKDBChecksumPrePass.coalesce([], 1).isEmpty()
+      // a gap wider than Long.MAX_VALUE is merged last
+      ranges = [(long[])[-Long.MAX_VALUE, -Long.MAX_VALUE], (long[])[Long.MAX_VALUE - 20, Long.MAX_VALUE - 10], (long[])[Long.MAX_VALUE, Long.MAX_VALUE]]
+      coalesced = DKDBChecksumPrePass.coalesce(ranges, 2)
+      assert coalesced.collect { it as List } == [[-Long.MAX_VALUE, -Long.MAX_VALUE], [Long.MAX_VALUE - 20, Long.MAX_VALUE]]
+   }
+
+   public void testNotApplicable(){
+      DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:test", null, null, 'test', 'test']
+      DKDatabase database = [connectionInfo]
+      def dbTable = this.createMetaTable('LHS_PREPASS')
+      def tableModel = DKTableModelUtil.createDefaultTableModel(database.flavor,dbTable, null)
+      DKListSource listSource = [tableModel, []]
+      DKDBChecksumPrePass prePass = []
+      assert !prePass.apply(listSource, listSource, this.createComparison(tableModel, tableModel))
+      assert prePass.queryCount == 0
+   }
+
+   public void testApply(){
+      DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:test", null, null, 'test', 'test']
+      DKDatabase database = [connectionInfo]
+      def lhsTable = this.createMetaTable('LHS_PREPASS')
+      def rhsTable = this.createMetaTable('RHS_PREPASS')
+      assert database.createTable(lhsTable)
+      assert database.createTable(rhsTable)
+      def connection = database.connection
+      this.insertRows('LHS_PREPASS', 5000, connection)
+      this.insertRows('RHS_PREPASS', 5000, connection)
+      assert DKSqlUtil.executeUpdate("UPDATE RHS_PREPASS SET NAME = 'changed' WHERE ID = 1234", connection)
+      assert DKSqlUtil.executeUpdate('DELETE FROM RHS_PREPASS WHERE ID = 4000', connection)
+
+      def lhsModel = DKTableModelUtil.createDefaultTableModel(database.flavor,lhsTable, null)
+      def rhsModel = DKTableModelUtil.createDefaultTableModel(database.flavor,rhsTable, null)
+      DKDBSource lhsSource = [lhsTable.tableName, null, database, lhsModel, null, null]
+      DKDBSource rhsSource = [rhsTable.tableName, null, database, rhsModel, null, null]
+      DKDBChecksumPrePass prePass = [4, 10]
+      assert prePass.apply(lhsSource, rhsSource, this.createComparison(lhsModel, rhsModel))
+      println "prePass->$prePass"
+      def lhsIds = this.readIds(lhsSource)
+      def rhsIds = this.readIds(rhsSource)
+      assert lhsIds.contains(1234) && lhsIds.contains(4000)
+      assert rhsIds.contains(1234) && !rhsIds.contains(4000)
+      assert lhsIds.size() < 50
+      assert lhsIds.size() == rhsIds.size() + 1
+
+      // identical tables read nothing
+      assert DKSqlUtil.executeUpdate("UPDATE RHS_PREPASS SET NAME = 'name1234' WHERE ID = 1234", connection)
+      assert DKSqlUtil.executeUpdate("INSERT INTO RHS_PREPASS VALUES (4000, 'name4000')", connection)
+      lhsSource = [lhsTable.tableName, null, database, lhsModel, null, null]
+      rhsSource = [rhsTable.tableName, null, database, rhsModel, null, null]
+      assert prePass.apply(lhsSource, rhsSource, this.createComparison(lhsModel, rhsModel))
+      assert this.readIds(lhsSource).isEmpty()
+      assert this.readIds(rhsSource).isEmpty()
+
+      DKSqlUtil.close(connection)
+      assert database.dropTable(lhsTable)
+      assert database.dropTable(rhsTable)
+   }
+
+   /**
+    * differences that a '|' separated, '~' for null, 32 bit hash missed
+    */
+   public void testApplyNulls(){
+      DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:test", null, null, 'test', 'test']
+      DKDatabase database = [connectionInfo]
+      def lhsTable = this.createMetaTable('LHS_PREPASS')
+      def rhsTable = this.createMetaTable('RHS_PREPASS')
+      assert database.createTable(lhsTable)
+      assert database.createTable(rhsTable)
+      def connection = database.connection
+      this.insertRows('LHS_PREPASS', 5000, connection)
+      this.insertRows('RHS_PREPASS', 5000, connection)
+      assert DKSqlUtil.executeUpdate("UPDATE LHS_PREPASS SET NAME = NULL WHERE ID = 1234", connection)
+      assert DKSqlUtil.executeUpdate("UPDATE RHS_PREPASS SET NAME = '~' WHERE ID = 1234", connection)
+      assert DKSqlUtil.executeUpdate("UPDATE LHS_PREPASS SET NAME = NULL WHERE ID = 3000", connection)
+      assert DKSqlUtil.executeUpdate("UPDATE RHS_PREPASS SET NAME = '' WHERE ID = 3000", connection)
+
+      def lhsModel = DKTableModelUtil.createDefaultTableModel(database.flavor,lhsTable, null)
+      def rhsModel = DKTableModelUtil.createDefaultTableModel(database.flavor,rhsTable, null)
+      DKDBSource lhsSource = [lhsTable.tableName, null, database, lhsModel, null, null]
+      DKDBSource rhsSource = [rhsTable.tableName, null, database, rhsModel, null, null]
+      DKDBChecksumPrePass prePass = [4, 10]
+      assert prePass.apply(lhsSource, rhsSource, this.createComparison(lhsModel, rhsModel))
+      def lhsIds = this.readIds(lhsSource)
+      assert lhsIds.contains(1234) && lhsIds.contains(3000)
+      assert lhsIds.size() < 50
+      assert this.readIds(rhsSource) == lhsIds
+
+      DKSqlUtil.close(connection)
+      assert database.dropTable(lhsTable)
+      assert database.dropTable(rhsTable)
+   }
+
+   /**
+    * keys whose span, MAX - MIN, doesn't fit in a long
+    */
+   public void testApplyWideKeys(){
+      DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:test", null, null, 'test', 'test']
+      DKDatabase database = [connectionInfo]
+      def lhsTable = this.createMetaTable('LHS_PREPASS', 'BIGINT')
+      def rhsTable = this.createMetaTable('RHS_PREPASS', 'BIGINT')
+      assert database.createTable(lhsTable)
+      assert database.createTable(rhsTable)
+      def connection = database.connection
+      long step = (Long.MAX_VALUE / 100) * 2
+      def ids = (0..100).collect { -Long.MAX_VALUE + (it * step) } << Long.MAX_VALUE
+      for (tableName in ['LHS_PREPASS', 'RHS_PREPASS']) {
+         def statement = connection.prepareStatement("INSERT INTO $tableName VALUES (?, ?)".toString())
+         for (id in ids) {
+            statement.setLong(1, id)
+            statement.setString(2, "name$id")
+            statement.executeUpdate()
+         }
+         statement.close()
+      }
+      assert DKSqlUtil.executeUpdate("UPDATE RHS_PREPASS SET NAME = 'changed' WHERE ID = ${ids[30]}".toString(), connection)
+      assert DKSqlUtil.executeUpdate("UPDATE RHS_PREPASS SET NAME = 'changed' WHERE ID = ${Long.MAX_VALUE}".toString(), connection)
+
+      def lhsModel = DKTableModelUtil.createDefaultTableModel(database.flavor,lhsTable, null)
+      def rhsModel = DKTableModelUtil.createDefaultTableModel(database.flavor,rhsTable, null)
+      DKDBSource lhsSource = [lhsTable.tableName, null, database, lhsModel, null, null]
+      DKDBSource rhsSource = [rhsTable.tableName, null, database, rhsModel, null, null]
+      DKDBChecksumPrePass prePass = [4, 2]
+      assert prePass.apply(lhsSource, rhsSource, this.createComparison(lhsModel, rhsModel))
+      def lhsIds = this.readIds(lhsSource)
+      assert lhsIds.contains(ids[30]) && lhsIds.contains(Long.MAX_VALUE)
+      assert lhsIds.size() < 10
+      assert this.readIds(rhsSource) == lhsIds
+
+      DKSqlUtil.close(connection)
+      assert database.dropTable(lhsTable)
+      assert database.dropTable(rhsTable)
+   }
+
+   private List readIds(DKDBSource source_){
+      def ids = []
+      source_.open(null)
+      def row
+      while ((row = source_.nextRow) != null)
+         ids << row[0]
+      source_.close(null)
+      return ids
+   }
+
+   private void insertRows(String tableName_, int rowCount_, connection_){
+      def statement = connection_.prepareStatement("INSERT INTO $tableName_ VALUES (?, ?)".toString())
+      for (i in 0..<rowCount_) {
+         statement.setInt(1, i)
+         statement.setString(2, "name$i")
+         statement.executeUpdate()
+      }
+      statement.close()
+   }
+
+   private DKStandardTableComparison createComparison(DKTableModel lhsModel_, DKTableModel rhsModel_){
+      DKColumnComparison[] map = DKColumnComparison.createColumnPlans( lhsModel_, rhsModel_, (int[]) [0,1], DKEqualsDiffor.instance)
+      return new DKStandardTableComparison(lhsModel_, rhsModel_, DKDiff.Kind.BOTH, map, (int[])[1], (int[][])[[0],[0]], (long)100)
+   }
+
+   private DKDBTable createMetaTable(String tableName_){
+      return this.createMetaTable(tableName_, 'INTEGER')
+   }
+
+   private DKDBTable createMetaTable(String tableName_, String idType_){
+      DKDBColumn column1 = ['ID', 1, idType_, -1, false]
+      DKDBColumn column2 = ['NAME', 2, 'VARCHAR', 50, true]
+      DKDBColumn[] columns = [column1, column2]
+      String[] pkColNames = ['ID']
+      DKDBPrimaryKey pk = ["pk_${tableName_}".toString(), pkColNames]
+      DKDBTable table = [ null, null, tableName_, columns, pk]
+      return table
+   }
+}
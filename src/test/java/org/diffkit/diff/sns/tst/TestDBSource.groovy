@@ -150,6 +150,95 @@ public class TestDBSource extends GroovyTestCase {
       assert database.dropTable( dbTable)
    }
    
+   public void testReadProjected(){
+      DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:test", null, null, 'test', 'test']
+      DKDatabase database = [connectionInfo]
+      def dbTable = this.createCustomerMetaTable()
+      assert database.createTable( dbTable)
+      DKDBH2Loader loader = [database]
+      assert loader.load(dbTable, this.getCsvFile())
+      def tableModel = DKTableModelUtil.createDefaultTableModel(database.flavor,dbTable, null)
+      
+      shouldFail(IllegalArgumentException){
+         new DKDBSource(dbTable.tableName, null, database, tableModel, null, (int[])[8])
+      }
+      // key columns are always read; unread columns are null
+      DKDBSource source = new DKDBSource(dbTable.tableName, null, database, tableModel, null, (int[])[5])
+      source.open(null)
+      assert source.readColumnNames == (String[])['FIRST_NAME', 'LAST_NAME', 'AGE']
+      assert source.nextRow == (Object[])['rob','smith', null, null, null, 50, null, null]
+      assert source.nextRow == (Object[])['steve','jobs', null, null, null, 54, null, null]
+      assert !source.nextRow
+      source.close(null)
+      
+      assert database.dropTable( dbTable)
+   }
+   
+   public void testReadFingerprinted(){
+      DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:test", null, null, 'test', 'test']
+      DKDatabase database = [connectionInfo]
+      def dbTable = this.createCustomerMetaTable()
+      assert database.createTable( dbTable)
+      DKDBH2Loader loader = [database]
+      assert loader.load(dbTable, this.getCsvFile())
+      def tableModel = DKTableModelUtil.createDefaultTableModel(database.flavor,dbTable, null)
+      DKDBSource source = new DKDBSource(dbTable.tableName, null, database, tableModel, null, (int[])[5])
+      assert source.fingerprintKind == 'db:H2'
+      source.setFingerprintColumnIdxs((int[])[4, 5])
+      source.open(null)
+      shouldFail(RuntimeException) {
+         source.setFingerprintColumnIdxs(null)
+      }
+      def rob = source.nextRow
+      def steve = source.nextRow
+      assert !source.nextRow
+      source.close(null)
+      // fingerprint rides just past the modelled columns
+      assert rob.length == 9
+      assert rob[8] instanceof Long
+      assert rob[8] != steve[8]
+      assert rob[0..7] == ['rob','smith', null, null, null, 50, null, null]
+      
+      // same values, same fingerprint
+      source.open(null)
+      assert source.nextRow[8] == rob[8]
+      source.close(null)
+      source.setFingerprintColumnIdxs(null)
+      source.open(null)
+      assert source.nextRow.length == 8
+      source.close(null)
+      
+      assert database.dropTable( dbTable)
+   }
+   
+   public void testResumeAfter(){
+      DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:test", null, null, 'test', 'test']
+      DKDatabase database = [connectionInfo]
+      def dbTable = this.createCustomerMetaTable()
+      assert database.createTable( dbTable)
+      DKDBH2Loader loader = [database]
+      assert loader.load(dbTable, this.getCsvFile())
+      def tableModel = DKTableModelUtil.createDefaultTableModel(database.flavor,dbTable, null)
+      DKDBSource source = new DKDBSource(dbTable.tableName, null, database, tableModel, null, null)
+      // keyset on the primary key; (rob, smith) < (steve, jobs)
+      assert source.setResumeAfter((Object[])['rob', 'smith'], 1)
+      source.open(null)
+      assert source.nextRow[0..1] == ['steve', 'jobs']
+      assert !source.nextRow
+      source.close(null)
+      assert source.setResumeAfter((Object[])['rob', 'aaa'], 0)
+      source.open(null)
+      assert source.nextRow[0..1] == ['rob', 'smith']
+      source.close(null)
+      // no keyset for a null key value
+      assert !source.setResumeAfter((Object[])['rob', null], 1)
+      source.open(null)
+      assert source.nextRow[0..1] == ['rob', 'smith']
+      source.close(null)
+      
+      assert database.dropTable( dbTable)
+   }
+   
    private File getCsvFile(){
       def csvFile = DKResourceUtil.findResourceAsFile('org/diffkit/db/tst/customers.csv')
       println "csvFile->$csvFile"
@@ -0,0 +1,179 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.sns.tst
+
+import org.diffkit.common.DKUserException;
+import org.diffkit.db.DKDBConnectionInfo;
+import org.diffkit.db.DKDBFlavor;
+import org.diffkit.db.DKDatabase;
+import org.diffkit.diff.diffor.DKEqualsDiffor;
+import org.diffkit.diff.engine.DKColumnComparison;
+import org.diffkit.diff.engine.DKDiff;
+import org.diffkit.diff.engine.DKDiffEngine;
+import org.diffkit.diff.engine.DKRowComparator;
+import org.diffkit.diff.engine.DKSide;
+import org.diffkit.diff.engine.DKStandardTableComparison;
+import org.diffkit.diff.engine.DKTableModel;
+import org.diffkit.diff.sns.DKDataGenerator;
+import org.diffkit.diff.sns.DKFileSource;
+import org.diffkit.diff.sns.DKListSink;
+import org.diffkit.diff.sns.DKListSource;
+import org.diffkit.util.DKSqlUtil;
+
+import groovy.util.GroovyTestCase;
+
+
+/**
+ * @author jpanico
+ */
+public class TestDataGenerator extends GroovyTestCase {
+
+   /**
+    * the engine must find exactly the diffs the generator injected
+    */
+   public void testDiffRates(){
+      DKTableModel model = DKDataGenerator.createDefaultModel(8, 1)
+      DKDataGenerator generator = [model, 2000, 17]
+      generator.missingRate = 0.05
+      generator.extraRate = 0.05
+      generator.changeRate = 0.1
+      def (lhs, rhs) = generate(generator)
+      assert generator.missingCount > 0
+      assert generator.extraCount > 0
+      assert generator.changeCount > 0
+      assert lhs.size() == generator.lhsRowCount
+      assert rhs.size() == generator.rhsRowCount
+      assert generator.lhsRowCount + generator.extraCount == 2000
+      assert generator.rhsRowCount + generator.missingCount == 2000
+
+      DKListSink sink = []
+      new DKDiffEngine().diff(new DKListSource(model, lhs), new DKListSource(model, rhs), sink, createComparison(model), null)
+      def rowDiffs = sink.diffs.findAll { it.kind == DKDiff.Kind.ROW_DIFF }
+      def columnDiffs = sink.diffs.findAll { it.kind == DKDiff.Kind.COLUMN_DIFF }
+      assert rowDiffs.count { it.side == DKSide.LEFT } == generator.missingCount
+      assert rowDiffs.count { it.side == DKSide.RIGHT } == generator.extraCount
+      assert columnDiffs.size() == generator.changeCount
+   }
+
+   public void testDeterministic(){
+      DKTableModel model = DKDataGenerator.createDefaultModel(10, 2)
+      def rows = (0..1).collect {
+         DKDataGenerator generator = [model, 500, 3]
+         generator.changeRate = 0.2
+         generator.keyDistribution = DKDataGenerator.KeyDistribution.UNIFORM
+         return generate(generator).collect { side -> side.collect { it as List } }
+      }
+      assert rows[0] == rows[1]
+   }
+
+   public void testKeyDistributions(){
+      for (keyLength in [1, 2]) {
+         DKTableModel model = DKDataGenerator.createDefaultModel(3, keyLength)
+         DKRowComparator comparator = DKRowComparator.createComparator(model, model)
+         for (distribution in DKDataGenerator.KeyDistribution.values()) {
+            DKDataGenerator generator = [model, 1000, 5]
+            generator.keyDistribution = distribution
+            def lhs = generate(generator)[0]
+            assert lhs.size() == 1000
+            for (i in 1..<lhs.size())
+               assert comparator.compare(lhs[i - 1], lhs[i]) < 0 : "$distribution $keyLength"
+         }
+      }
+   }
+
+   public void testShuffleWindow(){
+      DKTableModel model = DKDataGenerator.createDefaultModel(3, 1)
+      DKDataGenerator generator = [model, 1000, 5]
+      def sorted = generate(generator)[0]
+      generator.shuffleWindow = 100
+      def shuffled = generate(generator)[0]
+      assert shuffled != sorted
+      assert shuffled.collect { it as List }.sort { it[0] } == sorted.collect { it as List }
+      // rows stay within their window
+      assert shuffled[0..<100].collect { it[0] }.max() < 100
+   }
+
+   public void testBadRates(){
+      DKDataGenerator generator = [DKDataGenerator.createDefaultModel(3, 1), 10, 5]
+      generator.missingRate = 0.5
+      shouldFail { generator.extraRate = 0.6 }
+   }
+
+   public void testCsvTarget(){
+      DKTableModel model = DKDataGenerator.createDefaultModel(8, 1)
+      DKDataGenerator generator = [model, 200, 11]
+      generator.missingRate = 0.1
+      File lhsFile = ['./tstscratch/generatedLhs.csv']
+      File rhsFile = ['./tstscratch/generatedRhs.csv']
+      generator.generate(new DKDataGenerator.CsvTarget(lhsFile, (char)','), new DKDataGenerator.CsvTarget(rhsFile, (char)','))
+      assert lhsFile.readLines()[0] == model.columnNames.join(',')
+      DKFileSource source = [lhsFile.path, null, null, null, ',', true, true]
+      source.open(null)
+      def rows = []
+      def row
+      while ((row = source.nextRow) != null)
+         rows << row
+      source.close(null)
+      assert rows.size() == generator.lhsRowCount
+      assert rhsFile.readLines().size() == generator.rhsRowCount + 1
+   }
+
+   public void testXlsxTargetIntegers(){
+      DKTableModel model = DKDataGenerator.createDefaultModel(2, 1)
+      File file = ['./tstscratch/generatedIntegers.xlsx']
+      DKDataGenerator.XlsxTarget target = [file, 'integers']
+      target.open(model)
+      target.write((Object[])[DKDataGenerator.XlsxTarget.MAX_EXACT_INTEGER, 'exact'])
+      target.write((Object[])[-DKDataGenerator.XlsxTarget.MAX_EXACT_INTEGER, 'exact'])
+      // a double would round it to 2^53
+      shouldFail(DKUserException) {
+         target.write((Object[])[DKDataGenerator.XlsxTarget.MAX_EXACT_INTEGER + 1, 'inexact'])
+      }
+      target.close()
+      assert file.exists()
+   }
+
+   public void testDBTarget(){
+      DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:test", null, null, 'test', 'test']
+      DKDatabase database = [connectionInfo]
+      DKTableModel model = DKDataGenerator.createDefaultModel(8, 2)
+      DKDataGenerator generator = [model, 2500, 11]
+      generator.extraRate = 0.1
+      generator.generate(new DKDataGenerator.DBTarget(database, 'GENERATED_LHS'), new DKDataGenerator.DBTarget(database, 'GENERATED_RHS'))
+      def connection = database.connection
+      def lhsCount = DKSqlUtil.readRows('SELECT COUNT(*) AS ROW_COUNT FROM GENERATED_LHS', connection)[0]['ROW_COUNT']
+      def rhsCount = DKSqlUtil.readRows('SELECT COUNT(*) AS ROW_COUNT FROM GENERATED_RHS', connection)[0]['ROW_COUNT']
+      DKSqlUtil.close(connection)
+      assert lhsCount == generator.lhsRowCount
+      assert rhsCount == generator.rhsRowCount
+      assert database.dropTable(database.getTable('GENERATED_LHS'))
+      assert database.dropTable(database.getTable('GENERATED_RHS'))
+   }
+
+   private List generate(DKDataGenerator generator){
+      DKDataGenerator.ListTarget lhs = []
+      DKDataGenerator.ListTarget rhs = []
+      generator.generate(lhs, rhs)
+      return [lhs.rows, rhs.rows]
+   }
+
+   private DKStandardTableComparison createComparison(DKTableModel model){
+      def columns = model.columns
+      DKColumnComparison[] map = columns.collect { new DKColumnComparison(it, it, DKEqualsDiffor.instance) }
+      int[] diffIndexes = (model.key.length..<columns.length) as int[]
+      return new DKStandardTableComparison(model, model, DKDiff.Kind.BOTH, map, diffIndexes, (int[][])[model.key, model.key], Long.MAX_VALUE)
+   }
+}
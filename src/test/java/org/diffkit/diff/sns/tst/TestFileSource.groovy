@@ -16,6 +16,7 @@
 package org.diffkit.diff.sns.tst
 
 import org.apache.commons.lang.ClassUtils
+import org.diffkit.common.DKUserException
 import org.diffkit.diff.engine.DKColumnModel
 import org.diffkit.diff.engine.DKTableModel
 import org.diffkit.diff.sns.DKFileSource
@@ -83,6 +84,208 @@ public class TestFileSource extends GroovyTestCase {
         source.close(null)
     }
 
+    public void testReadRows() {
+        String sourceFileName = 'lhs1.csv'
+        String sourceFilePath = ClassUtils.getPackageName(this.getClass())
+        sourceFilePath = DKStringUtil.packageNameToResourcePath(sourceFilePath) + sourceFileName
+        def sourceFile = DKResourceUtil.findResourceAsFile(sourceFilePath)
+
+        DKTableModel model = this.createSimpleTableModel()
+        DKFileSource source = new DKFileSource(sourceFile.absolutePath, model, null, null, '\\,', true, true)
+        source.open(null)
+        Object[][] rows = new Object[3][]
+        assert source.getNextRows(rows) == 3
+        assert rows[0] == (Object[]) ['1111', '1111', 1]
+        assert rows[2] == (Object[]) ['4444', '4444', 1]
+        assert source.lastIndex == 2
+        assert source.getNextRow() == (Object[]) ['4444', '4444', 2]
+        assert source.getNextRows(rows) == 3
+        assert rows[0] == (Object[]) ['6666', '6666', null]
+        assert rows[2] == (Object[]) ['7777', '7777,7777', 3]
+        assert source.getNextRows(rows) == 0
+        assert source.lastIndex == 6
+        source.close(null)
+    }
+
+    public void testReadUnsorted() {
+        File unsortedFile = ['./tstscratch/unsortedFileSource.csv']
+        unsortedFile.parentFile.mkdirs()
+        unsortedFile.text = '''column1,column2,column3
+7777,"7777,7777",3
+4444,4444,2
+1111,1111,2
+6666,6666,2
+4444,4444,1
+
+6666,6666,
+1111,1111,1
+'''
+        DKTableModel model = this.createSimpleTableModel()
+        DKFileSource source = new DKFileSource(unsortedFile.path, model, null, null, '\\,', false, true)
+        source.open(null)
+        assert source.getNextRow() == (Object[]) ['1111', '1111', 1]
+        assert source.getNextRow() == (Object[]) ['1111', '1111', 2]
+        assert source.getNextRow() == (Object[]) ['4444', '4444', 1]
+        Object[][] rows = new Object[3][]
+        assert source.getNextRows(rows) == 3
+        assert rows[0] == (Object[]) ['4444', '4444', 2]
+        assert rows[1] == (Object[]) ['6666', '6666', null]
+        assert rows[2] == (Object[]) ['6666', '6666', 2]
+        assert source.getNextRow() == (Object[]) ['7777', '7777,7777', 3]
+        assert !source.getNextRow()
+        assert source.lastIndex == 6
+        source.close(null)
+    }
+
+    public void testReadParallel() {
+        File file = ['./tstscratch/parallelFileSource.csv']
+        file.parentFile.mkdirs()
+        def text = new StringBuilder('\n\ncolumn1,column2,column3\n')
+        for (i in 0..<2000) {
+            def key = String.format('%05d', i)
+            def value = (i % 7 == 0) ? "\"quoted, ${'x' * (i % 50)}\"" : 'v' * (i % 13)
+            def number = (i % 11 == 0) ? '' : "${i % 997}"
+            text << "$key,$value,$number" << ((i % 5 == 0) ? '\r\n' : '\n')
+            if (i % 97 == 0)
+                text << '\n'
+        }
+        file.text = text.toString()
+        DKTableModel model = this.createSimpleTableModel()
+        DKFileSource serial = new DKFileSource(file.path, model, null, null, '\\,', true, true)
+        serial.open(null)
+        def expected = []
+        for (Object[] row = serial.nextRow; row; row = serial.nextRow)
+            expected << row
+        serial.close(null)
+        assert expected.size() == 2000
+
+        for (chunkSize in [1, 7, 100, 4096, 1024 * 1024]) {
+            DKFileSource source = new DKFileSource(file.path, model, null, null, '\\,', true, true, 3)
+            source.@_parseChunkSize = chunkSize
+            source.open(null)
+            def actual = []
+            Object[][] rows = new Object[33][]
+            while (true) {
+                Object[] row = source.nextRow
+                if (!row)
+                    break
+                actual << row
+                int count = source.getNextRows(rows)
+                for (j in 0..<count)
+                    actual << rows[j]
+            }
+            assert source.lastIndex == 1999
+            source.close(null)
+            assert actual.size() == expected.size()
+            for (i in 0..<expected.size())
+                assert actual[i] == expected[i], "chunkSize->$chunkSize row->$i"
+        }
+    }
+
+    /**
+     * a non-ASCII header, and bytes that aren't valid in the charset, read the
+     * same in parallel as serially
+     */
+    public void testReadParallelEncoding() {
+        File file = ['./tstscratch/parallelEncodingFileSource.csv']
+        file.parentFile.mkdirs()
+        def bytes = new ByteArrayOutputStream()
+        bytes << '\n\u00e9column1,column2,column3\n'.getBytes('UTF-8')
+        for (i in 0..<50) {
+            bytes << "${String.format('%05d', i)},v".getBytes('UTF-8')
+            if (i % 7 == 0)
+                bytes.write(0xFF)
+            bytes << ",$i\n".getBytes('UTF-8')
+        }
+        file.bytes = bytes.toByteArray()
+        def readAll = { DKFileSource source ->
+            def rows = []
+            source.open(null)
+            for (Object[] row = source.nextRow; row; row = source.nextRow)
+                rows << row.toList()
+            source.close(null)
+            return rows
+        }
+        DKFileSource serial = new DKFileSource(file.path, null, null, null, '\\,', true, true)
+        DKFileSource parallel = new DKFileSource(file.path, null, null, null, '\\,', true, true, 3)
+        def serialNames = serial.model.columns*.name
+        assert serialNames.size() == 3
+        assert serialNames[0].endsWith('column1') && (serialNames[0] != 'column1')
+        assert parallel.model.columns*.name == serialNames
+        def expected = readAll(serial)
+        assert expected.size() == 50
+        assert readAll(parallel) == expected
+    }
+
+    public void testReadFingerprinted() {
+        File file = ['./tstscratch/fingerprintFileSource.csv']
+        file.parentFile.mkdirs()
+        file.text = '''column1,column2,column3
+4444,abc,2
+1111,"abc",1
+1111,ab,2
+'''
+        DKTableModel model = this.createSimpleTableModel()
+        // plain, sorting, and parallel parsing
+        def sources = [new DKFileSource(file.path, model, null, null, '\\,', true, true),
+            new DKFileSource(file.path, model, null, null, '\\,', false, true),
+            new DKFileSource(file.path, model, null, null, '\\,', true, true, 2)]
+        def expected = null
+        for (source in sources) {
+            assert source.fingerprintKind == 'file'
+            source.setFingerprintColumnIdxs((int[])[1])
+            source.open(null)
+            def rows = []
+            for (Object[] row = source.nextRow; row; row = source.nextRow)
+                rows << row
+            source.close(null)
+            assert rows*.length == [4, 4, 4]
+            def fingerprints = rows.collectEntries { [(it[0] + ':' + it[2]): it[3]] }
+            assert fingerprints['4444:2'] instanceof Long
+            // quoting is not part of the field value
+            assert fingerprints['4444:2'] == fingerprints['1111:1']
+            assert fingerprints['4444:2'] != fingerprints['1111:2']
+            if (expected != null)
+                assert fingerprints == expected
+            expected = fingerprints
+        }
+        DKFileSource source = new DKFileSource(file.path, model, null, null, '\\,', true, true)
+        source.open(null)
+        assert source.nextRow.length == 3
+        source.close(null)
+    }
+
+    public void testResumeAfter() {
+        File file = ['./tstscratch/resumeFileSource.csv']
+        file.parentFile.mkdirs()
+        file.text = '''column1,column2,column3
+4444,4444,2
+1111,1111,1
+
+1111,1111,2
+'''
+        DKTableModel model = this.createSimpleTableModel()
+        // plain, sorting, and parallel parsing
+        def sources = [new DKFileSource(file.path, model, null, null, '\\,', true, true),
+            new DKFileSource(file.path, model, null, null, '\\,', false, true),
+            new DKFileSource(file.path, model, null, null, '\\,', true, true, 2)]
+        def expected = [['1111', '1111', 2], ['4444', '4444', 2], ['1111', '1111', 2]]
+        sources.eachWithIndex { source, i ->
+            assert source.setResumeAfter((Object[])['1111', 1], 2)
+            source.open(null)
+            assert source.lastIndex == 1
+            assert source.nextRow == (Object[]) expected[i]
+            assert source.lastIndex == 2
+            assert !source.nextRow
+            source.close(null)
+        }
+        DKFileSource source = new DKFileSource(file.path, model, null, null, '\\,', true, true)
+        source.setResumeAfter(null, 4)
+        shouldFail(DKUserException) {
+            source.open(null)
+        }
+    }
+
     private DKTableModel createSimpleTableModel() {
         DKColumnModel column1 = [0, 'column1', DKColumnModel.Type.STRING]
         DKColumnModel column2 = [1, 'column2', DKColumnModel.Type.STRING]
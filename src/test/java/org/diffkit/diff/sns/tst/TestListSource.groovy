@@ -46,4 +46,22 @@ public class TestListSource extends GroovyTestCase {
 		assert !source.nextRow
 	}
 	
+	public void testSourceRows(){
+		DKTableModel model = DKTableModel.createGenericStringModel(2, (int[])[0]);
+		def rows = []
+		for (i in 0..<5)
+			rows << (["row$i".toString(), "value$i".toString()] as Object[])
+		
+		DKListSource source = [model, rows]
+		Object[][] buffer = new Object[2][]
+		assert source.getNextRows(buffer) == 2
+		assert buffer[0] == rows[0]
+		assert buffer[1] == rows[1]
+		assert source.getNextRows(buffer) == 2
+		assert buffer[0] == rows[2]
+		assert source.getNextRows(buffer) == 1
+		assert buffer[0] == rows[4]
+		assert source.getNextRows(buffer) == 0
+		assert source.lastIndex == 4
+	}
 }
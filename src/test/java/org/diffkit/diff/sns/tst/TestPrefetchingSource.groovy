@@ -0,0 +1,198 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.sns.tst
+
+
+import org.diffkit.diff.engine.DKBatchSource;
+import org.diffkit.diff.engine.DKFingerprintSource;
+import org.diffkit.diff.engine.DKResumableSource;
+import org.diffkit.diff.engine.DKSource;
+import org.diffkit.diff.engine.DKSourceSink;
+import org.diffkit.diff.engine.DKTableModel;
+import org.diffkit.diff.sns.DKListSource
+import org.diffkit.diff.sns.DKPrefetchingSource
+
+import groovy.util.GroovyTestCase;
+
+
+/**
+ * @author jpanico
+ */
+public class TestPrefetchingSource extends GroovyTestCase {
+
+   public void testSource(){
+      DKTableModel model = DKTableModel.createGenericStringModel(2, (int[])[0]);
+      def rows = []
+      for (i in 0..<103)
+         rows << (["row$i".toString(), "value$i".toString()] as Object[])
+
+      DKListSource listSource = [model, rows]
+      DKPrefetchingSource source = new DKPrefetchingSource(listSource, 2, 10)
+      assert source.model == model
+      assert source.kind == DKSourceSink.Kind.MEMORY
+      assert source.lastIndex == -1
+      source.open(null)
+      for (i in 0..<50) {
+         Object[] row = source.nextRow
+         assert row == rows[i]
+         assert source.lastIndex == i
+      }
+      // batch reads never straddle prefetched batches
+      Object[][] buffer = new Object[7][]
+      assert source.getNextRows(buffer) == 7
+      assert buffer[0] == rows[50]
+      assert buffer[6] == rows[56]
+      assert source.getNextRows(buffer) == 3
+      assert buffer[2] == rows[59]
+      assert source.lastIndex == 59
+      for (i in 60..<103)
+         assert source.nextRow == rows[i]
+      assert !source.nextRow
+      assert !source.nextRow
+      assert source.lastIndex == 102
+      source.close(null)
+      assert source.consumerStallMillis >= 0
+      assert source.producerStallMillis >= 0
+   }
+
+   public void testEmpty(){
+      DKTableModel model = DKTableModel.createGenericStringModel(2, (int[])[0]);
+      DKPrefetchingSource source = new DKPrefetchingSource(new DKListSource(model, []))
+      source.open(null)
+      assert !source.nextRow
+      assert source.lastIndex == -1
+      source.close(null)
+   }
+
+   /**
+    * closing before the source is drained must not hang on a full buffer
+    */
+   public void testEarlyClose(){
+      DKTableModel model = DKTableModel.createGenericStringModel(2, (int[])[0]);
+      def rows = []
+      for (i in 0..<1000)
+         rows << (["row$i".toString(), "value$i".toString()] as Object[])
+      DKPrefetchingSource source = new DKPrefetchingSource(new DKListSource(model, rows), 1, 5)
+      source.open(null)
+      assert source.nextRow == rows[0]
+      source.close(null)
+   }
+
+   /**
+    * a source that only vends rows one at a time
+    */
+   public void testRowSource(){
+      DKTableModel model = DKTableModel.createGenericStringModel(2, (int[])[0]);
+      def rows = (0..<25).collect { (["row$it".toString(), 'value'] as Object[]) }
+      def iterator = rows.iterator()
+      def rowSource = [
+         getModel: { model },
+         getKind: { DKSourceSink.Kind.MEMORY },
+         open: { context -> },
+         close: { context -> },
+         getNextRow: { iterator.hasNext() ? iterator.next() : null }
+      ] as DKSource
+      assert !(rowSource instanceof DKBatchSource)
+      DKPrefetchingSource source = new DKPrefetchingSource(rowSource, 2, 10)
+      source.open(null)
+      def read = []
+      def row
+      while ((row = source.nextRow) != null)
+         read << row
+      source.close(null)
+      assert read == rows
+   }
+
+   public void testDelegation(){
+      DKTableModel model = DKTableModel.createGenericStringModel(2, (int[])[0]);
+      def rows = (0..<5).collect { (["row$it".toString(), 'value'] as Object[]) }
+      DKPrefetchingSource source = new DKPrefetchingSource(new DKListSource(model, rows))
+      assert !source.fingerprintKind
+      assert !source.isFingerprintable(1)
+      assert !source.setResumeAfter((Object[])['row1'], 2)
+      shouldFail(RuntimeException) {
+         source.setFingerprintColumnIdxs((int[])[1])
+      }
+
+      RecordingSource recording = [model, rows]
+      source = new DKPrefetchingSource(recording)
+      assert source.fingerprintKind == 'recording'
+      assert source.isFingerprintable(1)
+      source.setFingerprintColumnIdxs((int[])[1])
+      assert recording.fingerprintColumnIdxs == (int[])[1]
+      assert source.setResumeAfter((Object[])['row1'], 2)
+      assert recording.resumeRowCount == 2
+      source.open(null)
+      shouldFail(RuntimeException) {
+         source.setResumeAfter((Object[])['row1'], 2)
+      }
+      source.close(null)
+   }
+
+   public void testProducerFailure(){
+      DKTableModel model = DKTableModel.createGenericStringModel(2, (int[])[0]);
+      def count = 0
+      def failing = [
+         getModel: { model },
+         getKind: { DKSourceSink.Kind.MEMORY },
+         open: { context -> },
+         close: { context -> },
+         getNextRows: { Object[][] rows ->
+            if (count++ >= 2)
+               throw new IOException('boom')
+            rows[0] = (["row$count".toString(), 'value'] as Object[])
+            return 1
+         }
+      ] as DKBatchSource
+      DKPrefetchingSource source = new DKPrefetchingSource(failing, 2, 2)
+      source.open(null)
+      assert source.nextRow
+      Object[][] rows = new Object[2][]
+      assert source.getNextRows(rows) == 1
+      def message = shouldFail(IOException) { source.nextRow }
+      assert message == 'boom'
+      source.close(null)
+   }
+}
+
+/**
+ * records what is delegated to it
+ */
+class RecordingSource extends DKListSource implements DKFingerprintSource, DKResumableSource {
+   int[] fingerprintColumnIdxs
+   long resumeRowCount = -1
+
+   RecordingSource(DKTableModel model_, List<Object[]> rows_){
+      super(model_, rows_)
+   }
+
+   public String getFingerprintKind() {
+      return 'recording'
+   }
+
+   public boolean isFingerprintable(int columnIdx_) {
+      return true
+   }
+
+   public void setFingerprintColumnIdxs(int[] columnIdxs_) {
+      fingerprintColumnIdxs = columnIdxs_
+   }
+
+   public boolean setResumeAfter(Object[] keyValues_, long rowCount_) {
+      resumeRowCount = rowCount_
+      return true
+   }
+}
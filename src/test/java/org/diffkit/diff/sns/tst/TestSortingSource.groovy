@@ -0,0 +1,134 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.diff.sns.tst
+
+
+import org.diffkit.diff.engine.DKColumnModel;
+import org.diffkit.diff.engine.DKSourceSink;
+import org.diffkit.diff.engine.DKTableModel;
+import org.diffkit.diff.sns.DKListSource
+import org.diffkit.diff.sns.DKSortingSource
+
+import groovy.util.GroovyTestCase;
+
+
+/**
+ * @author jpanico
+ */
+public class TestSortingSource extends GroovyTestCase {
+
+   public void testInMemory(){
+      DKTableModel model = this.createCompoundKeyModel()
+      def rows = this.createRows(200)
+      DKSortingSource source = new DKSortingSource(new DKListSource(model, this.shuffle(rows)))
+      assert source.kind == DKSourceSink.Kind.MEMORY
+      assert source.model == model
+      source.open(null)
+      this.assertSorted(source, rows)
+      source.close(null)
+   }
+
+   public void testSpilledRuns(){
+      DKTableModel model = this.createCompoundKeyModel()
+      def rows = this.createRows(5000)
+      File spillDir = ['./tstscratch/sortingSource']
+      spillDir.mkdirs()
+      spillDir.listFiles()*.delete()
+      // a tiny budget forces many small runs, sorted on 3 threads
+      DKSortingSource source = new DKSortingSource(new DKListSource(model, this.shuffle(rows)), 100000L, 3, spillDir)
+      source.open(null)
+      assert spillDir.list().length > 10
+      this.assertSorted(source, rows)
+      source.close(null)
+      assert spillDir.list().length == 0
+   }
+
+   /**
+    * rows with equal keys come out in their source order
+    */
+   public void testStable(){
+      DKTableModel model = DKTableModel.createGenericStringModel(2, (int[])[0])
+      def rows = []
+      for (i in 0..<3000)
+         rows << ([String.format('%03d', (i * 7) % 100), "value$i".toString()] as Object[])
+      DKSortingSource source = new DKSortingSource(new DKListSource(model, rows), 20000L, 2, null)
+      source.open(null)
+      Object[] previous = null
+      def count = 0
+      Object[] row = null
+      while ((row = source.nextRow) != null) {
+         count++
+         if (previous && (previous[0] == row[0]))
+            assert (previous[1].substring(5) as int) < (row[1].substring(5) as int)
+         else if (previous)
+            assert previous[0] < row[0]
+         previous = row
+      }
+      assert count == 3000
+      assert source.lastIndex == 2999
+      source.close(null)
+   }
+
+   public void testEmpty(){
+      DKTableModel model = this.createCompoundKeyModel()
+      DKSortingSource source = new DKSortingSource(new DKListSource(model, []))
+      source.open(null)
+      assert !source.nextRow
+      assert source.lastIndex == -1
+      source.close(null)
+   }
+
+   private void assertSorted(DKSortingSource source_, List sortedRows_){
+      Object[][] buffer = new Object[7][]
+      def index = 0
+      while (index < sortedRows_.size()) {
+         if (index % 2) {
+            assert source_.nextRow == sortedRows_[index++]
+            continue
+         }
+         int count = source_.getNextRows(buffer)
+         assert count > 0
+         for (i in 0..<count)
+            assert buffer[i] == sortedRows_[index++]
+      }
+      assert !source_.nextRow
+      assert source_.lastIndex == sortedRows_.size() - 1
+   }
+
+   /**
+    * already in key order
+    */
+   private List createRows(int count_){
+      def rows = []
+      for (i in 0..<count_)
+         rows << ([String.format('%05d', (int)(i / 3)), "value$i".toString(), i % 3] as Object[])
+      return rows
+   }
+
+   private List shuffle(List rows_){
+      def shuffled = new ArrayList(rows_)
+      Collections.shuffle(shuffled, new Random(11))
+      return shuffled
+   }
+
+   private DKTableModel createCompoundKeyModel(){
+      DKColumnModel column1 = [0, 'column1', DKColumnModel.Type.STRING]
+      DKColumnModel column2 = [1, 'column2', DKColumnModel.Type.STRING]
+      DKColumnModel column3 = [2, 'column3', DKColumnModel.Type.INTEGER]
+      DKColumnModel[] columns = [column1, column2, column3]
+      return new DKTableModel("compound_key_model", columns, (int[])[0, 2])
+   }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.util.tst
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import org.diffkit.util.DKAsyncWriter;
+
+import groovy.util.GroovyTestCase;
+
+
+/**
+ * @author jpanico
+ */
+public class TestAsyncWriter extends GroovyTestCase {
+
+   public void testWrite() {
+      StringWriter target = new StringWriter()
+      StringBuilder expected = new StringBuilder()
+      // small buffers, so that writes span and fill them
+      DKAsyncWriter writer = [target, 7, 2]
+      for (i in 0..<1000) {
+         String line = "diff$i"
+         writer.write(line)
+         writer.write('\n' as char)
+         expected.append(line).append('\n')
+         if (i % 100 == 0)
+            writer.flush()
+      }
+      char[] chars = 'a long string that is longer than any one buffer'.toCharArray()
+      writer.write(chars, 2, chars.length - 2)
+      expected.append(chars, 2, chars.length - 2)
+      writer.close()
+      assert target.toString() == expected.toString()
+      shouldFail(IOException) {
+         writer.write('x')
+      }
+      // a second close is a no-op
+      writer.close()
+   }
+
+   public void testBackpressure() {
+      Writer target = new SlowWriter()
+      DKAsyncWriter writer = [target, 16, 2]
+      200.times { writer.write('0123456789abcdef') }
+      writer.close()
+      assert target.count == 200 * 16
+      assert writer.stallTime > 0
+      assert writer.maxQueueDepth >= 1
+      assert writer.queueDepth == 0
+   }
+
+   public void testSync() {
+      Writer target = new SlowWriter()
+      DKAsyncWriter writer = [target, 16, 2]
+      for (i in 1..5) {
+         20.times { writer.write('0123456789abcdef') }
+         writer.write('x')
+         writer.sync()
+         assert target.count == i * (20 * 16 + 1)
+      }
+      writer.close()
+   }
+
+   public void testErrorPropagation() {
+      DKAsyncWriter writer = [new FailingWriter(), 4, 2]
+      def error = shouldFail(IOException) {
+         100.times {
+            writer.write('abcd')
+            Thread.sleep(1)
+         }
+      }
+      assert error == 'disk full'
+      shouldFail(IOException) {
+         writer.close()
+      }
+   }
+
+   private static class SlowWriter extends Writer {
+      int count
+
+      public void write(char[] chars_, int offset_, int length_) {
+         Thread.sleep(1)
+         count += length_
+      }
+
+      public void flush() {
+      }
+
+      public void close() {
+      }
+   }
+
+   private static class FailingWriter extends Writer {
+      public void write(char[] chars_, int offset_, int length_) {
+         throw new IOException('disk full')
+      }
+
+      public void flush() {
+      }
+
+      public void close() {
+      }
+   }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.util.tst
+
+
+import org.diffkit.util.DKCsvTokenizer;
+
+import groovy.util.GroovyTestCase;
+
+
+/**
+ * @author jpanico
+ */
+public class TestCsvTokenizer extends GroovyTestCase {
+   
+   public void testTokenize(){
+      assert DKCsvTokenizer.tokenize('a,b,c', (char)',') == (String[])['a','b','c']
+      assert DKCsvTokenizer.tokenize('a,,c,', (char)',') == (String[])['a','','c','']
+      assert DKCsvTokenizer.tokenize('  a,b ,c  ', (char)',') == (String[])['a','b ','c']
+      assert DKCsvTokenizer.tokenize(',a', (char)',') == (String[])['','a']
+      assert DKCsvTokenizer.tokenize('a|b', (char)'|') == (String[])['a','b']
+      assert DKCsvTokenizer.tokenize('a\tb\t', (char)'\t') == (String[])['a','b','']
+      assert DKCsvTokenizer.tokenize('', (char)',') == null
+      assert DKCsvTokenizer.tokenize(null, (char)',') == null
+   }
+   
+   public void testQuoted(){
+      assert DKCsvTokenizer.tokenize('7777,"7777,7777",3', (char)',') == (String[])['7777','7777,7777','3']
+      assert DKCsvTokenizer.tokenize('"a ""quoted"" word",b', (char)',') == (String[])['a "quoted" word','b']
+      assert DKCsvTokenizer.tokenize('"",""', (char)',') == (String[])['','']
+      // trimming stops at the closing quote
+      assert DKCsvTokenizer.tokenize('a,"b  "  ', (char)',') == (String[])['a','b  ']
+      // a quote that does not open the field is literal
+      assert DKCsvTokenizer.tokenize('a"b,c', (char)',') == (String[])['a"b','c']
+      // unterminated quote runs to the end of input
+      assert DKCsvTokenizer.tokenize('a,"b,c', (char)',') == (String[])['a','b,c']
+   }
+   
+   public void testRecords(){
+      def text = 'h1,h2\r\n\r\n  \n1,"line one\nline two"\r\n2,x\r3,y\n\n'
+      DKCsvTokenizer tokenizer = new DKCsvTokenizer(new StringReader(text), (char)',')
+      assert tokenizer.nextRecord() == (String[])['h1','h2']
+      assert tokenizer.nextRecord() == (String[])['1','line one\nline two']
+      assert tokenizer.nextRecord() == (String[])['2','x']
+      assert tokenizer.nextRecord() == (String[])['3','y']
+      assert tokenizer.nextRecord() == null
+      assert tokenizer.nextRecord() == null
+      assert tokenizer.lineNumber == 8
+   }
+   
+   public void testToDelimiterChar(){
+      assert DKCsvTokenizer.toDelimiterChar(',') == (char)','
+      assert DKCsvTokenizer.toDelimiterChar('\\,') == (char)','
+      assert DKCsvTokenizer.toDelimiterChar('\\|') == (char)'|'
+      assert DKCsvTokenizer.toDelimiterChar('\t') == (char)'\t'
+      assert DKCsvTokenizer.toDelimiterChar('\\t') == (char)'\t'
+      assert DKCsvTokenizer.toDelimiterChar('\\s') == null
+      assert DKCsvTokenizer.toDelimiterChar(',\\s*') == null
+      assert DKCsvTokenizer.toDelimiterChar(null) == null
+   }
+   
+   /**
+    * the same fields as the lookahead regex split it replaced, on 30 column
+    * lines with a few quoted fields
+    */
+   public void testMatchesRegexSplit(){
+      def regex = ",(?=([^\"]*\"[^\"]*\")*[^\"]*\$)"
+      for (i in 0..100) {
+         def fields = []
+         for (j in 0..<30)
+            fields << ((j % 7 == 0) ? "\"field $i,$j\"" : "field$i.$j")
+         def line = fields.join(',')
+         def split = line.split(regex, -1).collect { (it.startsWith('"') && it.endsWith('"')) ? it[1..-2] : it }
+         assert DKCsvTokenizer.tokenize(line, (char)',') == (split as String[])
+      }
+   }
+}
@@ -49,7 +49,20 @@ public class TestFileUtil extends GroovyTestCase {
       
       assert prependedText == prependString + sourceText
    }
-   
+
+   public void testConcatenate() {
+      File bodyFile = ['./tstscratch/concatenateBody.tst']
+      File targetFile = ['./tstscratch/concatenateTarget.tst']
+      // large enough that transferTo may need more than one call
+      def body = ('0123456789' * 100000) + '\n'
+      FileUtils.writeStringToFile(bodyFile, body)
+      DKFileUtil.concatenate('header\n---\n', bodyFile, targetFile)
+      assert FileUtils.readFileToString(targetFile) == 'header\n---\n' + body
+      FileUtils.writeStringToFile(bodyFile, '')
+      DKFileUtil.concatenate('empty body\n', bodyFile, targetFile)
+      assert FileUtils.readFileToString(targetFile) == 'empty body\n'
+   }
+
    public void testCopyWithSubstitution() {
       File sourceFile = DKResourceUtil.findResourceAsFile("org/diffkit/util/tst/copyWithSubstitution_target.txt")
       assert sourceFile
@@ -0,0 +1,66 @@
+/**
+ * Copyright 2010-2011 Joseph Panico
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.diffkit.util.tst
+
+
+import java.sql.Time 
+import java.sql.Timestamp 
+
+import org.diffkit.util.DKRowIOUtil;
+
+import groovy.util.GroovyTestCase;
+
+
+/**
+ * @author jpanico
+ */
+public class TestRowIOUtil extends GroovyTestCase {
+   
+   public void testRoundTrip(){
+      Timestamp timestamp = new Timestamp(1288000000123L)
+      timestamp.nanos = 123456789
+      Object[] row = [null, 'a string', '', 'unicode é中', 
+         Integer.valueOf(-7), Long.valueOf(Long.MAX_VALUE), Short.valueOf((short)3), 
+         Byte.valueOf((byte)-1), 3.25d, 1.5f, new BigDecimal('-12345678901234567890.00100'), 
+         new BigInteger('123456789012345678901234567890'), Boolean.TRUE, timestamp, 
+         new java.sql.Date(1288000000000L), new Time(3600000L), new Date(1288000000456L), 
+         [1, 2] as ArrayList]
+      def bytes = new ByteArrayOutputStream()
+      def output = new DataOutputStream(bytes)
+      DKRowIOUtil.writeRow(row, output)
+      DKRowIOUtil.writeRow(new Object[0], output)
+      output.close()
+      
+      def input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))
+      Object[] read = DKRowIOUtil.readRow(input)
+      assert read.length == row.length
+      for (i in 0..<row.length) {
+         assert read[i] == row[i]
+         if (row[i] != null)
+            assert read[i].getClass() == row[i].getClass()
+      }
+      assert read[13].nanos == 123456789
+      assert read[10].scale() == 5
+      assert DKRowIOUtil.readRow(input).length == 0
+   }
+   
+   public void testUnencodable(){
+      Object[] row = [new Object()]
+      shouldFail(IOException) {
+         DKRowIOUtil.writeRow(row, new DataOutputStream(new ByteArrayOutputStream()))
+      }
+   }
+}
@@ -25,6 +25,7 @@ import org.diffkit.db.DKDBFlavor;
 import org.diffkit.db.DKDBPrimaryKey 
 import org.diffkit.db.DKDBTable;
 import org.diffkit.util.DKSqlUtil;
+import org.diffkit.util.DKSqlUtil.ReadType;
 
 import groovy.util.GroovyTestCase;
 
@@ -33,6 +34,8 @@ import groovy.util.GroovyTestCase;
  * @author jpanico
  */
 public class TestSqlUtil extends GroovyTestCase {
+   private static final String[] READ_COLUMN_NAMES = ['ID', 'QUANTITY', 'RATIO', 'PRICE', 'NAME', 'UPDATED']
+   private static final ReadType[] READ_TYPES = [ReadType.LONG, ReadType.INTEGER, ReadType.DOUBLE, ReadType.DECIMAL, ReadType.STRING, ReadType.TIMESTAMP]
    
    public void testBatchUpdate() {
       DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:test;DB_CLOSE_DELAY=-1", null, null, 'test', 'test']
@@ -113,6 +116,57 @@ public class TestSqlUtil extends GroovyTestCase {
       assert DKSqlUtil.executeUpdate('DROP TABLE customer', connection)
    }
    
+   public void testRowReader(){
+      DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:test", null, null, 'test', 'test']
+      DKDatabase database = [connectionInfo]
+      def connection = database.connection
+      this.createReadTable(connection, 3)
+      DKSqlUtil.executeUpdate('INSERT INTO read_table VALUES (3, NULL, NULL, NULL, NULL, NULL)', connection)
+
+      def resultSet = DKSqlUtil.executeQuery('SELECT * FROM read_table ORDER BY id', connection)
+      def objectResultSet = DKSqlUtil.executeQuery('SELECT * FROM read_table ORDER BY id', connection)
+      // rowIndexes scatter the columns into a wider row
+      DKSqlUtil.RowReader reader = [resultSet, READ_COLUMN_NAMES, READ_TYPES, (int[])[6, 5, 4, 3, 2, 1], 7]
+      int count = 0
+      while (resultSet.next()) {
+         assert objectResultSet.next()
+         def row = reader.readRow()
+         assert row[0] == null
+         for (i in 0..<READ_COLUMN_NAMES.length) {
+            def expected = objectResultSet.getObject(READ_COLUMN_NAMES[i])
+            assert row[6 - i] == expected
+            if (expected != null)
+               assert row[6 - i].getClass() == expected.getClass()
+         }
+         count++
+      }
+      assert count == 4
+      DKSqlUtil.close(resultSet)
+      DKSqlUtil.close(objectResultSet)
+      assert DKSqlUtil.executeUpdate('DROP TABLE read_table', connection)
+   }
+
+   private void createReadTable(connection_, int rowCount_){
+      assert DKSqlUtil.executeUpdate("""CREATE TABLE read_table
+         (  id         bigint,
+            quantity   integer,
+            ratio      double,
+            price      decimal(12,2),
+            name       varchar(50),
+            updated    timestamp)""", connection_)
+      def statement = connection_.prepareStatement('INSERT INTO read_table VALUES (?, ?, ?, ?, ?, ?)')
+      for (i in 0..<rowCount_) {
+         statement.setLong(1, i)
+         statement.setInt(2, i * 3)
+         statement.setDouble(3, i / 7.0d)
+         statement.setBigDecimal(4, new BigDecimal("${i}.25"))
+         statement.setString(5, "name$i")
+         statement.setTimestamp(6, new java.sql.Timestamp(1300000000000L + i))
+         statement.executeUpdate()
+      }
+      statement.close()
+   }
+
    public void testReadRowsFromSelect(){
       DKDBConnectionInfo connectionInfo = ['test', DKDBFlavor.H2,"mem:test", null, null, 'test', 'test']
       println "connectionInfo->$connectionInfo"